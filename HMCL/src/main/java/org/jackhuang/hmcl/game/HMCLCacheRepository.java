@@ -19,16 +19,31 @@ package org.jackhuang.hmcl.game;
 
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
+import org.jackhuang.hmcl.download.CacheCollector;
 import org.jackhuang.hmcl.download.DefaultCacheRepository;
+import org.jackhuang.hmcl.util.DigestCache;
+import org.jackhuang.hmcl.util.Lang;
+import org.jackhuang.hmcl.util.io.NetworkUtils;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+import static org.jackhuang.hmcl.util.Logging.LOG;
 
 public class HMCLCacheRepository extends DefaultCacheRepository {
 
     private final StringProperty directory = new SimpleStringProperty();
 
     public HMCLCacheRepository() {
-        directory.addListener((a, b, t) -> changeDirectory(Paths.get(t)));
+        directory.addListener((a, b, t) -> {
+            changeDirectory(Paths.get(t));
+            NetworkUtils.getMirrorScores().setFile(getCacheDirectory().resolve("mirrors.json"));
+            DigestCache.getInstance().setFile(getCacheDirectory().resolve("digests.log"));
+        });
     }
 
     public String getDirectory() {
@@ -43,5 +58,27 @@ public class HMCLCacheRepository extends DefaultCacheRepository {
         this.directory.set(directory);
     }
 
+    /**
+     * Evict least recently used files beyond the quota in background, some time after the launcher starts.
+     *
+     * @param gameDirectories supplies the game directories whose versions reference cached files, when collection starts
+     * @param quota the maximum bytes of the cache, negative if not limited, in which case the cache is only measured.
+     */
+    public void collectGarbage(Supplier<Collection<Path>> gameDirectories, long quota) {
+        Thread thread = Lang.thread(() -> {
+            try {
+                Thread.sleep(COLLECTION_DELAY);
+                CacheCollector.Report report = new CacheCollector(this, gameDirectories.get()).setQuota(quota).collect();
+                LOG.info("Collected cache " + getCacheDirectory() + ": " + report);
+            } catch (InterruptedException ignored) {
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Unable to collect cache " + getCacheDirectory(), e);
+            }
+        }, "Cache Collector", true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+    }
+
+    private static final long COLLECTION_DELAY = 60 * 1000;
+
     public static final HMCLCacheRepository REPOSITORY = new HMCLCacheRepository();
 }
@@ -443,7 +443,7 @@ public final class LauncherHelper {
 
         private final HMCLGameRepository repository;
         private final String version;
-        private final Map<String, String> forbiddenTokens;
+        private final StringReplacer forbiddenTokens;
         private ManagedProcess process;
         private boolean lwjgl;
         private LogWindow logWindow;
@@ -457,13 +457,13 @@ public final class LauncherHelper {
             this.detectWindow = detectWindow;
 
             if (authInfo == null)
-                forbiddenTokens = Collections.emptyMap();
+                forbiddenTokens = new StringReplacer(Collections.emptyMap());
             else
-                forbiddenTokens = mapOf(
+                forbiddenTokens = new StringReplacer(mapOf(
                         pair(authInfo.getAccessToken(), "<access token>"),
                         pair(UUIDTypeAdapter.fromUUID(authInfo.getUUID()), "<uuid>"),
                         pair(authInfo.getUsername(), "<player>")
-                );
+                ));
 
             logs = new LinkedList<>();
         }
@@ -472,9 +472,7 @@ public final class LauncherHelper {
         public void setProcess(ManagedProcess process) {
             this.process = process;
 
-            String command = new CommandBuilder().addAll(process.getCommands()).toString();
-            for (Map.Entry<String, String> entry : forbiddenTokens.entrySet())
-                command = command.replace(entry.getKey(), entry.getValue());
+            String command = forbiddenTokens.replace(new CommandBuilder().addAll(process.getCommands()).toString());
 
             LOG.info("Launched process: " + command);
 
@@ -520,36 +518,40 @@ public final class LauncherHelper {
         }
 
         @Override
-        public synchronized void onLog(String log, Log4jLevel level) {
-            String newLog = log;
-            for (Map.Entry<String, String> entry : forbiddenTokens.entrySet())
-                newLog = newLog.replace(entry.getKey(), entry.getValue());
+        public void onLog(String log, Log4jLevel level) {
+            // Called by the pumps of both stdout and stderr, which must not wait for each other more than needed.
+            String newLog = forbiddenTokens.replace(log);
 
             if (level.lessOrEqual(Log4jLevel.ERROR))
-                System.err.print(log);
+                System.err.print(newLog);
             else
-                System.out.print(log);
+                System.out.print(newLog);
 
-            logs.add(pair(log, level));
-            if (logs.size() > config().getLogLines())
-                logs.removeFirst();
+            boolean launched;
+            synchronized (this) {
+                logs.add(pair(newLog, level));
+                if (logs.size() > config().getLogLines())
+                    logs.removeFirst();
+
+                launched = !lwjgl && (!detectWindow || newLog.toLowerCase().contains("lwjgl version"));
+                if (launched)
+                    lwjgl = true;
+            }
 
             if (showLogs) {
                 try {
                     latch.await();
-                    logWindow.waitForLoaded();
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                     return;
                 }
 
-                Platform.runLater(() -> logWindow.logLine(log, level));
+                // Batched by the log window, so no need to post a runnable per line.
+                logWindow.logLine(newLog, level);
             }
 
-            if (!lwjgl && (log.toLowerCase().contains("lwjgl version") || !detectWindow)) {
-                lwjgl = true;
+            if (launched)
                 finishLaunch();
-            }
         }
 
         @Override
@@ -580,11 +582,11 @@ public final class LauncherHelper {
                     }
 
                     logWindow.show();
-                    logWindow.onDone.register(() -> {
-                        logWindow.logLine("Command: " + new CommandBuilder().addAll(process.getCommands()).toString(), Log4jLevel.INFO);
+                    logWindow.logLine("Command: " + new CommandBuilder().addAll(process.getCommands()).toString(), Log4jLevel.INFO);
+                    synchronized (this) {
                         for (Map.Entry<String, Log4jLevel> entry : logs)
                             logWindow.logLine(entry.getKey(), entry.getValue());
-                    });
+                    }
                 });
 
             checkExit();
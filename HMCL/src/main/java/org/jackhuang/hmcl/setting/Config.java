@@ -137,6 +137,13 @@ public final class Config implements Cloneable, Observable {
     @SerializedName("authlibInjectorServers")
     private ObservableList<AuthlibInjectorServer> authlibInjectorServers = FXCollections.observableArrayList(server -> new Observable[] { server });
 
+    /**
+     * The maximum size of the cache directory in MiB, least recently used files not
+     * referenced by any installed version are evicted beyond it. 0 means unlimited.
+     */
+    @SerializedName("cacheQuota")
+    private IntegerProperty cacheQuota = new SimpleIntegerProperty(0);
+
     @SerializedName("updateChannel")
     private ObjectProperty<UpdateChannel> updateChannel = new SimpleObjectProperty<>(UpdateChannel.STABLE);
 
@@ -409,6 +416,18 @@ public final class Config implements Cloneable, Observable {
         return logLines;
     }
 
+    public int getCacheQuota() {
+        return cacheQuota.get();
+    }
+
+    public void setCacheQuota(int cacheQuota) {
+        this.cacheQuota.set(cacheQuota);
+    }
+
+    public IntegerProperty cacheQuotaProperty() {
+        return cacheQuota;
+    }
+
     public ObservableList<AuthlibInjectorServer> getAuthlibInjectorServers() {
         return authlibInjectorServers;
     }
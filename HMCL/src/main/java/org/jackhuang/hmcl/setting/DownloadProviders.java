@@ -26,6 +26,7 @@ import org.jackhuang.hmcl.download.MojangDownloadProvider;
 import org.jackhuang.hmcl.download.TSSMirrorDownloadProvider;
 import org.jackhuang.hmcl.task.Schedulers;
 import org.jackhuang.hmcl.ui.FXUtils;
+import org.jackhuang.hmcl.util.io.NetworkUtils;
 
 import java.util.List;
 import java.util.Map;
@@ -56,6 +57,9 @@ public final class DownloadProviders {
                 () -> Optional.ofNullable(providersById.get(config().getDownloadType()))
                         .orElse(providersById.get(DEFAULT_PROVIDER_ID)),
                 config().downloadTypeProperty());
+
+        FXUtils.onChangeAndOperate(downloadProviderProperty,
+                provider -> NetworkUtils.getHostLimiter().setInitialLimit(provider.getConcurrency()));
     }
 
     /**
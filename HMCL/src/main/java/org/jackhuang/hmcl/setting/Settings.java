@@ -20,9 +20,13 @@ package org.jackhuang.hmcl.setting;
 import javafx.beans.binding.Bindings;
 import org.jackhuang.hmcl.Metadata;
 import org.jackhuang.hmcl.game.HMCLCacheRepository;
+import org.jackhuang.hmcl.task.Schedulers;
 import org.jackhuang.hmcl.util.CacheRepository;
 import org.jackhuang.hmcl.util.io.FileUtils;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
 import static org.jackhuang.hmcl.setting.ConfigHolder.config;
 
 public class Settings {
@@ -58,6 +62,13 @@ public class Settings {
                 return getDefaultCommonDirectory();
             }
         }, config().commonDirectoryProperty(), config().commonDirTypeProperty()));
+
+        int cacheQuota = config().getCacheQuota();
+        if (cacheQuota > 0)
+            // Profiles are owned by the JavaFX thread and may change before the collection starts.
+            HMCLCacheRepository.REPOSITORY.collectGarbage(() -> CompletableFuture.supplyAsync(() ->
+                            Profiles.getProfiles().stream().map(profile -> profile.getGameDir().toPath()).collect(Collectors.toList()),
+                    Schedulers.javafx()).join(), cacheQuota * 1024L * 1024L);
     }
 
     public static String getDefaultCommonDirectory() {
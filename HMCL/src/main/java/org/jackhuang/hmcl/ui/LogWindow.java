@@ -17,39 +17,48 @@
  */
 package org.jackhuang.hmcl.ui;
 
-import com.jfoenix.controls.JFXCheckBox;
+import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
 import javafx.beans.property.ReadOnlyIntegerProperty;
 import javafx.beans.property.ReadOnlyIntegerWrapper;
-import javafx.concurrent.Worker;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.scene.Scene;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.ComboBox;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.SelectionMode;
+import javafx.scene.control.TextField;
 import javafx.scene.control.ToggleButton;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
+import javafx.scene.input.KeyCombination;
+import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.StackPane;
-import javafx.scene.web.WebEngine;
-import javafx.scene.web.WebView;
 import javafx.stage.Stage;
-import org.jackhuang.hmcl.event.Event;
-import org.jackhuang.hmcl.event.EventManager;
 import org.jackhuang.hmcl.game.LauncherHelper;
-import org.jackhuang.hmcl.util.Lang;
 import org.jackhuang.hmcl.util.Log4jLevel;
-import org.jackhuang.hmcl.util.ResourceNotFoundError;
 import org.jackhuang.hmcl.util.StringUtils;
-import org.jackhuang.hmcl.util.io.IOUtils;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
 
-import java.util.concurrent.CountDownLatch;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.jackhuang.hmcl.setting.ConfigHolder.config;
 import static org.jackhuang.hmcl.ui.FXUtils.newImage;
 import static org.jackhuang.hmcl.util.i18n.I18n.i18n;
 
 /**
+ * Shows the output of the game.
+ *
+ * The newest {@code config().getLogLines()} lines are kept in a ring buffer and shown by a virtualized
+ * list, so only the visible rows have nodes. Lines may be logged from any thread, they are handed to
+ * the JavaFX application thread in batches rather than one by one.
  *
  * @author huangyuhui
  */
@@ -61,8 +70,8 @@ public final class LogWindow extends Stage {
     private final ReadOnlyIntegerWrapper info = new ReadOnlyIntegerWrapper(0);
     private final ReadOnlyIntegerWrapper debug = new ReadOnlyIntegerWrapper(0);
     private final LogWindowImpl impl = new LogWindowImpl();
-    private final CountDownLatch latch = new CountDownLatch(1);
-    public final EventManager<Event> onDone = new EventManager<>();
+    private final Queue<Log> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
 
     public LogWindow() {
         setScene(new Scene(impl, 800, 480));
@@ -74,7 +83,7 @@ public final class LogWindow extends Stage {
     public LogWindow(String text) {
         this();
 
-        onDone.register(() -> logLine(text, Log4jLevel.INFO));
+        logLine(text, Log4jLevel.INFO);
     }
 
     public ReadOnlyIntegerProperty fatalProperty() {
@@ -117,46 +126,145 @@ public final class LogWindow extends Stage {
         return debug.get();
     }
 
+    /**
+     * Append a line to this window. This method is thread-safe, lines logged before the
+     * pending batch is flushed are shown together.
+     */
     public void logLine(String line, Log4jLevel level) {
-        Element div = impl.document.createElement("div");
-        // a <pre> element to prevent multiple spaces and tabs being removed.
-        Element pre = impl.document.createElement("pre");
-        pre.setTextContent(line);
-        div.appendChild(pre);
-        impl.body.appendChild(div);
-        //impl.engine.executeScript("checkNewLog(\"" + level.name().toLowerCase() + "\");scrollToBottom();");
-        impl.engine.executeScript("checkNewLog(\"" + level.name().toLowerCase() + "\");" + (impl.autoscroll.isSelected() ? "scrollToBottom();" : ""));
-
-        switch (level) {
-            case FATAL:
-                fatal.set(fatal.get() + 1);
-                break;
-            case ERROR:
-                error.set(error.get() + 1);
-                break;
-            case WARN:
-                warn.set(warn.get() + 1);
-                break;
-            case INFO:
-                info.set(info.get() + 1);
-                break;
-            case DEBUG:
-                debug.set(debug.get() + 1);
-                break;
-            default:
-                // ignore
-                break;
-        }
-    }
-
-    public void waitForLoaded() throws InterruptedException {
-        latch.await();
+        pending.add(new Log(StringUtils.removeSuffix(line, "\r\n", "\n"), level));
+        if (flushScheduled.compareAndSet(false, true))
+            Platform.runLater(this::flush);
+    }
+
+    private void flush() {
+        // Clear the flag first so that lines logged while draining schedule another flush.
+        flushScheduled.set(false);
+
+        List<Log> batch = new ArrayList<>();
+        int[] counts = new int[Log4jLevel.values().length];
+        for (Log log; (log = pending.poll()) != null; ) {
+            batch.add(log);
+            counts[log.level.ordinal()]++;
+        }
+        if (batch.isEmpty())
+            return;
+
+        fatal.set(fatal.get() + counts[Log4jLevel.FATAL.ordinal()]);
+        error.set(error.get() + counts[Log4jLevel.ERROR.ordinal()]);
+        warn.set(warn.get() + counts[Log4jLevel.WARN.ordinal()]);
+        info.set(info.get() + counts[Log4jLevel.INFO.ordinal()]);
+        debug.set(debug.get() + counts[Log4jLevel.DEBUG.ordinal()]);
+
+        impl.append(batch);
+    }
+
+    private static final class Log {
+        private final String line;
+        private final Log4jLevel level;
+        private String lowerCaseLine;
+
+        Log(String line, Log4jLevel level) {
+            this.line = line;
+            this.level = level;
+        }
+
+        boolean contains(String lowerCaseText) {
+            if (lowerCaseLine == null)
+                lowerCaseLine = line.toLowerCase(Locale.ROOT);
+            return lowerCaseLine.contains(lowerCaseText);
+        }
+    }
+
+    /**
+     * A fixed capacity ring buffer of the newest lines, the caller removes the oldest ones before it is full.
+     */
+    private static final class LogBuffer {
+        private Log[] logs;
+        private int head;
+        private int size;
+
+        LogBuffer(int capacity) {
+            logs = new Log[capacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int capacity() {
+            return logs.length;
+        }
+
+        Log get(int index) {
+            return logs[(head + index) % logs.length];
+        }
+
+        void add(Log log) {
+            logs[(head + size) % logs.length] = log;
+            size++;
+        }
+
+        Log removeFirst() {
+            Log log = logs[head];
+            logs[head] = null;
+            head = (head + 1) % logs.length;
+            size--;
+            return log;
+        }
+
+        void setCapacity(int capacity) {
+            int keep = Math.min(size, capacity);
+            Log[] newLogs = new Log[capacity];
+            for (int i = 0; i < keep; i++)
+                newLogs[i] = get(size - keep + i);
+            logs = newLogs;
+            head = 0;
+            size = keep;
+        }
+
+        void clear() {
+            logs = new Log[logs.length];
+            head = 0;
+            size = 0;
+        }
+    }
+
+    private static final class LogCell extends ListCell<Log> {
+
+        LogCell() {
+            setWrapText(true);
+            // Let the cells be as wide as the list, so that long lines wrap instead of scrolling horizontally.
+            setPrefWidth(0);
+            setStyle("-fx-font-family: \"" + config().getFontFamily() + "\"; -fx-font-size: " + config().getFontSize() + "px;");
+        }
+
+        @Override
+        protected void updateItem(Log item, boolean empty) {
+            super.updateItem(item, empty);
+
+            getStyleClass().removeAll(LEVEL_STYLE_CLASSES);
+            if (empty || item == null) {
+                setText(null);
+            } else {
+                setText(item.line);
+                getStyleClass().add(LEVEL_STYLE_CLASSES[item.level.ordinal()]);
+            }
+        }
+
+        private static final String[] LEVEL_STYLE_CLASSES;
+
+        static {
+            Log4jLevel[] levels = Log4jLevel.values();
+            LEVEL_STYLE_CLASSES = new String[levels.length];
+            for (Log4jLevel level : levels)
+                LEVEL_STYLE_CLASSES[level.ordinal()] = level.name().toLowerCase(Locale.ROOT);
+        }
     }
 
     public class LogWindowImpl extends StackPane {
 
         @FXML
-        private WebView webView;
+        private ListView<Log> listView;
         @FXML
         private ToggleButton btnFatals;
         @FXML
@@ -170,25 +278,26 @@ public final class LogWindow extends Stage {
         @FXML
         private ComboBox<String> cboLines;
         @FXML
+        private TextField txtSearch;
+        @FXML
         private CheckBox autoscroll;
 
-        final WebEngine engine;
-        Node body;
-        Document document;
+        private final LogBuffer buffer = new LogBuffer(config().getLogLines());
+        // Lines of the buffer passing the level and search filters, in the same order.
+        private final ObservableList<Log> shown = FXCollections.observableArrayList();
+        private final boolean[] levelShown = new boolean[Log4jLevel.values().length];
+        private String search = "";
 
         LogWindowImpl() {
             FXUtils.loadFXML(this, "/assets/fxml/log.fxml");
 
-            engine = webView.getEngine();
-            engine.loadContent(Lang.ignoringException(() -> IOUtils.readFullyAsString(ResourceNotFoundError.getResourceAsStream("/assets/log-window-content.html")))
-                    .replace("${FONT}", config().getFontSize() + "px \"" + config().getFontFamily() + "\""));
-            engine.getLoadWorker().stateProperty().addListener((a, b, newValue) -> {
-                if (newValue == Worker.State.SUCCEEDED) {
-                    document = engine.getDocument();
-                    body = document.getElementsByTagName("body").item(0);
-                    engine.executeScript("limitedLogs=" + config().getLogLines());
-                    latch.countDown();
-                    onDone.fireEvent(new Event(LogWindow.this));
+            listView.setItems(shown);
+            listView.setCellFactory(view -> new LogCell());
+            listView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+            listView.addEventHandler(KeyEvent.KEY_PRESSED, e -> {
+                if (COPY.match(e)) {
+                    copySelection();
+                    e.consume();
                 }
             });
 
@@ -201,7 +310,8 @@ public final class LogWindow extends Stage {
 
             cboLines.getSelectionModel().selectedItemProperty().addListener((a, b, newValue) -> {
                 config().setLogLines(newValue == null ? 100 : Integer.parseInt(newValue));
-                engine.executeScript("limitedLogs=" + config().getLogLines());
+                buffer.setCapacity(config().getLogLines());
+                refilter();
             });
 
             if (!flag)
@@ -218,23 +328,77 @@ public final class LogWindow extends Stage {
             btnWarns.selectedProperty().addListener(o -> specificChanged());
             btnInfos.selectedProperty().addListener(o -> specificChanged());
             btnDebugs.selectedProperty().addListener(o -> specificChanged());
+
+            txtSearch.textProperty().addListener((a, b, newValue) -> {
+                search = newValue == null ? "" : newValue.toLowerCase(Locale.ROOT);
+                refilter();
+            });
+
+            specificChanged();
+        }
+
+        private boolean isShown(Log log) {
+            return levelShown[log.level.ordinal()] && (search.isEmpty() || log.contains(search));
+        }
+
+        void append(List<Log> batch) {
+            // Lines of this batch which would be dropped before it ends are skipped altogether.
+            int from = Math.max(0, batch.size() - buffer.capacity());
+            int overflow = buffer.size() + batch.size() - from - buffer.capacity();
+
+            int removed = 0;
+            for (int i = 0; i < overflow; i++)
+                if (isShown(buffer.removeFirst()))
+                    removed++;
+            if (removed > 0)
+                shown.remove(0, removed);
+
+            List<Log> added = new ArrayList<>();
+            for (int i = from; i < batch.size(); i++) {
+                Log log = batch.get(i);
+                buffer.add(log);
+                if (isShown(log))
+                    added.add(log);
+            }
+            shown.addAll(added);
+
+            if (autoscroll.isSelected() && !shown.isEmpty())
+                listView.scrollTo(shown.size() - 1);
+        }
+
+        private void refilter() {
+            List<Log> logs = new ArrayList<>();
+            for (int i = 0; i < buffer.size(); i++) {
+                Log log = buffer.get(i);
+                if (isShown(log))
+                    logs.add(log);
+            }
+            shown.setAll(logs);
+
+            if (autoscroll.isSelected() && !shown.isEmpty())
+                listView.scrollTo(shown.size() - 1);
         }
 
         private void specificChanged() {
-            String res = "";
-            if (btnFatals.isSelected())
-                res += "\"fatal\", ";
-            if (btnErrors.isSelected())
-                res += "\"error\", ";
-            if (btnWarns.isSelected())
-                res += "\"warn\", ";
-            if (btnInfos.isSelected())
-                res += "\"info\", ";
-            if (btnDebugs.isSelected())
-                res += "\"debug\", ";
-            if (StringUtils.isNotBlank(res))
-                res = StringUtils.substringBeforeLast(res, ", ");
-            engine.executeScript("specific([" + res + "])");
+            // Levels without a toggle, like TRACE, are always shown.
+            for (Log4jLevel level : Log4jLevel.values())
+                levelShown[level.ordinal()] = true;
+            levelShown[Log4jLevel.FATAL.ordinal()] = btnFatals.isSelected();
+            levelShown[Log4jLevel.ERROR.ordinal()] = btnErrors.isSelected();
+            levelShown[Log4jLevel.WARN.ordinal()] = btnWarns.isSelected();
+            levelShown[Log4jLevel.INFO.ordinal()] = btnInfos.isSelected();
+            levelShown[Log4jLevel.DEBUG.ordinal()] = btnDebugs.isSelected();
+            refilter();
+        }
+
+        private void copySelection() {
+            StringBuilder builder = new StringBuilder();
+            for (Log log : listView.getSelectionModel().getSelectedItems())
+                builder.append(log.line).append(System.lineSeparator());
+
+            ClipboardContent content = new ClipboardContent();
+            content.putString(builder.toString());
+            Clipboard.getSystemClipboard().setContent(content);
         }
 
         @FXML
@@ -244,7 +408,10 @@ public final class LogWindow extends Stage {
 
         @FXML
         private void onClear() {
-            engine.executeScript("clear()");
+            buffer.clear();
+            shown.clear();
         }
     }
+
+    private static final KeyCombination COPY = KeyCombination.keyCombination("Shortcut+C");
 }
@@ -43,6 +43,8 @@ import org.jackhuang.hmcl.mod.curse.CurseCompletionTask;
 import org.jackhuang.hmcl.mod.curse.CurseInstallTask;
 import org.jackhuang.hmcl.mod.multimc.MultiMCModpackInstallTask;
 import org.jackhuang.hmcl.setting.Theme;
+import org.jackhuang.hmcl.task.ProgressAggregator;
+import org.jackhuang.hmcl.task.Schedulers;
 import org.jackhuang.hmcl.task.Task;
 import org.jackhuang.hmcl.task.TaskExecutor;
 import org.jackhuang.hmcl.task.TaskListener;
@@ -51,10 +53,7 @@ import org.jackhuang.hmcl.ui.SVG;
 import org.jackhuang.hmcl.util.Lang;
 import org.jackhuang.hmcl.util.StringUtils;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.stream.Collectors;
 
 import static org.jackhuang.hmcl.util.Lang.tryCast;
@@ -90,15 +89,6 @@ public final class TaskListPane extends StackPane {
                 });
             }
 
-            @Override
-            public void onReady(Task<?> task) {
-                if (task instanceof Task.StageTask) {
-                    Platform.runLater(() -> {
-                        stageNodes.stream().filter(x -> x.stage.equals(task.getStage())).findAny().ifPresent(StageNode::begin);
-                    });
-                }
-            }
-
             @Override
             public void onRunning(Task<?> task) {
                 if (!task.getSignificance().shouldShow() || task.getName() == null)
@@ -133,65 +123,53 @@ public final class TaskListPane extends StackPane {
                 } else if (task instanceof MinecraftInstanceTask) {
                     task.setName(i18n("modpack.scan"));
                 }
-
-                Platform.runLater(() -> {
-                    ProgressListNode node = new ProgressListNode(task);
-                    nodes.put(task, node);
-                    StageNode stageNode = stageNodes.stream().filter(x -> x.stage.equals(task.getStage())).findAny().orElse(null);
-                    listBox.add(listBox.indexOf(stageNode) + 1, node);
-                });
             }
+        });
+        new ProgressAggregator(executor, Schedulers.javafx()).addListener(this::render);
+    }
 
-            @Override
-            public void onFinished(Task<?> task) {
-                if (task instanceof Task.StageTask) {
-                    Platform.runLater(() -> {
-                        stageNodes.stream().filter(x -> x.stage.equals(task.getStage())).findAny().ifPresent(StageNode::succeed);
-                    });
-                }
+    /**
+     * Render a frame of the executor's progress, called on the JavaFX application thread.
+     */
+    private void render(ProgressAggregator.Snapshot snapshot) {
+        for (ProgressAggregator.StageSnapshot stage : snapshot.getStages()) {
+            StageNode stageNode = findStageNode(stage.getStage());
+            if (stageNode != null)
+                stageNode.update(stage);
+        }
 
-                Platform.runLater(() -> {
-                    ProgressListNode node = nodes.remove(task);
-                    if (node == null)
-                        return;
-                    node.unbind();
-                    listBox.remove(node);
-                });
+        Set<Task<?>> visible = new HashSet<>();
+        for (ProgressAggregator.TaskSnapshot task : snapshot.getTasks()) {
+            visible.add(task.getTask());
+            ProgressListNode node = nodes.get(task.getTask());
+            if (node == null) {
+                node = new ProgressListNode(task);
+                nodes.put(task.getTask(), node);
+                listBox.add(listBox.indexOf(findStageNode(task.getStage())) + 1, node);
             }
+            node.update(task);
+        }
 
-            @Override
-            public void onFailed(Task<?> task, Throwable throwable) {
-                if (task instanceof Task.StageTask) {
-                    Platform.runLater(() -> {
-                        stageNodes.stream().filter(x -> x.stage.equals(task.getStage())).findAny().ifPresent(StageNode::fail);
-                    });
-                }
-                ProgressListNode node = nodes.remove(task);
-                if (node == null)
-                    return;
-                Platform.runLater(() -> {
-                    node.setThrowable(throwable);
-                });
+        Iterator<Map.Entry<Task<?>, ProgressListNode>> iterator = nodes.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Task<?>, ProgressListNode> entry = iterator.next();
+            if (!visible.contains(entry.getKey())) {
+                listBox.remove(entry.getValue());
+                iterator.remove();
             }
+        }
+    }
 
-            @Override
-            public void onPropertiesUpdate(Map<String, Map<String, Object>> stageProperties) {
-                stageProperties.forEach((stage, properties) -> {
-                    int count = tryCast(properties.get("count"), Integer.class).orElse(0),
-                            total = tryCast(properties.get("total"), Integer.class).orElse(0);
-                    if (total > 0)
-                        Platform.runLater(() ->
-                                stageNodes.stream().filter(x -> x.stage.equals(stage)).findAny().ifPresent(stageNode -> stageNode.updateCounter(count, total)));
-                });
-            }
-        });
+    private StageNode findStageNode(String stage) {
+        return stageNodes.stream().filter(x -> x.stage.equals(stage)).findAny().orElse(null);
     }
 
     private static class StageNode extends BorderPane {
         private final String stage;
         private final Label title = new Label();
         private final String message;
-        private boolean started = false;
+        private ProgressAggregator.StageStatus status = ProgressAggregator.StageStatus.WAITING;
+        private String text;
 
         public StageNode(String stage) {
             this.stage = stage;
@@ -221,25 +199,36 @@ public final class TaskListPane extends StackPane {
             setLeft(FXUtils.limitingSize(SVG.dotsHorizontal(Theme.blackFillBinding(), 14, 14), 14, 14));
         }
 
-        public void begin() {
-            if (started) return;
-            started = true;
-            setLeft(FXUtils.limitingSize(SVG.arrowRight(Theme.blackFillBinding(), 14, 14), 14, 14));
-        }
-
-        public void fail() {
-            setLeft(FXUtils.limitingSize(SVG.close(Theme.blackFillBinding(), 14, 14), 14, 14));
-        }
+        public void update(ProgressAggregator.StageSnapshot snapshot) {
+            if (status != snapshot.getStatus()) {
+                status = snapshot.getStatus();
+                switch (status) {
+                    case RUNNING: setLeft(FXUtils.limitingSize(SVG.arrowRight(Theme.blackFillBinding(), 14, 14), 14, 14)); break;
+                    case SUCCEEDED: setLeft(FXUtils.limitingSize(SVG.check(Theme.blackFillBinding(), 14, 14), 14, 14)); break;
+                    case FAILED: setLeft(FXUtils.limitingSize(SVG.close(Theme.blackFillBinding(), 14, 14), 14, 14)); break;
+                }
+            }
 
-        public void succeed() {
-            setLeft(FXUtils.limitingSize(SVG.check(Theme.blackFillBinding(), 14, 14), 14, 14));
-        }
+            Map<String, Object> properties = snapshot.getProperties();
+            int count = tryCast(properties.get("count"), Integer.class).orElse(0),
+                    total = tryCast(properties.get("total"), Integer.class).orElse(0);
+            double progress = tryCast(properties.get("progress"), Double.class).orElse(-1.0);
+            long eta = tryCast(properties.get("eta"), Long.class).orElse(-1L);
 
-        public void updateCounter(int count, int total) {
+            StringBuilder builder = new StringBuilder(message);
             if (total > 0)
-                title.setText(String.format("%s - %d/%d", message, count, total));
-            else
-                title.setText(message);
+                builder.append(String.format(" - %d/%d", count, total));
+            if (progress >= 0 && status == ProgressAggregator.StageStatus.RUNNING) {
+                builder.append(String.format(total > 0 ? ", %d%%" : " - %d%%", (int) (progress * 100)));
+                if (eta > 0)
+                    builder.append(String.format(" (%d:%02d)", eta / 60, eta % 60));
+            }
+
+            String text = builder.toString();
+            if (!text.equals(this.text)) {
+                this.text = text;
+                title.setText(text);
+            }
         }
     }
 
@@ -251,10 +240,10 @@ public final class TaskListPane extends StackPane {
                         getWidth() - getPadding().getLeft() - getPadding().getRight(),
                 paddingProperty(), widthProperty());
 
-        public ProgressListNode(Task<?> task) {
-            bar.progressProperty().bind(task.progressProperty());
+        private boolean failed = false;
+
+        public ProgressListNode(ProgressAggregator.TaskSnapshot task) {
             title.setText(task.getName());
-            state.textProperty().bind(task.messageProperty());
 
             setLeft(title);
             setRight(state);
@@ -267,15 +256,18 @@ public final class TaskListPane extends StackPane {
             paddingProperty().bind(progressNodePadding);
         }
 
-        public void unbind() {
-            bar.progressProperty().unbind();
-            state.textProperty().unbind();
-        }
-
-        public void setThrowable(Throwable throwable) {
-            unbind();
-            state.setText(throwable.getLocalizedMessage());
-            bar.setProgress(0);
+        public void update(ProgressAggregator.TaskSnapshot task) {
+            if (failed)
+                return;
+
+            if (task.getThrowable() != null) {
+                failed = true;
+                state.setText(task.getThrowable().getLocalizedMessage());
+                bar.setProgress(0);
+            } else {
+                state.setText(task.getMessage());
+                bar.setProgress(task.getProgress());
+            }
         }
     }
 }
@@ -0,0 +1,364 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.download;
+
+import com.google.gson.JsonParseException;
+import org.jackhuang.hmcl.game.AssetIndex;
+import org.jackhuang.hmcl.game.AssetIndexInfo;
+import org.jackhuang.hmcl.game.AssetObject;
+import org.jackhuang.hmcl.game.DefaultGameRepository;
+import org.jackhuang.hmcl.game.DownloadInfo;
+import org.jackhuang.hmcl.game.Library;
+import org.jackhuang.hmcl.game.LoggingInfo;
+import org.jackhuang.hmcl.game.SimpleVersionProvider;
+import org.jackhuang.hmcl.game.Version;
+import org.jackhuang.hmcl.game.VersionNotFoundException;
+import org.jackhuang.hmcl.util.Logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+
+/**
+ * Evicts the least recently used files from the cache directory when the cache grows beyond a quota.
+ *
+ * Files referenced by any installed version, that is, its game jar, libraries, logging configuration,
+ * asset index and the assets in the index, are never evicted. Versions are read from the game directories
+ * into a snapshot of the collector, the game repositories shown by the launcher are left untouched. Files hard linked elsewhere are not
+ * evicted either, since deleting them frees no disk space.
+ *
+ * Collection stops at {@link #LOW_WATER_MARK} of the quota, so that it does not run again on the next
+ * session, and deletes files in batches of {@link #BATCH_SIZE}, pausing in between so that it can run
+ * in the background while games are being downloaded and launched.
+ */
+public class CacheCollector {
+
+    private final DefaultCacheRepository cacheRepository;
+    private final Collection<Path> gameDirectories;
+    private long quota = -1;
+
+    /**
+     * @param cacheRepository the cache to collect
+     * @param gameDirectories the game directories whose versions reference cached files
+     */
+    public CacheCollector(DefaultCacheRepository cacheRepository, Collection<Path> gameDirectories) {
+        this.cacheRepository = cacheRepository;
+        this.gameDirectories = gameDirectories;
+    }
+
+    public long getQuota() {
+        return quota;
+    }
+
+    /**
+     * @param quota the maximum bytes the cache may hold, negative if not limited.
+     */
+    public CacheCollector setQuota(long quota) {
+        this.quota = quota;
+        return this;
+    }
+
+    /**
+     * Measure the cache without deleting anything.
+     *
+     * @throws IOException if the cache directory cannot be listed
+     */
+    public Report scan() throws IOException {
+        return measure(listEntries(findProtectedHashes()), 0, 0);
+    }
+
+    /**
+     * Evict the least recently used files until the cache fits in the quota.
+     *
+     * @return the state of the cache after collection
+     * @throws IOException if the cache directory cannot be listed
+     * @throws InterruptedException if the current thread is interrupted, files evicted so far stay evicted.
+     */
+    public Report collect() throws IOException, InterruptedException {
+        List<Entry> entries = listEntries(findProtectedHashes());
+        long size = 0;
+        for (Entry entry : entries)
+            size += entry.size;
+
+        long reclaimedBytes = 0;
+        int reclaimedFiles = 0;
+        if (quota >= 0 && size > quota) {
+            long target = (long) (quota * LOW_WATER_MARK);
+            List<Entry> candidates = new ArrayList<>();
+            for (Entry entry : entries)
+                if (entry.isReclaimable())
+                    candidates.add(entry);
+            candidates.sort(Comparator.comparingLong(entry -> entry.lastAccess));
+
+            for (Entry entry : candidates) {
+                if (size <= target)
+                    break;
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+
+                try {
+                    cacheRepository.evict(entry.file);
+                } catch (IOException e) {
+                    Logging.LOG.log(Level.WARNING, "Unable to evict cached file " + entry.file, e);
+                    continue;
+                }
+                entry.evicted = true;
+                size -= entry.size;
+                reclaimedBytes += entry.size;
+                reclaimedFiles++;
+
+                if (reclaimedFiles % BATCH_SIZE == 0)
+                    Thread.sleep(BATCH_PAUSE);
+            }
+        }
+
+        return measure(entries, reclaimedBytes, reclaimedFiles);
+    }
+
+    private Report measure(List<Entry> entries, long reclaimedBytes, int reclaimedFiles) {
+        long bytes = 0, protectedBytes = 0, reclaimableBytes = 0;
+        int files = 0;
+        for (Entry entry : entries) {
+            if (entry.evicted)
+                continue;
+            files++;
+            bytes += entry.size;
+            if (entry.isProtected)
+                protectedBytes += entry.size;
+            else if (entry.isReclaimable())
+                reclaimableBytes += entry.size;
+        }
+        return new Report(files, bytes, protectedBytes, reclaimableBytes, reclaimedFiles, reclaimedBytes);
+    }
+
+    /**
+     * @return hash codes, in lower case, of the files referenced by installed versions
+     */
+    private Set<String> findProtectedHashes() {
+        Set<String> hashes = new HashSet<>();
+        for (Path gameDirectory : gameDirectories) {
+            // Only reads files, never refreshed, so no events are fired from this thread.
+            DefaultGameRepository repository = new DefaultGameRepository(gameDirectory.toFile());
+            SimpleVersionProvider provider = readVersions(repository);
+
+            for (Version unresolved : provider.getVersionMap().values()) {
+                Version version;
+                try {
+                    version = unresolved.resolve(provider);
+                } catch (VersionNotFoundException e) {
+                    Logging.LOG.log(Level.WARNING, "Unable to resolve version " + unresolved.getId() + ", its cached files may be evicted", e);
+                    continue;
+                }
+
+                addHash(hashes, version.getDownloadInfo());
+                for (Library library : version.getLibraries()) {
+                    addHash(hashes, library.getDownload());
+                    for (String hash : cacheRepository.getLibraryHashes(library))
+                        addHash(hashes, hash);
+                }
+                if (version.getLogging() != null)
+                    for (LoggingInfo logging : version.getLogging().values())
+                        if (logging != null)
+                            addHash(hashes, logging.getFile());
+
+                AssetIndexInfo assetIndexInfo = version.getAssetIndex();
+                addHash(hashes, assetIndexInfo);
+                try {
+                    AssetIndex assetIndex = repository.getAssetIndex(version.getId(), assetIndexInfo.getId());
+                    for (AssetObject object : assetIndex.getObjects().values())
+                        addHash(hashes, object.getHash());
+                } catch (IOException e) {
+                    // Asset index is not downloaded yet.
+                }
+            }
+        }
+        return hashes;
+    }
+
+    private static SimpleVersionProvider readVersions(DefaultGameRepository repository) {
+        SimpleVersionProvider provider = new SimpleVersionProvider();
+        File[] directories = new File(repository.getBaseDirectory(), "versions").listFiles(File::isDirectory);
+        if (directories == null)
+            return provider;
+
+        for (File directory : directories) {
+            String id = directory.getName();
+            File json = repository.getVersionJson(id);
+            if (!json.isFile())
+                continue;
+            try {
+                Version version = repository.readVersionJson(json);
+                provider.addVersion(id.equals(version.getId()) ? version : version.setId(id));
+            } catch (IOException | JsonParseException e) {
+                Logging.LOG.log(Level.WARNING, "Unable to read version " + id + ", its cached files may be evicted", e);
+            }
+        }
+        return provider;
+    }
+
+    private static void addHash(Set<String> hashes, DownloadInfo info) {
+        if (info != null)
+            addHash(hashes, info.getSha1());
+    }
+
+    private static void addHash(Set<String> hashes, String hash) {
+        if (hash != null)
+            hashes.add(hash.toLowerCase(Locale.ROOT));
+    }
+
+    private List<Entry> listEntries(Set<String> protectedHashes) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        Path directory = cacheRepository.getCacheDirectory();
+        if (directory == null || !Files.isDirectory(directory))
+            return entries;
+
+        try (DirectoryStream<Path> algorithms = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path algorithmDirectory : algorithms) {
+                try {
+                    MessageDigest.getInstance(algorithmDirectory.getFileName().toString());
+                } catch (NoSuchAlgorithmException e) {
+                    continue;
+                }
+
+                try (Stream<Path> files = Files.walk(algorithmDirectory, 2)) {
+                    for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                        try {
+                            String hash = file.getFileName().toString().toLowerCase(Locale.ROOT);
+                            entries.add(new Entry(file, Files.size(file), cacheRepository.getLastAccessTime(file),
+                                    protectedHashes.contains(hash), isLinked(file)));
+                        } catch (IOException e) {
+                            // The file is being replaced or evicted by others.
+                        }
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static boolean isLinked(Path file) {
+        try {
+            Object links = Files.getAttribute(file, "unix:nlink");
+            return links instanceof Integer && (Integer) links > 1;
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static final class Entry {
+        private final Path file;
+        private final long size;
+        private final long lastAccess;
+        private final boolean isProtected;
+        private final boolean isLinked;
+        private boolean evicted;
+
+        Entry(Path file, long size, long lastAccess, boolean isProtected, boolean isLinked) {
+            this.file = file;
+            this.size = size;
+            this.lastAccess = lastAccess;
+            this.isProtected = isProtected;
+            this.isLinked = isLinked;
+        }
+
+        boolean isReclaimable() {
+            return !isProtected && !isLinked;
+        }
+    }
+
+    /**
+     * The state of the cache directory.
+     */
+    public static final class Report {
+        private final int files;
+        private final long bytes;
+        private final long protectedBytes;
+        private final long reclaimableBytes;
+        private final int reclaimedFiles;
+        private final long reclaimedBytes;
+
+        public Report(int files, long bytes, long protectedBytes, long reclaimableBytes, int reclaimedFiles, long reclaimedBytes) {
+            this.files = files;
+            this.bytes = bytes;
+            this.protectedBytes = protectedBytes;
+            this.reclaimableBytes = reclaimableBytes;
+            this.reclaimedFiles = reclaimedFiles;
+            this.reclaimedBytes = reclaimedBytes;
+        }
+
+        /**
+         * @return the number of files left in the cache
+         */
+        public int getFiles() {
+            return files;
+        }
+
+        /**
+         * @return the bytes left in the cache
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the bytes of files referenced by installed versions
+         */
+        public long getProtectedBytes() {
+            return protectedBytes;
+        }
+
+        /**
+         * @return the bytes of files left that could be evicted
+         */
+        public long getReclaimableBytes() {
+            return reclaimableBytes;
+        }
+
+        public int getReclaimedFiles() {
+            return reclaimedFiles;
+        }
+
+        public long getReclaimedBytes() {
+            return reclaimedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "Report{files=" + files + ", bytes=" + bytes + ", protectedBytes=" + protectedBytes
+                    + ", reclaimableBytes=" + reclaimableBytes + ", reclaimedFiles=" + reclaimedFiles
+                    + ", reclaimedBytes=" + reclaimedBytes + "}";
+        }
+    }
+
+    public static final double LOW_WATER_MARK = 0.9;
+    public static final int BATCH_SIZE = 64;
+    public static final long BATCH_PAUSE = 50;
+}
@@ -26,6 +26,8 @@ import org.jackhuang.hmcl.util.gson.JsonUtils;
 import org.jackhuang.hmcl.util.gson.TolerableValidationException;
 import org.jackhuang.hmcl.util.gson.Validation;
 import org.jackhuang.hmcl.util.io.FileUtils;
+import org.jackhuang.hmcl.util.io.IndexLog;
+import org.jackhuang.hmcl.util.io.LinkStrategy;
 import org.jackhuang.hmcl.util.platform.OperatingSystem;
 import org.jetbrains.annotations.NotNull;
 
@@ -33,17 +35,12 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
 public class DefaultCacheRepository extends CacheRepository {
     private Path librariesDir;
-    private Path indexFile;
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
-    private Index index = null;
+    private volatile IndexLog<LibraryIndex> index;
 
     public DefaultCacheRepository() {
         this(OperatingSystem.getWorkingDirectory("minecraft"));
@@ -58,19 +55,39 @@ public class DefaultCacheRepository extends CacheRepository {
         super.changeDirectory(commonDir);
 
         librariesDir = commonDir.resolve("libraries");
-        indexFile = getCacheDirectory().resolve("index.json");
+        Path legacyIndexFile = getCacheDirectory().resolve("index.json");
 
-        lock.writeLock().lock();
+        IndexLog<LibraryIndex> log = new IndexLog<>(getCacheDirectory().resolve("index.log"), LibraryIndex.class,
+                it -> it.getName() + "#" + it.getHash(), (oldIndex, newIndex) -> newIndex);
         try {
-            if (Files.isRegularFile(indexFile))
-                index = JsonUtils.fromNonNullJson(FileUtils.readText(indexFile.toFile()), Index.class);
-            else
-                index = new Index();
-        } catch (IOException | JsonParseException e) {
+            boolean exists = Files.isRegularFile(log.getFile());
+            log.open(() -> readLegacyIndex(legacyIndexFile));
+
+            // Older launchers sharing the directory still write index.json, it is left to them and
+            // read again whenever they have changed it since our last write.
+            if (exists && Files.isRegularFile(legacyIndexFile)
+                    && Files.getLastModifiedTime(legacyIndexFile).compareTo(Files.getLastModifiedTime(log.getFile())) > 0) {
+                Collection<LibraryIndex> legacy = readLegacyIndex(legacyIndexFile);
+                if (legacy != null)
+                    log.putAll(legacy);
+            }
+        } catch (IOException e) {
             Logging.LOG.log(Level.WARNING, "Unable to read index file", e);
-            index = new Index();
-        } finally {
-            lock.writeLock().unlock();
+        }
+        index = log;
+    }
+
+    /**
+     * Read the index written by earlier versions, which rewrote the whole index.json on every change.
+     */
+    private static Collection<LibraryIndex> readLegacyIndex(Path legacyIndexFile) throws IOException {
+        if (!Files.isRegularFile(legacyIndexFile))
+            return null;
+        try {
+            return JsonUtils.fromNonNullJson(FileUtils.readText(legacyIndexFile), Index.class).getLibraries();
+        } catch (JsonParseException e) {
+            Logging.LOG.log(Level.WARNING, "Unable to read legacy index file " + legacyIndexFile, e);
+            return null;
         }
     }
 
@@ -83,20 +100,14 @@ public class DefaultCacheRepository extends CacheRepository {
      * @param jar the file of library
      */
     public void tryCacheLibrary(Library library, Path jar) {
-        lock.readLock().lock();
-        try {
-            if (index.getLibraries().stream().anyMatch(it -> library.getName().equals(it.getName())))
-                return;
-        } finally {
-            lock.readLock().unlock();
-        }
+        if (index.values().stream().anyMatch(it -> library.getName().equals(it.getName())))
+            return;
 
         try {
             LibraryDownloadInfo info = library.getDownload();
             String hash = info.getSha1();
             if (hash != null) {
-                String checksum = Hex.encodeHex(DigestUtils.digest("SHA-1", jar));
-                if (hash.equalsIgnoreCase(checksum))
+                if (DigestCache.getInstance().check(SHA1, jar, hash))
                     cacheLibrary(library, jar, false);
             } else if (library.getChecksums() != null && !library.getChecksums().isEmpty()) {
                 if (LibraryDownloadTask.checksumValid(jar.toFile(), library.getChecksums()))
@@ -119,28 +130,26 @@ public class DefaultCacheRepository extends CacheRepository {
         LibraryDownloadInfo info = library.getDownload();
         String hash = info.getSha1();
 
-        if (fileExists(SHA1, hash))
-            return Optional.of(getFile(SHA1, hash));
-
-        Lock readLock = lock.readLock();
-        readLock.lock();
+        if (fileExists(SHA1, hash)) {
+            Path file = getFile(SHA1, hash);
+            touch(file);
+            return Optional.of(file);
+        }
 
-        try {
-            // check if this library is from Forge
-            List<LibraryIndex> libraries = index.getLibraries().stream()
-                    .filter(it -> it.getName().equals(library.getName()))
-                    .collect(Collectors.toList());
-            for (LibraryIndex libIndex : libraries) {
-                if (fileExists(SHA1, libIndex.getHash())) {
-                    Path file = getFile(SHA1, libIndex.getHash());
-                    if (libIndex.getType().equalsIgnoreCase(LibraryIndex.TYPE_FORGE)) {
-                        if (LibraryDownloadTask.checksumValid(file.toFile(), library.getChecksums()))
-                            return Optional.of(file);
+        // check if this library is from Forge
+        List<LibraryIndex> libraries = index.values().stream()
+                .filter(it -> it.getName().equals(library.getName()))
+                .collect(Collectors.toList());
+        for (LibraryIndex libIndex : libraries) {
+            if (fileExists(SHA1, libIndex.getHash())) {
+                Path file = getFile(SHA1, libIndex.getHash());
+                if (libIndex.getType().equalsIgnoreCase(LibraryIndex.TYPE_FORGE)) {
+                    if (LibraryDownloadTask.checksumValid(file.toFile(), library.getChecksums())) {
+                        touch(file);
+                        return Optional.of(file);
                     }
                 }
             }
-        } finally {
-            readLock.unlock();
         }
 
         // check old common directory
@@ -148,8 +157,7 @@ public class DefaultCacheRepository extends CacheRepository {
         if (Files.exists(jar)) {
             try {
                 if (hash != null) {
-                    String checksum = Hex.encodeHex(DigestUtils.digest("SHA-1", jar));
-                    if (hash.equalsIgnoreCase(checksum))
+                    if (DigestCache.getInstance().check(SHA1, jar, hash))
                         return Optional.of(restore(jar, () -> cacheLibrary(library, jar, false)));
                 } else if (library.getChecksums() != null && !library.getChecksums().isEmpty()) {
                     if (LibraryDownloadTask.checksumValid(jar.toFile(), library.getChecksums()))
@@ -165,6 +173,19 @@ public class DefaultCacheRepository extends CacheRepository {
         return Optional.empty();
     }
 
+    /**
+     * Get the hash codes of cached files recorded for the library, including Forge libraries that have no sha1 given.
+     *
+     * @param library the library
+     * @return the hash codes of cached files that may be the library
+     */
+    public List<String> getLibraryHashes(Library library) {
+        return index.values().stream()
+                .filter(it -> it.getName().equals(library.getName()))
+                .map(LibraryIndex::getHash)
+                .collect(Collectors.toList());
+    }
+
     /**
      * Caches the library file to repository.
      *
@@ -177,34 +198,23 @@ public class DefaultCacheRepository extends CacheRepository {
     public Path cacheLibrary(Library library, Path path, boolean forge) throws IOException {
         String hash = library.getDownload().getSha1();
         if (hash == null)
-            hash = Hex.encodeHex(DigestUtils.digest(SHA1, path));
+            hash = DigestCache.getInstance().digest(SHA1, path);
 
         Path cache = getFile(SHA1, hash);
-        FileUtils.copyFile(path.toFile(), cache.toFile());
+        LinkStrategy.link(path, cache);
 
-        Lock writeLock = lock.writeLock();
-        writeLock.lock();
         try {
-            LibraryIndex libIndex = new LibraryIndex(library.getName(), hash, forge ? LibraryIndex.TYPE_FORGE : LibraryIndex.TYPE_JAR);
-            index.getLibraries().add(libIndex);
-            saveIndex();
-        } finally {
-            writeLock.unlock();
+            index.put(new LibraryIndex(library.getName(), hash, forge ? LibraryIndex.TYPE_FORGE : LibraryIndex.TYPE_JAR));
+        } catch (IOException e) {
+            Logging.LOG.log(Level.SEVERE, "Unable to save index.log", e);
         }
 
         return cache;
     }
 
-    private void saveIndex() {
-        if (indexFile == null || index == null) return;
-        try {
-            FileUtils.writeText(indexFile.toFile(), JsonUtils.GSON.toJson(index));
-        } catch (IOException e) {
-            Logging.LOG.log(Level.SEVERE, "Unable to save index.json", e);
-        }
-    }
-
     /**
+     * The index.json written by earlier versions, libraries are now recorded in index.log by {@link IndexLog}.
+     *
      * {
      *     "libraries": {
      *         // allow a library has multiple hash code.
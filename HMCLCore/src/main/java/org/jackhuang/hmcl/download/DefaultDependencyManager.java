@@ -24,11 +24,17 @@ import org.jackhuang.hmcl.download.game.GameLibrariesTask;
 import org.jackhuang.hmcl.download.optifine.OptiFineInstallTask;
 import org.jackhuang.hmcl.game.DefaultGameRepository;
 import org.jackhuang.hmcl.game.Version;
+import org.jackhuang.hmcl.task.Schedulers;
 import org.jackhuang.hmcl.task.Task;
+import org.jackhuang.hmcl.util.Logging;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
 
 /**
  * Note: This class has no state.
@@ -115,6 +121,48 @@ public class DefaultDependencyManager extends AbstractDependencyManager {
                 .withStage(String.format("hmcl.install.%s:%s", libraryVersion.getLibraryId(), libraryVersion.getSelfVersion()));
     }
 
+    /**
+     * Fetch ahead what installing the given libraries will download first, such as version lists,
+     * Forge installers and Fabric metadata, so that it overlaps with installing the game.
+     *
+     * The fetched version lists are kept in memory, and files go to the cache repository, where the
+     * install tasks find them by entity tags. Since the install tasks still check everything they use,
+     * failures of fetching ahead are ignored.
+     *
+     * @param gameVersion the game version the libraries are installed on
+     * @param libraryVersions the versions of libraries, keyed by library id
+     * @param remoteVersions the remote versions of libraries
+     * @return the task which does not fail unless cancelled
+     */
+    public Task<?> prefetchLibrariesAsync(String gameVersion, Map<String, String> libraryVersions, Collection<RemoteVersion> remoteVersions) {
+        List<Task<?>> tasks = new ArrayList<>();
+        for (Map.Entry<String, String> entry : libraryVersions.entrySet()) {
+            VersionList<?> versionList = getVersionList(entry.getKey());
+            tasks.add(speculate(versionList.loadAsync(gameVersion)
+                    .thenComposeAsync(() -> speculate(versionList.getVersion(gameVersion, entry.getValue())
+                            .map(remoteVersion -> remoteVersion.getPrefetchTask(this))
+                            .orElse(null)))));
+        }
+        for (RemoteVersion remoteVersion : remoteVersions) {
+            Task<?> task = speculate(remoteVersion.getPrefetchTask(this));
+            if (task != null)
+                tasks.add(task);
+        }
+        return Task.allOf(tasks);
+    }
+
+    /**
+     * @return the task succeeding even if {@code task} fails, or null if {@code task} is null.
+     */
+    private static Task<Void> speculate(Task<?> task) {
+        if (task == null)
+            return null;
+        return task.withRunAsync(Schedulers.defaultScheduler(), () -> {
+            if (task.getException() != null)
+                Logging.LOG.log(Level.INFO, "Unable to fetch ahead, leaving it to installation", task.getException());
+        }).setSignificance(Task.TaskSignificance.MINOR);
+    }
+
     public Task<Version> installLibraryAsync(Version oldVersion, Path installer) {
         if (oldVersion.isResolved()) throw new IllegalArgumentException("Version should not be resolved");
 
@@ -17,6 +17,7 @@
  */
 package org.jackhuang.hmcl.download;
 
+import org.jackhuang.hmcl.download.game.GameAssetDownloadTask;
 import org.jackhuang.hmcl.game.Version;
 import org.jackhuang.hmcl.task.Task;
 import org.jackhuang.hmcl.util.function.ExceptionalFunction;
@@ -50,24 +51,37 @@ public class DefaultGameBuilder extends GameBuilder {
     @Override
     public Task<?> buildAsync() {
         List<String> stages = new ArrayList<>();
+        InstallJournal journal = new InstallJournal(dependencyManager.getGameRepository(), name);
 
-        Task<Version> libraryTask = Task.supplyAsync(() -> new Version(name));
-        libraryTask = libraryTask.thenComposeAsync(libraryTaskHelper(gameVersion, "game", gameVersion));
+        Task<Version> gameTask = Task.supplyAsync(() -> new Version(name))
+                .thenComposeAsync(journal.step("game:" + gameVersion, libraryTaskHelper(gameVersion, "game", gameVersion),
+                        // Assets are not recorded by the journal.
+                        version -> new GameAssetDownloadTask(dependencyManager, version, GameAssetDownloadTask.DOWNLOAD_INDEX_IF_NECESSARY, true)));
+        Task<Version> libraryTask = gameTask;
+        if (!toolVersions.isEmpty() || !remoteVersions.isEmpty()) {
+            // Libraries are installed one by one after the game, fetch what they need meanwhile.
+            libraryTask = Task.allOf(gameTask, dependencyManager.prefetchLibrariesAsync(gameVersion, toolVersions, remoteVersions))
+                    .thenSupplyAsync(gameTask::getResult);
+        }
         stages.add("hmcl.install.game:" + gameVersion);
         stages.add("hmcl.install.assets");
 
         for (Map.Entry<String, String> entry : toolVersions.entrySet()) {
-            libraryTask = libraryTask.thenComposeAsync(libraryTaskHelper(gameVersion, entry.getKey(), entry.getValue()));
+            libraryTask = libraryTask.thenComposeAsync(journal.step(entry.getKey() + ":" + entry.getValue(),
+                    libraryTaskHelper(gameVersion, entry.getKey(), entry.getValue())));
             stages.add(String.format("hmcl.install.%s:%s", entry.getKey(), entry.getValue()));
         }
 
         for (RemoteVersion remoteVersion : remoteVersions) {
-            libraryTask = libraryTask.thenComposeAsync(version -> dependencyManager.installLibraryAsync(version, remoteVersion));
+            libraryTask = libraryTask.thenComposeAsync(journal.step(remoteVersion.getLibraryId() + ":" + remoteVersion.getSelfVersion(),
+                    version -> dependencyManager.installLibraryAsync(version, remoteVersion)));
             stages.add(String.format("hmcl.install.%s:%s", remoteVersion.getLibraryId(), remoteVersion.getSelfVersion()));
         }
 
-        return libraryTask.thenComposeAsync(dependencyManager.getGameRepository()::save).whenComplete(exception -> {
-            if (exception != null)
+        // The version json is written only when everything is installed, completed steps are kept for
+        // the next attempt to resume from if the installation fails.
+        return libraryTask.thenComposeAsync(dependencyManager.getGameRepository()::save).thenRunAsync(journal::commit).whenComplete(exception -> {
+            if (exception != null && !journal.hasProgress())
                 dependencyManager.getGameRepository().removeVersionFromDisk(name);
         }).withStagesHint(stages);
     }
@@ -0,0 +1,259 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.download;
+
+import org.jackhuang.hmcl.game.AssetIndexInfo;
+import org.jackhuang.hmcl.game.DefaultGameRepository;
+import org.jackhuang.hmcl.game.Library;
+import org.jackhuang.hmcl.game.Version;
+import org.jackhuang.hmcl.game.VersionNotFoundException;
+import org.jackhuang.hmcl.task.Task;
+import org.jackhuang.hmcl.util.DigestCache;
+import org.jackhuang.hmcl.util.Logging;
+import org.jackhuang.hmcl.util.function.ExceptionalFunction;
+import org.jackhuang.hmcl.util.io.IndexLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+
+/**
+ * The journal of installing a version, kept in {@code hmcl-install.log} of the version root
+ * until the version json is committed.
+ *
+ * Installing a version is a chain of steps, such as installing the game and then Forge. A step is recorded
+ * when completed, with the version it produced and the SHA-1 of the files it left, keyed by the steps leading
+ * to it. If the installation is cancelled or the launcher crashes, installing the same version again skips
+ * the recorded steps whose files are unchanged, up to the first step that has to be run again.
+ *
+ * The version json is written only after all steps are completed, so a version root holding a journal has
+ * no version json and is not loaded as a version. Such a root is deleted when the repository is refreshed
+ * once the installation has not been retried for {@link #ABANDONED_AGE}, see {@link #isAbandoned(File)}.
+ */
+public final class InstallJournal {
+
+    private final DefaultGameRepository repository;
+    private final String id;
+    private final List<String> steps = new ArrayList<>();
+    private IndexLog<Step> log;
+    private boolean diverged;
+
+    public InstallJournal(DefaultGameRepository repository, String id) {
+        this.repository = repository;
+        this.id = id;
+    }
+
+    public File getFile() {
+        return new File(repository.getVersionRoot(id), FILE_NAME);
+    }
+
+    /**
+     * Wrap a step of installation, steps must be wrapped in the order they run.
+     *
+     * @param name the name of the step, such as {@code forge:1.14.4-28.2.0}
+     * @param install the step, which takes the version before the step and gives the version after the step
+     * @return the step skipped if it has been completed by a previous attempt
+     */
+    public ExceptionalFunction<Version, Task<Version>, ?> step(String name, ExceptionalFunction<Version, Task<Version>, ?> install) {
+        return step(name, install, null);
+    }
+
+    /**
+     * Wrap a step of installation, whose outputs not recorded are checked by {@code check} if the step is skipped.
+     *
+     * @param check given the version the step gave, returns the task completing files not recorded, such as assets, maybe null
+     * @see #step(String, ExceptionalFunction)
+     */
+    public ExceptionalFunction<Version, Task<Version>, ?> step(String name, ExceptionalFunction<Version, Task<Version>, ?> install,
+                                                              ExceptionalFunction<Version, Task<?>, ?> check) {
+        steps.add(name);
+        String key = String.join("/", steps);
+        return version -> {
+            Step completed = getCompleted(key);
+            if (completed != null) {
+                Logging.LOG.info("Skipping " + key + " of installing " + id + ", completed by a previous attempt");
+                if (check == null)
+                    return Task.supplyAsync(() -> completed.version);
+                return check.apply(completed.version).thenSupplyAsync(() -> completed.version);
+            }
+
+            return install.apply(version).thenApplyAsync(result -> {
+                record(key, result);
+                return result;
+            });
+        };
+    }
+
+    /**
+     * Delete the journal, called once the version json is written.
+     */
+    public synchronized void commit() {
+        try {
+            Path file = getFile().toPath();
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(file.resolveSibling(FILE_NAME + ".lock"));
+        } catch (IOException e) {
+            Logging.LOG.log(Level.WARNING, "Unable to delete install journal of " + id, e);
+        }
+        log = null;
+    }
+
+    /**
+     * @return true if any step has been recorded, by this attempt or a previous one
+     */
+    public synchronized boolean hasProgress() {
+        IndexLog<Step> log = open();
+        return log != null && log.size() > 0;
+    }
+
+    private synchronized Step getCompleted(String key) {
+        if (diverged)
+            return null;
+
+        IndexLog<Step> log = open();
+        Step step = log == null ? null : log.get(key);
+        if (step == null || step.version == null || !verify(step)) {
+            // Steps after this one are based on what this step produces, they must run again.
+            diverged = true;
+            return null;
+        }
+        return step;
+    }
+
+    private boolean verify(Step step) {
+        if (step.outputs == null)
+            return false;
+
+        Path base = repository.getBaseDirectory().toPath();
+        for (Map.Entry<String, String> output : step.outputs.entrySet()) {
+            Path file = base.resolve(output.getKey());
+            try {
+                if (!Files.isRegularFile(file) || !DigestCache.getInstance().check("SHA-1", file, output.getValue())) {
+                    Logging.LOG.info("Output " + file + " of " + step.key + " has changed since it was recorded");
+                    return false;
+                }
+            } catch (IOException e) {
+                Logging.LOG.log(Level.WARNING, "Unable to verify output " + file + " of " + step.key, e);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized void record(String key, Version version) {
+        IndexLog<Step> log = open();
+        if (log == null)
+            return;
+
+        try {
+            log.put(new Step(key, version, getOutputs(version)));
+        } catch (IOException e) {
+            Logging.LOG.log(Level.WARNING, "Unable to record " + key + " of installing " + id, e);
+        }
+    }
+
+    /**
+     * The files a version relies on that are present, which are the game jar, libraries of all patches
+     * and the asset index. Assets are too many to record, they are left to the check of the step.
+     */
+    private Map<String, String> getOutputs(Version version) throws IOException {
+        Set<File> files = new LinkedHashSet<>();
+        files.add(new File(repository.getVersionRoot(id), id + ".jar"));
+        List<Library> libraries = new ArrayList<>(version.getLibraries());
+        for (Version patch : version.getPatches())
+            libraries.addAll(patch.getLibraries());
+        for (Library library : libraries)
+            files.add(repository.getLibraryFile(version, library));
+
+        try {
+            AssetIndexInfo assetIndex = version.resolve(repository).getAssetIndex();
+            if (assetIndex != null && assetIndex.getId() != null)
+                files.add(repository.getIndexFile(id, assetIndex.getId()));
+        } catch (VersionNotFoundException e) {
+            Logging.LOG.log(Level.WARNING, "Unable to resolve the asset index of " + id, e);
+        }
+
+        Path base = repository.getBaseDirectory().toPath();
+        Map<String, String> outputs = new TreeMap<>();
+        for (File file : files)
+            if (file.isFile())
+                outputs.put(base.relativize(file.toPath()).toString().replace(File.separatorChar, '/'),
+                        DigestCache.getInstance().digest("SHA-1", file.toPath()));
+        return outputs;
+    }
+
+    private IndexLog<Step> open() {
+        if (log == null) {
+            IndexLog<Step> opening = new IndexLog<>(getFile().toPath(), Step.class, step -> step.key, (oldStep, newStep) -> newStep);
+            try {
+                opening.open(null);
+                log = opening;
+            } catch (IOException e) {
+                Logging.LOG.log(Level.WARNING, "Unable to open install journal of " + id + ", installing without it", e);
+            }
+        }
+        return log;
+    }
+
+    /**
+     * @param versionRoot the root directory of a version
+     * @return true if {@code versionRoot} is left by an installation that failed and has not been retried
+     * for {@link #ABANDONED_AGE}, that is, it holds a journal but no version json.
+     */
+    public static boolean isAbandoned(File versionRoot) {
+        File journal = new File(versionRoot, FILE_NAME);
+        if (!journal.isFile() || new File(versionRoot, versionRoot.getName() + ".json").exists())
+            return false;
+        long lastModified = journal.lastModified();
+        return lastModified != 0 && System.currentTimeMillis() - lastModified >= ABANDONED_AGE;
+    }
+
+    public static final String FILE_NAME = "hmcl-install.log";
+
+    /**
+     * The time after which an installation not retried is abandoned.
+     */
+    public static final long ABANDONED_AGE = 7L * 24 * 60 * 60 * 1000;
+
+    private static final class Step {
+        private final String key;
+        private final Version version;
+        private final Map<String, String> outputs;
+
+        /**
+         * For Gson.
+         */
+        private Step() {
+            this(null, null, null);
+        }
+
+        Step(String key, Version version, Map<String, String> outputs) {
+            this.key = key;
+            this.version = version;
+            this.outputs = outputs;
+        }
+    }
+}
@@ -88,6 +88,17 @@ public class RemoteVersion implements Comparable<RemoteVersion> {
         throw new UnsupportedOperationException(toString() + " cannot be installed yet");
     }
 
+    /**
+     * The task fetching what the install task downloads first, into the cache repository,
+     * so that it can run while earlier parts of the installation are still in progress.
+     * The install task must find the fetched files by itself and fetch them again if they are missing.
+     *
+     * @return the task, or null if nothing can be fetched ahead.
+     */
+    public Task<?> getPrefetchTask(DefaultDependencyManager dependencyManager) {
+        return null;
+    }
+
     @Override
     public boolean equals(Object obj) {
         return obj instanceof RemoteVersion && Objects.equals(selfVersion, ((RemoteVersion) obj).selfVersion);
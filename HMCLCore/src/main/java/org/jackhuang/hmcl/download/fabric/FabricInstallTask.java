@@ -50,8 +50,7 @@ public final class FabricInstallTask extends Task<Version> {
         this.version = version;
         this.remote = remoteVersion;
 
-        launchMetaTask = new GetTask(NetworkUtils.toURL(dependencyManager.getPrimaryDownloadProvider().injectURL(getLaunchMetaUrl(remote.getGameVersion(), remote.getSelfVersion()))))
-                .setCacheRepository(dependencyManager.getCacheRepository());
+        launchMetaTask = createLaunchMetaTask(dependencyManager, remote);
     }
 
     @Override
@@ -87,6 +86,14 @@ public final class FabricInstallTask extends Task<Version> {
         dependencies.add(dependencyManager.checkLibraryCompletionAsync(getResult(), true));
     }
 
+    /**
+     * The launch metadata is cached by its entity tag, so it can be fetched ahead of installation.
+     */
+    static GetTask createLaunchMetaTask(DefaultDependencyManager dependencyManager, FabricRemoteVersion remote) {
+        return new GetTask(NetworkUtils.toURL(dependencyManager.getPrimaryDownloadProvider().injectURL(getLaunchMetaUrl(remote.getGameVersion(), remote.getSelfVersion()))))
+                .setCacheRepository(dependencyManager.getCacheRepository());
+    }
+
     private static String getLaunchMetaUrl(String gameVersion, String loaderVersion) {
         return String.format("https://meta.fabricmc.net/v2/versions/loader/%s/%s", gameVersion, loaderVersion);
     }
@@ -39,4 +39,9 @@ public class FabricRemoteVersion extends RemoteVersion {
     public Task<Version> getInstallTask(DefaultDependencyManager dependencyManager, Version baseVersion) {
         return new FabricInstallTask(dependencyManager, baseVersion, this);
     }
+
+    @Override
+    public Task<?> getPrefetchTask(DefaultDependencyManager dependencyManager) {
+        return FabricInstallTask.createLaunchMetaTask(dependencyManager, this);
+    }
 }
@@ -67,13 +67,7 @@ public final class ForgeInstallTask extends Task<Version> {
     public void preExecute() throws Exception {
         installer = Files.createTempFile("forge-installer", ".jar");
 
-        dependent = new FileDownloadTask(
-                Arrays.stream(remote.getUrl())
-                        .map(NetworkUtils::toURL)
-                        .collect(Collectors.toList()),
-                installer.toFile(), null)
-                .setCacheRepository(dependencyManager.getCacheRepository())
-                .setCaching(true);
+        dependent = createInstallerDownloadTask(dependencyManager, remote, installer);
     }
 
     @Override
@@ -105,6 +99,28 @@ public final class ForgeInstallTask extends Task<Version> {
             dependency = new ForgeOldInstallTask(dependencyManager, version, remote.getSelfVersion(), installer);
     }
 
+    private static FileDownloadTask createInstallerDownloadTask(DefaultDependencyManager dependencyManager, ForgeRemoteVersion remote, Path installer) {
+        return new FileDownloadTask(
+                Arrays.stream(remote.getUrl())
+                        .map(NetworkUtils::toURL)
+                        .collect(Collectors.toList()),
+                installer.toFile(), null)
+                .setCacheRepository(dependencyManager.getCacheRepository())
+                .setCaching(true);
+    }
+
+    /**
+     * Download the installer into the cache repository, where installation finds it by its entity tag.
+     * The downloaded file itself is dropped.
+     */
+    static Task<?> prefetchInstaller(DefaultDependencyManager dependencyManager, ForgeRemoteVersion remote) {
+        return Task.composeAsync(() -> {
+            Path installer = Files.createTempFile("forge-installer", ".jar");
+            return createInstallerDownloadTask(dependencyManager, remote, installer)
+                    .whenComplete(exception -> Files.deleteIfExists(installer));
+        });
+    }
+
     /**
      * Install Forge library from existing local file.
      * This method will try to identify this installer whether it is in old or new format.
@@ -39,4 +39,9 @@ public class ForgeRemoteVersion extends RemoteVersion {
     public Task<Version> getInstallTask(DefaultDependencyManager dependencyManager, Version baseVersion) {
         return new ForgeInstallTask(dependencyManager, baseVersion, this);
     }
+
+    @Override
+    public Task<?> getPrefetchTask(DefaultDependencyManager dependencyManager) {
+        return ForgeInstallTask.prefetchInstaller(dependencyManager, this);
+    }
 }
@@ -23,10 +23,13 @@ import org.jackhuang.hmcl.download.AbstractDependencyManager;
 import org.jackhuang.hmcl.game.AssetIndex;
 import org.jackhuang.hmcl.game.AssetIndexInfo;
 import org.jackhuang.hmcl.game.AssetObject;
+import org.jackhuang.hmcl.game.GameRepository;
 import org.jackhuang.hmcl.game.Version;
 import org.jackhuang.hmcl.task.FileDownloadTask;
+import org.jackhuang.hmcl.task.Schedulers;
 import org.jackhuang.hmcl.task.Task;
 import org.jackhuang.hmcl.util.CacheRepository;
+import org.jackhuang.hmcl.util.DigestCache;
 import org.jackhuang.hmcl.util.Logging;
 import org.jackhuang.hmcl.util.gson.JsonUtils;
 import org.jackhuang.hmcl.util.io.FileUtils;
@@ -35,9 +38,15 @@ import org.jackhuang.hmcl.util.io.NetworkUtils;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
@@ -68,6 +77,10 @@ public final class GameAssetDownloadTask extends Task<Void> {
         this.assetIndexFile = dependencyManager.getGameRepository().getIndexFile(version.getId(), assetIndexInfo.getId());
         this.integrityCheck = integrityCheck;
 
+        // Checking assets parses the index and hashes files, downloading them is bulk work.
+        setExecutor(Schedulers.computation());
+        setPriority(TaskPriority.LOW);
+
         if (!assetIndexFile.exists() || forceDownloadingIndex) {
             dependents.add(new GameAssetIndexDownloadTask(dependencyManager, this.version));
         } else {
@@ -98,38 +111,77 @@ public final class GameAssetDownloadTask extends Task<Void> {
             throw new GameAssetIndexDownloadTask.GameAssetIndexMalformedException();
         }
 
-        int progress = 0;
-        for (AssetObject assetObject : index.getObjects().values()) {
+        GameRepository repository = dependencyManager.getGameRepository();
+        CacheRepository cacheRepository = dependencyManager.getCacheRepository();
+        List<AssetObject> objects = new ArrayList<>(index.getObjects().values());
+        int total = objects.size();
+
+        // Stat every object in one walk over the objects directory rather than one by one.
+        Path objectsDirectory = repository.getAssetDirectory(version.getId(), assetIndexInfo.getId()).toPath().resolve("objects");
+        Map<Path, BasicFileAttributes> existing = FileUtils.listFiles(objectsDirectory, 2);
+
+        File[] files = new File[total];
+        BasicFileAttributes[] attributes = new BasicFileAttributes[total];
+        boolean[] missing = new boolean[total];
+        List<Integer> present = new ArrayList<>(total);
+        for (int i = 0; i < total; i++) {
+            AssetObject assetObject = objects.get(i);
+            files[i] = repository.getAssetObject(version.getId(), assetIndexInfo.getId(), assetObject);
+            Path file = files[i].toPath();
+            if (file.startsWith(objectsDirectory))
+                attributes[i] = existing.get(file);
+            else if (Files.isRegularFile(file))
+                attributes[i] = Files.readAttributes(file, BasicFileAttributes.class);
+
+            // A file of another size cannot match the hash, no need to read it.
+            missing[i] = attributes[i] == null
+                    || integrityCheck && assetObject.getSize() > 0 && attributes[i].size() != assetObject.getSize();
+            if (!missing[i])
+                present.add(i);
+        }
+
+        // Hashing is spread over the processors, each of which streams one file at a time.
+        AtomicInteger progress = new AtomicInteger(total - present.size());
+        Schedulers.forEachParallel(Schedulers.computation(), Runtime.getRuntime().availableProcessors(), present, i -> {
             if (isCancelled())
                 throw new InterruptedException();
 
-            File file = dependencyManager.getGameRepository().getAssetObject(version.getId(), assetIndexInfo.getId(), assetObject);
-            boolean download = !file.isFile();
+            AssetObject assetObject = objects.get(i);
+            Path file = files[i].toPath();
             try {
-                if (!download && integrityCheck && !assetObject.validateChecksum(file.toPath(), true))
-                    download = true;
+                if (integrityCheck && !assetObject.validateChecksum(file, attributes[i], true))
+                    missing[i] = true;
             } catch (IOException e) {
-                Logging.LOG.log(Level.WARNING, "Unable to calc hash value of file " + file.toPath(), e);
-            }
-            if (download) {
-                List<URL> urls = dependencyManager.getPreferredDownloadProviders().stream()
-                        .map(downloadProvider -> downloadProvider.getAssetBaseURL() + assetObject.getLocation())
-                        .map(NetworkUtils::toURL)
-                        .collect(Collectors.toList());
-
-                FileDownloadTask task = new FileDownloadTask(urls, file, new FileDownloadTask.IntegrityCheck("SHA-1", assetObject.getHash()));
-                task.setName(assetObject.getHash());
-                dependencies.add(task
-                        .setCacheRepository(dependencyManager.getCacheRepository())
-                        .setCaching(true)
-                        .setCandidate(dependencyManager.getCacheRepository().getCommonDirectory()
-                                .resolve("assets").resolve("objects").resolve(assetObject.getLocation())).withCounter());
-            } else {
-                dependencyManager.getCacheRepository().tryCacheFile(file.toPath(), CacheRepository.SHA1, assetObject.getHash());
+                Logging.LOG.log(Level.WARNING, "Unable to calc hash value of file " + file, e);
             }
+            if (!missing[i])
+                cacheRepository.tryCacheFile(file, CacheRepository.SHA1, assetObject.getHash());
+
+            updateProgress(progress.incrementAndGet(), total);
+        });
+
+        for (int i = 0; i < total; i++) {
+            if (!missing[i])
+                continue;
+
+            AssetObject assetObject = objects.get(i);
+            List<URL> urls = dependencyManager.getPreferredDownloadProviders().stream()
+                    .map(downloadProvider -> downloadProvider.getAssetBaseURL() + assetObject.getLocation())
+                    .map(NetworkUtils::toURL)
+                    .collect(Collectors.toList());
 
-            updateProgress(++progress, index.getObjects().size());
+            FileDownloadTask task = new FileDownloadTask(urls, files[i], new FileDownloadTask.IntegrityCheck("SHA-1", assetObject.getHash()));
+            task.setName(assetObject.getHash());
+            task.setExpectedSize(assetObject.getSize());
+            dependencies.add(task
+                    .setCacheRepository(cacheRepository)
+                    .setCaching(true)
+                    .setRacing(true)
+                    .setCandidate(cacheRepository.getCommonDirectory()
+                            .resolve("assets").resolve("objects").resolve(assetObject.getLocation())).withCounter());
         }
+        DigestCache.getInstance().save();
+        cacheRepository.saveAccesses();
 
         if (!dependencies.isEmpty()) {
             getProperties().put("total", dependencies.size());
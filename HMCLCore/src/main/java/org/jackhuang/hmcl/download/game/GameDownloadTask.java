@@ -46,6 +46,7 @@ public final class GameDownloadTask extends Task<Void> {
         this.version = version.resolve(dependencyManager.getGameRepository());
 
         setSignificance(TaskSignificance.MODERATE);
+        setPriority(TaskPriority.HIGH);
     }
 
     @Override
@@ -64,6 +65,8 @@ public final class GameDownloadTask extends Task<Void> {
                 .setCaching(true)
                 .setCacheRepository(dependencyManager.getCacheRepository());
 
+        task.setExpectedSize(version.getDownloadInfo().getSize());
+
         if (gameVersion != null)
             task.setCandidate(dependencyManager.getCacheRepository().getCommonDirectory().resolve("jars").resolve(gameVersion + ".jar"));
 
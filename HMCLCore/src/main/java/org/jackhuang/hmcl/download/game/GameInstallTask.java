@@ -18,7 +18,6 @@
 package org.jackhuang.hmcl.download.game;
 
 import org.jackhuang.hmcl.download.DefaultDependencyManager;
-import org.jackhuang.hmcl.game.DefaultGameRepository;
 import org.jackhuang.hmcl.game.Version;
 import org.jackhuang.hmcl.task.Task;
 import org.jackhuang.hmcl.util.gson.JsonUtils;
@@ -32,7 +31,6 @@ import static org.jackhuang.hmcl.download.LibraryAnalyzer.LibraryType.MINECRAFT;
 
 public class GameInstallTask extends Task<Version> {
 
-    private final DefaultGameRepository gameRepository;
     private final DefaultDependencyManager dependencyManager;
     private final Version version;
     private final GameRemoteVersion remote;
@@ -41,7 +39,6 @@ public class GameInstallTask extends Task<Version> {
 
     public GameInstallTask(DefaultDependencyManager dependencyManager, Version version, GameRemoteVersion remoteVersion) {
         this.dependencyManager = dependencyManager;
-        this.gameRepository = dependencyManager.getGameRepository();
         this.version = version;
         this.remote = remoteVersion;
         this.downloadTask = new VersionJsonDownloadTask(remoteVersion.getGameVersion(), dependencyManager);
@@ -68,6 +65,8 @@ public class GameInstallTask extends Task<Version> {
                 .setId(MINECRAFT.getPatchId()).setVersion(remote.getGameVersion()).setJar(null).setPriority(0);
         setResult(patch);
 
+        // The version json is left to the caller, who saves it after installing other libraries,
+        // so that a partially installed version is never written.
         Version version = new Version(this.version.getId()).addPatch(patch);
         dependencies.add(Task.allOf(
                 new GameDownloadTask(dependencyManager, remote.getGameVersion(), version),
@@ -75,7 +74,7 @@ public class GameInstallTask extends Task<Version> {
                         new GameAssetDownloadTask(dependencyManager, version, GameAssetDownloadTask.DOWNLOAD_INDEX_FORCIBLY, true),
                         new GameLibrariesTask(dependencyManager, version, true)
                 ).withStage("hmcl.install.assets")
-        ).withComposeAsync(gameRepository.save(version)));
+        ));
     }
 
 }
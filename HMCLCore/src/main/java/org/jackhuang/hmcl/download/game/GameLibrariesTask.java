@@ -20,7 +20,9 @@ package org.jackhuang.hmcl.download.game;
 import org.jackhuang.hmcl.download.AbstractDependencyManager;
 import org.jackhuang.hmcl.game.Library;
 import org.jackhuang.hmcl.game.Version;
+import org.jackhuang.hmcl.task.Schedulers;
 import org.jackhuang.hmcl.task.Task;
+import org.jackhuang.hmcl.util.DigestCache;
 import org.jackhuang.hmcl.util.Logging;
 
 import java.io.File;
@@ -29,6 +31,8 @@ import java.nio.file.Path;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.logging.Level;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * This task is to download game libraries.
@@ -67,6 +71,7 @@ public final class GameLibrariesTask extends Task<Void> {
         this.libraries = libraries;
 
         setSignificance(TaskSignificance.MODERATE);
+        setExecutor(Schedulers.computation());
     }
 
     @Override
@@ -75,26 +80,41 @@ public final class GameLibrariesTask extends Task<Void> {
     }
 
     @Override
-    public void execute() {
-        libraries.stream().filter(Library::appliesToCurrentEnvironment).forEach(library -> {
-            File file = dependencyManager.getGameRepository().getLibraryFile(version, library);
-            Path jar = file.toPath();
-            boolean download = !file.isFile();
-            try {
-                if (!download && integrityCheck && !library.getDownload().validateChecksum(jar, true)) download = true;
-                if (!download && integrityCheck &&
-                        library.getChecksums() != null && !library.getChecksums().isEmpty() &&
-                        !LibraryDownloadTask.checksumValid(jar.toFile(), library.getChecksums())) download = true;
-            } catch (IOException e) {
-                Logging.LOG.log(Level.WARNING, "Unable to calc hash value of file " + jar, e);
-            }
+    public void execute() throws Exception {
+        List<Library> applicable = libraries.stream().filter(Library::appliesToCurrentEnvironment).collect(Collectors.toList());
+        File[] files = new File[applicable.size()];
+        boolean[] download = new boolean[applicable.size()];
+        for (int i = 0; i < applicable.size(); i++) {
+            files[i] = dependencyManager.getGameRepository().getLibraryFile(version, applicable.get(i));
+            download[i] = !files[i].isFile();
+        }
+
+        // Libraries are hashed in parallel, tasks are created afterwards in the order of libraries.
+        if (integrityCheck) {
+            List<Integer> present = IntStream.range(0, applicable.size()).filter(i -> !download[i]).boxed().collect(Collectors.toList());
+            Schedulers.forEachParallel(Schedulers.computation(), Runtime.getRuntime().availableProcessors(), present, i -> {
+                Library library = applicable.get(i);
+                Path jar = files[i].toPath();
+                try {
+                    if (!library.getDownload().validateChecksum(jar, true)) download[i] = true;
+                    if (!download[i] &&
+                            library.getChecksums() != null && !library.getChecksums().isEmpty() &&
+                            !LibraryDownloadTask.checksumValid(jar.toFile(), library.getChecksums())) download[i] = true;
+                } catch (IOException e) {
+                    Logging.LOG.log(Level.WARNING, "Unable to calc hash value of file " + jar, e);
+                }
+            });
+        }
 
-            if (download) {
-                dependencies.add(new LibraryDownloadTask(dependencyManager, file, library));
+        for (int i = 0; i < applicable.size(); i++) {
+            if (download[i]) {
+                dependencies.add(new LibraryDownloadTask(dependencyManager, files[i], applicable.get(i)));
             } else {
-                dependencyManager.getCacheRepository().tryCacheLibrary(library, file.toPath());
+                dependencyManager.getCacheRepository().tryCacheLibrary(applicable.get(i), files[i].toPath());
             }
-        });
+        }
+        DigestCache.getInstance().save();
+        dependencyManager.getCacheRepository().saveAccesses();
     }
 
 }
@@ -25,17 +25,24 @@ import org.jackhuang.hmcl.task.DownloadException;
 import org.jackhuang.hmcl.task.FileDownloadTask;
 import org.jackhuang.hmcl.task.FileDownloadTask.IntegrityCheck;
 import org.jackhuang.hmcl.task.Task;
+import org.jackhuang.hmcl.util.DigestCache;
+import org.jackhuang.hmcl.util.DigestUtils;
 import org.jackhuang.hmcl.util.Logging;
 import org.jackhuang.hmcl.util.io.FileUtils;
 import org.jackhuang.hmcl.util.io.IOUtils;
+import org.jackhuang.hmcl.util.io.LinkStrategy;
 import org.jackhuang.hmcl.util.io.NetworkUtils;
-import org.tukaani.xz.XZInputStream;
+import org.tukaani.xz.SeekableFileInputStream;
+import org.tukaani.xz.SeekableXZInputStream;
+import org.tukaani.xz.XZIOException;
 
 import java.io.*;
 import java.net.URL;
-import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.*;
 import java.util.jar.JarEntry;
 import java.util.jar.JarInputStream;
@@ -44,7 +51,8 @@ import java.util.jar.Pack200;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
-import static org.jackhuang.hmcl.util.DigestUtils.digest;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.jackhuang.hmcl.util.Hex.encodeHex;
 
 public class LibraryDownloadTask extends Task<Void> {
@@ -101,7 +109,7 @@ public class LibraryDownloadTask extends Task<Void> {
             else
                 throw new LibraryDownloadException(library, t);
         } else {
-            if (xz) unpackLibrary(jar, Files.readAllBytes(xzFile.toPath()));
+            if (xz) unpackLibrary(jar, xzFile);
             if (!checksumValid(jar, library.getChecksums())) {
                 jar.delete();
                 throw new IOException("Checksum failed for " + library);
@@ -119,7 +127,7 @@ public class LibraryDownloadTask extends Task<Void> {
         Optional<Path> libPath = cacheRepository.getLibrary(originalLibrary);
         if (libPath.isPresent()) {
             try {
-                FileUtils.copyFile(libPath.get().toFile(), jar);
+                LinkStrategy.link(libPath.get(), jar.toPath());
                 cached = true;
                 return;
             } catch (IOException e) {
@@ -149,6 +157,7 @@ public class LibraryDownloadTask extends Task<Void> {
                         library.getDownload().getSha1() != null ? new IntegrityCheck("SHA-1", library.getDownload().getSha1()) : null)
                         .setCacheRepository(cacheRepository)
                         .setCaching(true);
+                task.setExpectedSize(library.getDownload().getSize());
                 xz = false;
             }
         } catch (IOException e) {
@@ -172,10 +181,9 @@ public class LibraryDownloadTask extends Task<Void> {
             if (checksums == null || checksums.isEmpty()) {
                 return true;
             }
-            byte[] fileData = Files.readAllBytes(libPath.toPath());
-            boolean valid = checksums.contains(encodeHex(digest("SHA-1", fileData)));
+            boolean valid = checksums.contains(DigestCache.getInstance().digest("SHA-1", libPath.toPath()));
             if (!valid && libPath.getName().endsWith(".jar")) {
-                valid = validateJar(fileData, checksums);
+                valid = validateJar(libPath.toPath(), checksums);
             }
             return valid;
         } catch (IOException e) {
@@ -184,85 +192,175 @@ public class LibraryDownloadTask extends Task<Void> {
         return false;
     }
 
-    private static boolean validateJar(byte[] data, List<String> checksums) throws IOException {
-        HashMap<String, String> files = new HashMap<>();
-        String[] hashes = null;
-        JarInputStream jar = new JarInputStream(new ByteArrayInputStream(data));
-        JarEntry entry = jar.getNextJarEntry();
-        while (entry != null) {
-            byte[] eData = IOUtils.readFullyWithoutClosing(jar);
-            if (entry.getName().equals("checksums.sha1")) {
-                hashes = new String(eData, Charset.forName("UTF-8")).split("\n");
-            }
-            if (!entry.isDirectory()) {
-                files.put(entry.getName(), encodeHex(digest("SHA-1", eData)));
-            }
-            entry = jar.getNextJarEntry();
-        }
-        jar.close();
-        if (hashes != null) {
-            boolean failed = !checksums.contains(files.get("checksums.sha1"));
-            if (!failed) {
-                for (String hash : hashes) {
-                    if ((!hash.trim().equals("")) && (hash.contains(" "))) {
-                        String[] e = hash.split(" ");
-                        String validChecksum = e[0];
-                        String target = hash.substring(validChecksum.length() + 1);
-                        String checksum = files.get(target);
-                        if ((!files.containsKey(target)) || (checksum == null)) {
-                            Logging.LOG.warning("    " + target + " : missing");
-                            failed = true;
-                            break;
-                        } else if (!checksum.equals(validChecksum)) {
-                            Logging.LOG.warning("    " + target + " : failed (" + checksum + ", " + validChecksum + ")");
-                            failed = true;
-                            break;
-                        }
-                    }
+    /**
+     * Check entries of the jar against the checksums.sha1 entry it contains, which is in turn checked against {@code checksums}.
+     *
+     * Entries are hashed while being inflated, and the jar is never held in memory.
+     * Entries following checksums.sha1, which is the last entry of jars unpacked by {@link #unpackLibrary}, are checked as soon as they are read.
+     */
+    private static boolean validateJar(Path file, List<String> checksums) throws IOException {
+        Map<String, String> files = new HashMap<>();
+        Map<String, String> expected = null;
+        MessageDigest digest = DigestUtils.getDigest("SHA-1");
+        byte[] buffer = new byte[IOUtils.DEFAULT_BUFFER_SIZE];
+
+        try (JarInputStream jar = new JarInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            for (JarEntry entry = jar.getNextJarEntry(); entry != null; entry = jar.getNextJarEntry()) {
+                if (entry.isDirectory())
+                    continue;
+
+                digest.reset();
+                String checksum;
+                if (entry.getName().equals("checksums.sha1")) {
+                    byte[] data = IOUtils.readFullyWithoutClosing(jar);
+                    checksum = encodeHex(digest.digest(data));
+                    if (!checksums.contains(checksum))
+                        return false;
+                    expected = parseChecksums(new String(data, UTF_8));
+                } else {
+                    DigestInputStream in = new DigestInputStream(jar, digest);
+                    while (in.read(buffer) >= 0) ;
+                    checksum = encodeHex(digest.digest());
+                    if (expected != null && !verifyEntry(entry.getName(), checksum, expected.get(entry.getName())))
+                        return false;
                 }
+                files.put(entry.getName(), checksum);
             }
-            return !failed;
         }
-        return false;
+
+        if (expected == null)
+            return false;
+        for (Map.Entry<String, String> entry : expected.entrySet())
+            if (!verifyEntry(entry.getKey(), files.get(entry.getKey()), entry.getValue()))
+                return false;
+        return true;
+    }
+
+    /**
+     * @return entry names mapped to the checksums listed in checksums.sha1
+     */
+    private static Map<String, String> parseChecksums(String content) {
+        Map<String, String> checksums = new HashMap<>();
+        for (String line : content.split("\n")) {
+            if (line.trim().equals("") || !line.contains(" "))
+                continue;
+            String validChecksum = line.substring(0, line.indexOf(' '));
+            checksums.put(line.substring(validChecksum.length() + 1), validChecksum);
+        }
+        return checksums;
+    }
+
+    private static boolean verifyEntry(String target, String checksum, String validChecksum) {
+        if (validChecksum == null)
+            return true; // not listed
+        if (checksum == null) {
+            Logging.LOG.warning("    " + target + " : missing");
+            return false;
+        } else if (!checksum.equals(validChecksum)) {
+            Logging.LOG.warning("    " + target + " : failed (" + checksum + ", " + validChecksum + ")");
+            return false;
+        }
+        return true;
     }
 
-    private static void unpackLibrary(File dest, byte[] src) throws IOException {
+    /**
+     * Unpack a library downloaded as {@code .pack.xz} to a jar.
+     *
+     * The decompressed file is the Pack200 archive, followed by the content of checksums.sha1,
+     * its length in 4 bytes little-endian, and "SIGN". The trailer is read by seeking to the end
+     * of the xz stream, then the archive is decompressed once more and unpacked as it streams,
+     * and the jar is hashed as it is written, so that neither is held in memory.
+     */
+    static void unpackLibrary(File dest, File src) throws IOException {
         if (dest.exists())
             if (!dest.delete())
                 throw new IOException("Unable to delete file " + dest);
 
-        byte[] decompressed;
-        try {
-            decompressed = IOUtils.readFullyAsByteArray(new XZInputStream(new ByteArrayInputStream(src)));
-        } catch (IOException e) {
+        try (SeekableXZInputStream xz = new SeekableXZInputStream(new SeekableFileInputStream(src))) {
+            long length = xz.length();
+            if (length < 8)
+                throw new ArtifactMalformedException("Library " + dest + " is malformed");
+
+            byte[] trailer = new byte[8];
+            xz.seek(length - 8);
+            new DataInputStream(xz).readFully(trailer);
+
+            String end = new String(trailer, 4, 4, US_ASCII);
+            if (!end.equals("SIGN"))
+                throw new IOException("Unpacking failed, signature missing " + end);
+
+            int len = trailer[0] & 0xFF | (trailer[1] & 0xFF) << 8 | (trailer[2] & 0xFF) << 16 | (trailer[3] & 0xFF) << 24;
+            if (len < 0 || len > length - 8)
+                throw new ArtifactMalformedException("Library " + dest + " is malformed");
+            long packLength = length - len - 8;
+
+            byte[] checksums = new byte[len];
+            xz.seek(packLength);
+            new DataInputStream(xz).readFully(checksums);
+
+            xz.seek(0);
+            MessageDigest digest = DigestUtils.getDigest("SHA-1");
+            try (JarOutputStream jos = new JarOutputStream(new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(dest)), digest))) {
+                Pack200.newUnpacker().unpack(new BufferedInputStream(new BoundedInputStream(xz, packLength)), jos);
+
+                JarEntry checksumsFile = new JarEntry("checksums.sha1");
+                checksumsFile.setTime(0L);
+                jos.putNextEntry(checksumsFile);
+                jos.write(checksums);
+                jos.closeEntry();
+            }
+            DigestCache.getInstance().put("SHA-1", dest.toPath(), encodeHex(digest.digest()));
+        } catch (XZIOException e) {
             throw new ArtifactMalformedException("Library " + dest + " is malformed");
         }
+    }
 
-        String end = new String(decompressed, decompressed.length - 4, 4);
-        if (!end.equals("SIGN"))
-            throw new IOException("Unpacking failed, signature missing " + end);
-
-        int x = decompressed.length;
-        int len = decompressed[(x - 8)] & 0xFF | (decompressed[(x - 7)] & 0xFF) << 8 | (decompressed[(x - 6)] & 0xFF) << 16 | (decompressed[(x - 5)] & 0xFF) << 24;
+    /**
+     * Reads at most {@code remaining} bytes, so that the unpacker does not take the trailer as another segment.
+     */
+    private static final class BoundedInputStream extends FilterInputStream {
+        private long remaining;
 
-        Path temp = Files.createTempFile("minecraft", ".pack");
+        BoundedInputStream(InputStream in, long remaining) {
+            super(in);
+            this.remaining = remaining;
+        }
 
-        byte[] checksums = Arrays.copyOfRange(decompressed, decompressed.length - len - 8, decompressed.length - 8);
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int b = super.read();
+            if (b >= 0)
+                remaining--;
+            return b;
+        }
 
-        try (OutputStream out = Files.newOutputStream(temp)) {
-            out.write(decompressed, 0, decompressed.length - len - 8);
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0)
+                remaining -= n;
+            return n;
         }
 
-        try (FileOutputStream jarBytes = new FileOutputStream(dest); JarOutputStream jos = new JarOutputStream(jarBytes)) {
-            Pack200.newUnpacker().unpack(temp.toFile(), jos);
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
 
-            JarEntry checksumsFile = new JarEntry("checksums.sha1");
-            checksumsFile.setTime(0L);
-            jos.putNextEntry(checksumsFile);
-            jos.write(checksums);
-            jos.closeEntry();
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
         }
 
-        Files.delete(temp);
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
     }
 }
@@ -52,6 +52,7 @@ public final class VersionJsonDownloadTask extends Task<String> {
             dependents.add(gameVersionList.refreshAsync());
 
         setSignificance(TaskSignificance.MODERATE);
+        setPriority(TaskPriority.HIGH);
     }
 
     @Override
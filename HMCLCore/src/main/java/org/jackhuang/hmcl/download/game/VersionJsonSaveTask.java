@@ -51,7 +51,8 @@ public final class VersionJsonSaveTask extends Task<Version> {
 
     @Override
     public void execute() throws Exception {
+        // A crash while saving must not leave a truncated json, which would be taken for a broken version.
         File json = repository.getVersionJson(version.getId()).getAbsoluteFile();
-        FileUtils.writeText(json, JsonUtils.GSON.toJson(version));
+        FileUtils.writeTextAtomically(json.toPath(), JsonUtils.GSON.toJson(version));
     }
 }
@@ -18,13 +18,13 @@
 package org.jackhuang.hmcl.game;
 
 import com.google.gson.JsonParseException;
-import org.jackhuang.hmcl.util.DigestUtils;
-import org.jackhuang.hmcl.util.Hex;
+import org.jackhuang.hmcl.util.DigestCache;
 import org.jackhuang.hmcl.util.StringUtils;
 import org.jackhuang.hmcl.util.gson.Validation;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 
 /**
  *
@@ -64,6 +64,11 @@ public final class AssetObject implements Validation {
 
     public boolean validateChecksum(Path file, boolean defaultValue) throws IOException {
         if (hash == null) return defaultValue;
-        return Hex.encodeHex(DigestUtils.digest("SHA-1", file)).equalsIgnoreCase(hash);
+        return DigestCache.getInstance().check("SHA-1", file, hash);
+    }
+
+    public boolean validateChecksum(Path file, BasicFileAttributes attributes, boolean defaultValue) throws IOException {
+        if (hash == null) return defaultValue;
+        return DigestCache.getInstance().check("SHA-1", file, attributes, hash);
     }
 }
@@ -18,6 +18,7 @@
 package org.jackhuang.hmcl.game;
 
 import com.google.gson.JsonParseException;
+import org.jackhuang.hmcl.download.InstallJournal;
 import org.jackhuang.hmcl.download.MaintainTask;
 import org.jackhuang.hmcl.download.game.VersionJsonSaveTask;
 import org.jackhuang.hmcl.event.Event;
@@ -127,6 +128,7 @@ public class DefaultGameRepository implements GameRepository {
         return new File(getBaseDirectory(), "versions/" + id);
     }
 
+    @Override
     public File getVersionJson(String id) {
         return new File(getVersionRoot(id), id + ".json");
     }
@@ -242,6 +244,10 @@ public class DefaultGameRepository implements GameRepository {
                             LOG.warning("Cannot rename jar file, ignoring version " + id);
                             return Stream.empty();
                         }
+                    } else if (InstallJournal.isAbandoned(dir)) {
+                        LOG.info("Deleting " + dir + " left by an installation abandoned");
+                        FileUtils.deleteDirectoryQuietly(dir);
+                        return Stream.empty();
                     } else {
                         LOG.info("No available json file found, ignoring version " + id);
                         return Stream.empty();
@@ -122,6 +122,14 @@ public interface GameRepository extends VersionProvider {
      */
     File getNativeDirectory(String id);
 
+    /**
+     * Get the json file of a version, which may not exist.
+     *
+     * @param id version id
+     * @return the version json
+     */
+    File getVersionJson(String id);
+
     /**
      * Get minecraft jar
      *
@@ -20,16 +20,19 @@ package org.jackhuang.hmcl.launch;
 import org.jackhuang.hmcl.auth.AuthInfo;
 import org.jackhuang.hmcl.game.Argument;
 import org.jackhuang.hmcl.game.Arguments;
+import org.jackhuang.hmcl.game.ExtractRules;
 import org.jackhuang.hmcl.game.GameRepository;
 import org.jackhuang.hmcl.game.LaunchOptions;
 import org.jackhuang.hmcl.game.Library;
 import org.jackhuang.hmcl.game.Version;
+import org.jackhuang.hmcl.task.Schedulers;
+import org.jackhuang.hmcl.util.CacheRepository;
 import org.jackhuang.hmcl.util.Lang;
 import org.jackhuang.hmcl.util.Log4jLevel;
+import org.jackhuang.hmcl.util.Pair;
 import org.jackhuang.hmcl.util.StringUtils;
 import org.jackhuang.hmcl.util.gson.UUIDTypeAdapter;
 import org.jackhuang.hmcl.util.io.FileUtils;
-import org.jackhuang.hmcl.util.io.Unzipper;
 import org.jackhuang.hmcl.util.platform.CommandBuilder;
 import org.jackhuang.hmcl.util.platform.JavaVersion;
 import org.jackhuang.hmcl.util.platform.ManagedProcess;
@@ -41,13 +44,16 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
-import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.function.Supplier;
 
 import static org.jackhuang.hmcl.util.Lang.mapOf;
@@ -73,6 +79,7 @@ public class DefaultLauncher extends Launcher {
 
     private CommandBuilder generateCommandLine(File nativeFolder) throws IOException {
         CommandBuilder res = new CommandBuilder();
+        LaunchPlan plan = LaunchPlan.of(repository, version);
 
         // Executable
         if (StringUtils.isNotBlank(options.getWrapper()))
@@ -91,7 +98,7 @@ public class DefaultLauncher extends Launcher {
 
             if (OperatingSystem.CURRENT_OS == OperatingSystem.OSX) {
                 res.add("-Xdock:name=Minecraft " + version.getId());
-                res.add("-Xdock:icon=" + repository.getAssetObject(version.getId(), version.getAssetIndex().getId(), "icons/minecraft.icns").getAbsolutePath());
+                res.add("-Xdock:icon=" + plan.getDockIcon());
             }
 
             if (OperatingSystem.CURRENT_OS != OperatingSystem.WINDOWS)
@@ -133,23 +140,16 @@ public class DefaultLauncher extends Launcher {
             res.add("-Dfml.ignorePatchDiscrepancies=true");
         }
 
-        LinkedList<String> classpath = new LinkedList<>();
-        for (Library library : version.getLibraries())
-            if (library.appliesToCurrentEnvironment() && !library.isNative()) {
-                File f = repository.getLibraryFile(version, library);
-                if (f.exists() && f.isFile())
-                    classpath.add(f.getAbsolutePath());
-            }
-
         File jar = repository.getVersionJar(version);
-        if (!jar.exists() || !jar.isFile())
+        if (!jar.isFile())
             throw new IOException("Minecraft jar does not exist");
-        classpath.add(jar.getAbsolutePath());
 
         // Provided Minecraft arguments
-        File gameAssets = repository.getActualAssetDirectory(version.getId(), version.getAssetIndex().getId());
+        File gameAssets = plan.getAssetDirectory();
+        if (gameAssets == null)
+            gameAssets = repository.getActualAssetDirectory(version.getId(), version.getAssetIndex().getId());
         Map<String, String> configuration = getConfigurations();
-        configuration.put("${classpath}", String.join(OperatingSystem.PATH_SEPARATOR, classpath));
+        configuration.put("${classpath}", String.join(OperatingSystem.PATH_SEPARATOR, plan.getClasspath()));
         configuration.put("${natives_directory}", nativeFolder.getAbsolutePath());
         configuration.put("${game_assets}", gameAssets.getAbsolutePath());
         configuration.put("${assets_root}", gameAssets.getAbsolutePath());
@@ -234,26 +234,38 @@ public class DefaultLauncher extends Launcher {
     protected void appendJvmArgs(CommandBuilder result) {
     }
 
+    /**
+     * Extract native libraries into {@code destination}, through the natives store in the cache directory
+     * if there is one, so that natives are extracted only when the libraries change.
+     */
     public void decompressNatives(File destination) throws NotDecompressingNativesException {
         try {
-            FileUtils.cleanDirectoryQuietly(destination);
+            List<Pair<Path, ExtractRules>> natives = new ArrayList<>();
             for (Library library : version.getLibraries())
                 if (library.isNative())
-                    new Unzipper(repository.getLibraryFile(version, library), destination)
-                            .setFilter((zipEntry, isDirectory, destFile, path) -> {
-                                if (!isDirectory && Files.isRegularFile(destFile) && Files.size(destFile) == Files.size(zipEntry))
-                                    return false;
-                                String ext = FileUtils.getExtension(destFile);
-                                if (ext.equals("sha1") || ext.equals("git"))
-                                    return false;
-                                return library.getExtract().shouldExtract(path);
-                            })
-                            .setReplaceExistentFile(false).unzip();
+                    natives.add(pair(repository.getLibraryFile(version, library).toPath(), library.getExtract()));
+
+            NativesStore store = getNativesStore();
+            if (store != null) {
+                store.install(natives, destination.toPath());
+            } else {
+                FileUtils.cleanDirectoryQuietly(destination);
+                for (Pair<Path, ExtractRules> library : natives)
+                    NativesStore.extract(library.getKey(), library.getValue(), destination.toPath());
+            }
         } catch (IOException e) {
             throw new NotDecompressingNativesException(e);
         }
     }
 
+    /**
+     * @return the natives store shared by all versions, or null to extract natives into every version directly.
+     */
+    protected NativesStore getNativesStore() {
+        Path cacheDirectory = CacheRepository.getInstance().getCacheDirectory();
+        return cacheDirectory == null ? null : new NativesStore(cacheDirectory.resolve("natives"));
+    }
+
     protected Map<String, String> getConfigurations() {
         return mapOf(
                 pair("${auth_player_name}", authInfo.getUsername()),
@@ -276,10 +288,36 @@ public class DefaultLauncher extends Launcher {
     public ManagedProcess launch() throws IOException, InterruptedException {
         File nativeFolder = repository.getNativeDirectory(version.getId());
 
+        // Natives are extracted while the command line is generated.
+        Future<?> natives = Schedulers.io().submit(() -> {
+            decompressNatives(nativeFolder);
+            return null;
+        });
+
         // To guarantee that when failed to generate launch command line, we will not call pre-launch command
-        List<String> rawCommandLine = generateCommandLine(nativeFolder).asList();
+        List<String> rawCommandLine;
+        try {
+            rawCommandLine = generateCommandLine(nativeFolder).asList();
+        } catch (Throwable e) {
+            // Wait for the natives rather than cancelling them, as a cancelled future does not wait for its task,
+            // so that they are not extracted while the launch is retried.
+            try {
+                natives.get();
+            } catch (ExecutionException ignored) {
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            throw e;
+        }
 
-        decompressNatives(nativeFolder);
+        try {
+            natives.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            else
+                throw new NotDecompressingNativesException(e.getCause());
+        }
 
         File runDirectory = repository.getRunDirectory(version.getId());
 
@@ -339,13 +377,15 @@ public class DefaultLauncher extends Launcher {
     private void startMonitors(ManagedProcess managedProcess, ProcessListener processListener, boolean isDaemon) {
         processListener.setProcess(managedProcess);
         Thread stdout = Lang.thread(new StreamPump(managedProcess.getProcess().getInputStream(), it -> {
-            processListener.onLog(it + OperatingSystem.LINE_SEPARATOR, Optional.ofNullable(Log4jLevel.guessLevel(it)).orElse(Log4jLevel.INFO));
-            managedProcess.addLine(it);
+            Log4jLevel level = Optional.ofNullable(Log4jLevel.guessLevel(it)).orElse(Log4jLevel.INFO);
+            processListener.onLog(it + OperatingSystem.LINE_SEPARATOR, level);
+            managedProcess.addLine(it, level);
         }), "stdout-pump", isDaemon);
         managedProcess.addRelatedThread(stdout);
         Thread stderr = Lang.thread(new StreamPump(managedProcess.getProcess().getErrorStream(), it -> {
             processListener.onLog(it + OperatingSystem.LINE_SEPARATOR, Log4jLevel.ERROR);
-            managedProcess.addLine(it);
+            // Shown as errors, but tagged with the level guessed in the store so that its error index is not flooded.
+            managedProcess.addErrorLine(it);
         }), "stderr-pump", isDaemon);
         managedProcess.addRelatedThread(stderr);
         managedProcess.addRelatedThread(Lang.thread(new ExitWaiter(managedProcess, Arrays.asList(stdout, stderr), processListener::onExit), "exit-waiter", isDaemon));
@@ -21,14 +21,12 @@ import org.jackhuang.hmcl.event.EventBus;
 import org.jackhuang.hmcl.event.JVMLaunchFailedEvent;
 import org.jackhuang.hmcl.event.ProcessExitedAbnormallyEvent;
 import org.jackhuang.hmcl.event.ProcessStoppedEvent;
-import org.jackhuang.hmcl.util.Log4jLevel;
 import org.jackhuang.hmcl.util.StringUtils;
 import org.jackhuang.hmcl.util.platform.ManagedProcess;
 
 import java.util.Collection;
 import java.util.List;
 import java.util.function.BiConsumer;
-import java.util.stream.Collectors;
 
 /**
  *
@@ -60,12 +58,14 @@ final class ExitWaiter implements Runnable {
             for (Thread thread : joins)
                 thread.join();
 
-            List<String> errorLines = process.getLines().stream()
-                    .filter(Log4jLevel::guessLogLineError).collect(Collectors.toList());
+            // Lines are tagged with levels when they are read, and error lines are indexed by the log store.
+            process.getLog().close();
+            List<String> errorLines = process.getLog().getErrorLines();
             ProcessListener.ExitType exitType;
 
             // LaunchWrapper will catch the exception logged and will exit normally.
-            if (exitCode != 0 && StringUtils.containsOne(errorLines,
+            // JVM failures are printed to standard error without a level.
+            if (exitCode != 0 && StringUtils.containsOne(process.getUntaggedErrorLines(),
                     "Could not create the Java Virtual Machine.",
                     "Error occurred during initialization of VM",
                     "A fatal exception has occurred. Program will exit.")) {
@@ -0,0 +1,229 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.launch;
+
+import com.google.gson.JsonParseException;
+import org.jackhuang.hmcl.game.GameRepository;
+import org.jackhuang.hmcl.game.Library;
+import org.jackhuang.hmcl.game.Version;
+import org.jackhuang.hmcl.util.DigestUtils;
+import org.jackhuang.hmcl.util.Hex;
+import org.jackhuang.hmcl.util.Logging;
+import org.jackhuang.hmcl.util.StringUtils;
+import org.jackhuang.hmcl.util.gson.JsonUtils;
+import org.jackhuang.hmcl.util.gson.Validation;
+import org.jackhuang.hmcl.util.io.FileUtils;
+import org.jackhuang.hmcl.util.platform.OperatingSystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+
+/**
+ * The parts of the launch command which are costly to work out but rarely change, kept in
+ * {@code hmcl-launch.plan} of the version root.
+ *
+ * The plan is keyed by a fingerprint of the version json files of the inheritance chain, the asset index file
+ * and the platform, taken from the sizes and modification times of the files alone, so launching the same version
+ * again neither checks each library nor reads the asset index.
+ * Libraries missing when the plan was made are checked at every launch, and the plan is made again once
+ * one of them appears. Libraries deleted afterwards are left in the classpath, which the JVM ignores.
+ */
+final class LaunchPlan implements Validation {
+
+    private final String fingerprint;
+    private final List<String> classpath;
+    private final List<String> missing;
+    private final String assetDirectory;
+    private final String dockIcon;
+
+    /**
+     * For Gson.
+     */
+    private LaunchPlan() {
+        this(null, new ArrayList<>(), new ArrayList<>(), null, null);
+    }
+
+    private LaunchPlan(String fingerprint, List<String> classpath, List<String> missing, String assetDirectory, String dockIcon) {
+        this.fingerprint = fingerprint;
+        this.classpath = classpath;
+        this.missing = missing;
+        this.assetDirectory = assetDirectory;
+        this.dockIcon = dockIcon;
+    }
+
+    /**
+     * @return the libraries present when the plan was made, followed by the game jar.
+     */
+    public List<String> getClasspath() {
+        return classpath;
+    }
+
+    /**
+     * @return the asset directory, or null if it has to be worked out at every launch, as virtual assets
+     * are copied into place then.
+     */
+    public File getAssetDirectory() {
+        return assetDirectory == null ? null : new File(assetDirectory);
+    }
+
+    /**
+     * @return the dock icon on macOS, null on other systems.
+     */
+    public String getDockIcon() {
+        return dockIcon;
+    }
+
+    private boolean isStale() {
+        for (String library : missing)
+            if (new File(library).isFile())
+                return true;
+        return false;
+    }
+
+    @Override
+    public void validate() throws JsonParseException {
+        if (StringUtils.isBlank(fingerprint))
+            throw new JsonParseException("LaunchPlan.fingerprint cannot be blank");
+        if (classpath == null || classpath.isEmpty())
+            throw new JsonParseException("LaunchPlan.classpath cannot be empty");
+        if (missing == null)
+            throw new JsonParseException("LaunchPlan.missing cannot be null");
+    }
+
+    /**
+     * Load the plan of launching {@code version}, or make it if it is missing or out of date.
+     *
+     * @param version the resolved version
+     * @throws IOException if the plan cannot be made, the plan failing to be saved is only logged.
+     */
+    public static LaunchPlan of(GameRepository repository, Version version) throws IOException {
+        Path file = getFile(repository, version);
+        String fingerprint = fingerprint(repository, version);
+
+        if (Files.isRegularFile(file)) {
+            try {
+                LaunchPlan plan = JsonUtils.fromNonNullJson(FileUtils.readText(file), LaunchPlan.class);
+                if (fingerprint.equals(plan.fingerprint) && !plan.isStale())
+                    return plan;
+            } catch (IOException | JsonParseException e) {
+                Logging.LOG.log(Level.WARNING, "Unable to read launch plan of " + version.getId(), e);
+            }
+        }
+
+        LaunchPlan plan = create(repository, version, fingerprint);
+        try {
+            FileUtils.writeTextAtomically(file, JsonUtils.GSON.toJson(plan));
+        } catch (IOException e) {
+            Logging.LOG.log(Level.WARNING, "Unable to save launch plan of " + version.getId(), e);
+        }
+        return plan;
+    }
+
+    private static LaunchPlan create(GameRepository repository, Version version, String fingerprint) throws IOException {
+        List<String> classpath = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        for (File library : getClasspathLibraries(repository, version))
+            if (library.isFile())
+                classpath.add(library.getAbsolutePath());
+            else
+                missing.add(library.getAbsolutePath());
+        classpath.add(repository.getVersionJar(version).getAbsolutePath());
+
+        String assetId = version.getAssetIndex().getId();
+        String assetDirectory = null;
+        try {
+            if (!repository.getAssetIndex(version.getId(), assetId).isVirtual())
+                assetDirectory = repository.getActualAssetDirectory(version.getId(), assetId).getAbsolutePath();
+        } catch (IOException e) {
+            // The asset index is missing or malformed, leave it to the launch.
+        }
+
+        String dockIcon = null;
+        if (OperatingSystem.CURRENT_OS == OperatingSystem.OSX)
+            dockIcon = repository.getAssetObject(version.getId(), assetId, "icons/minecraft.icns").getAbsolutePath();
+
+        return new LaunchPlan(fingerprint, classpath, missing, assetDirectory, dockIcon);
+    }
+
+    static List<File> getClasspathLibraries(GameRepository repository, Version version) {
+        List<File> libraries = new ArrayList<>();
+        for (Library library : version.getLibraries())
+            if (library.appliesToCurrentEnvironment() && !library.isNative())
+                libraries.add(repository.getLibraryFile(version, library));
+        return libraries;
+    }
+
+    static String fingerprint(GameRepository repository, Version version) throws IOException {
+        MessageDigest digest = DigestUtils.getDigest("SHA-1");
+        update(digest, FORMAT);
+        // Rules of libraries depend on the platform.
+        update(digest, OperatingSystem.CURRENT_OS.name());
+        update(digest, OperatingSystem.SYSTEM_ARCHITECTURE);
+
+        // The resolved version, the paths of its libraries and the game jar follow from the version json files.
+        if (repository.hasVersion(version.getId())) {
+            Set<String> visited = new HashSet<>();
+            for (String id = version.getId(); id != null && visited.add(id);
+                 id = repository.hasVersion(id) ? repository.getVersion(id).getInheritsFrom() : null)
+                update(digest, repository.getVersionJson(id).toPath());
+        } else {
+            // Not loaded from the repository, such as a version made up in memory.
+            update(digest, JsonUtils.GSON.toJson(version));
+        }
+
+        update(digest, repository.getIndexFile(version.getId(), version.getAssetIndex().getId()).toPath());
+        return Hex.encodeHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, Path file) throws IOException {
+        update(digest, file.toAbsolutePath().toString());
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            update(digest, attributes.size() + ":" + attributes.lastModifiedTime().toMillis());
+        } catch (NoSuchFileException e) {
+            update(digest, "-");
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    public static Path getFile(GameRepository repository, Version version) {
+        return repository.getVersionRoot(version.getId()).toPath().resolve(FILE_NAME);
+    }
+
+    public static final String FILE_NAME = "hmcl-launch.plan";
+
+    /**
+     * Changed whenever the way a plan is made changes, so that plans made by older launchers are made again.
+     */
+    private static final String FORMAT = "1";
+}
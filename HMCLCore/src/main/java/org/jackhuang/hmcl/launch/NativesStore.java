@@ -0,0 +1,198 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.launch;
+
+import com.google.gson.JsonParseException;
+import org.jackhuang.hmcl.game.ExtractRules;
+import org.jackhuang.hmcl.util.DigestCache;
+import org.jackhuang.hmcl.util.DigestUtils;
+import org.jackhuang.hmcl.util.Hex;
+import org.jackhuang.hmcl.util.Logging;
+import org.jackhuang.hmcl.util.Pair;
+import org.jackhuang.hmcl.util.gson.JsonUtils;
+import org.jackhuang.hmcl.util.io.FileUtils;
+import org.jackhuang.hmcl.util.io.LinkStrategy;
+import org.jackhuang.hmcl.util.io.Unzipper;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * Native libraries extracted once and shared by all versions.
+ *
+ * An entry holds the files extracted from a native library jar, keyed by the SHA-1 of the jar and its
+ * extract rules. It is extracted into a temporary directory and renamed into place, so an entry either is
+ * complete or does not exist. The natives directory of a version is filled with links to the entries,
+ * see {@link LinkStrategy}, and records the entries in {@code hmcl-natives.json}, so that it is only filled
+ * again when the native libraries of the version change.
+ *
+ * Files of entries are read-only, so that a game rewriting a native in place fails instead of changing
+ * the entry shared with other versions by hard links.
+ */
+public final class NativesStore {
+
+    private final Path directory;
+
+    public NativesStore(Path directory) {
+        this.directory = directory;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Fill {@code destination} with the files extracted from {@code libraries}, unless it holds them already.
+     * A file provided by several libraries is taken from the first one.
+     *
+     * @param libraries the native library jars and their extract rules
+     * @param destination the natives directory of a version
+     * @throws IOException if a library cannot be extracted or linked
+     */
+    public void install(List<Pair<Path, ExtractRules>> libraries, Path destination) throws IOException {
+        List<String> keys = new ArrayList<>(libraries.size());
+        for (Pair<Path, ExtractRules> library : libraries)
+            keys.add(getKey(library.getKey(), library.getValue()));
+
+        Path manifestFile = destination.resolve(MANIFEST_FILE_NAME);
+        Manifest manifest = readManifest(manifestFile);
+        if (manifest != null && keys.equals(manifest.entries) && manifest.isInstalled(destination))
+            return;
+
+        FileUtils.cleanDirectoryQuietly(destination.toFile());
+        Files.createDirectories(destination);
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < libraries.size(); i++) {
+            Path entry = getEntry(libraries.get(i).getKey(), libraries.get(i).getValue(), keys.get(i));
+            Files.walkFileTree(entry, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    String relativePath = entry.relativize(file).toString().replace('\\', '/');
+                    Path target = destination.resolve(relativePath);
+                    // Deleting a read-only link on Windows makes the entry writable.
+                    if (file.toFile().canWrite())
+                        file.toFile().setReadOnly();
+                    if (!Files.exists(target)) {
+                        LinkStrategy.link(file, target);
+                        files.add(relativePath);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        // Written at last, so that a directory filled partially is filled again.
+        FileUtils.writeTextAtomically(manifestFile, JsonUtils.GSON.toJson(new Manifest(keys, files)));
+    }
+
+    private Path getEntry(Path library, ExtractRules rules, String key) throws IOException {
+        Path entry = directory.resolve(key.substring(0, 2)).resolve(key);
+        if (Files.isDirectory(entry))
+            return entry;
+
+        Path temp = entry.resolveSibling(key + ".tmp" + Long.toHexString(System.nanoTime()));
+        try {
+            extract(library, rules, temp);
+            Files.walkFileTree(temp, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    file.toFile().setReadOnly();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Another launch may have extracted the same library meanwhile.
+            if (!Files.isDirectory(entry))
+                throw e;
+        } finally {
+            if (Files.exists(temp))
+                FileUtils.deleteDirectoryQuietly(temp.toFile());
+        }
+        return entry;
+    }
+
+    private static String getKey(Path library, ExtractRules rules) throws IOException {
+        StringBuilder builder = new StringBuilder(DigestCache.getInstance().digest("SHA-1", library));
+        for (String exclude : rules.getExclude())
+            builder.append('\0').append(exclude);
+        return Hex.encodeHex(DigestUtils.digest("SHA-1", builder.toString()));
+    }
+
+    private static Manifest readManifest(Path manifestFile) {
+        if (!Files.isRegularFile(manifestFile))
+            return null;
+        try {
+            return JsonUtils.fromNonNullJson(FileUtils.readText(manifestFile), Manifest.class);
+        } catch (IOException | JsonParseException e) {
+            Logging.LOG.log(Level.WARNING, "Unable to read natives manifest " + manifestFile, e);
+            return null;
+        }
+    }
+
+    /**
+     * Extract the files of a native library to {@code destination}, leaving out the excluded ones
+     * and the signatures of the jar.
+     */
+    public static void extract(Path library, ExtractRules rules, Path destination) throws IOException {
+        new Unzipper(library, destination)
+                .setFilter((zipEntry, isDirectory, destFile, path) -> {
+                    String ext = FileUtils.getExtension(destFile);
+                    if (!isDirectory && (ext.equals("sha1") || ext.equals("git")))
+                        return false;
+                    return rules.shouldExtract(path);
+                })
+                .setReplaceExistentFile(false).unzip();
+    }
+
+    public static final String MANIFEST_FILE_NAME = "hmcl-natives.json";
+
+    private static final class Manifest {
+        private final List<String> entries;
+        private final List<String> files;
+
+        /**
+         * For Gson.
+         */
+        private Manifest() {
+            this(new ArrayList<>(), new ArrayList<>());
+        }
+
+        Manifest(List<String> entries, List<String> files) {
+            this.entries = entries;
+            this.files = files;
+        }
+
+        boolean isInstalled(Path destination) {
+            if (entries == null || files == null)
+                return false;
+            for (String file : files)
+                if (!Files.isRegularFile(destination.resolve(file)))
+                    return false;
+            return true;
+        }
+    }
+}
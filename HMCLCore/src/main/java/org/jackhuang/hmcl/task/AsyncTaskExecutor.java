@@ -28,15 +28,25 @@ import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 
 /**
+ * Runs the task graph by continuations.
+ *
+ * Only preExecute, execute and postExecute of a task are submitted to the executor of the task,
+ * wrapped in {@link PrioritizedRunnable} with the priority of the task. Bookkeeping between them,
+ * such as changing states, notifying listeners and starting dependents and dependencies, runs on
+ * the thread that finished the previous step, instead of hopping through a shared pool.
  *
  * @author huangyuhui
  */
 public final class AsyncTaskExecutor extends TaskExecutor {
 
-    private CompletableFuture<Boolean> future;
+    private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+    private volatile boolean started;
 
     public AsyncTaskExecutor(Task<?> task) {
         super(task);
@@ -44,32 +54,42 @@ public final class AsyncTaskExecutor extends TaskExecutor {
 
     @Override
     public TaskExecutor start() {
+        started = true;
         taskListeners.forEach(TaskListener::onStart);
-        future = executeTasks(null, Collections.singleton(firstTask))
-                .thenApplyAsync(exception -> {
-                    boolean success = exception == null;
-
-                    if (!success) {
-                        // We log exception stacktrace because some of exceptions occurred because of bugs.
-                        Logging.LOG.log(Level.WARNING, "An exception occurred in task execution", exception);
-
-                        Throwable resolvedException = resolveException(exception);
-                        if (resolvedException instanceof RuntimeException &&
-                                !(resolvedException instanceof CancellationException) &&
-                                !(resolvedException instanceof JsonParseException)) {
-                            // Track uncaught RuntimeException which are thrown mostly by our mistake
-                            if (uncaughtExceptionHandler != null)
-                                uncaughtExceptionHandler.uncaughtException(Thread.currentThread(), resolvedException);
-                        }
+        startMetering();
+        executeTasks(null, Collections.singleton(firstTask), exception -> {
+            stopMetering();
+            saveTrace();
+            if (exception != null && !(exception instanceof Exception)) {
+                Lang.handleUncaughtException(exception);
+                future.complete(false);
+                return;
+            }
+
+            try {
+                boolean success = exception == null;
+
+                if (!success) {
+                    // We log exception stacktrace because some of exceptions occurred because of bugs.
+                    Logging.LOG.log(Level.WARNING, "An exception occurred in task execution", exception);
+
+                    Throwable resolvedException = resolveException(exception);
+                    if (resolvedException instanceof RuntimeException &&
+                            !(resolvedException instanceof CancellationException) &&
+                            !(resolvedException instanceof JsonParseException)) {
+                        // Track uncaught RuntimeException which are thrown mostly by our mistake
+                        if (uncaughtExceptionHandler != null)
+                            uncaughtExceptionHandler.uncaughtException(Thread.currentThread(), resolvedException);
                     }
+                }
 
-                    taskListeners.forEach(it -> it.onStop(success, this));
-                    return success;
-                })
-                .exceptionally(e -> {
-                    Lang.handleUncaughtException(resolveException(e));
-                    return false;
-                });
+                taskListeners.forEach(it -> it.onStop(success, this));
+                future.complete(success);
+            } catch (Throwable e) {
+                Lang.handleUncaughtException(resolveException(e));
+                future.complete(false);
+            }
+        });
         return this;
     }
 
@@ -90,166 +110,219 @@ public final class AsyncTaskExecutor extends TaskExecutor {
 
     @Override
     public synchronized void cancel() {
-        if (future == null) {
+        if (!started) {
             throw new IllegalStateException("Cannot cancel a not started TaskExecutor");
         }
 
         cancelled.set(true);
         future.cancel(true);
+        cancellationScope.cancel();
     }
 
-    private CompletableFuture<Exception> executeTasks(Task<?> parentTask, Collection<Task<?>> tasks) {
-        if (tasks == null || tasks.isEmpty())
-            return CompletableFuture.completedFuture(null);
-
-        return CompletableFuture.completedFuture(null)
-                .thenComposeAsync(unused -> {
-                    totTask.addAndGet(tasks.size());
-
-                    return CompletableFuture.allOf(tasks.stream()
-                            .map(task -> CompletableFuture.completedFuture(null)
-                                    .thenComposeAsync(unused2 -> executeTask(parentTask, task))
-                            ).toArray(CompletableFuture<?>[]::new));
-                })
-                .thenApplyAsync(unused -> (Exception) null)
-                .exceptionally(throwable -> {
-                    Throwable resolved = resolveException(throwable);
-                    if (resolved instanceof Exception) {
-                        return (Exception) resolved;
-                    } else {
-                        // If an error occurred, we just rethrow it.
-                        throw new CompletionException(throwable);
-                    }
-                });
+    /**
+     * Execute {@code tasks} in parallel.
+     *
+     * @param callback receives null if all tasks succeeded, or the failure of one of them.
+     */
+    private void executeTasks(Task<?> parentTask, Collection<Task<?>> tasks, Consumer<Throwable> callback) {
+        if (tasks == null || tasks.isEmpty()) {
+            callback.accept(null);
+            return;
+        }
+
+        Task<?>[] array = tasks.toArray(new Task<?>[0]);
+        totTask.addAndGet(array.length);
+
+        AtomicInteger remaining = new AtomicInteger(array.length);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (Task<?> task : array) {
+            executeTask(parentTask, task, throwable -> {
+                if (throwable != null)
+                    failure.compareAndSet(null, throwable);
+                if (remaining.decrementAndGet() == 0)
+                    callback.accept(failure.get());
+            });
+        }
     }
 
-    private CompletableFuture<?> executeTask(Task<?> parentTask, Task<?> task) {
-        return CompletableFuture.completedFuture(null)
-                .thenComposeAsync(unused -> {
-                    task.setCancelled(this::isCancelled);
-                    task.setState(Task.TaskState.READY);
-                    if (parentTask != null && task.getStage() == null)
-                        task.setStage(parentTask.getStage());
+    private void executeTask(Task<?> parentTask, Task<?> task, Consumer<Throwable> callback) {
+        try {
+            checkCancelled();
+            task.setCancelled(this::isCancelled);
+            task.setCancellationScope(cancellationScope);
+            task.setState(Task.TaskState.READY);
+            if (parentTask != null) {
+                if (task.getStage() == null)
+                    task.setStage(parentTask.getStage());
+                task.inheritPriority(parentTask);
+            }
+            attachTransferMeter(task);
+            traceReady(task, parentTask);
 
-                    if (task.getSignificance().shouldLog())
-                        Logging.LOG.log(Level.FINE, "Executing task: " + task.getName());
+            if (task.getSignificance().shouldLog())
+                Logging.LOG.log(Level.FINE, "Executing task: " + task.getName());
 
-                    taskListeners.forEach(it -> it.onReady(task));
+            taskListeners.forEach(it -> it.onReady(task));
 
-                    if (task.doPreExecute()) {
-                        return CompletableFuture.runAsync(wrap(task::preExecute), task.getExecutor());
-                    } else {
-                        return CompletableFuture.completedFuture(null);
-                    }
-                })
-                .thenComposeAsync(unused -> executeTasks(task, task.getDependents()))
-                .thenComposeAsync(dependentsException -> {
-                    boolean isDependentsSucceeded = dependentsException == null;
-
-                    if (!isDependentsSucceeded && task.isRelyingOnDependents()) {
-                        task.setException(dependentsException);
-                        rethrow(dependentsException);
-                    }
+            if (task.doPreExecute())
+                runStep(task, traced(task, TaskTracer.Phase.PRE_EXECUTE, task::preExecute), () -> executeDependents(task, callback), callback);
+            else
+                executeDependents(task, callback);
+        } catch (Throwable e) {
+            onFailed(task, e, callback);
+        }
+    }
 
-                    if (isDependentsSucceeded)
-                        task.setDependentsSucceeded();
+    private void executeDependents(Task<?> task, Consumer<Throwable> callback) {
+        Collection<Task<?>> dependents = task.getDependents();
+        traceWaitBegin(task, TaskTracer.Phase.DEPENDENTS, dependents);
+        executeTasks(task, dependents, dependentsException -> {
+            traceWaitEnd(task, TaskTracer.Phase.DEPENDENTS);
+            try {
+                if (dependentsException != null && !(dependentsException instanceof Exception))
+                    throw dependentsException;
+
+                boolean isDependentsSucceeded = dependentsException == null;
+
+                if (!isDependentsSucceeded && task.isRelyingOnDependents()) {
+                    task.setException((Exception) dependentsException);
+                    throw dependentsException;
+                }
+
+                if (isDependentsSucceeded)
+                    task.setDependentsSucceeded();
 
-                    return CompletableFuture.runAsync(wrap(() -> {
-                        task.setState(Task.TaskState.RUNNING);
-                        taskListeners.forEach(it -> it.onRunning(task));
+                runStep(task, traced(task, TaskTracer.Phase.EXECUTE, () -> {
+                    task.setState(Task.TaskState.RUNNING);
+                    taskListeners.forEach(it -> it.onRunning(task));
+                    try {
                         task.execute();
-                    }), task.getExecutor()).whenComplete((unused, throwable) -> {
+                    } finally {
                         task.setState(Task.TaskState.EXECUTED);
-                        rethrow(throwable);
-                    });
-                })
-                .thenComposeAsync(unused -> executeTasks(task, task.getDependencies()))
-                .thenComposeAsync(dependenciesException -> {
-                    boolean isDependenciesSucceeded = dependenciesException == null;
-
-                    if (isDependenciesSucceeded)
-                        task.setDependenciesSucceeded();
-
-                    if (task.doPostExecute()) {
-                        return CompletableFuture.runAsync(wrap(task::postExecute), task.getExecutor())
-                                .thenApply(unused -> dependenciesException);
-                    } else {
-                        return CompletableFuture.completedFuture(dependenciesException);
-                    }
-                })
-                .thenAcceptAsync(dependenciesException -> {
-                    boolean isDependenciesSucceeded = dependenciesException == null;
-
-                    if (!isDependenciesSucceeded && task.isRelyingOnDependencies()) {
-                        Logging.LOG.severe("Subtasks failed for " + task.getName());
-                        task.setException(dependenciesException);
-                        rethrow(dependenciesException);
                     }
+                }), () -> executeDependencies(task, callback), callback);
+            } catch (Throwable e) {
+                onFailed(task, e, callback);
+            }
+        });
+    }
 
-                    if (task.getSignificance().shouldLog()) {
-                        Logging.LOG.log(Level.FINER, "Task finished: " + task.getName());
-                    }
+    private void executeDependencies(Task<?> task, Consumer<Throwable> callback) {
+        Collection<Task<?>> dependencies = task.getDependencies();
+        traceWaitBegin(task, TaskTracer.Phase.DEPENDENCIES, dependencies);
+        executeTasks(task, dependencies, dependenciesException -> {
+            traceWaitEnd(task, TaskTracer.Phase.DEPENDENCIES);
+            try {
+                if (dependenciesException != null && !(dependenciesException instanceof Exception))
+                    throw dependenciesException;
+
+                if (dependenciesException == null)
+                    task.setDependenciesSucceeded();
+
+                if (task.doPostExecute())
+                    runStep(task, traced(task, TaskTracer.Phase.POST_EXECUTE, task::postExecute), () -> onSucceeded(task, (Exception) dependenciesException, callback), callback);
+                else
+                    onSucceeded(task, (Exception) dependenciesException, callback);
+            } catch (Throwable e) {
+                onFailed(task, e, callback);
+            }
+        });
+    }
 
-                    task.onDone().fireEvent(new TaskEvent(this, task, false));
-                    taskListeners.forEach(it -> it.onFinished(task));
-
-                    task.setState(Task.TaskState.SUCCEEDED);
-                })
-                .exceptionally(throwable -> {
-                    Throwable resolved = resolveException(throwable);
-                    if (resolved instanceof Exception) {
-                        Exception e = (Exception) resolved;
-                        if (e instanceof InterruptedException || e instanceof CancellationException) {
-                            task.setException(e);
-                            if (task.getSignificance().shouldLog()) {
-                                Logging.LOG.log(Level.FINE, "Task aborted: " + task.getName());
-                            }
-                            task.onDone().fireEvent(new TaskEvent(this, task, true));
-                            taskListeners.forEach(it -> it.onFailed(task, e));
-                        } else {
-                            task.setException(e);
-                            exception = e;
-                            if (task.getSignificance().shouldLog()) {
-                                Logging.LOG.log(Level.FINE, "Task failed: " + task.getName(), e);
-                            }
-                            task.onDone().fireEvent(new TaskEvent(this, task, true));
-                            taskListeners.forEach(it -> it.onFailed(task, e));
-                        }
-
-                        task.setState(Task.TaskState.FAILED);
-                    }
+    private void onSucceeded(Task<?> task, Exception dependenciesException, Consumer<Throwable> callback) {
+        try {
+            boolean isDependenciesSucceeded = dependenciesException == null;
 
-                    throw new CompletionException(resolved); // rethrow error
-                });
-    }
+            if (!isDependenciesSucceeded && task.isRelyingOnDependencies()) {
+                Logging.LOG.severe("Subtasks failed for " + task.getName());
+                task.setException(dependenciesException);
+                throw dependenciesException;
+            }
 
-    private static Throwable resolveException(Throwable e) {
-        if (e instanceof ExecutionException || e instanceof CompletionException)
-            return resolveException(e.getCause());
-        else
-            return e;
-    }
+            if (task.getSignificance().shouldLog()) {
+                Logging.LOG.log(Level.FINER, "Task finished: " + task.getName());
+            }
+
+            transferMeter.complete(task);
+            task.fireDoneEvent(this, false);
+            taskListeners.forEach(it -> it.onFinished(task));
 
-    private static void rethrow(Throwable e) {
-        if (e == null)
+            task.setState(Task.TaskState.SUCCEEDED);
+            traceDone(task);
+        } catch (Throwable e) {
+            onFailed(task, e, callback);
             return;
-        if (e instanceof ExecutionException || e instanceof CompletionException) { // including UncheckedException and UncheckedThrowable
-            rethrow(e.getCause());
-        } else if (e instanceof RuntimeException) {
-            throw (RuntimeException) e;
-        } else {
-            throw new CompletionException(e);
         }
+        callback.accept(null);
     }
 
-    private static Runnable wrap(ExceptionalRunnable<?> runnable) {
-        return () -> {
+    private void onFailed(Task<?> task, Throwable throwable, Consumer<Throwable> callback) {
+        Throwable resolved = resolveException(throwable);
+        if (resolved instanceof Exception) {
+            Exception e = (Exception) resolved;
             try {
-                runnable.run();
-            } catch (Exception e) {
-                rethrow(e);
+                if (e instanceof InterruptedException || e instanceof CancellationException) {
+                    // When task has been cancelled, task.exception will be null.
+                    if (!(e instanceof CancellationException))
+                        task.setException(e);
+                    if (task.getSignificance().shouldLog()) {
+                        Logging.LOG.log(Level.FINE, "Task aborted: " + task.getName());
+                    }
+                    task.fireDoneEvent(this, true);
+                    taskListeners.forEach(it -> it.onFailed(task, e));
+                } else {
+                    task.setException(e);
+                    exception = e;
+                    if (task.getSignificance().shouldLog()) {
+                        Logging.LOG.log(Level.FINE, "Task failed: " + task.getName(), e);
+                    }
+                    task.fireDoneEvent(this, true);
+                    taskListeners.forEach(it -> it.onFailed(task, e));
+                }
+            } catch (Throwable listenerException) {
+                Logging.LOG.log(Level.WARNING, "An exception occurred in task listeners", listenerException);
             }
+
+            task.setState(Task.TaskState.FAILED);
+            traceDone(task);
+        }
+
+        callback.accept(resolved); // rethrow error
+    }
+
+    /**
+     * Run {@code step} of {@code task} on its executor, then continue with {@code next} on the same thread.
+     */
+    private void runStep(Task<?> task, ExceptionalRunnable<?> step, Runnable next, Consumer<Throwable> callback) {
+        Runnable runnable = () -> {
+            try {
+                checkCancelled();
+                step.run();
+            } catch (Throwable e) {
+                onFailed(task, e, callback);
+                return;
+            }
+            next.run();
         };
+
+        try {
+            task.getExecutor().execute(new PrioritizedRunnable(task.getPriority(), runnable));
+        } catch (Throwable e) {
+            // RejectedExecutionException
+            onFailed(task, e, callback);
+        }
+    }
+
+    private void checkCancelled() {
+        if (isCancelled())
+            throw new CancellationException();
+    }
+
+    private static Throwable resolveException(Throwable e) {
+        if (e instanceof ExecutionException || e instanceof CompletionException)
+            return resolveException(e.getCause());
+        else
+            return e;
     }
 
     private static Thread.UncaughtExceptionHandler uncaughtExceptionHandler = null;
@@ -29,7 +29,7 @@ import java.util.logging.Level;
 public class CancellableTaskExecutor extends TaskExecutor {
 
     private final ConcurrentLinkedQueue<Future<?>> workerQueue = new ConcurrentLinkedQueue<>();
-    private Executor scheduler = Schedulers.newThread();
+    private Executor scheduler = Schedulers.defaultScheduler();
 
     public CancellableTaskExecutor(Task<?> task) {
         super(task);
@@ -38,8 +38,15 @@ public class CancellableTaskExecutor extends TaskExecutor {
     @Override
     public TaskExecutor start() {
         taskListeners.forEach(TaskListener::onStart);
+        startMetering();
         workerQueue.add(Schedulers.schedule(scheduler, wrap(() -> {
-            boolean flag = executeTasks(null, Collections.singleton(firstTask));
+            boolean flag;
+            try {
+                flag = executeTasks(null, Collections.singleton(firstTask));
+            } finally {
+                stopMetering();
+                saveTrace();
+            }
             taskListeners.forEach(it -> it.onStop(flag, this));
         })));
         return this;
@@ -48,9 +55,15 @@ public class CancellableTaskExecutor extends TaskExecutor {
     @Override
     public boolean test() {
         taskListeners.forEach(TaskListener::onStart);
+        startMetering();
         AtomicBoolean flag = new AtomicBoolean(true);
         Future<?> future = Schedulers.schedule(scheduler, wrap(() -> {
-            flag.set(executeTasks(null, Collections.singleton(firstTask)));
+            try {
+                flag.set(executeTasks(null, Collections.singleton(firstTask)));
+            } finally {
+                stopMetering();
+                saveTrace();
+            }
             taskListeners.forEach(it -> it.onStop(flag.get(), this));
         }));
         workerQueue.add(future);
@@ -72,6 +85,7 @@ public class CancellableTaskExecutor extends TaskExecutor {
             if (future != null)
                 future.cancel(true);
         }
+        cancellationScope.cancel();
     }
 
     private boolean executeTasks(Task<?> parentTask, Collection<? extends Task<?>> tasks) throws InterruptedException {
@@ -119,6 +133,7 @@ public class CancellableTaskExecutor extends TaskExecutor {
 
     private boolean executeTask(Task<?> parentTask, Task<?> task) {
         task.setCancelled(this::isCancelled);
+        task.setCancellationScope(cancellationScope);
 
         if (cancelled.get()) {
             task.setState(Task.TaskState.FAILED);
@@ -129,6 +144,8 @@ public class CancellableTaskExecutor extends TaskExecutor {
         task.setState(Task.TaskState.READY);
         if (parentTask != null && task.getStage() == null)
             task.setStage(parentTask.getStage());
+        attachTransferMeter(task);
+        traceReady(task, parentTask);
 
         if (task.getSignificance().shouldLog())
             Logging.LOG.log(Level.FINE, "Executing task: " + task.getName());
@@ -140,14 +157,16 @@ public class CancellableTaskExecutor extends TaskExecutor {
         try {
             if (task.doPreExecute()) {
                 try {
-                    Schedulers.schedule(task.getExecutor(), wrap(task::preExecute)).get();
+                    Schedulers.schedule(task.getExecutor(), wrap(traced(task, TaskTracer.Phase.PRE_EXECUTE, task::preExecute))).get();
                 } catch (ExecutionException e) {
                     rethrow(e);
                 }
             }
 
             Collection<? extends Task<?>> dependents = task.getDependents();
+            traceWaitBegin(task, TaskTracer.Phase.DEPENDENTS, dependents);
             boolean doDependentsSucceeded = executeTasks(task, dependents);
+            traceWaitEnd(task, TaskTracer.Phase.DEPENDENTS);
             Exception dependentsException = dependents.stream().map(Task::getException)
                     .filter(Objects::nonNull)
                     .filter(x -> !(x instanceof CancellationException))
@@ -162,11 +181,11 @@ public class CancellableTaskExecutor extends TaskExecutor {
                 task.setDependentsSucceeded();
 
             try {
-                Schedulers.schedule(task.getExecutor(), wrap(() -> {
+                Schedulers.schedule(task.getExecutor(), wrap(traced(task, TaskTracer.Phase.EXECUTE, () -> {
                     task.setState(Task.TaskState.RUNNING);
                     taskListeners.forEach(it -> it.onRunning(task));
                     task.execute();
-                })).get();
+                }))).get();
             } catch (ExecutionException e) {
                 rethrow(e);
             } finally {
@@ -178,7 +197,9 @@ public class CancellableTaskExecutor extends TaskExecutor {
             }
 
             Collection<? extends Task<?>> dependencies = task.getDependencies();
+            traceWaitBegin(task, TaskTracer.Phase.DEPENDENCIES, dependencies);
             boolean doDependenciesSucceeded = executeTasks(task, dependencies);
+            traceWaitEnd(task, TaskTracer.Phase.DEPENDENCIES);
             Exception dependenciesException = dependencies.stream().map(Task::getException)
                     .filter(Objects::nonNull)
                     .filter(x -> !(x instanceof CancellationException))
@@ -190,7 +211,7 @@ public class CancellableTaskExecutor extends TaskExecutor {
 
             if (task.doPostExecute()) {
                 try {
-                    Schedulers.schedule(task.getExecutor(), wrap(task::postExecute)).get();
+                    Schedulers.schedule(task.getExecutor(), wrap(traced(task, TaskTracer.Phase.POST_EXECUTE, task::postExecute))).get();
                 } catch (ExecutionException e) {
                     rethrow(e);
                 }
@@ -211,7 +232,8 @@ public class CancellableTaskExecutor extends TaskExecutor {
                 updateStageProperties(task.getStage(), task.properties);
             }
 
-            task.onDone().fireEvent(new TaskEvent(this, task, false));
+            transferMeter.complete(task);
+            task.fireDoneEvent(this, false);
             taskListeners.forEach(it -> it.onFinished(task));
         } catch (RejectedExecutionException e) {
             Logging.LOG.log(Level.SEVERE, "Task rejected: " + task.getName(), e);
@@ -224,7 +246,7 @@ public class CancellableTaskExecutor extends TaskExecutor {
                     if (task.getSignificance().shouldLog()) {
                         Logging.LOG.log(Level.FINE, "Task aborted: " + task.getName());
                     }
-                    task.onDone().fireEvent(new TaskEvent(this, task, true));
+                    task.fireDoneEvent(this, true);
                     taskListeners.forEach(it -> it.onFailed(task, e));
                 } else {
                     task.setException(e);
@@ -232,7 +254,7 @@ public class CancellableTaskExecutor extends TaskExecutor {
                     if (task.getSignificance().shouldLog()) {
                         Logging.LOG.log(Level.FINE, "Task failed: " + task.getName(), e);
                     }
-                    task.onDone().fireEvent(new TaskEvent(this, task, true));
+                    task.fireDoneEvent(this, true);
                     taskListeners.forEach(it -> it.onFailed(task, e));
                 }
             } else if (resolved instanceof Error) {
@@ -240,6 +262,7 @@ public class CancellableTaskExecutor extends TaskExecutor {
             }
         }
         task.setState(flag ? Task.TaskState.SUCCEEDED : Task.TaskState.FAILED);
+        traceDone(task);
         return flag;
     }
 
@@ -0,0 +1,212 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.task;
+
+import org.jackhuang.hmcl.util.Logging;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Resources held by the tasks of a {@link TaskExecutor}, released as soon as the execution is cancelled.
+ *
+ * Blocking socket and file I/O does not respond to interruption, and a connection waiting for a stalled
+ * server is only released by its timeout. Tasks register the connections and channels they block on,
+ * and finalizers cleaning up what they would leave behind, such as temporary files, by
+ * {@link Task#closeOnCancel(AutoCloseable)}. Cancelling the scope closes them in reverse order of
+ * registration, so that blocked calls throw immediately and the tasks unwind.
+ *
+ * Closing a resource must not block. For example {@link java.net.HttpURLConnection#disconnect()} aborts
+ * connecting and waiting for the response headers at once, but blocks until the read times out if
+ * another thread is reading the body, which is aborted by {@link Task#interruptOnCancel} instead.
+ *
+ * Tasks run as sub-tasks by {@link Task#run()} share the scope of their parent.
+ */
+public final class CancellationScope {
+
+    private final Set<Registration> registrations = ConcurrentHashMap.newKeySet();
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile boolean cancelled;
+
+    /**
+     * Close {@code resource} when this scope is cancelled, or immediately if it has been cancelled.
+     *
+     * @return the registration, which must be closed once the resource is released by its owner.
+     */
+    public Registration register(AutoCloseable resource) {
+        Registration registration = new Registration(resource, sequence.incrementAndGet());
+        registrations.add(registration);
+        if (cancelled)
+            registration.fire();
+        return registration;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Wrap {@code input} so that the thread blocked reading it is interrupted when this scope is cancelled,
+     * and reads fail after that. The stream is registered once, until it is closed.
+     *
+     * The interruption is cleared before the read returns, since it would close any interruptible channel
+     * used afterwards, such as a file being written.
+     */
+    public InputStream interruptOnCancel(InputStream input) {
+        return new InterruptibleInputStream(input);
+    }
+
+    /**
+     * Close all registered resources, latest first. Resources registered later are closed at once.
+     */
+    public void cancel() {
+        cancelled = true;
+        List<Registration> list = new ArrayList<>(registrations);
+        list.sort(Comparator.comparingLong((Registration registration) -> registration.order).reversed());
+        for (Registration registration : list)
+            registration.fire();
+    }
+
+    public final class Registration implements AutoCloseable {
+        private final AutoCloseable resource;
+        private final long order;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        private Registration(AutoCloseable resource, long order) {
+            this.resource = resource;
+            this.order = order;
+        }
+
+        private synchronized void fire() {
+            if (done.compareAndSet(false, true)) {
+                registrations.remove(this);
+                try {
+                    resource.close();
+                } catch (Exception e) {
+                    Logging.LOG.log(Level.WARNING, "Unable to release " + resource + " on cancellation", e);
+                }
+            }
+        }
+
+        /**
+         * The resource has been released by its owner, it will not be closed by this scope.
+         *
+         * @return false if the resource has been closed by this scope, the closing has finished when this returns.
+         */
+        public boolean unregister() {
+            if (done.compareAndSet(false, true)) {
+                registrations.remove(this);
+                return true;
+            }
+            synchronized (this) {
+                // Wait for fire() to finish closing the resource.
+                return false;
+            }
+        }
+
+        @Override
+        public void close() {
+            unregister();
+        }
+    }
+
+    /**
+     * A read only marks the stream busy, so that cancellation interrupts the reader while it is blocked in a read
+     * and never afterwards.
+     */
+    private final class InterruptibleInputStream extends FilterInputStream {
+        private final AtomicInteger state = new AtomicInteger(IDLE);
+        private final Registration registration;
+        private volatile Thread reader;
+
+        InterruptibleInputStream(InputStream in) {
+            super(in);
+            registration = register(this::interrupt);
+        }
+
+        private void interrupt() {
+            if (state.getAndSet(CANCELLED) == READING)
+                reader.interrupt();
+        }
+
+        private void begin() throws IOException {
+            reader = Thread.currentThread();
+            if (!state.compareAndSet(IDLE, READING))
+                throw new InterruptedIOException("Cancelled");
+        }
+
+        private void end() {
+            if (!state.compareAndSet(READING, IDLE)) {
+                // Cancelled during the read, wait for the interruption to be delivered, then clear it.
+                registration.unregister();
+                Thread.interrupted();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            begin();
+            try {
+                return super.read();
+            } finally {
+                end();
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            begin();
+            try {
+                return super.read(b, off, len);
+            } finally {
+                end();
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            begin();
+            try {
+                return super.skip(n);
+            } finally {
+                end();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            registration.close();
+            super.close();
+        }
+    }
+
+    private static final int IDLE = 0;
+    private static final int READING = 1;
+    private static final int CANCELLED = 2;
+}
@@ -0,0 +1,359 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.task;
+
+import com.google.gson.JsonParseException;
+import org.jackhuang.hmcl.util.CacheRepository;
+import org.jackhuang.hmcl.util.Logging;
+import org.jackhuang.hmcl.util.StringUtils;
+import org.jackhuang.hmcl.util.gson.JsonUtils;
+import org.jackhuang.hmcl.util.gson.Validation;
+import org.jackhuang.hmcl.util.io.FileUtils;
+import org.jackhuang.hmcl.util.io.SaveThrottle;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * The on-disk state of a partially downloaded file.
+ *
+ * The journal is stored next to the target file as {@code <name>.part.json},
+ * and the bytes downloaded so far are kept in {@code <name>.part}, preallocated
+ * to the full content length. Each segment records how far it has been written,
+ * so that later attempts, even after the launcher restarts, request only the
+ * missing ranges with {@code If-Range} guarding against remote changes.
+ *
+ * The journal belongs to the target file, not to a mirror. It can be resumed from any mirror serving
+ * a file of the same length, but {@code If-Range} is only sent to the mirror the validators were taken from,
+ * as other mirrors have validators of their own. The file is checked by its integrity check at last.
+ */
+final class DownloadJournal implements Validation {
+
+    private final String url;
+    private final String eTag;
+    private final String lastModified;
+    private final long contentLength;
+    private final List<Segment> segments;
+
+    private transient Path target;
+    private transient boolean persistent;
+    private transient FileChannel channel;
+    private final transient SaveThrottle throttle = new SaveThrottle("download journal", SAVE_INTERVAL, this::write);
+
+    /**
+     * For Gson.
+     */
+    private DownloadJournal() {
+        this(null, null, null, 0, new ArrayList<>());
+    }
+
+    private DownloadJournal(String url, String eTag, String lastModified, long contentLength, List<Segment> segments) {
+        this.url = url;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        this.contentLength = contentLength;
+        this.segments = segments;
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public List<Segment> getSegments() {
+        return segments;
+    }
+
+    public long getDownloadedBytes() {
+        long downloaded = 0;
+        for (Segment segment : segments)
+            downloaded += segment.position - segment.start;
+        return downloaded;
+    }
+
+    public boolean isCompleted() {
+        for (Segment segment : segments)
+            if (!segment.isCompleted())
+                return false;
+        return true;
+    }
+
+    /**
+     * @return the segment that a resumed response will be read into.
+     */
+    public Segment getFirstIncompleteSegment() {
+        for (Segment segment : segments)
+            if (!segment.isCompleted())
+                return segment;
+        return null;
+    }
+
+    /**
+     * Request the remaining part of the file, the server will send the whole file instead
+     * if it has changed since this journal was created.
+     *
+     * @param con the connection to {@code url}
+     * @param url the mirror requested
+     */
+    public void injectConnection(HttpURLConnection con, URL url) {
+        Segment segment = getFirstIncompleteSegment();
+        con.setRequestProperty("Range", "bytes=" + (segment == null ? 0 : segment.position) + "-");
+        String validator = getValidator(url);
+        if (validator != null)
+            con.setRequestProperty("If-Range", validator);
+    }
+
+    /**
+     * @return true if the server sent the range requested by {@link #injectConnection}, of a file as long as this one
+     */
+    public boolean isResumedBy(HttpURLConnection con) throws IOException {
+        if (con.getResponseCode() != HttpURLConnection.HTTP_PARTIAL)
+            return false;
+
+        String contentRange = con.getHeaderField("Content-Range");
+        Segment segment = getFirstIncompleteSegment();
+        return segment != null && contentRange != null
+                && contentRange.startsWith("bytes " + segment.position + "-")
+                && contentRange.endsWith("/" + contentLength);
+    }
+
+    /**
+     * @return true if the download can be resumed later, which means the partial file is kept next
+     * to the target and the journal is written to disk.
+     */
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    /**
+     * Set the channel the partial file is written through, which is forced to disk
+     * before the journal is saved, so that the journal never records bytes lost in a crash.
+     */
+    public void setChannel(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Persist the journal if it has not been saved recently.
+     */
+    public void update() {
+        if (persistent)
+            throttle.changed();
+    }
+
+    public void save() {
+        if (persistent)
+            throttle.save();
+    }
+
+    private void write() throws IOException {
+        // Positions are taken before forcing, bytes written after that may not be on the disk yet.
+        List<Segment> snapshot = new ArrayList<>(segments.size());
+        for (Segment segment : segments) {
+            Segment copy = new Segment(segment.start, segment.end);
+            copy.position = segment.position;
+            snapshot.add(copy);
+        }
+
+        try {
+            if (channel != null)
+                channel.force(false);
+        } catch (IOException e) {
+            // The journal saved last time is still consistent with the partial file.
+            Logging.LOG.log(Level.WARNING, "Unable to flush partial download of " + target + ", journal not saved", e);
+            return;
+        }
+
+        FileUtils.writeTextAtomically(getJournalFile(target), JsonUtils.GSON.toJson(
+                new DownloadJournal(url, eTag, lastModified, contentLength, snapshot)));
+    }
+
+    /**
+     * Delete the journal file, the partial file is left to the caller.
+     */
+    public void delete() {
+        try {
+            Files.deleteIfExists(getJournalFile(target));
+        } catch (IOException e) {
+            Logging.LOG.log(Level.WARNING, "Unable to delete download journal of " + target, e);
+        }
+    }
+
+    String getValidator() {
+        // Weak entity tags are not allowed in If-Range.
+        if (eTag != null && !eTag.startsWith("W/"))
+            return eTag;
+        else
+            return lastModified;
+    }
+
+    /**
+     * @param url the url to request a range of the file from
+     * @return the validator to send in {@code If-Range} to {@code url}, or null if {@code url} is not the one
+     * the journal was created from, since mirrors have validators of their own and would send the whole file.
+     */
+    String getValidator(URL url) {
+        return url.toString().equals(this.url) ? getValidator() : null;
+    }
+
+    @Override
+    public void validate() throws JsonParseException {
+        if (StringUtils.isBlank(url))
+            throw new JsonParseException("DownloadJournal.url cannot be blank");
+        if (segments == null || segments.isEmpty())
+            throw new JsonParseException("DownloadJournal.segments cannot be empty");
+        long expected = 0;
+        for (Segment segment : segments) {
+            if (segment == null || segment.start != expected || segment.end <= segment.start
+                    || segment.position < segment.start || segment.position > segment.end)
+                throw new JsonParseException("DownloadJournal.segments are malformed");
+            expected = segment.end;
+        }
+        if (expected != contentLength)
+            throw new JsonParseException("DownloadJournal.segments do not cover the file");
+    }
+
+    /**
+     * Create the journal of a fresh download, the journal is not saved until {@link #save()} is called.
+     *
+     * @param target the file being downloaded
+     * @param url the url requested
+     * @param con the connection responding with the whole file
+     * @param contentLength the length of the file
+     * @param count the number of segments the file will be split into
+     * @param persistent true if the download should be resumable, see {@link #isPersistent()}
+     * @return the new journal, with validators taken from response headers of {@code con}
+     */
+    public static DownloadJournal create(Path target, URL url, HttpURLConnection con, long contentLength, int count, boolean persistent) {
+        List<Segment> segments = new ArrayList<>(count);
+        long segmentSize = contentLength / count;
+        for (int i = 0; i < count; i++) {
+            long start = i * segmentSize;
+            long end = i == count - 1 ? contentLength : start + segmentSize;
+            segments.add(new Segment(start, end));
+        }
+
+        DownloadJournal journal = new DownloadJournal(url.toString(),
+                con.getHeaderField("ETag"), con.getHeaderField("Last-Modified"), contentLength, segments);
+        journal.target = target;
+        journal.persistent = persistent && journal.getValidator() != null;
+        return journal;
+    }
+
+    /**
+     * Load the journal of a partial download of {@code target}, from whichever mirror.
+     *
+     * Partial downloads whose journal is unreadable, whose partial file is missing or of another length,
+     * which have no validator, or whose entity tag is older than the one in the cache repository are discarded.
+     *
+     * @return the journal, or null if the download cannot be resumed.
+     */
+    public static DownloadJournal load(Path target, CacheRepository repository) {
+        Path journalFile = getJournalFile(target);
+        if (!Files.isRegularFile(journalFile))
+            return null;
+
+        Path partFile = getPartFile(target);
+        try {
+            DownloadJournal journal = JsonUtils.fromNonNullJson(FileUtils.readText(journalFile), DownloadJournal.class);
+            journal.target = target;
+            journal.persistent = true;
+
+            if (journal.getValidator() != null
+                    && Files.isRegularFile(partFile) && Files.size(partFile) == journal.contentLength
+                    && !repository.isOutdated(journal.url, journal.eTag))
+                return journal;
+        } catch (IOException | JsonParseException e) {
+            Logging.LOG.log(Level.WARNING, "Unable to read download journal of " + target, e);
+        }
+
+        Logging.LOG.log(Level.INFO, "Discarding stale partial download of " + target);
+        discard(target);
+        return null;
+    }
+
+    /**
+     * Delete the journal and the partial file of {@code target}.
+     */
+    public static void discard(Path target) {
+        try {
+            Files.deleteIfExists(getJournalFile(target));
+            Files.deleteIfExists(getPartFile(target));
+        } catch (IOException e) {
+            Logging.LOG.log(Level.WARNING, "Unable to delete partial download of " + target, e);
+        }
+    }
+
+    public static Path getPartFile(Path target) {
+        return target.resolveSibling(target.getFileName() + ".part");
+    }
+
+    public static Path getJournalFile(Path target) {
+        return target.resolveSibling(target.getFileName() + ".part.json");
+    }
+
+    private static final long SAVE_INTERVAL = 1000;
+
+    /**
+     * A byte range [start, end) of the file, written up to {@code position}.
+     */
+    public static final class Segment {
+        private final long start;
+        private final long end;
+        private volatile long position;
+
+        /**
+         * For Gson.
+         */
+        private Segment() {
+            this(0, 0);
+        }
+
+        Segment(long start, long end) {
+            this.start = start;
+            this.end = end;
+            this.position = start;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        void advance(long bytes) {
+            position += bytes;
+        }
+
+        public boolean isCompleted() {
+            return position >= end;
+        }
+    }
+}
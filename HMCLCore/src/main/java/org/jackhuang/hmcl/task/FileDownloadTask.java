@@ -20,6 +20,8 @@ package org.jackhuang.hmcl.task;
 import org.jackhuang.hmcl.event.Event;
 import org.jackhuang.hmcl.event.EventBus;
 import org.jackhuang.hmcl.util.CacheRepository;
+import org.jackhuang.hmcl.util.DigestCache;
+import org.jackhuang.hmcl.util.DigestUtils;
 import org.jackhuang.hmcl.util.Logging;
 import org.jackhuang.hmcl.util.ToStringBuilder;
 import org.jackhuang.hmcl.util.io.*;
@@ -31,11 +33,25 @@ import java.io.RandomAccessFile;
 import java.math.BigInteger;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 
 import static java.util.Objects.requireNonNull;
@@ -82,15 +98,17 @@ public class FileDownloadTask extends Task<Void> {
         }
     }
 
-    private final List<URL> urls;
+    private List<URL> urls;
+    private boolean ranked;
     private final File file;
     private final IntegrityCheck integrityCheck;
     private final int retry;
+    private int segments = DEFAULT_SEGMENTS;
+    private boolean racing;
     private Path candidate;
     private boolean caching;
     private CacheRepository repository = CacheRepository.getInstance();
     private RandomAccessFile rFile;
-    private InputStream stream;
 
     /**
      * @param url the URL of remote file.
@@ -146,7 +164,7 @@ public class FileDownloadTask extends Task<Void> {
         this.retry = retry;
 
         setName(file.getName());
-        setExecutor(Schedulers.io());
+        setExecutor(NetworkUtils.getHostLimiter().executor(this::rankUrls, NetworkUtils.getTransport().getExecutor()));
     }
 
     private void closeFiles() {
@@ -158,14 +176,6 @@ public class FileDownloadTask extends Task<Void> {
             }
 
         rFile = null;
-
-        if (stream != null)
-            try {
-                stream.close();
-            } catch (IOException e) {
-                Logging.LOG.log(Level.WARNING, "Failed to close stream", e);
-            }
-        stream = null;
     }
 
     public File getFile() {
@@ -187,8 +197,51 @@ public class FileDownloadTask extends Task<Void> {
         return this;
     }
 
+    /**
+     * Set the maximum number of connections used to download this file.
+     *
+     * Files larger than {@link #SEGMENTED_DOWNLOAD_THRESHOLD} will be split into byte ranges
+     * downloaded in parallel if the server accepts range requests.
+     *
+     * @param segments the maximum number of segments, 1 to disable segmented downloading.
+     * @return this task
+     */
+    public FileDownloadTask setSegments(int segments) {
+        if (segments < 1)
+            throw new IllegalArgumentException("Segments must be positive");
+        this.segments = segments;
+        return this;
+    }
+
+    /**
+     * Send the first request to the two best mirrors at the same time, and keep the one responding first.
+     *
+     * Meant for small files, whose download time is dominated by the latency of mirrors.
+     *
+     * @param racing true to race mirrors
+     * @return this task
+     */
+    public FileDownloadTask setRacing(boolean racing) {
+        this.racing = racing;
+        return this;
+    }
+
+    /**
+     * Try the mirror measured fastest first. Ranked when the task is submitted, so that the permit
+     * reserved by the executor is for the mirror requested first.
+     */
+    private URL rankUrls() {
+        if (!ranked) {
+            urls = NetworkUtils.getMirrorScores().rank(urls);
+            ranked = true;
+        }
+        return urls.get(0);
+    }
+
     @Override
     public void execute() throws Exception {
+        rankUrls();
+
         boolean checkETag;
         // Check cache
         if (integrityCheck != null && caching) {
@@ -196,7 +249,7 @@ public class FileDownloadTask extends Task<Void> {
             Optional<Path> cache = repository.checkExistentFile(candidate, integrityCheck.getAlgorithm(), integrityCheck.getChecksum());
             if (cache.isPresent()) {
                 try {
-                    FileUtils.copyFile(cache.get().toFile(), file);
+                    LinkStrategy.link(cache.get(), file.toPath());
                     Logging.LOG.log(Level.FINER, "Successfully verified file " + file + " from " + urls.get(0));
                     return;
                 } catch (IOException e) {
@@ -211,26 +264,53 @@ public class FileDownloadTask extends Task<Void> {
         Exception exception = null;
         URL failedURL = null;
 
+        // Loaded once, so that the next mirror resumes what the previous one left.
+        DownloadJournal journal = DownloadJournal.load(file.toPath(), repository);
+
         for (int repeat = 0; repeat < retry * urls.size(); repeat++) {
-            URL url = urls.get(repeat / retry);
+            int urlIndex = repeat / retry;
+            URL url = urls.get(urlIndex);
             if (isCancelled()) {
                 break;
             }
 
             Path temp = null;
+            HostConcurrencyLimiter.Permit permit = null;
+            CancellationScope.Registration tempFinalizer = null;
 
             try {
+                permit = NetworkUtils.getHostLimiter().acquire(url);
                 updateProgress(0);
 
-                HttpURLConnection con = NetworkUtils.createConnection(url);
-                if (checkETag) repository.injectConnection(con);
-                con = NetworkUtils.resolveConnection(con);
+                HttpURLConnection request = NetworkUtils.createConnection(url);
+                if (journal != null) journal.injectConnection(request, url);
+                else if (checkETag) repository.injectConnection(request);
+
+                HttpURLConnection con;
+                CancellationScope.Registration registration = closeOnCancel(request::disconnect);
+                try {
+                    if (isCancelled()) // while waiting for the permit
+                        break;
+
+                    if (racing && repeat == 0 && journal == null && urls.size() > 1) {
+                        Racer winner = race(new Racer(urlIndex, request, permit), 1, checkETag);
+                        urlIndex = winner.urlIndex;
+                        url = urls.get(urlIndex);
+                        con = winner.connection;
+                        permit = winner.permit;
+                    } else {
+                        con = permit.connect(request);
+                    }
+                } finally {
+                    registration.close();
+                }
 
                 if (con.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    NetworkUtils.release(con);
                     // Handle cache
                     try {
                         Path cache = repository.getCachedRemoteFile(con);
-                        FileUtils.copyFile(cache.toFile(), file);
+                        LinkStrategy.link(cache, file.toPath());
                         return;
                     } catch (IOException e) {
                         Logging.LOG.log(Level.WARNING, "Unable to use cached file, redownload it", e);
@@ -241,74 +321,101 @@ public class FileDownloadTask extends Task<Void> {
                         continue;
                     }
                 } else if (con.getResponseCode() / 100 != 2) {
+                    NetworkUtils.release(con);
                     throw new ResponseCodeException(url, con.getResponseCode());
                 }
 
-                int contentLength = con.getContentLength();
-                if (contentLength < 0)
-                    throw new IOException("The content length is invalid.");
+                if (journal != null && !journal.isResumedBy(con)) {
+                    // The remote file has changed, or the server ignores ranges.
+                    Logging.LOG.log(Level.INFO, "Unable to resume downloading " + file + ", starting over");
+                    DownloadJournal.discard(file.toPath());
+                    journal = null;
+                }
 
                 if (!FileUtils.makeDirectory(file.getAbsoluteFile().getParentFile()))
                     throw new IOException("Could not make directory " + file.getAbsoluteFile().getParent());
 
-                temp = Files.createTempFile(null, null);
-                rFile = new RandomAccessFile(temp.toFile(), "rw");
-
-                MessageDigest digest = integrityCheck == null ? null : integrityCheck.createDigest();
+                boolean rangeSupported;
+                if (journal != null) {
+                    Logging.LOG.log(Level.FINER, "Resuming " + file + " from " + journal.getDownloadedBytes() + " bytes");
+                    rangeSupported = true;
+                } else {
+                    long contentLength = con.getContentLengthLong();
+                    if (contentLength < 0)
+                        throw new IOException("The content length is invalid.");
 
-                stream = con.getInputStream();
-                int lastDownloaded = 0, downloaded = 0;
-                byte[] buffer = new byte[IOUtils.DEFAULT_BUFFER_SIZE];
-                while (true) {
-                    if (isCancelled()) {
-                        break;
-                    }
+                    rangeSupported = "bytes".equalsIgnoreCase(con.getHeaderField("Accept-Ranges"));
+                    journal = DownloadJournal.create(file.toPath(), url, con, contentLength,
+                            getSegmentCount(rangeSupported, contentLength), contentLength >= RESUMABLE_DOWNLOAD_THRESHOLD);
+                }
 
-                    int read = stream.read(buffer);
-                    if (read == -1)
-                        break;
+                if (getExpectedSize() <= 0)
+                    setExpectedSize(journal.getContentLength());
 
-                    if (digest != null) {
-                        digest.update(buffer, 0, read);
-                    }
+                temp = journal.isPersistent() ? DownloadJournal.getPartFile(file.toPath()) : Files.createTempFile(null, null);
+                if (!journal.isPersistent()) {
+                    // The partial file of a persistent journal is kept for resuming.
+                    Path unfinished = temp;
+                    tempFinalizer = closeOnCancel(() -> deleteTemp(unfinished));
+                }
+                rFile = new RandomAccessFile(temp.toFile(), "rw");
+                rFile.setLength(journal.getContentLength());
+                journal.setChannel(rFile.getChannel());
+                journal.save();
 
-                    // Write buffer to file.
-                    rFile.write(buffer, 0, read);
-                    downloaded += read;
+                // Data can be hashed while downloading only if it arrives in order from the beginning.
+                MessageDigest digest = integrityCheck == null ? null : integrityCheck.createDigest();
+                boolean streamingDigest = journal.getSegments().size() == 1 && journal.getDownloadedBytes() == 0;
 
-                    // Update progress information per second
-                    updateProgress(downloaded, contentLength);
+                new SegmentedDownload(journal, rangeSupported).download(con, permit, urlIndex, streamingDigest ? digest : null);
 
-                    updateDownloadSpeed(downloaded - lastDownloaded);
-                    lastDownloaded = downloaded;
+                if (digest != null && !streamingDigest && !isCancelled()) {
+                    rFile.seek(0);
+                    DigestUtils.updateDigest(digest, Channels.newInputStream(rFile.getChannel()));
                 }
 
-                updateDownloadSpeed(downloaded - lastDownloaded);
-
-                closeFiles();
-
-                // Restore temp file to original name.
                 if (isCancelled()) {
-                    temp.toFile().delete();
+                    // Keeps the partial file of a persistent journal for resuming.
+                    if (journal.isPersistent())
+                        journal.save();
+                    closeFiles();
+                    if (!journal.isPersistent())
+                        temp.toFile().delete();
                     break;
-                } else {
-                    Files.deleteIfExists(file.toPath());
-                    if (!FileUtils.makeDirectory(file.getAbsoluteFile().getParentFile()))
-                        throw new IOException("Unable to make parent directory " + file);
+                }
+
+                // The partial file is checked before it replaces the target, which is left untouched otherwise.
+                if (journal.getDownloadedBytes() != journal.getContentLength())
+                    throw new IOException("Unexpected file size: " + journal.getDownloadedBytes() + ", expected: " + journal.getContentLength());
+
+                if (integrityCheck != null) {
                     try {
-                        FileUtils.moveFile(temp.toFile(), file);
-                    } catch (Exception e) {
-                        throw new IOException("Unable to move temp file from " + temp + " to " + file, e);
+                        integrityCheck.performCheck(digest);
+                    } catch (ChecksumMismatchException e) {
+                        // Resuming would keep the corrupted bytes, start over next time.
+                        closeFiles();
+                        if (journal.isPersistent())
+                            DownloadJournal.discard(file.toPath());
+                        throw e;
                     }
                 }
 
-                if (downloaded != contentLength)
-                    throw new IOException("Unexpected file size: " + downloaded + ", expected: " + contentLength);
+                closeFiles();
 
-                // Integrity check
-                if (integrityCheck != null) {
-                    integrityCheck.performCheck(digest);
+                // Restore temp file to original name.
+                Files.deleteIfExists(file.toPath());
+                if (!FileUtils.makeDirectory(file.getAbsoluteFile().getParentFile()))
+                    throw new IOException("Unable to make parent directory " + file);
+                try {
+                    FileUtils.moveFile(temp.toFile(), file);
+                } catch (Exception e) {
+                    throw new IOException("Unable to move temp file from " + temp + " to " + file, e);
                 }
+                journal.delete();
+
+                // Spare hashing the file again when it is checked later.
+                if (integrityCheck != null)
+                    DigestCache.getInstance().put(integrityCheck.getAlgorithm(), file.toPath(), integrityCheck.getChecksum());
 
                 if (caching && integrityCheck != null) {
                     try {
@@ -323,14 +430,32 @@ public class FileDownloadTask extends Task<Void> {
                 }
 
                 return;
+            } catch (InterruptedException e) {
+                closeFiles();
+                if (journal == null || !journal.isPersistent())
+                    deleteTemp(temp);
+                throw e;
             } catch (IOException e) {
-                if (temp != null)
-                    temp.toFile().delete();
+                // Keep the partial file so that the next attempt resumes from where this one stopped,
+                // the journal is saved before closing the file, whose content is forced to disk first.
+                // A journal whose file has not been opened by this attempt, as the mirror failed, is left as it is.
+                boolean resumable = journal != null && journal.isPersistent() && Files.exists(DownloadJournal.getPartFile(file.toPath()));
+                if (resumable && temp != null)
+                    journal.save();
+                closeFiles();
+                if (!resumable) {
+                    deleteTemp(temp);
+                    journal = null;
+                }
                 failedURL = url;
                 exception = e;
-                Logging.LOG.log(Level.WARNING, "Failed to download " + url + ", repeat times: " + (repeat + 1), e);
+                Logging.LOG.log(isCancelled() ? Level.FINE : Level.WARNING, "Failed to download " + url + ", repeat times: " + (repeat + 1), e);
             } finally {
+                if (tempFinalizer != null)
+                    tempFinalizer.close();
                 closeFiles();
+                if (permit != null)
+                    permit.close();
             }
         }
 
@@ -338,10 +463,392 @@ public class FileDownloadTask extends Task<Void> {
             throw new DownloadException(failedURL, exception);
     }
 
+    /**
+     * Send the request of {@code primary}, and the same request to the mirror at {@code rivalIndex} if its host
+     * is not busy. The first successful response is kept, the other request is aborted.
+     *
+     * @return the winner, whose connection has been connected
+     */
+    private Racer race(Racer primary, int rivalIndex, boolean checkETag) throws IOException, InterruptedException {
+        URL rivalURL = urls.get(rivalIndex);
+        HostConcurrencyLimiter.Permit rivalPermit = NetworkUtils.getHostLimiter().tryAcquire(rivalURL);
+        if (rivalPermit == null) {
+            primary.connection = primary.permit.connect(primary.connection);
+            return primary;
+        }
+
+        HttpURLConnection rivalConnection = NetworkUtils.createConnection(rivalURL);
+        if (checkETag) repository.injectConnection(rivalConnection);
+        Racer rival = new Racer(rivalIndex, rivalConnection, rivalPermit);
+        CancellationScope.Registration rivalRegistration = closeOnCancel(rivalConnection::disconnect);
+
+        BlockingQueue<Racer> finished = new LinkedBlockingQueue<>();
+        CompletableFuture<Racer> primaryFuture = primary.connectAsync(finished);
+        CompletableFuture<Racer> rivalFuture = rival.connectAsync(finished);
+
+        Racer winner = null;
+        try {
+            for (int i = 0; i < 2 && winner == null; i++) {
+                Racer racer = finished.take();
+                if (racer.isSuccessful())
+                    winner = racer;
+            }
+        } finally {
+            rivalRegistration.close();
+            if (winner == null) {
+                // Interrupted, or neither succeeded: the primary decides the outcome, if it is not interrupted.
+                rivalFuture.whenComplete((unused, e) -> rival.abort());
+                if (Thread.currentThread().isInterrupted())
+                    primaryFuture.whenComplete((unused, e) -> primary.abort());
+            } else {
+                Racer loser = winner == primary ? rival : primary;
+                (winner == primary ? rivalFuture : primaryFuture).whenComplete((unused, e) -> loser.abort());
+            }
+        }
+
+        if (winner != null)
+            return winner;
+
+        try {
+            return primaryFuture.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException("Unable to connect to " + urls.get(primary.urlIndex), e.getCause());
+        }
+    }
+
+    private static final class Racer {
+        private final int urlIndex;
+        private final HostConcurrencyLimiter.Permit permit;
+        private volatile HttpURLConnection connection;
+        private volatile boolean connected;
+
+        Racer(int urlIndex, HttpURLConnection connection, HostConcurrencyLimiter.Permit permit) {
+            this.urlIndex = urlIndex;
+            this.connection = connection;
+            this.permit = permit;
+        }
+
+        CompletableFuture<Racer> connectAsync(BlockingQueue<Racer> finished) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    connection = permit.connect(connection);
+                    connected = true;
+                    return this;
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                } finally {
+                    finished.add(this);
+                }
+            }, Schedulers.defaultScheduler());
+        }
+
+        boolean isSuccessful() {
+            if (!connected)
+                return false;
+            try {
+                int code = connection.getResponseCode();
+                return code / 100 == 2 || code == HttpURLConnection.HTTP_NOT_MODIFIED;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        void abort() {
+            connection.disconnect();
+            permit.close();
+        }
+    }
+
+    private static void deleteTemp(Path temp) {
+        if (temp != null)
+            temp.toFile().delete();
+    }
+
+    private int getSegmentCount(boolean rangeSupported, long contentLength) {
+        if (segments > 1 && rangeSupported && contentLength >= SEGMENTED_DOWNLOAD_THRESHOLD)
+            return (int) Math.min(segments, contentLength / MIN_SEGMENT_SIZE);
+        else
+            return 1;
+    }
+
+    private static long parseContentRangeTotal(String contentRange) {
+        if (contentRange == null)
+            return -1;
+        int slash = contentRange.lastIndexOf('/');
+        if (slash < 0)
+            return -1;
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Downloads the incomplete segments of a journal into {@link #rFile}, in parallel as far as the hosts allow.
+     *
+     * Every segment retries on its own, requesting only the range that is still missing,
+     * and the journal is saved as the segments advance. A segment failing all its retries is put back
+     * for the other connections, and the connection that failed it stops, so that one bad mirror
+     * does not fail the whole download.
+     */
+    private final class SegmentedDownload {
+        private final DownloadJournal journal;
+        private final boolean rangeSupported;
+        private final FileChannel channel;
+        private final AtomicLong downloaded;
+        private final AtomicBoolean aborted = new AtomicBoolean();
+
+        // Segments not taken by any connection, and the number being downloaded, guarded by the lock,
+        // instead of the monitor, so that virtual threads waiting for a segment do not pin their carriers.
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private final Deque<DownloadJournal.Segment> pending = new ArrayDeque<>();
+        private int inFlight;
+        private volatile IOException lastException;
+
+        SegmentedDownload(DownloadJournal journal, boolean rangeSupported) {
+            this.journal = journal;
+            this.rangeSupported = rangeSupported;
+            this.channel = rFile.getChannel();
+            this.downloaded = new AtomicLong(journal.getDownloadedBytes());
+        }
+
+        /**
+         * The response of {@code con} is read into the first incomplete segment. Segments left are
+         * requested from the mirrors in {@link #urls}, starting from the one after the URL connected,
+         * through extra connections opened only while the host limiter allows.
+         * Each connection downloads segments until none is left.
+         *
+         * @param con the connection responding from the first incomplete segment
+         * @param permit the permit of the host {@code con} is connected to
+         * @param urlIndex the index of the URL that {@code con} is connected to
+         * @param digest the digest to update with the data in order, only if there is a single segment
+         */
+        void download(HttpURLConnection con, HostConcurrencyLimiter.Permit permit, int urlIndex, MessageDigest digest) throws IOException, InterruptedException {
+            for (DownloadJournal.Segment segment : journal.getSegments())
+                if (!segment.isCompleted())
+                    pending.add(segment);
+
+            DownloadJournal.Segment first = pending.poll();
+            if (first == null) {
+                return;
+            } else if (pending.isEmpty()) {
+                download(first, con, permit, urlIndex, digest);
+                return;
+            }
+
+            inFlight = 1;
+            List<Future<?>> futures = new ArrayList<>();
+            futures.add(Schedulers.defaultScheduler().submit(() -> {
+                if (downloadTaken(first, con, permit, urlIndex))
+                    downloadAll(permit, urlIndex);
+                return null;
+            }));
+
+            for (int i = 1, count = pending.size(); i <= count; i++) {
+                int index = (urlIndex + i) % urls.size();
+                HostConcurrencyLimiter.Permit extra = NetworkUtils.getHostLimiter().tryAcquire(urls.get(index));
+                if (extra == null)
+                    continue;
+                futures.add(Schedulers.defaultScheduler().submit(() -> {
+                    try {
+                        downloadAll(extra, index);
+                    } finally {
+                        extra.close();
+                    }
+                    return null;
+                }));
+            }
+
+            Logging.LOG.log(Level.FINER, "Downloading " + file + " in " + (pending.size() + 1) + " segments through " + futures.size() + " connections");
+
+            try {
+                for (Future<?> future : futures)
+                    future.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+                else
+                    throw new IOException("Unable to download segment of " + file, cause);
+            } finally {
+                // Stop remaining segments, they will be finished by their own checks
+                // instead of interrupting, which would close the shared file channel.
+                aborted.set(true);
+                lock.lock();
+                try {
+                    changed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                for (Future<?> future : futures)
+                    future.cancel(false);
+            }
+
+            // Every connection has failed, the segments left are retried by the next attempt.
+            if (!journal.isCompleted() && !isCancelled())
+                throw lastException != null ? lastException : new IOException("Segments of " + file + " are incomplete");
+        }
+
+        /**
+         * Download segments until none is left, or one of them fails on this connection.
+         */
+        private void downloadAll(HostConcurrencyLimiter.Permit permit, int urlIndex) throws InterruptedException {
+            DownloadJournal.Segment segment;
+            while ((segment = take()) != null)
+                if (!downloadTaken(segment, null, permit, urlIndex))
+                    return;
+        }
+
+        /**
+         * Wait for a segment to download, as one being downloaded may be put back when it fails.
+         *
+         * @return the segment, or null if all segments are finished or the download is aborted
+         */
+        private DownloadJournal.Segment take() throws InterruptedException {
+            lock.lock();
+            try {
+                while (!aborted.get() && !isCancelled()) {
+                    DownloadJournal.Segment segment = pending.poll();
+                    if (segment != null) {
+                        inFlight++;
+                        return segment;
+                    }
+                    if (inFlight == 0)
+                        return null;
+                    changed.await(TAKE_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                }
+                return null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Download a segment taken from {@link #pending}, and put it back if it fails.
+         *
+         * @return false if the segment has failed
+         */
+        private boolean downloadTaken(DownloadJournal.Segment segment, HttpURLConnection con, HostConcurrencyLimiter.Permit permit, int urlIndex) {
+            boolean succeeded = false;
+            try {
+                download(segment, con, permit, urlIndex, null);
+                succeeded = true;
+            } catch (IOException e) {
+                lastException = e;
+                Logging.LOG.log(Level.FINE, "Leaving segment " + segment.getPosition() + "-" + segment.getEnd() + " of " + file + " to other mirrors than " + urls.get(urlIndex));
+            } finally {
+                lock.lock();
+                try {
+                    inFlight--;
+                    if (!succeeded)
+                        pending.addFirst(segment);
+                    changed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return succeeded;
+        }
+
+        private void download(DownloadJournal.Segment segment, HttpURLConnection initialConnection, HostConcurrencyLimiter.Permit permit, int urlIndex, MessageDigest digest) throws IOException {
+            IOException exception = null;
+            URL url = urls.get(urlIndex);
+            int attempts = rangeSupported ? retry : 1;
+            for (int attempt = 0; attempt < attempts && !segment.isCompleted(); attempt++) {
+                if (aborted.get() || isCancelled())
+                    return;
+
+                HttpURLConnection con = attempt == 0 ? initialConnection : null;
+                try {
+                    if (con == null)
+                        con = openRange(url, segment, permit);
+
+                    // Only interruption aborts reading the body at once, and only on virtual threads,
+                    // disconnecting would block until the read times out. It is confined to the reads,
+                    // since it would close the file channel shared by all segments.
+                    try (InputStream input = interruptOnCancel(con.getInputStream())) {
+                        byte[] buffer = new byte[IOUtils.DEFAULT_BUFFER_SIZE];
+                        while (!segment.isCompleted()) {
+                            if (aborted.get() || isCancelled())
+                                return;
+
+                            int length = (int) Math.min(buffer.length, segment.getEnd() - segment.getPosition());
+                            int read = input.read(buffer, 0, length);
+                            if (read == -1)
+                                throw new IOException("Unexpected end of segment " + segment.getStart() + "-" + segment.getEnd() + " at " + segment.getPosition());
+
+                            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                            while (byteBuffer.hasRemaining())
+                                segment.advance(channel.write(byteBuffer, segment.getPosition()));
+
+                            if (digest != null)
+                                digest.update(buffer, 0, read);
+
+                            journal.update();
+                            permit.onBytes(read);
+                            updateTransferredBytes(url.getHost(), read);
+                            updateProgress(downloaded.addAndGet(read), journal.getContentLength());
+                            updateDownloadSpeed(read);
+                        }
+                    }
+                    return;
+                } catch (IOException e) {
+                    exception = e;
+                    Logging.LOG.log(isCancelled() ? Level.FINE : Level.WARNING, "Failed to download segment " + segment.getPosition() + "-" + segment.getEnd() + " of " + url + ", repeat times: " + (attempt + 1), e);
+                }
+            }
+
+            if (!segment.isCompleted())
+                throw exception != null ? exception : new IOException("Segment " + segment.getStart() + "-" + segment.getEnd() + " of " + file + " is incomplete");
+        }
+
+        private HttpURLConnection openRange(URL url, DownloadJournal.Segment segment, HostConcurrencyLimiter.Permit permit) throws IOException {
+            HttpURLConnection request = NetworkUtils.createConnection(url);
+            request.setRequestProperty("Range", "bytes=" + segment.getPosition() + "-" + (segment.getEnd() - 1));
+            // Other mirrors are checked by the total length in Content-Range instead.
+            String validator = journal.getValidator(url);
+            if (validator != null)
+                request.setRequestProperty("If-Range", validator);
+            HttpURLConnection con;
+            CancellationScope.Registration registration = closeOnCancel(request::disconnect);
+            try {
+                con = permit.connect(request);
+            } finally {
+                registration.close();
+            }
+            if (con.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                NetworkUtils.release(con);
+                throw new ResponseCodeException(url, con.getResponseCode());
+            }
+
+            // Mirrors may be out of sync, never mix ranges of different files.
+            long total = parseContentRangeTotal(con.getHeaderField("Content-Range"));
+            if (total != journal.getContentLength()) {
+                NetworkUtils.release(con);
+                throw new IOException("Mirror " + url + " serves " + total + " bytes, expected: " + journal.getContentLength());
+            }
+            return con;
+        }
+    }
+
     private static final Timer timer = new Timer("DownloadSpeedRecorder", true);
     private static final AtomicInteger downloadSpeed = new AtomicInteger(0);
     public static final EventBus speedEvent = new EventBus();
 
+    public static final int DEFAULT_SEGMENTS = 4;
+    public static final long SEGMENTED_DOWNLOAD_THRESHOLD = 4 * 1024 * 1024;
+    public static final long RESUMABLE_DOWNLOAD_THRESHOLD = 1024 * 1024;
+    private static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    /**
+     * Connections waiting for a segment to be put back check the cancellation this often.
+     */
+    private static final long TAKE_POLL_INTERVAL = 500;
+
     static {
         timer.schedule(new TimerTask() {
             @Override
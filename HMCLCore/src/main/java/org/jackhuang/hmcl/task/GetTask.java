@@ -20,6 +20,7 @@ package org.jackhuang.hmcl.task;
 import org.jackhuang.hmcl.util.CacheRepository;
 import org.jackhuang.hmcl.util.Logging;
 import org.jackhuang.hmcl.util.io.FileUtils;
+import org.jackhuang.hmcl.util.io.HostConcurrencyLimiter;
 import org.jackhuang.hmcl.util.io.IOUtils;
 import org.jackhuang.hmcl.util.io.NetworkUtils;
 
@@ -43,7 +44,8 @@ import static java.nio.charset.StandardCharsets.UTF_8;
  */
 public final class GetTask extends Task<String> {
 
-    private final List<URL> urls;
+    private List<URL> urls;
+    private boolean ranked;
     private final Charset charset;
     private final int retry;
     private CacheRepository repository = CacheRepository.getInstance();
@@ -62,7 +64,7 @@ public final class GetTask extends Task<String> {
         this.retry = retry;
 
         setName(url.toString());
-        setExecutor(Schedulers.io());
+        setExecutor(NetworkUtils.getHostLimiter().executor(this::rankUrls, NetworkUtils.getTransport().getExecutor()));
     }
 
     public GetTask(List<URL> urls, Charset charset) {
@@ -71,7 +73,7 @@ public final class GetTask extends Task<String> {
         this.retry = urls.size();
 
         setName(urls.get(0).toString());
-        setExecutor(Schedulers.io());
+        setExecutor(NetworkUtils.getHostLimiter().executor(this::rankUrls, NetworkUtils.getTransport().getExecutor()));
     }
 
     public GetTask setCacheRepository(CacheRepository repository) {
@@ -79,20 +81,43 @@ public final class GetTask extends Task<String> {
         return this;
     }
 
+    /**
+     * Try the mirror measured fastest first. Ranked when the task is submitted, so that the permit
+     * reserved by the executor is for the mirror requested first.
+     */
+    private URL rankUrls() {
+        if (!ranked) {
+            urls = NetworkUtils.getMirrorScores().rank(urls);
+            ranked = true;
+        }
+        return urls.get(0);
+    }
+
     @Override
     public void execute() throws Exception {
+        rankUrls();
         Exception exception = null;
         URL failedURL = null;
         boolean checkETag = true;
         for (int time = 0; time < retry; ++time) {
+            if (isCancelled())
+                break;
             URL url = urls.get(time % urls.size());
-            try {
+            try (HostConcurrencyLimiter.Permit permit = NetworkUtils.getHostLimiter().acquire(url)) {
                 updateProgress(0);
-                HttpURLConnection conn = NetworkUtils.createConnection(url);
-                if (checkETag) repository.injectConnection(conn);
-                conn = NetworkUtils.resolveConnection(conn);
+                HttpURLConnection request = NetworkUtils.createConnection(url);
+                if (checkETag) repository.injectConnection(request);
+                HttpURLConnection conn;
+                // Abort the request at once on cancellation instead of waiting for timeouts.
+                CancellationScope.Registration registration = closeOnCancel(request::disconnect);
+                try {
+                    conn = permit.connect(request);
+                } finally {
+                    registration.close();
+                }
 
                 if (conn.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    NetworkUtils.release(conn);
                     // Handle cache
                     try {
                         Path cache = repository.getCachedRemoteFile(conn);
@@ -104,22 +129,26 @@ public final class GetTask extends Task<String> {
                         continue;
                     }
                 } else if (conn.getResponseCode() / 100 != 2) {
+                    NetworkUtils.release(conn);
                     throw new IOException("Server error, response code: " + conn.getResponseCode());
                 }
 
-                InputStream input = conn.getInputStream();
                 ByteArrayOutputStream baos = new ByteArrayOutputStream();
                 byte[] buf = new byte[IOUtils.DEFAULT_BUFFER_SIZE];
                 int size = conn.getContentLength(), read = 0, len;
-                while ((len = input.read(buf)) != -1) {
-                    baos.write(buf, 0, len);
-                    read += len;
-
-                    if (size >= 0)
-                        updateProgress(read, size);
-
-                    if (Thread.currentThread().isInterrupted())
-                        return;
+                // Only interruption aborts reading the body at once, and only on virtual threads.
+                try (InputStream input = interruptOnCancel(conn.getInputStream())) {
+                    while ((len = input.read(buf)) != -1) {
+                        baos.write(buf, 0, len);
+                        read += len;
+                        permit.onBytes(len);
+
+                        if (size >= 0)
+                            updateProgress(read, size);
+
+                        if (isCancelled())
+                            return;
+                    }
                 }
 
                 if (size > 0 && size != read)
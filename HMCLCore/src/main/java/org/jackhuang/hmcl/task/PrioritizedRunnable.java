@@ -0,0 +1,62 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.task;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A step of a task submitted to an executor, carrying the priority of the task.
+ *
+ * Runnables are ordered by priority, then by the order they are created, so that executors backed by
+ * a priority queue run steps of the same priority first in, first out.
+ */
+public final class PrioritizedRunnable implements Runnable, Comparable<PrioritizedRunnable> {
+
+    private final Task.TaskPriority priority;
+    private final long sequence = SEQUENCE.getAndIncrement();
+    private final Runnable runnable;
+
+    public PrioritizedRunnable(Task.TaskPriority priority, Runnable runnable) {
+        this.priority = priority;
+        this.runnable = runnable;
+    }
+
+    public Task.TaskPriority getPriority() {
+        return priority;
+    }
+
+    @Override
+    public void run() {
+        runnable.run();
+    }
+
+    @Override
+    public int compareTo(PrioritizedRunnable other) {
+        int result = priority.compareTo(other.priority);
+        return result != 0 ? result : Long.compare(sequence, other.sequence);
+    }
+
+    /**
+     * @return the priority of {@code runnable}, {@link Task.TaskPriority#NORMAL} if not given.
+     */
+    public static Task.TaskPriority getPriority(Runnable runnable) {
+        return runnable instanceof PrioritizedRunnable ? ((PrioritizedRunnable) runnable).priority : Task.TaskPriority.NORMAL;
+    }
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+}
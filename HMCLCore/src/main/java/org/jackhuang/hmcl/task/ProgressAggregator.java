@@ -0,0 +1,375 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.task;
+
+import org.jackhuang.hmcl.util.Logging;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * Collects the progress of all tasks run by a {@link TaskExecutor} and publishes it
+ * as one immutable {@link Snapshot} per frame.
+ *
+ * Worker threads only update concurrent maps and counters here, they never post to the
+ * UI thread themselves. Progress and message of each task are read from {@link Task#getProgress()}
+ * and {@link Task#getMessage()} when a frame is built, so frequent progress updates cost nothing
+ * between frames. A frame is skipped while the previous one is still waiting in the publisher.
+ */
+public final class ProgressAggregator extends TaskListener {
+
+    private final Executor publisher;
+    private final long frameInterval;
+    private final List<String> stages;
+    private final List<Consumer<Snapshot>> listeners = new CopyOnWriteArrayList<>();
+
+    private final ConcurrentMap<String, StageEntry> stageEntries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Task<?>, TaskEntry> taskEntries = new ConcurrentHashMap<>();
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final AtomicBoolean publishing = new AtomicBoolean();
+    private volatile boolean stopped;
+    private volatile Boolean success;
+    private ScheduledFuture<?> frames;
+
+    /**
+     * @param executor the executor whose tasks are aggregated, this aggregator registers itself as its listener.
+     * @param publisher the executor that delivers snapshots to listeners, {@link Schedulers#javafx()} for UI.
+     */
+    public ProgressAggregator(TaskExecutor executor, Executor publisher) {
+        this(executor, publisher, DEFAULT_FRAME_INTERVAL);
+    }
+
+    public ProgressAggregator(TaskExecutor executor, Executor publisher, long frameInterval) {
+        this.publisher = publisher;
+        this.frameInterval = frameInterval;
+        this.stages = executor.getStages();
+        for (String stage : stages)
+            stageEntries.putIfAbsent(stage, new StageEntry());
+        executor.addTaskListener(this);
+    }
+
+    public ProgressAggregator addListener(Consumer<Snapshot> listener) {
+        listeners.add(listener);
+        return this;
+    }
+
+    @Override
+    public void onStart() {
+        stopped = false;
+        success = null;
+        synchronized (this) {
+            if (frames == null)
+                frames = getTimer().scheduleAtFixedRate(this::publish, 0, frameInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void onReady(Task<?> task) {
+        StageEntry stage = getStage(task.getStage());
+        if (stage != null) {
+            stage.total.incrementAndGet();
+            if (task instanceof Task.StageTask)
+                stage.status = StageStatus.RUNNING;
+        }
+    }
+
+    @Override
+    public void onRunning(Task<?> task) {
+        if (task.getSignificance().shouldShow() && task.getName() != null)
+            taskEntries.put(task, new TaskEntry(task, sequence.getAndIncrement()));
+    }
+
+    @Override
+    public void onFinished(Task<?> task) {
+        StageEntry stage = getStage(task.getStage());
+        if (stage != null) {
+            stage.done.incrementAndGet();
+            if (task instanceof Task.StageTask)
+                stage.status = StageStatus.SUCCEEDED;
+        }
+        taskEntries.remove(task);
+    }
+
+    @Override
+    public void onFailed(Task<?> task, Throwable throwable) {
+        StageEntry stage = getStage(task.getStage());
+        if (stage != null) {
+            stage.done.incrementAndGet();
+            if (task instanceof Task.StageTask)
+                stage.status = StageStatus.FAILED;
+        }
+        TaskEntry entry = taskEntries.get(task);
+        if (entry != null)
+            entry.throwable = throwable;
+    }
+
+    @Override
+    public void onPropertiesUpdate(Map<String, Map<String, Object>> stageProperties) {
+        // Executors call this while holding the lock of stageProperties, copying here is safe.
+        stageProperties.forEach((stage, properties) -> {
+            StageEntry entry = getStage(stage);
+            if (entry != null)
+                entry.properties = unmodifiableMap(new HashMap<>(properties));
+        });
+    }
+
+    @Override
+    public void onStop(boolean success, TaskExecutor executor) {
+        this.success = success;
+        this.stopped = true;
+        synchronized (this) {
+            if (frames != null) {
+                frames.cancel(false);
+                frames = null;
+            }
+        }
+        // The last frame must not be skipped.
+        publishing.set(false);
+        publish();
+    }
+
+    /**
+     * Build the snapshot of current progress, on the calling thread.
+     */
+    public Snapshot snapshot() {
+        List<StageSnapshot> stageSnapshots = new ArrayList<>(stages.size());
+        for (String stage : stages) {
+            StageEntry entry = stageEntries.get(stage);
+            stageSnapshots.add(new StageSnapshot(stage, entry.status, entry.done.get(), entry.total.get(), entry.properties));
+        }
+
+        List<TaskEntry> entries = new ArrayList<>(taskEntries.values());
+        entries.sort(Comparator.comparingInt(entry -> entry.sequence));
+        List<TaskSnapshot> taskSnapshots = new ArrayList<>(entries.size());
+        for (TaskEntry entry : entries) {
+            Task<?> task = entry.task;
+            taskSnapshots.add(new TaskSnapshot(task, task.getName(), task.getStage(), task.getProgress(), task.getMessage(), entry.throwable));
+        }
+
+        return new Snapshot(unmodifiableList(stageSnapshots), unmodifiableList(taskSnapshots), stopped, success);
+    }
+
+    private void publish() {
+        if (listeners.isEmpty() || !publishing.compareAndSet(false, true))
+            return;
+
+        try {
+            Snapshot snapshot = snapshot();
+            publisher.execute(() -> {
+                publishing.set(false);
+                for (Consumer<Snapshot> listener : listeners)
+                    listener.accept(snapshot);
+            });
+        } catch (RuntimeException e) {
+            publishing.set(false);
+            Logging.LOG.log(Level.WARNING, "Unable to publish task progress", e);
+        }
+    }
+
+    private StageEntry getStage(String stage) {
+        return stage == null ? null : stageEntries.get(stage);
+    }
+
+    private static final class StageEntry {
+        private final AtomicInteger done = new AtomicInteger();
+        private final AtomicInteger total = new AtomicInteger();
+        private volatile StageStatus status = StageStatus.WAITING;
+        private volatile Map<String, Object> properties = Collections.emptyMap();
+    }
+
+    private static final class TaskEntry {
+        private final Task<?> task;
+        private final int sequence;
+        private volatile Throwable throwable;
+
+        TaskEntry(Task<?> task, int sequence) {
+            this.task = task;
+            this.sequence = sequence;
+        }
+    }
+
+    public enum StageStatus {
+        WAITING,
+        RUNNING,
+        SUCCEEDED,
+        FAILED
+    }
+
+    /**
+     * Progress of all stages and all visible running tasks at one moment.
+     */
+    public static final class Snapshot {
+        private final List<StageSnapshot> stages;
+        private final List<TaskSnapshot> tasks;
+        private final boolean stopped;
+        private final Boolean success;
+
+        Snapshot(List<StageSnapshot> stages, List<TaskSnapshot> tasks, boolean stopped, Boolean success) {
+            this.stages = stages;
+            this.tasks = tasks;
+            this.stopped = stopped;
+            this.success = success;
+        }
+
+        /**
+         * @return stages in the order of {@link TaskExecutor#getStages()}.
+         */
+        public List<StageSnapshot> getStages() {
+            return stages;
+        }
+
+        /**
+         * @return visible tasks which are running or have failed, in the order they started running.
+         */
+        public List<TaskSnapshot> getTasks() {
+            return tasks;
+        }
+
+        public boolean isStopped() {
+            return stopped;
+        }
+
+        /**
+         * @return whether the execution succeeded, null if it has not stopped.
+         */
+        public Boolean getSuccess() {
+            return success;
+        }
+    }
+
+    public static final class StageSnapshot {
+        private final String stage;
+        private final StageStatus status;
+        private final int tasksDone;
+        private final int tasksTotal;
+        private final Map<String, Object> properties;
+
+        StageSnapshot(String stage, StageStatus status, int tasksDone, int tasksTotal, Map<String, Object> properties) {
+            this.stage = stage;
+            this.status = status;
+            this.tasksDone = tasksDone;
+            this.tasksTotal = tasksTotal;
+            this.properties = properties;
+        }
+
+        public String getStage() {
+            return stage;
+        }
+
+        public StageStatus getStatus() {
+            return status;
+        }
+
+        /**
+         * @return number of tasks of this stage that have finished or failed.
+         */
+        public int getTasksDone() {
+            return tasksDone;
+        }
+
+        /**
+         * @return number of tasks of this stage that have been scheduled so far.
+         */
+        public int getTasksTotal() {
+            return tasksTotal;
+        }
+
+        /**
+         * @return the stage properties reported by {@link TaskListener#onPropertiesUpdate}, such as "count" and "total".
+         */
+        public Map<String, Object> getProperties() {
+            return properties;
+        }
+    }
+
+    public static final class TaskSnapshot {
+        private final Task<?> task;
+        private final String name;
+        private final String stage;
+        private final double progress;
+        private final String message;
+        private final Throwable throwable;
+
+        TaskSnapshot(Task<?> task, String name, String stage, double progress, String message, Throwable throwable) {
+            this.task = task;
+            this.name = name;
+            this.stage = stage;
+            this.progress = progress;
+            this.message = message;
+            this.throwable = throwable;
+        }
+
+        public Task<?> getTask() {
+            return task;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getStage() {
+            return stage;
+        }
+
+        /**
+         * @return progress between 0 and 1, or -1 if unknown.
+         */
+        public double getProgress() {
+            return progress;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * @return the reason why the task failed, or null if it is still running.
+         */
+        public Throwable getThrowable() {
+            return throwable;
+        }
+    }
+
+    private static volatile ScheduledExecutorService timer;
+
+    private static ScheduledExecutorService getTimer() {
+        if (timer == null) {
+            synchronized (ProgressAggregator.class) {
+                if (timer == null)
+                    timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "Progress Aggregator");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * About 30 frames per second.
+     */
+    public static final long DEFAULT_FRAME_INTERVAL = 33;
+}
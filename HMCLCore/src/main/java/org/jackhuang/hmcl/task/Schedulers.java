@@ -19,11 +19,23 @@ package org.jackhuang.hmcl.task;
 
 import javafx.application.Platform;
 import org.jackhuang.hmcl.util.Logging;
+import org.jackhuang.hmcl.util.function.ExceptionalConsumer;
 
 import javax.swing.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
+ * Executors of tasks.
+ *
+ * On Java 21 and later, {@link #io()} and {@link #defaultScheduler()} start a virtual thread for each
+ * task, so that blocking tasks no longer need pools of platform threads, and concurrency is limited by
+ * semaphores of the resources, such as {@link org.jackhuang.hmcl.util.io.HostConcurrencyLimiter}, instead
+ * of pool sizes. Virtual threads are detected reflectively, and can be disabled by
+ * {@code -Dhmcl.virtual_threads=false}.
  *
  * @author huangyuhui
  */
@@ -42,22 +54,47 @@ public final class Schedulers {
         return CACHED_EXECUTOR;
     }
 
+    private static volatile ExecutorService VIRTUAL_EXECUTOR;
+
+    private static synchronized ExecutorService virtual() {
+        if (VIRTUAL_EXECUTOR == null)
+            VIRTUAL_EXECUTOR = newVirtualThreadExecutor("Task");
+
+        return VIRTUAL_EXECUTOR;
+    }
+
     private static volatile ExecutorService IO_EXECUTOR;
 
+    /**
+     * The lane for work that blocks on files or network.
+     *
+     * Priorities of tasks are not respected on virtual threads, since every task starts at once.
+     */
     public static synchronized ExecutorService io() {
         if (IO_EXECUTOR == null) {
-            int threads = Math.min(Runtime.getRuntime().availableProcessors() * 4, 64);
-            IO_EXECUTOR = Executors.newFixedThreadPool(threads,
-                    runnable -> {
-                        Thread thread = Executors.defaultThreadFactory().newThread(runnable);
-                        thread.setDaemon(true);
-                        return thread;
-                    });
+            if (VIRTUAL_THREADS) {
+                IO_EXECUTOR = newVirtualThreadExecutor("IO");
+            } else {
+                int threads = Math.min(Runtime.getRuntime().availableProcessors() * 4, 64);
+                IO_EXECUTOR = new WorkStealingExecutor("IO", threads);
+            }
         }
 
         return IO_EXECUTOR;
     }
 
+    private static volatile ExecutorService COMPUTATION_EXECUTOR;
+
+    /**
+     * The lane for CPU-bound work, such as hashing, unzipping and parsing json, one worker per processor.
+     */
+    public static synchronized ExecutorService computation() {
+        if (COMPUTATION_EXECUTOR == null)
+            COMPUTATION_EXECUTOR = new WorkStealingExecutor("Computation", Runtime.getRuntime().availableProcessors());
+
+        return COMPUTATION_EXECUTOR;
+    }
+
     public static Executor javafx() {
         return Platform::runLater;
     }
@@ -66,8 +103,34 @@ public final class Schedulers {
         return SwingUtilities::invokeLater;
     }
 
-    public static Executor defaultScheduler() {
-        return newThread();
+    public static ExecutorService defaultScheduler() {
+        return VIRTUAL_THREADS ? virtual() : newThread();
+    }
+
+    /**
+     * @return true if {@link #io()} and {@link #defaultScheduler()} run tasks on virtual threads.
+     */
+    public static boolean isVirtualThreadsEnabled() {
+        return VIRTUAL_THREADS;
+    }
+
+    /**
+     * Create an executor starting a new virtual thread for each task.
+     *
+     * @param name prefix of names of the threads
+     * @return the executor, or null if the Java runtime does not support virtual threads.
+     */
+    public static ExecutorService newVirtualThreadExecutor(String name) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            // Java 18 or earlier, or virtual threads are a preview feature not enabled.
+            return null;
+        }
     }
 
     public static synchronized void shutdown() {
@@ -76,8 +139,14 @@ public final class Schedulers {
         if (CACHED_EXECUTOR != null)
             CACHED_EXECUTOR.shutdownNow();
 
+        if (VIRTUAL_EXECUTOR != null)
+            VIRTUAL_EXECUTOR.shutdownNow();
+
         if (IO_EXECUTOR != null)
             IO_EXECUTOR.shutdownNow();
+
+        if (COMPUTATION_EXECUTOR != null)
+            COMPUTATION_EXECUTOR.shutdownNow();
     }
 
     public static Future<?> schedule(Executor executor, Runnable command) {
@@ -85,4 +154,70 @@ public final class Schedulers {
         executor.execute(future);
         return future;
     }
+
+    /**
+     * Run {@code action} for every item, on the calling thread and up to {@code parallelism - 1} helpers in {@code executor}.
+     *
+     * Items are claimed in batches, so that tiny actions, such as checking a file, are not dominated by scheduling.
+     * The calling thread works as well, and helpers that have not started by the time the items run out are cancelled,
+     * so it is safe to call this from a worker of {@code executor} even if the other workers are busy.
+     *
+     * @param executor the executor to run helpers in
+     * @param parallelism the maximum number of threads running {@code action} at the same time
+     * @param items the items
+     * @param action the action, called concurrently
+     * @throws E the first exception thrown by {@code action}, items not claimed yet are skipped
+     * @throws InterruptedException if the calling thread is interrupted while waiting for helpers
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, E extends Exception> void forEachParallel(Executor executor, int parallelism, List<? extends T> items, ExceptionalConsumer<? super T, E> action) throws E, InterruptedException {
+        int size = items.size();
+        int batch = Math.max(1, Math.min(MAX_BATCH_SIZE, size / (Math.max(1, parallelism) * 4)));
+        AtomicInteger cursor = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Runnable worker = () -> {
+            int start;
+            while (failure.get() == null && (start = cursor.getAndAdd(batch)) < size) {
+                try {
+                    for (int i = start, end = Math.min(start + batch, size); i < end; i++)
+                        action.accept(items.get(i));
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        };
+
+        int helpers = Math.min(parallelism - 1, (size - 1) / batch);
+        List<FutureTask<?>> futures = new ArrayList<>(Math.max(0, helpers));
+        for (int i = 0; i < helpers; i++) {
+            FutureTask<?> future = new FutureTask<Void>(worker, null);
+            executor.execute(future);
+            futures.add(future);
+        }
+
+        worker.run();
+        try {
+            for (FutureTask<?> future : futures)
+                if (!future.cancel(false))
+                    future.get();
+        } catch (ExecutionException e) {
+            failure.compareAndSet(null, e.getCause());
+        } catch (InterruptedException e) {
+            failure.compareAndSet(null, e);
+            throw e;
+        }
+
+        Throwable e = failure.get();
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        else if (e instanceof Error)
+            throw (Error) e;
+        else if (e != null)
+            throw (E) e;
+    }
+
+    private static final int MAX_BATCH_SIZE = 64;
+
+    private static final boolean VIRTUAL_THREADS = !"false".equals(System.getProperty("hmcl.virtual_threads"))
+            && newVirtualThreadExecutor("Probe") != null;
 }
@@ -17,13 +17,9 @@
  */
 package org.jackhuang.hmcl.task;
 
-import javafx.application.Platform;
 import javafx.beans.property.ReadOnlyDoubleProperty;
-import javafx.beans.property.ReadOnlyDoubleWrapper;
 import javafx.beans.property.ReadOnlyStringProperty;
-import javafx.beans.property.ReadOnlyStringWrapper;
 import org.jackhuang.hmcl.event.EventManager;
-import org.jackhuang.hmcl.util.InvocationDispatcher;
 import org.jackhuang.hmcl.util.Lang;
 import org.jackhuang.hmcl.util.Logging;
 import org.jackhuang.hmcl.util.ReflectionHelper;
@@ -32,10 +28,12 @@ import org.jackhuang.hmcl.util.function.ExceptionalFunction;
 import org.jackhuang.hmcl.util.function.ExceptionalRunnable;
 import org.jackhuang.hmcl.util.function.ExceptionalSupplier;
 
+import java.io.InputStream;
 import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.function.UnaryOperator;
@@ -50,7 +48,7 @@ import java.util.stream.Stream;
  */
 public abstract class Task<T> {
 
-    private final EventManager<TaskEvent> onDone = new EventManager<>();
+    private volatile EventManager<TaskEvent> onDone;
 
     /**
      * True if not logging when executing this task.
@@ -66,13 +64,124 @@ public abstract class Task<T> {
         return this;
     }
 
+    // priority
+    private TaskPriority priority;
+
+    /**
+     * Tasks of higher priority are scheduled first when they are ready at the same time.
+     * Priority will inherit from the parent task if not set.
+     */
+    public final TaskPriority getPriority() {
+        return priority == null ? TaskPriority.NORMAL : priority;
+    }
+
+    public final Task<T> setPriority(TaskPriority priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    final void inheritPriority(Task<?> parent) {
+        if (priority == null)
+            priority = parent.getPriority();
+    }
+
+    // bytes
+    private volatile long expectedSize = -1;
+    private volatile long transferredBytes;
+    private volatile TransferMeter transferMeter;
+
+    /**
+     * @return the number of bytes this task is expected to transfer, -1 if unknown.
+     */
+    public final long getExpectedSize() {
+        return expectedSize;
+    }
+
+    /**
+     * Declare the number of bytes this task is going to transfer, so that progress of its stage
+     * is weighted by bytes. Should be set before the task is executed, tasks knowing the size only
+     * while running, such as from Content-Length, may set it then.
+     *
+     * @param expectedSize the number of bytes, -1 if unknown
+     * @return this task
+     */
+    public final Task<T> setExpectedSize(long expectedSize) {
+        long previous = this.expectedSize;
+        this.expectedSize = expectedSize;
+        TransferMeter meter = transferMeter;
+        if (meter != null)
+            meter.adjustExpected(this, Math.max(expectedSize, 0) - Math.max(previous, 0));
+        return this;
+    }
+
+    public final long getTransferredBytes() {
+        return transferredBytes;
+    }
+
+    /**
+     * Report bytes transferred by this task, safe to be called from multiple threads.
+     *
+     * @param host the host the bytes come from, for per-host throughput, null if none.
+     * @param bytes the number of bytes transferred since the last report
+     */
+    protected final void updateTransferredBytes(String host, long bytes) {
+        TRANSFERRED_BYTES.addAndGet(this, bytes);
+        TransferMeter meter = transferMeter;
+        if (meter != null)
+            meter.transferred(this, host, bytes);
+    }
+
+    final void setTransferMeter(TransferMeter transferMeter) {
+        this.transferMeter = transferMeter;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<Task> TRANSFERRED_BYTES = AtomicLongFieldUpdater.newUpdater(Task.class, "transferredBytes");
+
     // cancel
     private Supplier<Boolean> cancelled;
+    private CancellationScope cancellationScope;
 
     final void setCancelled(Supplier<Boolean> cancelled) {
         this.cancelled = cancelled;
     }
 
+    final void setCancellationScope(CancellationScope cancellationScope) {
+        this.cancellationScope = cancellationScope;
+    }
+
+    /**
+     * Close {@code resource} as soon as the execution of this task is cancelled, for aborting blocking I/O
+     * that does not respond to interruption, or for cleaning up files this task would leave behind.
+     *
+     * @param resource the connection, channel or finalizer to close on cancellation
+     * @return the registration, which must be closed once the resource is released by this task.
+     * @see CancellationScope
+     */
+    protected final CancellationScope.Registration closeOnCancel(AutoCloseable resource) {
+        CancellationScope scope = cancellationScope;
+        return (scope != null ? scope : UNCANCELLABLE).register(resource);
+    }
+
+    /**
+     * Wrap {@code input} so that a read blocked on it is interrupted as soon as the execution of this task is cancelled.
+     * Socket I/O of virtual threads is aborted by interruption, unlike that of platform threads.
+     *
+     * The stream is registered once for the whole connection, close it once done. The interruption never outlives
+     * a read, since it would close any interruptible channel used afterwards, such as a file being written,
+     * check {@link #isCancelled()} between reads instead.
+     *
+     * @param input the body of a connection
+     * @return the stream to read instead of {@code input}
+     * @see CancellationScope#interruptOnCancel(InputStream)
+     */
+    protected final InputStream interruptOnCancel(InputStream input) {
+        CancellationScope scope = cancellationScope;
+        return scope != null ? scope.interruptOnCancel(input) : input;
+    }
+
+    private static final CancellationScope UNCANCELLABLE = new CancellationScope();
+
     protected final boolean isCancelled() {
         if (Thread.interrupted()) {
             Thread.currentThread().interrupt();
@@ -295,7 +404,24 @@ public abstract class Task<T> {
     }
 
     public EventManager<TaskEvent> onDone() {
-        return onDone;
+        EventManager<TaskEvent> manager = onDone;
+        if (manager == null) {
+            synchronized (this) {
+                manager = onDone;
+                if (manager == null)
+                    onDone = manager = new EventManager<>();
+            }
+        }
+        return manager;
+    }
+
+    /**
+     * Fire {@link #onDone()} without creating the event manager if nobody has registered.
+     */
+    final void fireDoneEvent(Object source, boolean failed) {
+        EventManager<TaskEvent> manager = onDone;
+        if (manager != null)
+            manager.fireEvent(new TaskEvent(source, this, failed));
     }
 
     protected long getProgressInterval() {
@@ -303,17 +429,64 @@ public abstract class Task<T> {
     }
 
     private long lastTime = Long.MIN_VALUE;
-    private final ReadOnlyDoubleWrapper progress = new ReadOnlyDoubleWrapper(this, "progress", -1);
-    private final InvocationDispatcher<Double> progressUpdate = InvocationDispatcher.runOn(Platform::runLater, progress::set);
+    private volatile double progress = -1;
+    private volatile String message;
+
+    /**
+     * The task that mirrors progress and message of this task while {@link #run()} executes it as a sub-task.
+     */
+    private volatile Task<?> observer;
+
+    /**
+     * JavaFX properties of progress and message, created by the first call to {@link #progressProperty()}
+     * or {@link #messageProperty()}.
+     */
+    private volatile TaskObservables observables;
+
+    private TaskObservables getObservables() {
+        TaskObservables result = observables;
+        if (result == null) {
+            synchronized (this) {
+                result = observables;
+                if (result == null)
+                    observables = result = new TaskObservables(this);
+            }
+        }
+        return result;
+    }
+
+    private void notifyObservers() {
+        TaskObservables observables = this.observables;
+        if (observables != null)
+            observables.invalidate();
+    }
 
+    /**
+     * @return progress between 0 and 1, or -1 if the progress is unknown.
+     */
+    public final double getProgress() {
+        return progress;
+    }
+
+    public final String getMessage() {
+        return message;
+    }
+
+    /**
+     * Observing this property is the only thing that makes a task post updates to the JavaFX application thread.
+     */
     public ReadOnlyDoubleProperty progressProperty() {
-        return progress.getReadOnlyProperty();
+        return getObservables().progressProperty();
     }
 
     protected void updateProgress(int progress, int total) {
         updateProgress(1.0 * progress / total);
     }
 
+    protected void updateProgress(long progress, long total) {
+        updateProgress(1.0 * progress / total);
+    }
+
     protected void updateProgress(double progress) {
         if (progress < 0 || progress > 1.0)
             throw new IllegalArgumentException("Progress is must between 0 and 1.");
@@ -325,18 +498,23 @@ public abstract class Task<T> {
     }
 
     protected void updateProgressImmediately(double progress) {
-        progressUpdate.accept(progress);
+        this.progress = progress;
+        notifyObservers();
+        Task<?> observer = this.observer;
+        if (observer != null)
+            observer.updateProgressImmediately(progress);
     }
 
-    private final ReadOnlyStringWrapper message = new ReadOnlyStringWrapper(this, "message", null);
-    private final InvocationDispatcher<String> messageUpdate = InvocationDispatcher.runOn(Platform::runLater, message::set);
-
     public final ReadOnlyStringProperty messageProperty() {
-        return message.getReadOnlyProperty();
+        return getObservables().messageProperty();
     }
 
     protected final void updateMessage(String newMessage) {
-        messageUpdate.accept(newMessage);
+        this.message = newMessage;
+        notifyObservers();
+        Task<?> observer = this.observer;
+        if (observer != null)
+            observer.updateMessage(newMessage);
     }
 
     public final void run() throws Exception {
@@ -348,15 +526,22 @@ public abstract class Task<T> {
         execute();
         for (Task<?> task : getDependencies())
             doSubTask(task);
-        onDone.fireEvent(new TaskEvent(this, this, false));
+        fireDoneEvent(this, false);
     }
 
     private void doSubTask(Task<?> task) throws Exception {
-        message.bind(task.message);
-        progress.bind(task.progress);
-        task.run();
-        message.unbind();
-        progress.unbind();
+        updateMessage(task.getMessage());
+        updateProgressImmediately(task.getProgress());
+        task.observer = this;
+        if (task.cancelled == null) {
+            task.setCancelled(cancelled);
+            task.setCancellationScope(cancellationScope);
+        }
+        try {
+            task.run();
+        } finally {
+            task.observer = null;
+        }
     }
 
     public final TaskExecutor executor() {
@@ -932,6 +1117,18 @@ public abstract class Task<T> {
         }
     }
 
+    public enum TaskPriority {
+        /**
+         * What the user is waiting for, such as the version json and the game jar.
+         */
+        HIGH,
+        NORMAL,
+        /**
+         * Bulk work, such as assets.
+         */
+        LOW
+    }
+
     public enum TaskState {
         READY,
         RUNNING,
@@ -17,23 +17,34 @@
  */
 package org.jackhuang.hmcl.task;
 
+import org.jackhuang.hmcl.util.Logging;
+import org.jackhuang.hmcl.util.function.ExceptionalRunnable;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 
 public abstract class TaskExecutor {
     protected final Task<?> firstTask;
     protected final List<TaskListener> taskListeners = new LinkedList<>();
     protected final AtomicInteger totTask = new AtomicInteger(0);
     protected final AtomicBoolean cancelled = new AtomicBoolean(false);
+    protected final CancellationScope cancellationScope = new CancellationScope();
     protected Exception exception;
     private final List<String> stages;
     protected final Map<String, Map<String, Object>> stageProperties = new HashMap<>();
+    final TransferMeter transferMeter = new TransferMeter();
+    @Nullable
+    final TaskTracer tracer = TaskTracer.create();
+    private ScheduledFuture<?> metering;
 
     public TaskExecutor(Task<?> task) {
         this.firstTask = task;
@@ -59,6 +70,7 @@ public abstract class TaskExecutor {
 
     /**
      * Cancel the subscription ant interrupt all tasks.
+     * Resources registered to the {@link CancellationScope} of this executor are closed.
      */
     public abstract void cancel();
 
@@ -73,4 +85,96 @@ public abstract class TaskExecutor {
     public List<String> getStages() {
         return stages;
     }
+
+    /**
+     * Prepare a task to run, counting the bytes it is expected to transfer.
+     * The stage of the task must have been resolved.
+     */
+    final void attachTransferMeter(Task<?> task) {
+        transferMeter.expect(task);
+        task.setTransferMeter(transferMeter);
+    }
+
+    /**
+     * Start reporting byte-weighted progress, throughput and ETA of stages through
+     * {@link TaskListener#onPropertiesUpdate}.
+     */
+    final synchronized void startMetering() {
+        if (metering == null)
+            metering = TransferMeter.getTimer().scheduleWithFixedDelay(this::sampleTransfers,
+                    TransferMeter.SAMPLE_INTERVAL, TransferMeter.SAMPLE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop sampling, reporting the final numbers.
+     */
+    final void stopMetering() {
+        synchronized (this) {
+            if (metering != null) {
+                metering.cancel(false);
+                metering = null;
+            }
+        }
+        sampleTransfers();
+    }
+
+    final void traceReady(Task<?> task, Task<?> parentTask) {
+        if (tracer != null)
+            tracer.ready(task, parentTask);
+    }
+
+    /**
+     * Record that {@code task} starts waiting for {@code subtasks}, nothing is recorded if there are none.
+     */
+    final void traceWaitBegin(Task<?> task, TaskTracer.Phase phase, Collection<?> subtasks) {
+        if (tracer != null && subtasks != null && !subtasks.isEmpty())
+            tracer.begin(task, phase);
+    }
+
+    final void traceWaitEnd(Task<?> task, TaskTracer.Phase phase) {
+        if (tracer != null)
+            tracer.end(task, phase);
+    }
+
+    final void traceDone(Task<?> task) {
+        if (tracer != null)
+            tracer.done(task);
+    }
+
+    /**
+     * @return {@code step} of {@code task}, recorded as {@code phase} if tracing is enabled.
+     */
+    final <E extends Exception> ExceptionalRunnable<E> traced(Task<?> task, TaskTracer.Phase phase, ExceptionalRunnable<E> step) {
+        if (tracer == null)
+            return step;
+        return () -> {
+            tracer.begin(task, phase);
+            try {
+                step.run();
+            } finally {
+                tracer.end(task, phase);
+            }
+        };
+    }
+
+    /**
+     * Save the trace of this run if tracing is enabled.
+     */
+    final void saveTrace() {
+        if (tracer != null)
+            tracer.save();
+    }
+
+    private synchronized void sampleTransfers() {
+        try {
+            Map<String, Map<String, Object>> sample = transferMeter.sample();
+            if (sample == null || sample.isEmpty())
+                return;
+            sample.forEach((stage, properties) -> stageProperties.computeIfAbsent(stage, key -> new HashMap<>()).putAll(properties));
+            taskListeners.forEach(taskListener -> taskListener.onPropertiesUpdate(stageProperties));
+        } catch (RuntimeException e) {
+            // Never stop sampling because of a listener.
+            Logging.LOG.log(Level.WARNING, "Unable to report transfer progress", e);
+        }
+    }
 }
@@ -0,0 +1,65 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.task;
+
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyDoubleWrapper;
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.ReadOnlyStringWrapper;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * JavaFX view of the progress and message of a task.
+ *
+ * Created only when something observes the task, so that tasks nobody displays
+ * never touch the JavaFX toolkit. Updates from worker threads are coalesced into
+ * at most one pending {@link Platform#runLater} that copies the latest values.
+ */
+final class TaskObservables {
+    private final Task<?> task;
+    private final ReadOnlyDoubleWrapper progress;
+    private final ReadOnlyStringWrapper message;
+    private final AtomicBoolean pending = new AtomicBoolean();
+
+    TaskObservables(Task<?> task) {
+        this.task = task;
+        this.progress = new ReadOnlyDoubleWrapper(task, "progress", task.getProgress());
+        this.message = new ReadOnlyStringWrapper(task, "message", task.getMessage());
+    }
+
+    ReadOnlyDoubleProperty progressProperty() {
+        return progress.getReadOnlyProperty();
+    }
+
+    ReadOnlyStringProperty messageProperty() {
+        return message.getReadOnlyProperty();
+    }
+
+    void invalidate() {
+        if (pending.compareAndSet(false, true))
+            Platform.runLater(this::sync);
+    }
+
+    private void sync() {
+        pending.set(false);
+        progress.set(task.getProgress());
+        message.set(task.getMessage());
+    }
+}
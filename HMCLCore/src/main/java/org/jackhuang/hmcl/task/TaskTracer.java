@@ -0,0 +1,326 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.task;
+
+import com.google.gson.stream.JsonWriter;
+import org.jackhuang.hmcl.util.Logging;
+import org.jackhuang.hmcl.util.StringUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Records the timeline of a task graph run by one {@link TaskExecutor}, for finding out why an
+ * installation or a launch is slow.
+ *
+ * Tracing is enabled by {@code -Dhmcl.task_trace=<directory>}. Each run of an executor writes a
+ * file to the directory in the Chrome trace event format, which can be opened by {@code chrome://tracing}
+ * or <a href="https://ui.perfetto.dev">Perfetto</a>:
+ * <ul>
+ *     <li>every task is an async slice from ready to done, nesting the time spent waiting for its
+ *     dependents and dependencies, with its parent, stage, state and transferred bytes as arguments;</li>
+ *     <li>preExecute, execute and postExecute are slices on the thread running them.</li>
+ * </ul>
+ * The chain of the latest finishing subtasks from the root, which is the critical path of the run,
+ * is logged and marked in the trace.
+ *
+ * When tracing is disabled, executors hold no tracer and the hooks are a null check.
+ */
+final class TaskTracer {
+
+    enum Phase {
+        PRE_EXECUTE("preExecute", false),
+        DEPENDENTS("dependents", true),
+        EXECUTE("execute", false),
+        DEPENDENCIES("dependencies", true),
+        POST_EXECUTE("postExecute", false);
+
+        private final String displayName;
+        /**
+         * True if the phase is waiting for subtasks and may end on another thread.
+         */
+        private final boolean waiting;
+
+        Phase(String displayName, boolean waiting) {
+            this.displayName = displayName;
+            this.waiting = waiting;
+        }
+    }
+
+    private final Path directory;
+    private final long origin = System.nanoTime();
+    private final ConcurrentLinkedQueue<Event> events = new ConcurrentLinkedQueue<>();
+    private final Map<Long, String> threads = new ConcurrentHashMap<>();
+
+    TaskTracer(Path directory) {
+        this.directory = directory;
+    }
+
+    void ready(Task<?> task, Task<?> parent) {
+        record(new Event(task, parent, Event.READY, null, 0));
+    }
+
+    void begin(Task<?> task, Phase phase) {
+        record(new Event(task, null, Event.BEGIN, phase, 0));
+    }
+
+    void end(Task<?> task, Phase phase) {
+        record(new Event(task, null, Event.END, phase, 0));
+    }
+
+    void done(Task<?> task) {
+        record(new Event(task, null, Event.DONE, null, task.getTransferredBytes()));
+    }
+
+    private void record(Event event) {
+        Thread thread = Thread.currentThread();
+        event.thread = thread.getId();
+        if (!threads.containsKey(event.thread))
+            threads.putIfAbsent(event.thread, thread.getName());
+        events.add(event);
+    }
+
+    /**
+     * Write the trace to the directory given by {@code hmcl.task_trace}.
+     */
+    void save() {
+        try {
+            Files.createDirectories(directory);
+            Path file = directory.resolve("task-trace-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date())
+                    + "-" + COUNTER.incrementAndGet() + ".json");
+            try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                export(writer);
+            }
+            Logging.LOG.info("Task trace saved to " + file);
+        } catch (IOException | RuntimeException e) {
+            Logging.LOG.log(Level.WARNING, "Unable to save task trace", e);
+        }
+    }
+
+    /**
+     * Write the trace in the Chrome trace event format.
+     */
+    void export(Writer out) throws IOException {
+        Map<Task<?>, TaskRecord> tasks = new IdentityHashMap<>();
+        List<TaskRecord> ordered = new ArrayList<>();
+        for (Event event : events) {
+            TaskRecord record = tasks.get(event.task);
+            if (record == null) {
+                record = new TaskRecord(ordered.size() + 1, event.task);
+                tasks.put(event.task, record);
+                ordered.add(record);
+            }
+            record.events.add(event);
+            if (event.type == Event.READY) {
+                record.ready = event.time;
+                if (event.parent != null && tasks.containsKey(event.parent)) {
+                    record.parent = tasks.get(event.parent);
+                    record.parent.children.add(record);
+                }
+            } else if (event.type == Event.DONE) {
+                record.done = event.time;
+                record.bytes = event.value;
+            }
+        }
+
+        List<TaskRecord> criticalPath = new ArrayList<>();
+        for (TaskRecord record = ordered.isEmpty() ? null : ordered.get(0); record != null; record = record.latestChild()) {
+            record.critical = true;
+            criticalPath.add(record);
+        }
+        logCriticalPath(criticalPath);
+
+        JsonWriter writer = new JsonWriter(out);
+        writer.beginObject();
+        writer.name("displayTimeUnit").value("ms");
+        writer.name("traceEvents").beginArray();
+
+        for (Map.Entry<Long, String> thread : threads.entrySet()) {
+            writer.beginObject();
+            writer.name("name").value("thread_name");
+            writer.name("ph").value("M");
+            writer.name("pid").value(PID);
+            writer.name("tid").value(thread.getKey());
+            writer.name("args").beginObject().name("name").value(thread.getValue()).endObject();
+            writer.endObject();
+        }
+
+        for (TaskRecord record : ordered) {
+            if (record.ready < 0)
+                continue;
+
+            String name = record.getName();
+            asyncEvent(writer, "b", name, record, record.ready, record.events.get(0).thread);
+            writer.name("args").beginObject();
+            writer.name("id").value(record.id);
+            if (record.parent != null)
+                writer.name("parent").value(record.parent.id);
+            if (record.task.getStage() != null)
+                writer.name("stage").value(record.task.getStage());
+            writer.endObject();
+            writer.endObject();
+
+            Map<Phase, Event> begun = new EnumMap<>(Phase.class);
+            for (Event event : record.events) {
+                if (event.type == Event.BEGIN) {
+                    begun.put(event.phase, event);
+                } else if (event.type == Event.END) {
+                    Event begin = begun.remove(event.phase);
+                    if (begin == null)
+                        continue;
+                    if (event.phase.waiting) {
+                        asyncEvent(writer, "b", event.phase.displayName, record, begin.time, begin.thread);
+                        writer.endObject();
+                        asyncEvent(writer, "e", event.phase.displayName, record, event.time, event.thread);
+                        writer.endObject();
+                    } else {
+                        writer.beginObject();
+                        writer.name("name").value(name);
+                        writer.name("cat").value(event.phase.displayName);
+                        writer.name("ph").value("X");
+                        writer.name("pid").value(PID);
+                        writer.name("tid").value(begin.thread);
+                        writer.name("ts").value(micros(begin.time));
+                        writer.name("dur").value(micros(event.time - begin.time));
+                        writer.name("args").beginObject().name("id").value(record.id).endObject();
+                        writer.endObject();
+                    }
+                }
+            }
+
+            if (record.done >= 0) {
+                Event last = record.events.get(record.events.size() - 1);
+                asyncEvent(writer, "e", name, record, record.done, last.thread);
+                writer.name("args").beginObject();
+                writer.name("state").value(String.valueOf(record.task.getState()));
+                writer.name("bytes").value(record.bytes);
+                if (record.critical)
+                    writer.name("critical").value(true);
+                writer.endObject();
+                writer.endObject();
+            }
+        }
+
+        writer.endArray();
+        writer.endObject();
+        writer.flush();
+    }
+
+    /**
+     * Write the common fields of an async event, leaving the object open for arguments.
+     */
+    private static void asyncEvent(JsonWriter writer, String type, String name, TaskRecord record, long time, long thread) throws IOException {
+        writer.beginObject();
+        writer.name("name").value(name);
+        writer.name("cat").value("task");
+        writer.name("ph").value(type);
+        writer.name("id").value(record.id);
+        writer.name("pid").value(PID);
+        writer.name("tid").value(thread);
+        writer.name("ts").value(micros(time));
+    }
+
+    private void logCriticalPath(List<TaskRecord> criticalPath) {
+        if (criticalPath.isEmpty())
+            return;
+        StringBuilder builder = new StringBuilder("Critical path of tasks:");
+        for (TaskRecord record : criticalPath) {
+            builder.append("\n  ").append(record.getName());
+            if (record.done >= 0)
+                builder.append(" (").append((record.done - record.ready) / 1_000_000).append(" ms)");
+        }
+        Logging.LOG.info(builder.toString());
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    private static final int PID = 1;
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    /**
+     * @return a tracer if tracing is enabled by {@code -Dhmcl.task_trace=<directory>}, or null.
+     */
+    static TaskTracer create() {
+        String directory = System.getProperty("hmcl.task_trace");
+        if (StringUtils.isBlank(directory))
+            return null;
+        return new TaskTracer(Paths.get(directory));
+    }
+
+    private final class Event {
+        static final int READY = 0, BEGIN = 1, END = 2, DONE = 3;
+
+        final Task<?> task;
+        final Task<?> parent;
+        final int type;
+        final Phase phase;
+        final long value;
+        final long time = System.nanoTime() - origin;
+        long thread;
+
+        Event(Task<?> task, Task<?> parent, int type, Phase phase, long value) {
+            this.task = task;
+            this.parent = parent;
+            this.type = type;
+            this.phase = phase;
+            this.value = value;
+        }
+    }
+
+    private static final class TaskRecord {
+        final int id;
+        final Task<?> task;
+        final List<Event> events = new ArrayList<>();
+        final List<TaskRecord> children = new ArrayList<>();
+        TaskRecord parent;
+        long ready = -1;
+        long done = -1;
+        long bytes;
+        boolean critical;
+
+        TaskRecord(int id, Task<?> task) {
+            this.id = id;
+            this.task = task;
+        }
+
+        String getName() {
+            String name = task.getName();
+            return name == null ? task.getClass().getName() : name;
+        }
+
+        TaskRecord latestChild() {
+            TaskRecord latest = null;
+            for (TaskRecord child : children)
+                if (child.done >= 0 && (latest == null || child.done > latest.done))
+                    latest = child;
+            return latest;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.task;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Byte accounting of the tasks run by one {@link TaskExecutor}.
+ *
+ * Tasks declare the bytes they expect to transfer by {@link Task#setExpectedSize(long)}, and report
+ * transferred bytes by {@link Task#updateTransferredBytes(String, long)}. Each stage sums them up, so that
+ * its progress is weighted by bytes instead of task counts. Throughput of each stage and of each host
+ * within a stage is smoothed by an exponentially weighted moving average, which also gives the ETA.
+ *
+ * @see #sample()
+ */
+final class TransferMeter {
+
+    private final ConcurrentMap<String, StageMeter> stages = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    /**
+     * Count the expected size of a task which is going to run.
+     */
+    void expect(Task<?> task) {
+        long size = task.getExpectedSize();
+        StageMeter stage = getStage(task.getStage());
+        if (stage != null && size > 0)
+            stage.expected.addAndGet(size);
+    }
+
+    /**
+     * The expected size of a running task has been changed, for example when the length of content is known.
+     */
+    void adjustExpected(Task<?> task, long delta) {
+        StageMeter stage = getStage(task.getStage());
+        if (stage != null && delta != 0) {
+            stage.expected.addAndGet(delta);
+            dirty = true;
+        }
+    }
+
+    void transferred(Task<?> task, String host, long bytes) {
+        StageMeter stage = getStage(task.getStage());
+        if (stage == null)
+            return;
+        stage.transferred.addAndGet(bytes);
+        if (host != null)
+            stage.hosts.computeIfAbsent(host, key -> new Rate()).bytes.addAndGet(bytes);
+        dirty = true;
+    }
+
+    /**
+     * A task has succeeded, expected bytes it has not transferred, from caches or partial downloads, are done too.
+     */
+    void complete(Task<?> task) {
+        long remaining = task.getExpectedSize() - task.getTransferredBytes();
+        StageMeter stage = getStage(task.getStage());
+        if (stage != null && remaining > 0) {
+            stage.credited.addAndGet(remaining);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Update moving averages with the bytes transferred since the last sample.
+     *
+     * @return properties of stages with bytes expected, null if nothing changed since the last sample
+     *         and no transfer is in progress.
+     *         Each stage has "bytes" and "totalBytes", "progress" weighted by bytes, "speed" and "hosts"
+     *         in bytes per second, and "eta" in seconds, -1 if unknown.
+     */
+    Map<String, Map<String, Object>> sample() {
+        long now = System.nanoTime();
+        boolean changed = dirty;
+        dirty = false;
+
+        Map<String, Map<String, Object>> result = new HashMap<>();
+        for (Map.Entry<String, StageMeter> entry : stages.entrySet()) {
+            StageMeter stage = entry.getValue();
+            double speed = stage.rate.update(stage.transferred.get(), now);
+            if (speed >= 1)
+                changed = true; // until the average decays to zero
+            Map<String, Long> hosts = new HashMap<>();
+            for (Map.Entry<String, Rate> host : stage.hosts.entrySet())
+                hosts.put(host.getKey(), (long) host.getValue().update(host.getValue().bytes.get(), now));
+
+            long total = stage.expected.get();
+            if (total <= 0)
+                continue;
+            long done = Math.min(total, stage.transferred.get() + stage.credited.get());
+            long remaining = total - done;
+
+            Map<String, Object> properties = new HashMap<>();
+            properties.put("bytes", done);
+            properties.put("totalBytes", total);
+            properties.put("progress", (double) done / total);
+            properties.put("speed", (long) speed);
+            properties.put("eta", remaining == 0 ? 0L : speed >= 1 ? (long) Math.ceil(remaining / speed) : -1L);
+            properties.put("hosts", Collections.unmodifiableMap(hosts));
+            result.put(entry.getKey(), properties);
+        }
+        return changed ? result : null;
+    }
+
+    private StageMeter getStage(String stage) {
+        return stage == null ? null : stages.computeIfAbsent(stage, key -> new StageMeter());
+    }
+
+    private static final class StageMeter {
+        private final AtomicLong expected = new AtomicLong();
+        private final AtomicLong transferred = new AtomicLong();
+        private final AtomicLong credited = new AtomicLong();
+        private final Map<String, Rate> hosts = new ConcurrentHashMap<>();
+        private final Rate rate = new Rate();
+    }
+
+    /**
+     * Moving average of a byte counter, updated by the sampling thread only.
+     */
+    private static final class Rate {
+        private final AtomicLong bytes = new AtomicLong();
+        private long lastBytes;
+        private long lastTime = System.nanoTime();
+        private boolean sampled;
+        private double average;
+
+        double update(long currentBytes, long now) {
+            if (now > lastTime) {
+                double seconds = (now - lastTime) / 1e9;
+                double instant = (currentBytes - lastBytes) / seconds;
+                if (sampled) {
+                    double alpha = 1 - Math.exp(-seconds / SMOOTHING_SECONDS);
+                    average += alpha * (instant - average);
+                } else {
+                    // Start from the first measurement instead of zero.
+                    average = instant;
+                    sampled = true;
+                }
+            }
+            lastBytes = currentBytes;
+            lastTime = now;
+            return average;
+        }
+    }
+
+    private static volatile ScheduledExecutorService timer;
+
+    static ScheduledExecutorService getTimer() {
+        if (timer == null) {
+            synchronized (TransferMeter.class) {
+                if (timer == null)
+                    timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "Transfer Meter");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * Time constant of moving averages, a change of speed is mostly reflected after this time.
+     */
+    private static final double SMOOTHING_SECONDS = 5;
+
+    static final long SAMPLE_INTERVAL = 1000;
+}
@@ -0,0 +1,320 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.task;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A fixed number of workers running runnables by priority, each worker taking work from its own deques first
+ * and stealing from others when it runs out.
+ *
+ * Runnables submitted by a worker go to the head of its own deque, so that a task and the steps it spawns
+ * stay on one thread while others are busy. Runnables submitted from other threads go to a shared queue.
+ * An idle worker takes, for each priority from high to low, from the head of its own deque, then the shared
+ * queue, then the tail of another worker's deque. Priorities are taken from {@link PrioritizedRunnable},
+ * other runnables are of normal priority.
+ *
+ * Workers are started on demand, park when there is no work, and exit after being idle for the keep-alive time.
+ * A submission publishes the runnable before waking a worker, and a worker registers as idle before
+ * looking for work the last time, so a runnable is never left behind with every worker parked.
+ */
+public final class WorkStealingExecutor extends AbstractExecutorService {
+
+    private final String name;
+    private final long keepAlive;
+    private final AtomicReferenceArray<Worker> workers;
+    private final AtomicInteger started = new AtomicInteger();
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final List<Queue<Runnable>> submissions = new ArrayList<>(LEVELS);
+    private final Queue<Worker> idleWorkers = new ConcurrentLinkedQueue<>();
+    private volatile boolean shutdown;
+
+    /**
+     * @param name the prefix of names of worker threads
+     * @param parallelism the number of workers
+     */
+    public WorkStealingExecutor(String name, int parallelism) {
+        this(name, parallelism, KEEP_ALIVE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param name the prefix of names of worker threads
+     * @param parallelism the number of workers
+     * @param keepAlive the time an idle worker waits for work before it exits
+     * @param unit the unit of {@code keepAlive}
+     */
+    public WorkStealingExecutor(String name, int parallelism, long keepAlive, TimeUnit unit) {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        this.name = name;
+        this.keepAlive = unit.toNanos(keepAlive);
+        this.workers = new AtomicReferenceArray<>(parallelism);
+        for (int i = 0; i < LEVELS; i++)
+            submissions.add(new ConcurrentLinkedQueue<>());
+    }
+
+    public int getParallelism() {
+        return workers.length();
+    }
+
+    /**
+     * @return the number of workers running now
+     */
+    public int getPoolSize() {
+        return started.get();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null)
+            throw new NullPointerException();
+        if (shutdown)
+            throw new RejectedExecutionException(name + " has been shut down");
+
+        int level = PrioritizedRunnable.getPriority(command).ordinal();
+        Thread current = Thread.currentThread();
+        if (current instanceof Worker && ((Worker) current).getExecutor() == this)
+            ((Worker) current).deques.get(level).addFirst(command);
+        else
+            submissions.get(level).add(command);
+
+        signal();
+    }
+
+    /**
+     * Wake up an idle worker, or start a new one if all are busy. Must be called after the work is published.
+     */
+    private void signal() {
+        Worker idle = idleWorkers.poll();
+        if (idle != null) {
+            LockSupport.unpark(idle);
+            return;
+        }
+
+        while (true) {
+            int count = started.get();
+            if (count >= workers.length())
+                return;
+            if (started.compareAndSet(count, count + 1))
+                break;
+        }
+
+        // A slot is free since fewer workers than slots are counted.
+        for (int i = 0; ; i = (i + 1) % workers.length()) {
+            if (workers.get(i) == null) {
+                Worker worker = new Worker(i);
+                if (workers.compareAndSet(i, null, worker)) {
+                    worker.start();
+                    return;
+                }
+            }
+        }
+    }
+
+    private Runnable findWork(Worker self) {
+        for (int level = 0; level < LEVELS; level++) {
+            Runnable runnable = self.deques.get(level).pollFirst();
+            if (runnable != null)
+                return runnable;
+
+            runnable = submissions.get(level).poll();
+            if (runnable != null)
+                return runnable;
+
+            int count = workers.length();
+            int offset = ThreadLocalRandom.current().nextInt(count);
+            for (int i = 0; i < count; i++) {
+                Worker victim = workers.get((offset + i) % count);
+                if (victim != null && victim != self) {
+                    runnable = victim.deques.get(level).pollLast();
+                    if (runnable != null)
+                        return runnable;
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean hasWork() {
+        for (Queue<Runnable> queue : submissions)
+            if (!queue.isEmpty())
+                return true;
+        return false;
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        for (Worker worker : startedWorkers())
+            LockSupport.unpark(worker);
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        List<Runnable> pending = new ArrayList<>();
+        for (Queue<Runnable> queue : submissions)
+            drain(queue, pending);
+        for (Worker worker : startedWorkers()) {
+            for (Deque<Runnable> deque : worker.deques)
+                drain(deque, pending);
+            worker.interrupt();
+        }
+        return pending;
+    }
+
+    private static void drain(Queue<Runnable> queue, List<Runnable> to) {
+        for (Runnable runnable; (runnable = queue.poll()) != null; )
+            to.add(runnable);
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        if (!shutdown)
+            return false;
+        for (Worker worker : startedWorkers())
+            if (worker.isAlive())
+                return false;
+        return true;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Worker worker : startedWorkers()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return isTerminated();
+            TimeUnit.NANOSECONDS.timedJoin(worker, remaining);
+        }
+        return isTerminated();
+    }
+
+    private List<Worker> startedWorkers() {
+        List<Worker> result = new ArrayList<>();
+        for (int i = 0; i < workers.length(); i++) {
+            Worker worker = workers.get(i);
+            if (worker != null)
+                result.add(worker);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "WorkStealingExecutor[" + name + ", parallelism=" + workers.length() + ", started=" + started.get() + "]";
+    }
+
+    private final class Worker extends Thread {
+        private final int index;
+        private final List<Deque<Runnable>> deques = new ArrayList<>(LEVELS);
+
+        Worker(int index) {
+            super(name + "-" + sequence.getAndIncrement());
+            this.index = index;
+            setDaemon(true);
+            for (int i = 0; i < LEVELS; i++)
+                deques.add(new ConcurrentLinkedDeque<>());
+        }
+
+        WorkStealingExecutor getExecutor() {
+            return WorkStealingExecutor.this;
+        }
+
+        @Override
+        public void run() {
+            long idleSince = 0;
+            while (true) {
+                Runnable runnable = findWork(this);
+                if (runnable == null) {
+                    if (shutdown)
+                        return;
+
+                    idleWorkers.add(this);
+                    // Work published before we became idle will not signal us.
+                    runnable = findWork(this);
+                    if (runnable == null) {
+                        long now = System.nanoTime();
+                        if (idleSince == 0)
+                            idleSince = now;
+                        long remaining = keepAlive - (now - idleSince);
+                        if (remaining > 0 && !shutdown)
+                            LockSupport.parkNanos(this, remaining);
+
+                        if (idleWorkers.remove(this)) {
+                            // Not signalled, a timeout or a spurious wakeup.
+                            if (System.nanoTime() - idleSince >= keepAlive) {
+                                retire();
+                                return;
+                            }
+                        } else
+                            idleSince = 0;
+                        continue;
+                    }
+
+                    if (!idleWorkers.remove(this))
+                        // Someone has woken us up for work we had found already, pass the wakeup on.
+                        signal();
+                }
+                idleSince = 0;
+
+                // Clear interruption left by the last runnable, unless we are shutting down.
+                if (Thread.interrupted() && shutdown)
+                    return;
+
+                try {
+                    runnable.run();
+                } catch (Throwable e) {
+                    getUncaughtExceptionHandler().uncaughtException(this, e);
+                }
+            }
+        }
+
+        /**
+         * Leave the slot to a new worker, since there has been no work for the keep-alive time.
+         * Our own deques are empty, only we push to them.
+         */
+        private void retire() {
+            workers.compareAndSet(index, this, null);
+            started.decrementAndGet();
+            // A submission seeing all workers busy just before we left started none.
+            if (hasWork())
+                signal();
+        }
+    }
+
+    private static final int LEVELS = Task.TaskPriority.values().length;
+    private static final long KEEP_ALIVE = TimeUnit.SECONDS.toNanos(60);
+}
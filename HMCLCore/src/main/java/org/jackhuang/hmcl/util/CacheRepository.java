@@ -19,22 +19,16 @@ package org.jackhuang.hmcl.util;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.RandomAccessFile;
 import java.net.URLConnection;
-import java.nio.channels.Channels;
-import java.nio.channels.FileChannel;
-import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.function.BiFunction;
 import java.util.logging.Level;
 import java.util.stream.Stream;
 
@@ -43,41 +37,190 @@ import com.google.gson.annotations.SerializedName;
 import org.jackhuang.hmcl.util.function.ExceptionalSupplier;
 import org.jackhuang.hmcl.util.gson.JsonUtils;
 import org.jackhuang.hmcl.util.io.FileUtils;
-import org.jackhuang.hmcl.util.io.IOUtils;
+import org.jackhuang.hmcl.util.io.IndexLog;
+import org.jackhuang.hmcl.util.io.LinkStrategy;
+import org.jackhuang.hmcl.util.io.SaveThrottle;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.jackhuang.hmcl.util.Logging.LOG;
 
 public class CacheRepository {
     private Path commonDirectory;
     private Path cacheDirectory;
-    private Path indexFile;
-    private Map<String, ETagItem> index;
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile IndexLog<ETagItem> index;
+    private volatile IndexLog<AccessRecord> accessLog;
+    private final Map<String, AccessRecord> pendingAccesses = new ConcurrentHashMap<>();
+    private final SaveThrottle accessThrottle = new SaveThrottle("access log", ACCESS_SAVE_INTERVAL, this::writeAccesses);
 
     public void changeDirectory(Path commonDir) {
+        saveAccesses();
         commonDirectory = commonDir;
         cacheDirectory = commonDir.resolve("cache");
-        indexFile = cacheDirectory.resolve("etag.json");
+        Path legacyIndexFile = cacheDirectory.resolve("etag.json");
 
-        lock.writeLock().lock();
+        IndexLog<ETagItem> log = new IndexLog<>(cacheDirectory.resolve("etag.log"), ETagItem.class, item -> item.url, this::updateEntity);
         try {
-            if (Files.isRegularFile(indexFile)) {
-                ETagIndex raw = JsonUtils.GSON.fromJson(FileUtils.readText(indexFile.toFile()), ETagIndex.class);
-                if (raw == null)
-                    index = new HashMap<>();
-                else
-                    index = joinETagIndexes(raw.eTag);
-            } else
-                index = new HashMap<>();
-        } catch (IOException | JsonParseException e) {
+            boolean exists = Files.isRegularFile(log.getFile());
+            log.open(() -> readLegacyIndex(legacyIndexFile));
+
+            // Older launchers sharing the directory still write etag.json, it is left to them and
+            // read again whenever they have changed it since our last write.
+            if (exists && Files.isRegularFile(legacyIndexFile)
+                    && Files.getLastModifiedTime(legacyIndexFile).compareTo(Files.getLastModifiedTime(log.getFile())) > 0) {
+                Collection<ETagItem> legacy = readLegacyIndex(legacyIndexFile);
+                if (legacy != null)
+                    log.putAll(legacy);
+            }
+        } catch (IOException e) {
             LOG.log(Level.WARNING, "Unable to read index file", e);
-            index = new HashMap<>();
-        } finally {
-            lock.writeLock().unlock();
+        }
+        index = log;
+
+        IndexLog<AccessRecord> access = new IndexLog<>(cacheDirectory.resolve("access.log"), AccessRecord.class,
+                record -> record.file, (oldRecord, newRecord) -> newRecord.time >= oldRecord.time ? newRecord : oldRecord);
+        try {
+            access.open(null);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Unable to read access log", e);
+        }
+        accessLog = access;
+
+        if ("true".equals(System.getProperty("hmcl.cache.verify")))
+            Lang.thread(() -> {
+                try {
+                    List<Path> corrupted = verify();
+                    LOG.info("Verified cache " + cacheDirectory + ", " + corrupted.size() + " corrupted files deleted");
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Unable to verify cache " + cacheDirectory, e);
+                }
+            }, "Cache Verifier", true);
+    }
+
+    /**
+     * Check every cached file against the hash that names it, and delete the corrupted ones.
+     *
+     * Cache hits are hard-linked into game directories by {@link LinkStrategy},
+     * so a game file modified in place corrupts the cached file as well.
+     * Run with -Dhmcl.cache.verify=true to verify the cache when the directory is set.
+     *
+     * @return the corrupted files deleted
+     * @throws IOException if the cache directory cannot be listed
+     */
+    public List<Path> verify() throws IOException {
+        List<Path> corrupted = new ArrayList<>();
+        Path directory = cacheDirectory;
+        if (directory == null || !Files.isDirectory(directory))
+            return corrupted;
+
+        try (DirectoryStream<Path> algorithms = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path algorithmDirectory : algorithms) {
+                String algorithm = algorithmDirectory.getFileName().toString();
+                try {
+                    MessageDigest.getInstance(algorithm);
+                } catch (NoSuchAlgorithmException e) {
+                    continue;
+                }
+
+                try (Stream<Path> files = Files.walk(algorithmDirectory, 2)) {
+                    for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                        String hash = file.getFileName().toString();
+                        try {
+                            if (Hex.encodeHex(DigestUtils.digest(algorithm, file)).equalsIgnoreCase(hash))
+                                continue;
+                        } catch (IOException e) {
+                            LOG.log(Level.WARNING, "Unable to read cached file " + file, e);
+                        }
+
+                        LOG.warning("Cached file " + file + " is corrupted");
+                        Files.deleteIfExists(file);
+                        corrupted.add(file);
+                    }
+                }
+            }
+        }
+        return corrupted;
+    }
+
+    /**
+     * Record that the cached file is used now, so that it will be the last to be evicted.
+     * Accesses are recorded with a resolution of {@link #ACCESS_TIME_RESOLUTION} to keep the access log small,
+     * and buffered in memory until {@link #saveAccesses()} or at most {@link #ACCESS_SAVE_INTERVAL} later.
+     *
+     * @param file the file in the cache directory
+     */
+    protected void touch(Path file) {
+        String key = getAccessKey(file);
+        long now = System.currentTimeMillis();
+        AccessRecord record = getAccessRecord(key);
+        if (record != null && now - record.time < ACCESS_TIME_RESOLUTION)
+            return;
+        pendingAccesses.put(key, new AccessRecord(key, now));
+        accessThrottle.changed();
+    }
+
+    /**
+     * Append the accesses buffered by {@link #touch(Path)} to the access log.
+     */
+    public void saveAccesses() {
+        accessThrottle.flush();
+    }
+
+    private void writeAccesses() throws IOException {
+        IndexLog<AccessRecord> log = accessLog;
+        if (log == null)
+            return;
+
+        List<AccessRecord> batch = new ArrayList<>(pendingAccesses.size());
+        for (String key : pendingAccesses.keySet()) {
+            AccessRecord record = pendingAccesses.remove(key);
+            if (record != null)
+                batch.add(record);
+        }
+
+        try {
+            log.putAll(batch);
+        } catch (IOException e) {
+            for (AccessRecord record : batch)
+                pendingAccesses.putIfAbsent(record.file, record);
+            throw e;
         }
     }
 
+    private AccessRecord getAccessRecord(String key) {
+        AccessRecord record = pendingAccesses.get(key);
+        return record != null ? record : accessLog.get(key);
+    }
+
+    /**
+     * @param file the file in the cache directory
+     * @return the time the cached file was used last, or the time it was modified if its accesses are not recorded
+     * @throws IOException if the file does not exist
+     */
+    public long getLastAccessTime(Path file) throws IOException {
+        AccessRecord record = getAccessRecord(getAccessKey(file));
+        return record != null ? record.time : Files.getLastModifiedTime(file).toMillis();
+    }
+
+    /**
+     * Delete the cached file and forget when it was used.
+     *
+     * @param file the file in the cache directory
+     * @throws IOException if the file cannot be deleted
+     */
+    public void evict(Path file) throws IOException {
+        Files.deleteIfExists(file);
+        String key = getAccessKey(file);
+        pendingAccesses.remove(key);
+        try {
+            accessLog.remove(key);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Unable to forget access of " + file, e);
+        }
+    }
+
+    private String getAccessKey(Path file) {
+        return FileUtils.normalizePath(cacheDirectory.toAbsolutePath().normalize().relativize(file.toAbsolutePath().normalize()).toString());
+    }
+
     public Path getCommonDirectory() {
         return commonDirectory;
     }
@@ -95,7 +238,7 @@ public class CacheRepository {
         Path file = getFile(algorithm, hash);
         if (Files.exists(file)) {
             try {
-                return Hex.encodeHex(DigestUtils.digest(algorithm, file)).equalsIgnoreCase(hash);
+                return DigestCache.getInstance().check(algorithm, file, hash);
             } catch (IOException e) {
                 return false;
             }
@@ -107,24 +250,29 @@ public class CacheRepository {
     public void tryCacheFile(Path path, String algorithm, String hash) throws IOException {
         Path cache = getFile(algorithm, hash);
         if (Files.isRegularFile(cache)) return;
-        FileUtils.copyFile(path.toFile(), cache.toFile());
+        LinkStrategy.link(path, cache);
+        touch(cache);
     }
 
     public Path cacheFile(Path path, String algorithm, String hash) throws IOException {
         Path cache = getFile(algorithm, hash);
-        FileUtils.copyFile(path.toFile(), cache.toFile());
+        LinkStrategy.link(path, cache);
+        DigestCache.getInstance().put(algorithm, cache, hash);
+        touch(cache);
         return cache;
     }
 
     public Optional<Path> checkExistentFile(Path original, String algorithm, String hash) {
-        if (fileExists(algorithm, hash))
-            return Optional.of(getFile(algorithm, hash));
+        if (fileExists(algorithm, hash)) {
+            Path file = getFile(algorithm, hash);
+            touch(file);
+            return Optional.of(file);
+        }
 
         if (original != null && Files.exists(original)) {
             if (hash != null) {
                 try {
-                    String checksum = Hex.encodeHex(DigestUtils.digest(algorithm, original));
-                    if (checksum.equalsIgnoreCase(hash))
+                    if (DigestCache.getInstance().check(algorithm, original, hash))
                         return Optional.of(restore(original, () -> cacheFile(original, algorithm, hash)));
                 } catch (IOException e) {
                     // we cannot check the hashcode.
@@ -139,20 +287,13 @@ public class CacheRepository {
 
     protected Path restore(Path original, ExceptionalSupplier<Path, ? extends IOException> cacheSupplier) throws IOException {
         Path cache = cacheSupplier.get();
-        Files.delete(original);
-        Files.createLink(original, cache);
+        LinkStrategy.link(cache, original);
         return cache;
     }
 
     public Path getCachedRemoteFile(URLConnection conn) throws IOException {
         String url = conn.getURL().toString();
-        lock.readLock().lock();
-        ETagItem eTagItem;
-        try {
-            eTagItem = index.get(url);
-        } finally {
-            lock.readLock().unlock();
-        }
+        ETagItem eTagItem = index.get(url);
         if (eTagItem == null) throw new IOException("Cannot find the URL");
         if (StringUtils.isBlank(eTagItem.hash) || !fileExists(SHA1, eTagItem.hash)) throw new FileNotFoundException();
         Path file = getFile(SHA1, eTagItem.hash);
@@ -161,28 +302,22 @@ public class CacheRepository {
             if (!Objects.equals(hash, eTagItem.hash))
                 throw new IOException("This file is modified");
         }
+        touch(file);
         return file;
     }
 
     public void removeRemoteEntry(URLConnection conn) {
         String url = conn.getURL().toString();
-        lock.readLock().lock();
         try {
             index.remove(url);
-        } finally {
-            lock.readLock().unlock();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Unable to remove " + url + " from index file", e);
         }
     }
 
     public void injectConnection(URLConnection conn) {
         String url = conn.getURL().toString();
-        lock.readLock().lock();
-        ETagItem eTagItem;
-        try {
-            eTagItem = index.get(url);
-        } finally {
-            lock.readLock().unlock();
-        }
+        ETagItem eTagItem = index.get(url);
         if (eTagItem == null) return;
         if (eTagItem.eTag != null)
             conn.setRequestProperty("If-None-Match", eTagItem.eTag);
@@ -190,6 +325,19 @@ public class CacheRepository {
         //     conn.setRequestProperty("If-Modified-Since", eTagItem.getRemoteLastModified());
     }
 
+    /**
+     * Check whether a response with entity tag {@code eTag} from {@code url} has been superseded
+     * by a different version recorded in the index.
+     *
+     * @param url the remote url
+     * @param eTag the entity tag of an earlier response, maybe null
+     * @return true if the index records another entity tag for {@code url}
+     */
+    public boolean isOutdated(String url, String eTag) {
+        ETagItem eTagItem = index.get(url);
+        return eTagItem != null && eTagItem.eTag != null && !eTagItem.eTag.equals(eTag);
+    }
+
     public synchronized void cacheRemoteFile(Path downloaded, URLConnection conn) throws IOException {
         String eTag = conn.getHeaderField("ETag");
         if (eTag == null) return;
@@ -198,14 +346,7 @@ public class CacheRepository {
         String hash = Hex.encodeHex(DigestUtils.digest(SHA1, downloaded));
         Path cached = cacheFile(downloaded, SHA1, hash);
         ETagItem eTagItem = new ETagItem(url, eTag, hash, Files.getLastModifiedTime(cached).toMillis(), lastModified);
-        Lock writeLock = lock.writeLock();
-        writeLock.lock();
-        try {
-            index.compute(eTagItem.url, updateEntity(eTagItem));
-            saveETagIndex();
-        } finally {
-            writeLock.unlock();
-        }
+        index.put(eTagItem);
     }
 
     public synchronized void cacheText(String text, URLConnection conn) throws IOException {
@@ -217,62 +358,37 @@ public class CacheRepository {
         Path cached = getFile(SHA1, hash);
         FileUtils.writeText(cached.toFile(), text);
         ETagItem eTagItem = new ETagItem(url, eTag, hash, Files.getLastModifiedTime(cached).toMillis(), lastModified);
-        Lock writeLock = lock.writeLock();
-        writeLock.lock();
-        try {
-            index.compute(eTagItem.url, updateEntity(eTagItem));
-            saveETagIndex();
-        } finally {
-            writeLock.unlock();
-        }
+        index.put(eTagItem);
     }
 
-    private BiFunction<String, ETagItem, ETagItem> updateEntity(ETagItem newItem) {
-        return (key, oldItem) -> {
-            if (oldItem == null) {
-                return newItem;
-            } else if (oldItem.compareTo(newItem) < 0) {
+    private ETagItem updateEntity(ETagItem oldItem, ETagItem newItem) {
+        if (oldItem.compareTo(newItem) < 0) {
+            if (!Objects.equals(oldItem.hash, newItem.hash)) {
                 Path cached = getFile(SHA1, oldItem.hash);
                 try {
                     Files.deleteIfExists(cached);
                 } catch (IOException e) {
                     LOG.log(Level.WARNING, "Cannot delete old file");
                 }
-                return newItem;
-            } else {
-                return oldItem;
             }
-        };
-    }
-
-    @SafeVarargs
-    private final Map<String, ETagItem> joinETagIndexes(Collection<ETagItem>... indexes) {
-        Map<String, ETagItem> eTags = new ConcurrentHashMap<>();
-
-        Stream<ETagItem> stream = Arrays.stream(indexes).filter(Objects::nonNull).map(Collection::stream)
-                .reduce(Stream.empty(), Stream::concat);
-
-        stream.forEach(eTag -> {
-            eTags.compute(eTag.url, updateEntity(eTag));
-        });
-
-        return eTags;
+            return newItem;
+        } else {
+            return oldItem;
+        }
     }
 
-    public void saveETagIndex() throws IOException {
-        try (RandomAccessFile file = new RandomAccessFile(indexFile.toFile(), "rw"); FileChannel channel = file.getChannel()) {
-            FileLock lock = channel.lock();
-            try {
-                ETagIndex indexOnDisk = JsonUtils.fromMaybeMalformedJson(new String(IOUtils.readFullyWithoutClosing(Channels.newInputStream(channel)), UTF_8), ETagIndex.class);
-                Map<String, ETagItem> newIndex = joinETagIndexes(indexOnDisk == null ? null : indexOnDisk.eTag, index.values());
-                channel.truncate(0);
-                OutputStream os = Channels.newOutputStream(channel);
-                ETagIndex writeTo = new ETagIndex(newIndex.values());
-                IOUtils.write(JsonUtils.GSON.toJson(writeTo).getBytes(UTF_8), os);
-                this.index = newIndex;
-            } finally {
-                lock.release();
-            }
+    /**
+     * Read the index written by earlier versions, which rewrote the whole etag.json on every change.
+     */
+    private Collection<ETagItem> readLegacyIndex(Path legacyIndexFile) throws IOException {
+        if (!Files.isRegularFile(legacyIndexFile))
+            return null;
+        try {
+            ETagIndex raw = JsonUtils.GSON.fromJson(FileUtils.readText(legacyIndexFile), ETagIndex.class);
+            return raw == null ? null : raw.eTag;
+        } catch (JsonParseException e) {
+            LOG.log(Level.WARNING, "Unable to read legacy index file " + legacyIndexFile, e);
+            return null;
         }
     }
 
@@ -282,9 +398,22 @@ public class CacheRepository {
         public ETagIndex() {
             this.eTag = new HashSet<>();
         }
+    }
+
+    private static class AccessRecord {
+        private final String file;
+        private final long time;
 
-        public ETagIndex(Collection<ETagItem> eTags) {
-            this.eTag = new HashSet<>(eTags);
+        /**
+         * For Gson.
+         */
+        public AccessRecord() {
+            this(null, 0);
+        }
+
+        public AccessRecord(String file, long time) {
+            this.file = file;
+            this.time = time;
         }
     }
 
@@ -296,6 +425,8 @@ public class CacheRepository {
         private final long localLastModified;
         @SerializedName("remote")
         private final String remoteLastModified;
+        private transient ZonedDateTime remoteTime;
+        private transient boolean remoteTimeParsed;
 
         /**
          * For Gson.
@@ -316,14 +447,22 @@ public class CacheRepository {
             if (!url.equals(other.url))
                 throw new IllegalArgumentException();
 
-            ZonedDateTime thisTime = Lang.ignoringException(() -> ZonedDateTime.parse(remoteLastModified, DateTimeFormatter.RFC_1123_DATE_TIME), null);
-            ZonedDateTime otherTime = Lang.ignoringException(() -> ZonedDateTime.parse(other.remoteLastModified, DateTimeFormatter.RFC_1123_DATE_TIME), null);
+            ZonedDateTime thisTime = getRemoteTime();
+            ZonedDateTime otherTime = other.getRemoteTime();
             if (thisTime == null && otherTime == null) return 0;
             else if (thisTime == null) return -1;
             else if (otherTime == null) return 1;
             else return thisTime.compareTo(otherTime);
         }
 
+        private ZonedDateTime getRemoteTime() {
+            if (!remoteTimeParsed) {
+                remoteTime = Lang.ignoringException(() -> ZonedDateTime.parse(remoteLastModified, DateTimeFormatter.RFC_1123_DATE_TIME), null);
+                remoteTimeParsed = true;
+            }
+            return remoteTime;
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
@@ -353,4 +492,14 @@ public class CacheRepository {
     }
 
     public static final String SHA1 = "SHA-1";
+
+    /**
+     * Accesses of a cached file within this time are recorded once.
+     */
+    public static final long ACCESS_TIME_RESOLUTION = 60 * 60 * 1000;
+
+    /**
+     * Accesses recorded are appended to the access log at most once within this time.
+     */
+    public static final long ACCESS_SAVE_INTERVAL = 10_000;
 }
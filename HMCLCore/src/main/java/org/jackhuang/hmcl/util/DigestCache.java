@@ -0,0 +1,249 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.util;
+
+import org.jackhuang.hmcl.util.io.IndexLog;
+import org.jackhuang.hmcl.util.io.SaveThrottle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+import static org.jackhuang.hmcl.util.Logging.LOG;
+
+/**
+ * Remembers digests of files, so that a file is hashed again only when it changes.
+ *
+ * A digest is reused as long as the size, the last modified time and the file key (the inode
+ * on Unix) of the file are unchanged, so verifying an unchanged file costs a single read of
+ * its attributes. Digests are appended in batches to the {@link IndexLog} set by {@link #setFile(Path)}.
+ *
+ * In deep verify mode, enabled by {@link #setDeepVerify(boolean)} or -Dhmcl.verify.deep=true,
+ * every file is hashed again.
+ */
+public final class DigestCache {
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Entry> pending = new ConcurrentHashMap<>();
+    private final SaveThrottle throttle = new SaveThrottle("digest cache", SAVE_INTERVAL, this::write);
+    private volatile boolean deepVerify = "true".equals(System.getProperty("hmcl.verify.deep"));
+    private volatile IndexLog<Entry> log;
+
+    public boolean isDeepVerify() {
+        return deepVerify;
+    }
+
+    public void setDeepVerify(boolean deepVerify) {
+        this.deepVerify = deepVerify;
+    }
+
+    /**
+     * Load digests from {@code file}, and append them there from now on.
+     *
+     * @param file the log to persist digests
+     */
+    public synchronized void setFile(Path file) {
+        save();
+        IndexLog<Entry> log = new IndexLog<>(file, Entry.class, entry -> entry.path, (current, value) -> value);
+        try {
+            log.open(null);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Unable to read digest cache " + file, e);
+        }
+
+        entries.clear();
+        for (Entry entry : log.values())
+            if (entry.path != null && entry.digests != null)
+                entries.put(entry.path, entry);
+        this.log = log;
+    }
+
+    /**
+     * Get the digest of {@code path}, computing it only if the file has changed since the last time.
+     *
+     * @param algorithm the algorithm of digest, such as "SHA-1"
+     * @param path the file
+     * @return the digest in lowercase hex
+     * @throws IOException if the file cannot be read
+     */
+    public String digest(String algorithm, Path path) throws IOException {
+        return digest(algorithm, path, Files.readAttributes(path, BasicFileAttributes.class));
+    }
+
+    /**
+     * Get the digest of {@code path} whose attributes have been read already, such as by walking its directory.
+     *
+     * @see #digest(String, Path)
+     */
+    public String digest(String algorithm, Path path, BasicFileAttributes attributes) throws IOException {
+        String key = getKey(path);
+        Entry entry = entries.get(key);
+        if (!deepVerify && entry != null && entry.matches(attributes)) {
+            String digest = entry.digests.get(algorithm);
+            if (digest != null)
+                return digest;
+        }
+
+        String digest = Hex.encodeHex(DigestUtils.digest(algorithm, path));
+        record(key, attributes, algorithm, digest);
+        return digest;
+    }
+
+    /**
+     * Check whether the digest of {@code path} is {@code expected}.
+     *
+     * @see #digest(String, Path)
+     */
+    public boolean check(String algorithm, Path path, String expected) throws IOException {
+        return digest(algorithm, path).equalsIgnoreCase(expected);
+    }
+
+    /**
+     * Check whether the digest of {@code path}, whose attributes have been read already, is {@code expected}.
+     *
+     * @see #digest(String, Path, BasicFileAttributes)
+     */
+    public boolean check(String algorithm, Path path, BasicFileAttributes attributes, String expected) throws IOException {
+        return digest(algorithm, path, attributes).equalsIgnoreCase(expected);
+    }
+
+    /**
+     * Remember the digest of a file known by other means, such as computed while the file was downloaded.
+     *
+     * @param algorithm the algorithm of digest
+     * @param path the file
+     * @param digest the digest in hex
+     */
+    public void put(String algorithm, Path path, String digest) {
+        try {
+            record(getKey(path), Files.readAttributes(path, BasicFileAttributes.class), algorithm, digest.toLowerCase());
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Unable to read attributes of " + path, e);
+        }
+    }
+
+    private void record(String key, BasicFileAttributes attributes, String algorithm, String digest) {
+        Entry current = entries.get(key);
+        if (current != null && current.matches(attributes) && digest.equals(current.digests.get(algorithm)))
+            return;
+
+        Entry recorded = entries.compute(key, (unused, entry) -> {
+            Map<String, String> digests = new HashMap<>();
+            if (entry != null && entry.matches(attributes))
+                digests.putAll(entry.digests);
+            digests.put(algorithm, digest);
+            return new Entry(key, attributes, digests);
+        });
+
+        if (log != null) {
+            pending.put(key, recorded);
+            throttle.changed();
+        }
+    }
+
+    /**
+     * Save digests recorded since the last time to the file.
+     */
+    public void save() {
+        throttle.flush();
+    }
+
+    private void write() throws IOException {
+        IndexLog<Entry> log = this.log;
+        if (log == null)
+            return;
+
+        List<Entry> batch = new ArrayList<>(pending.size());
+        for (String key : pending.keySet()) {
+            Entry entry = pending.remove(key);
+            if (entry != null)
+                batch.add(entry);
+        }
+
+        try {
+            log.putAll(batch);
+        } catch (IOException e) {
+            for (Entry entry : batch)
+                pending.putIfAbsent(entry.path, entry);
+            throw e;
+        }
+    }
+
+    private static String getKey(Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * Digests of a file when it had the attributes recorded, never modified once created.
+     */
+    private static final class Entry {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final String fileKey;
+        private final Map<String, String> digests;
+
+        /**
+         * For Gson.
+         */
+        @SuppressWarnings("unused")
+        private Entry() {
+            this(null, 0, 0, null, Collections.emptyMap());
+        }
+
+        Entry(String path, BasicFileAttributes attributes, Map<String, String> digests) {
+            this(path, attributes.size(), attributes.lastModifiedTime().toMillis(),
+                    attributes.fileKey() == null ? null : attributes.fileKey().toString(), digests);
+        }
+
+        private Entry(String path, long size, long lastModified, String fileKey, Map<String, String> digests) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+            this.digests = digests;
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size()
+                    && lastModified == attributes.lastModifiedTime().toMillis()
+                    && Objects.equals(fileKey, attributes.fileKey() == null ? null : attributes.fileKey().toString());
+        }
+    }
+
+    private static final long SAVE_INTERVAL = 10_000;
+
+    private static DigestCache instance = new DigestCache();
+
+    public static DigestCache getInstance() {
+        return instance;
+    }
+
+    public static void setInstance(DigestCache instance) {
+        DigestCache.instance = instance;
+    }
+}
@@ -35,7 +35,7 @@ public final class DigestUtils {
     private DigestUtils() {
     }
 
-    private static final int STREAM_BUFFER_LENGTH = 1024;
+    private static final int STREAM_BUFFER_LENGTH = 64 * 1024;
 
     public static MessageDigest getDigest(String algorithm) {
         try {
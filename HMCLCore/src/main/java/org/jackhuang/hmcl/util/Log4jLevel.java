@@ -19,7 +19,6 @@ package org.jackhuang.hmcl.util;
 
 import javafx.scene.paint.Color;
 
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -58,59 +57,70 @@ public enum Log4jLevel {
     public static final Pattern MINECRAFT_LOGGER_CATEGORY = Pattern.compile("\\[(?<timestamp>[0-9:]+)] \\[[^/]+/(?<level>[^]]+)] \\[(?<category>[^]]+)]");
     public static final String JAVA_SYMBOL = "([a-zA-Z_$][a-zA-Z\\d_$]*\\.)+[a-zA-Z_$][a-zA-Z\\d_$]*";
 
+    /**
+     * Guess the level of a line of game output.
+     *
+     * Lines of log4j, such as {@code [12:34:56] [main/INFO] [minecraft/Main]: ...}, are recognized by the
+     * first {@code [time] [thread/LEVEL]} prefix, and overridden by the category of the first prefix with one if
+     * it is {@code STDOUT} or {@code STDERR}. Other lines are recognized by tags like {@code [WARNING]}.
+     * Lines are scanned without regular expressions or allocation, since every line of game output is guessed
+     * on the thread pumping the output, and a slow pump blocks the game writing to it.
+     * The result is the same as matching {@link #MINECRAFT_LOGGER} and {@link #MINECRAFT_LOGGER_CATEGORY}.
+     *
+     * @return the level, or null if unknown
+     */
     public static Log4jLevel guessLevel(String line) {
         Log4jLevel level = null;
-        Matcher m = MINECRAFT_LOGGER.matcher(line);
-        if (m.find()) {
+        boolean logger = false;
+        for (int start = line.indexOf('['); start >= 0; start = line.indexOf('[', start + 1)) {
+            long prefix = matchLoggerPrefix(line, start);
+            if (prefix < 0)
+                continue;
+
             // New style logs from log4j
-            String levelStr = m.group("level");
-            if (null != levelStr)
-                switch (levelStr) {
-                    case "INFO":
+            int slash = (int) (prefix >>> 32), close = (int) prefix;
+            if (!logger) {
+                logger = true;
+                level = parseLevel(line, slash + 1, close);
+            }
+
+            // The category, such as "[STDERR]" in "[12:34:56] [main/INFO] [STDERR]: ..."
+            if (line.startsWith(" [", close + 1)) {
+                int category = close + 3, end = line.indexOf(']', category);
+                if (end > category) {
+                    if (regionEquals(line, category, end, "STDOUT"))
                         level = INFO;
-                        break;
-                    case "WARN":
-                        level = WARN;
-                        break;
-                    case "ERROR":
+                    else if (regionEquals(line, category, end, "STDERR"))
                         level = ERROR;
-                        break;
-                    case "FATAL":
-                        level = FATAL;
-                        break;
-                    case "TRACE":
-                        level = TRACE;
-                        break;
-                    case "DEBUG":
-                        level = DEBUG;
-                        break;
-                    default:
-                        break;
+                    break;
                 }
-            Matcher m2 = MINECRAFT_LOGGER_CATEGORY.matcher(line);
-            if (m2.find()) {
-                String level2Str = m2.group("category");
-                if (null != level2Str)
-                    switch (level2Str) {
-                        case "STDOUT":
-                            level = INFO;
-                            break;
-                        case "STDERR":
-                            level = ERROR;
-                            break;
-                    }
             }
-        } else {
-            if (line.contains("[INFO]") || line.contains("[CONFIG]") || line.contains("[FINE]")
-                    || line.contains("[FINER]") || line.contains("[FINEST]"))
-                level = INFO;
-            if (line.contains("[SEVERE]") || line.contains("[STDERR]"))
-                level = ERROR;
-            if (line.contains("[WARNING]"))
-                level = WARN;
-            if (line.contains("[DEBUG]"))
+        }
+
+        if (!logger) {
+            boolean info = false, error = false, warn = false, debug = false;
+            for (int i = line.indexOf('['); i >= 0; i = line.indexOf('[', i + 1)) {
+                if (line.startsWith("[INFO]", i) || line.startsWith("[CONFIG]", i) || line.startsWith("[FINE]", i)
+                        || line.startsWith("[FINER]", i) || line.startsWith("[FINEST]", i))
+                    info = true;
+                else if (line.startsWith("[SEVERE]", i) || line.startsWith("[STDERR]", i))
+                    error = true;
+                else if (line.startsWith("[WARNING]", i))
+                    warn = true;
+                else if (line.startsWith("[DEBUG]", i))
+                    debug = true;
+            }
+            // Later tags in this order win, as they did when checked one by one.
+            if (debug)
                 level = DEBUG;
+            else if (warn)
+                level = WARN;
+            else if (error)
+                level = ERROR;
+            else if (info)
+                level = INFO;
         }
+
         if (line.contains("overwriting existing"))
             level = FATAL;
 
@@ -123,6 +133,54 @@ public enum Log4jLevel {
         return level;
     }
 
+    /**
+     * Match {@code [time] [thread/LEVEL]} at {@code start}, as {@link #MINECRAFT_LOGGER} does.
+     *
+     * @return the index of '/' in the high 32 bits and the index of the closing ']' in the low 32 bits, or -1 if not matched
+     */
+    private static long matchLoggerPrefix(String line, int start) {
+        int length = line.length(), i = start + 1;
+        while (i < length && (line.charAt(i) >= '0' && line.charAt(i) <= '9' || line.charAt(i) == ':'))
+            i++;
+        if (i == start + 1 || !line.startsWith("] [", i))
+            return -1;
+
+        int thread = i + 3;
+        int slash = line.indexOf('/', thread);
+        if (slash <= thread)
+            return -1;
+        int close = line.indexOf(']', slash + 1);
+        if (close <= slash + 1)
+            return -1;
+        return (long) slash << 32 | close;
+    }
+
+    private static Log4jLevel parseLevel(String line, int start, int end) {
+        switch (end - start) {
+            case 4:
+                if (regionEquals(line, start, end, "INFO"))
+                    return INFO;
+                if (regionEquals(line, start, end, "WARN"))
+                    return WARN;
+                break;
+            case 5:
+                if (regionEquals(line, start, end, "ERROR"))
+                    return ERROR;
+                if (regionEquals(line, start, end, "FATAL"))
+                    return FATAL;
+                if (regionEquals(line, start, end, "TRACE"))
+                    return TRACE;
+                if (regionEquals(line, start, end, "DEBUG"))
+                    return DEBUG;
+                break;
+        }
+        return null;
+    }
+
+    private static boolean regionEquals(String line, int start, int end, String expected) {
+        return end - start == expected.length() && line.startsWith(expected, start);
+    }
+
     public static boolean isError(Log4jLevel a) {
         return a != null && a.lessOrEqual(Log4jLevel.ERROR);
     }
@@ -0,0 +1,183 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeSet;
+
+/**
+ * Replaces many strings at once, such as tokens to be redacted from game output.
+ *
+ * The strings are compiled into an Aho-Corasick automaton, so that a text is scanned once however many
+ * strings there are. Matches are replaced from left to right, preferring the match starting first, and the
+ * longest one of those starting at the same position, so a string contained in another one, like a user name
+ * in an access token, does not break the longer one. Texts without matches are returned as is.
+ */
+public final class StringReplacer {
+
+    private final String[] replacements;
+    private final int[] lengths;
+    private final char[] alphabet;
+    private final int[] asciiClasses = new int[128];
+    private final int[][] transitions;
+    private final int[] depths;
+    private final int[] outputs;
+
+    /**
+     * @param replacements the replacement of each string, blank strings are ignored
+     */
+    public StringReplacer(Map<String, String> replacements) {
+        List<String> targets = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        TreeSet<Character> chars = new TreeSet<>();
+        for (Map.Entry<String, String> entry : replacements.entrySet()) {
+            if (StringUtils.isBlank(entry.getKey()))
+                continue;
+            targets.add(entry.getKey());
+            values.add(entry.getValue() == null ? "" : entry.getValue());
+            for (char c : entry.getKey().toCharArray())
+                chars.add(c);
+        }
+
+        this.replacements = values.toArray(new String[0]);
+        this.lengths = targets.stream().mapToInt(String::length).toArray();
+        this.alphabet = new char[chars.size()];
+        int index = 0;
+        for (char c : chars)
+            alphabet[index++] = c;
+        Arrays.fill(asciiClasses, -1);
+        for (int i = 0; i < alphabet.length && alphabet[i] < 128; i++)
+            asciiClasses[alphabet[i]] = i;
+
+        // The trie of strings, state 0 being the root.
+        List<Map<Integer, Integer>> trie = new ArrayList<>();
+        List<Integer> depthList = new ArrayList<>();
+        List<Integer> terminals = new ArrayList<>();
+        trie.add(new HashMap<>());
+        depthList.add(0);
+        terminals.add(-1);
+        for (int pattern = 0; pattern < targets.size(); pattern++) {
+            int state = 0;
+            for (char c : targets.get(pattern).toCharArray()) {
+                int charClass = classOf(c);
+                Integer next = trie.get(state).get(charClass);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new HashMap<>());
+                    depthList.add(depthList.get(state) + 1);
+                    terminals.add(-1);
+                    trie.get(state).put(charClass, next);
+                }
+                state = next;
+            }
+            if (terminals.get(state) < 0)
+                terminals.set(state, pattern);
+        }
+
+        // Complete the trie into a deterministic automaton, breadth first so that failure states are done first.
+        int states = trie.size();
+        this.transitions = new int[states][alphabet.length];
+        this.depths = new int[states];
+        this.outputs = new int[states];
+        int[] failures = new int[states];
+        Queue<Integer> queue = new ArrayDeque<>();
+        outputs[0] = -1;
+        for (int c = 0; c < alphabet.length; c++) {
+            Integer next = trie.get(0).get(c);
+            transitions[0][c] = next == null ? 0 : next;
+            if (next != null)
+                queue.add(next);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            depths[state] = depthList.get(state);
+            // The longest string ending here is the string of this state, or the longest one of the failure state.
+            outputs[state] = terminals.get(state) >= 0 ? terminals.get(state) : outputs[failures[state]];
+            for (int c = 0; c < alphabet.length; c++) {
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    transitions[state][c] = transitions[failures[state]][c];
+                } else {
+                    failures[next] = transitions[failures[state]][c];
+                    transitions[state][c] = next;
+                    queue.add(next);
+                }
+            }
+        }
+    }
+
+    private int classOf(char c) {
+        if (c < 128)
+            return asciiClasses[c];
+        int index = Arrays.binarySearch(alphabet, c);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * @return {@code text} with all strings replaced, or {@code text} itself if none is found
+     */
+    public String replace(String text) {
+        if (replacements.length == 0)
+            return text;
+
+        StringBuilder builder = null;
+        int length = text.length();
+        int copied = 0, state = 0;
+        int pending = -1, pendingStart = 0, pendingEnd = 0;
+        int i = 0;
+        while (i < length || pending >= 0) {
+            if (i < length) {
+                int charClass = classOf(text.charAt(i));
+                state = charClass < 0 ? 0 : transitions[state][charClass];
+                int output = outputs[state];
+                if (output >= 0) {
+                    int start = i - lengths[output] + 1;
+                    if (pending < 0 || start < pendingStart || start == pendingStart && i > pendingEnd) {
+                        pending = output;
+                        pendingStart = start;
+                        pendingEnd = i;
+                    }
+                }
+
+                // Wait until no longer string starting as early can be found.
+                if (pending < 0 || i - depths[state] + 1 <= pendingStart) {
+                    i++;
+                    continue;
+                }
+            }
+
+            if (builder == null)
+                builder = new StringBuilder(length + 16);
+            builder.append(text, copied, pendingStart).append(replacements[pending]);
+            copied = pendingEnd + 1;
+            i = copied;
+            state = 0;
+            pending = -1;
+        }
+
+        if (builder == null)
+            return text;
+        return builder.append(text, copied, length).toString();
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.util.io;
+
+import org.jackhuang.hmcl.task.Schedulers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The transport built on {@link HttpURLConnection}.
+ *
+ * The JDK keeps a connection alive and reuses it for the next request to the same host
+ * once its response has been read to the end and closed, so small files share TCP and TLS
+ * handshakes as long as every response is finished by {@link #release(HttpURLConnection)}
+ * instead of {@link HttpURLConnection#disconnect()}.
+ *
+ * @see <a href="https://docs.oracle.com/javase/8/docs/technotes/guides/net/http-keepalive.html">Persistent Connections</a>
+ */
+public class DefaultHttpTransport implements HttpTransport {
+
+    private final Executor executor;
+
+    public DefaultHttpTransport(int concurrency) {
+        if (concurrency < 1)
+            throw new IllegalArgumentException("Concurrency must be positive: " + concurrency);
+
+        // The JDK reads these properties once, when the first connection is made.
+        // Respect the values given in command line.
+        if (System.getProperty("http.keepAlive") == null)
+            System.setProperty("http.keepAlive", "true");
+        if (System.getProperty("http.maxConnections") == null)
+            System.setProperty("http.maxConnections", String.valueOf(MAX_IDLE_CONNECTIONS));
+
+        ExecutorService virtual = Schedulers.isVirtualThreadsEnabled() ? Schedulers.newVirtualThreadExecutor("HTTP") : null;
+        if (virtual != null) {
+            // Every request has its own virtual thread, the semaphore limits how many are in flight.
+            Semaphore limit = new Semaphore(concurrency, true);
+            executor = runnable -> virtual.execute(() -> {
+                limit.acquireUninterruptibly();
+                try {
+                    runnable.run();
+                } finally {
+                    limit.release();
+                }
+            });
+            return;
+        }
+
+        AtomicInteger counter = new AtomicInteger();
+        // Requests of tasks the user is waiting for go first, see PrioritizedRunnable.
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS, new PriorityBlockingQueue<>(11, DefaultHttpTransport::compare),
+                runnable -> {
+                    Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+                    thread.setName("HTTP-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        executor = pool;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Runnable a, Runnable b) {
+        if (a instanceof Comparable && a.getClass() == b.getClass())
+            return ((Comparable<Object>) a).compareTo(b);
+        else
+            return 0;
+    }
+
+    @Override
+    public HttpURLConnection createConnection(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setUseCaches(false);
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        return connection;
+    }
+
+    /**
+     * Redirects are followed manually, to work around servers whose "Location" is not encoded.
+     *
+     * @see <a href="https://github.com/curl/curl/issues/473">Issue with libcurl</a>
+     */
+    @Override
+    public HttpURLConnection connect(HttpURLConnection conn) throws IOException {
+        int redirect = 0;
+        while (true) {
+
+            conn.setUseCaches(false);
+            conn.setConnectTimeout(TIMEOUT);
+            conn.setReadTimeout(TIMEOUT);
+            conn.setInstanceFollowRedirects(false);
+            Map<String, List<String>> properties = conn.getRequestProperties();
+            String method = conn.getRequestMethod();
+            int code = conn.getResponseCode();
+            if (code >= 300 && code <= 307 && code != 306 && code != 304) {
+                String newURL = conn.getHeaderField("Location");
+                // The body of a redirection is short, read it so that the connection is kept alive.
+                release(conn);
+
+                if (redirect > 20) {
+                    throw new IOException("Too much redirects");
+                }
+
+                HttpURLConnection redirected = (HttpURLConnection) new URL(conn.getURL(), NetworkUtils.encodeLocation(newURL)).openConnection();
+                properties.forEach((key, value) -> value.forEach(element -> redirected.addRequestProperty(key, element)));
+                redirected.setRequestMethod(method);
+                conn = redirected;
+                ++redirect;
+            } else {
+                break;
+            }
+        }
+        return conn;
+    }
+
+    @Override
+    public void release(HttpURLConnection connection) {
+        InputStream stream;
+        try {
+            stream = connection.getResponseCode() >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        } catch (IOException e) {
+            // Nothing to be reused.
+            return;
+        }
+        if (stream == null)
+            return;
+
+        try (InputStream input = stream) {
+            byte[] buffer = new byte[IOUtils.DEFAULT_BUFFER_SIZE];
+            long drained = 0;
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                drained += read;
+                if (drained > MAX_DRAIN_SIZE) {
+                    // Reconnecting is cheaper than downloading the rest.
+                    connection.disconnect();
+                    return;
+                }
+            }
+        } catch (IOException ignored) {
+            // The stream has been closed, or the connection is broken and will not be reused.
+        }
+    }
+
+    @Override
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    private static final int TIMEOUT = 15000;
+    private static final int MAX_IDLE_CONNECTIONS = 64;
+    private static final long MAX_DRAIN_SIZE = 64 * 1024;
+}
@@ -24,11 +24,16 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -150,6 +155,40 @@ public final class FileUtils {
         writeBytes(file, text.getBytes(charset));
     }
 
+    /**
+     * Write plain text to file atomically. Characters are encoded into bytes using UTF-8.
+     *
+     * The text is written to {@code <name>.tmp} and flushed to the device first, which is then moved over the file,
+     * so that the file holds either the old text or the new text even if the launcher crashes meanwhile.
+     * @param file the path to the file
+     * @param text the text being written to file
+     * @throws IOException if an I/O error occurs, the file is left unchanged
+     */
+    public static void writeTextAtomically(Path file, String text) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(UTF_8));
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e2) {
+                e.addSuppressed(e2);
+            }
+            throw e;
+        }
+    }
+
     /**
      * Write byte array to file.
      * It will create the file if it does not exist, or truncate the existing file to empty for rewriting.
@@ -297,7 +336,11 @@ public final class FileUtils {
             deleteDirectory(file);
         } else {
             boolean filePresent = file.exists();
-            if (!file.delete()) {
+            boolean deleted = file.delete();
+            // Read-only files cannot be deleted on Windows.
+            if (!deleted && filePresent && !file.canWrite())
+                deleted = file.setWritable(true) && file.delete();
+            if (!deleted) {
                 if (!filePresent)
                     throw new FileNotFoundException("File does not exist: " + file);
                 throw new IOException("Unable to delete file: " + file);
@@ -357,8 +400,7 @@ public final class FileUtils {
     }
 
     public static void moveFile(File srcFile, File destFile) throws IOException {
-        copyFile(srcFile, destFile);
-        srcFile.delete();
+        LinkStrategy.move(srcFile.toPath(), destFile.toPath());
     }
 
     public static boolean makeDirectory(File directory) {
@@ -379,4 +421,35 @@ public final class FileUtils {
                     result.add(it);
         return result;
     }
+
+    /**
+     * List regular files in {@code directory} and its subdirectories with their attributes in a single walk,
+     * which is much cheaper than checking the files one by one when most of them are expected to exist.
+     *
+     * @param directory the directory to walk, nothing is listed if it does not exist
+     * @param maxDepth the maximum number of directory levels to visit, 1 for files directly in {@code directory}
+     * @return the attributes of regular files, keyed by paths resolved against {@code directory}
+     * @throws IOException if a directory cannot be read, except {@code directory} itself being absent
+     */
+    public static Map<Path, BasicFileAttributes> listFiles(Path directory, int maxDepth) throws IOException {
+        Map<Path, BasicFileAttributes> result = new HashMap<>();
+        if (!Files.isDirectory(directory))
+            return result;
+
+        Files.walkFileTree(directory, EnumSet.noneOf(FileVisitOption.class), maxDepth, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile())
+                    result.put(file, attrs);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                // Removed while walking, treat as absent.
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return result;
+    }
 }
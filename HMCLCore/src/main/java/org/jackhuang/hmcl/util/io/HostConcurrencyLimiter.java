@@ -0,0 +1,599 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.util.io;
+
+import org.jackhuang.hmcl.task.PrioritizedRunnable;
+import org.jackhuang.hmcl.util.Logging;
+import org.jackhuang.hmcl.util.Pair;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+/**
+ * Limits the number of requests in flight to each host.
+ *
+ * Every host starts with the concurrency declared by the download provider, and adjusts it by
+ * additive increase and multiplicative decrease (AIMD): the limit grows by one request per
+ * window of successful requests while the host keeps up, that is, while latency stays close
+ * to the lowest seen and throughput does not drop, and it is halved when the host throttles
+ * with 429 or 503, or times out.
+ *
+ * Requests must hold a {@link Permit} from {@link #acquire(URL)} or {@link #tryAcquire(URL)}
+ * while they are in flight, and report the response to it. Tasks running in a thread pool should be
+ * submitted through {@link #executor(Supplier, Executor)}, so that they wait for a busy host in a queue
+ * instead of in a thread of the pool.
+ */
+public final class HostConcurrencyLimiter {
+
+    private final Map<String, Host> hosts = new HashMap<>();
+    private final MirrorScores scores;
+    private volatile int initialLimit;
+
+    /**
+     * @param initialLimit the number of requests allowed to each host before adjusted.
+     * @param scores the scores fed with the latency and throughput observed by permits.
+     */
+    public HostConcurrencyLimiter(int initialLimit, MirrorScores scores) {
+        this.scores = scores;
+        setInitialLimit(initialLimit);
+    }
+
+    /**
+     * Change the concurrency declared by the download provider, limits of all hosts start over from it.
+     *
+     * @param initialLimit the number of requests allowed to each host before adjusted.
+     */
+    public void setInitialLimit(int initialLimit) {
+        if (initialLimit < 1)
+            throw new IllegalArgumentException("Limit must be positive: " + initialLimit);
+        this.initialLimit = initialLimit;
+
+        for (Host host : getHosts())
+            host.reset(initialLimit);
+    }
+
+    public int getInitialLimit() {
+        return initialLimit;
+    }
+
+    /**
+     * Wait until a request to the host of {@code url} is allowed.
+     *
+     * @param url the url to request
+     * @return the permit that must be closed when the request is finished
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Permit acquire(URL url) throws InterruptedException {
+        Host host = getHost(url);
+        Permit reserved = takeReserved(host);
+        if (reserved != null)
+            return reserved;
+
+        host.lock.lock();
+        try {
+            host.waiting++;
+            try {
+                while (host.inFlight >= host.getLimit())
+                    host.available.await();
+            } finally {
+                host.waiting--;
+            }
+            host.inFlight++;
+        } finally {
+            host.lock.unlock();
+        }
+        return new Permit(host, scores);
+    }
+
+    /**
+     * @param url the url to request
+     * @return the permit, or null if the host is busy
+     */
+    public Permit tryAcquire(URL url) {
+        Host host = getHost(url);
+        Permit reserved = takeReserved(host);
+        if (reserved != null)
+            return reserved;
+
+        host.lock.lock();
+        try {
+            if (host.inFlight >= host.getLimit())
+                return null;
+            host.inFlight++;
+        } finally {
+            host.lock.unlock();
+        }
+        return new Permit(host, scores);
+    }
+
+    /**
+     * Get an executor that submits a runnable to {@code executor} only once a request to the host of the url
+     * supplied is allowed, so that runnables waiting for a busy host do not occupy threads of {@code executor}.
+     *
+     * The permit is reserved for the runnable, the first {@link #acquire(URL)} or {@link #tryAcquire(URL)}
+     * of that host made by the runnable returns it. It is released when the runnable returns if not taken.
+     *
+     * @param url supplies the url the runnable will request first, called when a runnable is submitted
+     * @param executor the executor to run runnables in
+     * @return the executor
+     */
+    public Executor executor(Supplier<URL> url, Executor executor) {
+        return runnable -> {
+            Host host = getHost(url.get());
+            host.schedule(new PrioritizedRunnable(PrioritizedRunnable.getPriority(runnable), () -> {
+                Permit permit = new Permit(host, scores);
+                RESERVED.set(permit);
+                try {
+                    runnable.run();
+                } finally {
+                    Permit left = RESERVED.get();
+                    RESERVED.remove();
+                    if (left != null)
+                        left.close();
+                }
+            }), executor);
+        };
+    }
+
+    private static Permit takeReserved(Host host) {
+        Permit reserved = RESERVED.get();
+        if (reserved == null || reserved.host != host)
+            return null;
+        RESERVED.remove();
+        return reserved;
+    }
+
+    /**
+     * @return live statistics of every host requested so far
+     */
+    public List<HostStatistics> getStatistics() {
+        List<HostStatistics> statistics = new ArrayList<>();
+        for (Host host : getHosts())
+            statistics.add(host.getStatistics());
+        return Collections.unmodifiableList(statistics);
+    }
+
+    private List<Host> getHosts() {
+        synchronized (hosts) {
+            return new ArrayList<>(hosts.values());
+        }
+    }
+
+    private Host getHost(URL url) {
+        String name = NetworkUtils.getHostKey(url);
+        synchronized (hosts) {
+            return hosts.computeIfAbsent(name, key -> new Host(key, initialLimit));
+        }
+    }
+
+    /**
+     * Guarded by a lock instead of the monitor, so that virtual threads waiting for a permit do not pin their carriers.
+     */
+    private static final class Host {
+        private final String name;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition available = lock.newCondition();
+        // Runnables waiting for a permit, with the executor to run them in. Ordered by priority, then first in,
+        // first out, so that a version json is not stuck behind thousands of assets queued before it.
+        private final Queue<Pair<PrioritizedRunnable, Executor>> queued = new PriorityQueue<>(
+                (a, b) -> a.getKey().compareTo(b.getKey()));
+
+        private int maxLimit;
+        private double limit;
+        private int inFlight;
+        private int waiting;
+
+        private long requests;
+        private long failures;
+        private long throttled;
+        private long bytes;
+
+        private long minLatency = Long.MAX_VALUE;
+        private double averageLatency;
+        private long lastDecrease;
+
+        // Throughput is measured in windows, the last complete window is compared to the one before it.
+        private long windowStart = System.nanoTime();
+        private long windowBytes;
+        private double throughput;
+        private double previousThroughput;
+
+        Host(String name, int initialLimit) {
+            this.name = name;
+            reset(initialLimit);
+        }
+
+        void reset(int initialLimit) {
+            lock.lock();
+            try {
+                this.limit = initialLimit;
+                this.maxLimit = initialLimit * MAX_LIMIT_FACTOR;
+                available.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            dispatch();
+        }
+
+        /**
+         * Submit {@code runnable}, which holds a permit, to {@code executor} now or once a permit is released.
+         */
+        void schedule(PrioritizedRunnable runnable, Executor executor) {
+            lock.lock();
+            try {
+                if (!queued.isEmpty() || inFlight >= getLimit()) {
+                    queued.add(Pair.pair(runnable, executor));
+                    waiting++;
+                    return;
+                }
+                inFlight++;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                executor.execute(runnable);
+            } catch (RejectedExecutionException e) {
+                release();
+                throw e;
+            }
+        }
+
+        /**
+         * Submit queued runnables while permits are available, outside the lock.
+         */
+        private void dispatch() {
+            while (true) {
+                Pair<PrioritizedRunnable, Executor> next;
+                lock.lock();
+                try {
+                    if (queued.isEmpty() || inFlight >= getLimit())
+                        return;
+                    next = queued.poll();
+                    waiting--;
+                    inFlight++;
+                } finally {
+                    lock.unlock();
+                }
+
+                try {
+                    next.getValue().execute(next.getKey());
+                } catch (RejectedExecutionException e) {
+                    // The executor has been shut down as the launcher exits.
+                    Logging.LOG.log(Level.WARNING, "Dropping a request to " + name + " rejected by its executor", e);
+                    lock.lock();
+                    try {
+                        inFlight--;
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        }
+
+        int getLimit() {
+            return (int) limit;
+        }
+
+        void release() {
+            lock.lock();
+            try {
+                inFlight--;
+                available.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            dispatch();
+        }
+
+        void addBytes(long count) {
+            lock.lock();
+            try {
+                bytes += count;
+                windowBytes += count;
+
+                long now = System.nanoTime();
+                if (now - windowStart >= THROUGHPUT_WINDOW) {
+                    previousThroughput = throughput;
+                    throughput = windowBytes * 1e9 / (now - windowStart);
+                    windowStart = now;
+                    windowBytes = 0;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void onSuccess(long latency) {
+            lock.lock();
+            try {
+                requests++;
+                minLatency = Math.min(minLatency, latency);
+                averageLatency = averageLatency == 0 ? latency : averageLatency * (1 - LATENCY_SMOOTHING) + latency * LATENCY_SMOOTHING;
+
+                boolean saturated = inFlight >= getLimit();
+                boolean keepingUp = averageLatency <= minLatency * LATENCY_TOLERANCE
+                        && throughput >= previousThroughput * THROUGHPUT_TOLERANCE;
+                if (saturated && keepingUp && limit < maxLimit) {
+                    int before = getLimit();
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                    if (getLimit() != before) {
+                        Logging.LOG.log(Level.FINE, "Raised concurrency of " + name + " to " + getLimit());
+                        available.signalAll();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            dispatch();
+        }
+
+        void onFailure(boolean congested) {
+            lock.lock();
+            try {
+                requests++;
+                failures++;
+                if (!congested)
+                    return;
+
+                throttled++;
+                // Requests sent before the decrease will fail as well, react to them only once.
+                long now = System.nanoTime();
+                long cooldown = Math.max((long) averageLatency, MIN_DECREASE_INTERVAL);
+                if (now - lastDecrease >= cooldown) {
+                    lastDecrease = now;
+                    limit = Math.max(1, limit / 2);
+                    Logging.LOG.log(Level.FINE, "Reduced concurrency of " + name + " to " + getLimit());
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        HostStatistics getStatistics() {
+            lock.lock();
+            try {
+                return new HostStatistics(name, getLimit(), inFlight, waiting, requests, failures, throttled, bytes,
+                        throughput, (long) averageLatency / 1_000_000);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * The right to send requests to a host, held until {@link #close()}.
+     *
+     * A permit may be shared by threads reading parts of the same file, so its measurements are atomic.
+     */
+    public static final class Permit implements AutoCloseable {
+        private final Host host;
+        private final MirrorScores scores;
+        private volatile long requestStart = System.nanoTime();
+        private final AtomicLong responseTime = new AtomicLong();
+        private final AtomicLong transferred = new AtomicLong();
+        private boolean closed;
+
+        private Permit(Host host, MirrorScores scores) {
+            this.host = host;
+            this.scores = scores;
+        }
+
+        /**
+         * Send the request by {@link NetworkUtils#resolveConnection(HttpURLConnection)} and report its response.
+         *
+         * @param connection the connection to the host of this permit
+         * @return the connection whose response is available
+         * @throws IOException if an I/O error occurs.
+         */
+        public HttpURLConnection connect(HttpURLConnection connection) throws IOException {
+            onRequest();
+            try {
+                connection = NetworkUtils.resolveConnection(connection);
+                onResponse(connection.getResponseCode());
+                return connection;
+            } catch (IOException e) {
+                onFailure(e);
+                throw e;
+            }
+        }
+
+        /**
+         * Mark the start of another request made with this permit, for latency measurement.
+         */
+        public void onRequest() {
+            finishTransfer();
+            requestStart = System.nanoTime();
+        }
+
+        /**
+         * Report the response code of the request, once the response headers arrive.
+         *
+         * @param responseCode the response code of the request.
+         */
+        public void onResponse(int responseCode) {
+            if (responseCode == 429 || responseCode == HttpURLConnection.HTTP_UNAVAILABLE) {
+                host.onFailure(true);
+                scores.onFailure(host.name);
+            } else if (responseCode >= 400) {
+                host.onFailure(false);
+                scores.onFailure(host.name);
+            } else {
+                long now = System.nanoTime();
+                long latency = now - requestStart;
+                responseTime.compareAndSet(0, now);
+                host.onSuccess(latency);
+                scores.onResponse(host.name, latency);
+            }
+        }
+
+        /**
+         * Report a request that failed without response, timeouts indicate congestion.
+         *
+         * @param e the exception thrown by the request.
+         */
+        public void onFailure(Exception e) {
+            host.onFailure(e instanceof SocketTimeoutException || e instanceof ConnectException);
+            scores.onFailure(host.name);
+        }
+
+        /**
+         * @param bytes the number of bytes of the response body received.
+         */
+        public void onBytes(long bytes) {
+            host.addBytes(bytes);
+            transferred.addAndGet(bytes);
+        }
+
+        private void finishTransfer() {
+            long start = responseTime.getAndSet(0);
+            long bytes = transferred.getAndSet(0);
+            if (bytes > 0 && start != 0)
+                scores.onTransfer(host.name, bytes, System.nanoTime() - start);
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                finishTransfer();
+                host.release();
+            }
+        }
+    }
+
+    /**
+     * A snapshot of requests to a host.
+     */
+    public static final class HostStatistics {
+        private final String host;
+        private final int limit;
+        private final int inFlight;
+        private final int waiting;
+        private final long requests;
+        private final long failures;
+        private final long throttled;
+        private final long bytes;
+        private final double throughput;
+        private final long latency;
+
+        HostStatistics(String host, int limit, int inFlight, int waiting, long requests, long failures, long throttled, long bytes, double throughput, long latency) {
+            this.host = host;
+            this.limit = limit;
+            this.inFlight = inFlight;
+            this.waiting = waiting;
+            this.requests = requests;
+            this.failures = failures;
+            this.throttled = throttled;
+            this.bytes = bytes;
+            this.throughput = throughput;
+            this.latency = latency;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * @return the number of requests allowed in flight now.
+         */
+        public int getLimit() {
+            return limit;
+        }
+
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        /**
+         * @return the number of requests waiting for a permit, a host is saturated if it keeps requests waiting.
+         */
+        public int getWaiting() {
+            return waiting;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return the number of requests rejected with 429 or 503, or timed out.
+         */
+        public long getThrottled() {
+            return throttled;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return bytes per second received from the host recently.
+         */
+        public double getThroughput() {
+            return throughput;
+        }
+
+        /**
+         * @return the smoothed time to response headers in milliseconds.
+         */
+        public long getLatency() {
+            return latency;
+        }
+
+        @Override
+        public String toString() {
+            return host + ": " + inFlight + "/" + limit + " in flight, " + waiting + " waiting, "
+                    + requests + " requests, " + failures + " failures (" + throttled + " throttled), "
+                    + (long) (throughput / 1024) + " KiB/s, " + latency + " ms";
+        }
+    }
+
+    /**
+     * The permit reserved for the runnable running in this thread, see {@link #executor(Supplier, Executor)}.
+     */
+    private static final ThreadLocal<Permit> RESERVED = new ThreadLocal<>();
+
+    private static final int MAX_LIMIT_FACTOR = 4;
+    private static final double LATENCY_SMOOTHING = 0.2;
+    private static final double LATENCY_TOLERANCE = 2;
+    private static final double THROUGHPUT_TOLERANCE = 0.9;
+    private static final long THROUGHPUT_WINDOW = 1_000_000_000L;
+    private static final long MIN_DECREASE_INTERVAL = 1_000_000_000L;
+}
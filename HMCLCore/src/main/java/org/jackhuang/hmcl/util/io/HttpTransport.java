@@ -0,0 +1,71 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.util.io;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Executor;
+
+/**
+ * The engine performing HTTP requests of the launcher.
+ *
+ * Connections created by {@link NetworkUtils} are opened, sent and finished by the transport
+ * set by {@link NetworkUtils#setTransport(HttpTransport)}, so that connection pooling and
+ * the number of requests in flight are managed in one place.
+ *
+ * @see DefaultHttpTransport
+ */
+public interface HttpTransport {
+
+    /**
+     * Create a connection to {@code url} without sending the request,
+     * so that the caller can still set request properties.
+     *
+     * @param url the url to request
+     * @return the unconnected connection
+     * @throws IOException if the connection cannot be created
+     */
+    HttpURLConnection createConnection(URL url) throws IOException;
+
+    /**
+     * Send the request of {@code connection}, following redirects.
+     *
+     * @param connection the connection created by {@link #createConnection(URL)}
+     * @return the connection whose response is available, may differ from {@code connection} if redirected.
+     * @throws IOException if an I/O error occurs.
+     */
+    HttpURLConnection connect(HttpURLConnection connection) throws IOException;
+
+    /**
+     * Finish with the response of {@code connection}, the unread body is discarded so that
+     * the underlying connection can be reused by later requests to the same host.
+     *
+     * @param connection the connection returned by {@link #connect(HttpURLConnection)}
+     */
+    void release(HttpURLConnection connection);
+
+    /**
+     * Tasks transferring data through this transport should run on this executor,
+     * which never runs more of them at the same time than the maximum concurrency.
+     * Requests to a single host are further limited by {@link NetworkUtils#getHostLimiter()}.
+     *
+     * @return the executor of transfers
+     */
+    Executor getExecutor();
+}
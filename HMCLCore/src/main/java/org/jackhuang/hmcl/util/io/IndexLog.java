@@ -0,0 +1,347 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.util.io;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import org.jackhuang.hmcl.util.function.ExceptionalSupplier;
+import org.jackhuang.hmcl.util.gson.JsonUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.logging.Level;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.jackhuang.hmcl.util.Logging.LOG;
+
+/**
+ * A persistent map that appends every change to a log file instead of rewriting the whole file.
+ *
+ * The log holds one json record per line. The first line is a header naming the generation of the file,
+ * each following line either puts a value {@code {"key":...,"value":...}} or removes a key {@code {"key":...}}.
+ * When the log grows to more than twice the records it holds, it is compacted into a new generation
+ * written to a temporary file and moved over the log atomically.
+ *
+ * Launchers running at the same time share the log. Every change takes an exclusive lock on
+ * {@code <name>.lock}, replays the records other processes have appended since, and then appends its own.
+ * A torn record left by a crash is dropped when the next change is made.
+ *
+ * @param <V> the type of values, serialized by {@link JsonUtils#GSON}
+ */
+public final class IndexLog<V> {
+
+    private final Path file;
+    private final Path lockFile;
+    private final Class<V> type;
+    private final Function<V, String> keyFunction;
+    private final BinaryOperator<V> merger;
+    private final Map<String, V> entries = new ConcurrentHashMap<>();
+
+    private String generation;
+    private long position;
+    private int records;
+
+    /**
+     * @param file the log file
+     * @param type the class of values
+     * @param keyFunction the key of a value
+     * @param merger given the value in the map and a new value with the same key, returns the one to keep
+     */
+    public IndexLog(Path file, Class<V> type, Function<V, String> keyFunction, BinaryOperator<V> merger) {
+        this.file = file.toAbsolutePath().normalize();
+        this.lockFile = this.file.resolveSibling(this.file.getFileName() + ".lock");
+        this.type = type;
+        this.keyFunction = keyFunction;
+        this.merger = merger;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public V get(String key) {
+        return entries.get(key);
+    }
+
+    public Collection<V> values() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Replay the log. If the log does not exist yet, it is created from the values in an index of the old format.
+     *
+     * @param legacy supplies values to migrate if the log does not exist, maybe null.
+     * @throws IOException if the log cannot be read or created.
+     */
+    public synchronized void open(ExceptionalSupplier<Collection<V>, ? extends IOException> legacy) throws IOException {
+        locked(() -> {
+            if (Files.isRegularFile(file)) {
+                refresh();
+                if (shouldCompact())
+                    compact();
+            } else {
+                entries.clear();
+                Collection<V> values = legacy == null ? null : legacy.get();
+                if (values != null)
+                    for (V value : values)
+                        if (value != null)
+                            entries.merge(keyFunction.apply(value), value, merger);
+                compact();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Put {@code value} to the map, merging it with the value of the same key, and append it to the log.
+     *
+     * @return the value kept in the map
+     * @throws IOException if the log cannot be written, the value is put to the map anyway.
+     */
+    public synchronized V put(V value) throws IOException {
+        String key = keyFunction.apply(value);
+        return locked(() -> {
+            refresh();
+            V kept = entries.merge(key, value, merger);
+            if (kept == value)
+                append(record(key, value), 1);
+            return kept;
+        });
+    }
+
+    /**
+     * Put each of {@code values} like {@link #put(Object)}, appending them to the log at once.
+     *
+     * @throws IOException if the log cannot be written, the values are put to the map anyway.
+     */
+    public synchronized void putAll(Collection<? extends V> values) throws IOException {
+        if (values.isEmpty())
+            return;
+        locked(() -> {
+            refresh();
+            StringBuilder builder = new StringBuilder();
+            int count = 0;
+            for (V value : values) {
+                String key = keyFunction.apply(value);
+                if (entries.merge(key, value, merger) == value) {
+                    builder.append(record(key, value));
+                    count++;
+                }
+            }
+            if (count > 0)
+                append(builder.toString(), count);
+            return null;
+        });
+    }
+
+    /**
+     * Remove {@code key} from the map, and append the removal to the log.
+     *
+     * @throws IOException if the log cannot be written, the key is removed from the map anyway.
+     */
+    public synchronized void remove(String key) throws IOException {
+        locked(() -> {
+            refresh();
+            if (entries.remove(key) != null)
+                append(record(key, null), 1);
+            return null;
+        });
+    }
+
+    /**
+     * Read records appended by other processes, and replay the whole log if it has been compacted by them.
+     */
+    private void refresh() throws IOException {
+        if (!Files.isRegularFile(file)) {
+            // Deleted by others, it will be created again on compaction.
+            generation = null;
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            byte[] bytes = read(channel, 0, (int) Math.min(size, MAX_HEADER_LENGTH));
+            int headerLength = indexOf(bytes, 0);
+            String header = headerLength < 0 ? null : new String(bytes, 0, headerLength, UTF_8);
+            if (header == null || !header.equals(generation) || size < position) {
+                entries.clear();
+                generation = header;
+                position = headerLength + 1;
+                records = 0;
+            }
+
+            bytes = read(channel, position, (int) (size - position));
+            int start = 0;
+            for (int end; (end = indexOf(bytes, start)) >= 0; start = end + 1) {
+                replay(new String(bytes, start, end - start, UTF_8));
+                records++;
+            }
+            position += start;
+
+            if (position < size) {
+                // We hold the lock, so the trailing bytes are not being written by others.
+                LOG.warning("Dropping a torn record of " + file);
+                channel.truncate(position);
+            }
+        }
+    }
+
+    private void replay(String line) {
+        try {
+            JsonObject record = JsonUtils.GSON.fromJson(line, JsonObject.class);
+            String key = record.get("key").getAsString();
+            JsonElement value = record.get("value");
+            if (value == null || value.isJsonNull())
+                entries.remove(key);
+            else {
+                V parsed = JsonUtils.GSON.fromJson(value, type);
+                if (parsed != null)
+                    entries.merge(key, parsed, merger);
+            }
+        } catch (JsonParseException | IllegalStateException | UnsupportedOperationException | NullPointerException e) {
+            LOG.log(Level.WARNING, "Skipping malformed record of " + file + ": " + line, e);
+        }
+    }
+
+    /**
+     * @return the line putting {@code value} to {@code key}, or removing {@code key} if {@code value} is null.
+     */
+    private String record(String key, V value) {
+        JsonObject record = new JsonObject();
+        record.addProperty("key", key);
+        if (value != null)
+            record.add("value", JsonUtils.GSON.toJsonTree(value, type));
+        return record.toString() + "\n";
+    }
+
+    private void append(String lines, int count) throws IOException {
+        if (generation == null) {
+            compact();
+            return;
+        }
+
+        byte[] bytes = lines.getBytes(UTF_8);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+        position += bytes.length;
+        records += count;
+
+        if (shouldCompact())
+            compact();
+    }
+
+    private boolean shouldCompact() {
+        return generation == null || records >= COMPACTION_THRESHOLD && records > 2 * entries.size();
+    }
+
+    /**
+     * Write the entries to a new generation of the log, replacing the current one.
+     */
+    private void compact() throws IOException {
+        JsonObject header = new JsonObject();
+        header.addProperty("version", VERSION);
+        header.addProperty("generation", Long.toHexString(ThreadLocalRandom.current().nextLong()));
+
+        StringBuilder builder = new StringBuilder().append(header).append('\n');
+        for (Map.Entry<String, V> entry : entries.entrySet()) {
+            JsonObject record = new JsonObject();
+            record.addProperty("key", entry.getKey());
+            record.add("value", JsonUtils.GSON.toJsonTree(entry.getValue(), type));
+            builder.append(record).append('\n');
+        }
+        byte[] bytes = builder.toString().getBytes(UTF_8);
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        generation = header.toString();
+        position = bytes.length;
+        records = entries.size();
+    }
+
+    private <T> T locked(ExceptionalSupplier<T, ? extends IOException> action) throws IOException {
+        synchronized (LOCKS.computeIfAbsent(lockFile, path -> new Object())) {
+            Files.createDirectories(file.getParent());
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                FileLock lock = channel.lock();
+                try {
+                    return action.get();
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    private static byte[] read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining())
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                break;
+        return buffer.position() == length ? buffer.array() : Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private static int indexOf(byte[] bytes, int from) {
+        for (int i = from; i < bytes.length; i++)
+            if (bytes[i] == '\n')
+                return i;
+        return -1;
+    }
+
+    /**
+     * Locks held by this process, since a process cannot lock the same file twice.
+     */
+    private static final Map<Path, Object> LOCKS = new ConcurrentHashMap<>();
+
+    private static final int VERSION = 1;
+    private static final int MAX_HEADER_LENGTH = 256;
+    private static final int COMPACTION_THRESHOLD = 1024;
+}
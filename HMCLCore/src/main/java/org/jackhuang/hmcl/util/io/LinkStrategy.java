@@ -0,0 +1,188 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.util.io;
+
+import org.jackhuang.hmcl.util.Logging;
+import org.jackhuang.hmcl.util.platform.OperatingSystem;
+import org.jackhuang.hmcl.util.platform.SystemUtils;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * Places files without copying their content where the file system allows.
+ *
+ * Methods are tried in order: atomic rename (only when moving), hard link, reflink, and at last
+ * a copy by {@link FileChannel#transferTo}, which lets the kernel copy without passing data through
+ * the Java heap. Every method falls back to the next one when it fails, for example across file systems.
+ *
+ * Hard-linked files share their content with the cache, so they must never be modified in place.
+ * Files are replaced by writing to a temporary file and renaming, like all downloads do.
+ */
+public final class LinkStrategy {
+    private LinkStrategy() {
+    }
+
+    public enum Method {
+        RENAME,
+        HARD_LINK,
+        REFLINK,
+        COPY
+    }
+
+    /**
+     * File stores known to reject hard links or reflinks, they will not be tried again.
+     */
+    private static final Map<FileStore, Boolean> NO_HARD_LINK = new ConcurrentHashMap<>();
+    private static final Map<FileStore, Boolean> NO_REFLINK = new ConcurrentHashMap<>();
+
+    /**
+     * Make {@code target} a file with the content of {@code source}, which is kept.
+     * An existing {@code target} is replaced atomically.
+     *
+     * @param source the existing file
+     * @param target the file to create or replace
+     * @return the method that placed the file
+     * @throws IOException if even copying fails
+     */
+    public static Method link(Path source, Path target) throws IOException {
+        if (!Files.isRegularFile(source))
+            throw new IOException("Source '" + source + "' is not a regular file");
+        Path parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        if (Files.exists(target) && Files.isSameFile(source, target))
+            return Method.HARD_LINK;
+
+        FileStore store = Files.getFileStore(parent);
+        boolean sameStore = store.equals(Files.getFileStore(source));
+        Path temp = parent.resolve(target.getFileName() + ".link" + Long.toHexString(System.nanoTime()));
+        try {
+            Method method;
+            if (sameStore && !NO_HARD_LINK.containsKey(store) && tryHardLink(source, temp, store)) {
+                method = Method.HARD_LINK;
+            } else if (sameStore && !NO_REFLINK.containsKey(store) && tryReflink(source, temp, store)) {
+                method = Method.REFLINK;
+            } else {
+                transfer(source, temp);
+                method = Method.COPY;
+            }
+            replace(temp, target);
+            return method;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Move {@code source} to {@code target}, replacing it.
+     *
+     * @param source the existing file
+     * @param target the file to create or replace
+     * @return the method that placed the file
+     * @throws IOException if even copying fails
+     */
+    public static Method move(Path source, Path target) throws IOException {
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return Method.RENAME;
+        } catch (AtomicMoveNotSupportedException e) {
+            // On another file system.
+        }
+
+        Method method = link(source, target);
+        Files.delete(source);
+        return method;
+    }
+
+    private static void replace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static boolean tryHardLink(Path source, Path target, FileStore store) {
+        try {
+            Files.createLink(target, source);
+            return true;
+        } catch (FileSystemException e) {
+            // Maybe the link count of the source is exhausted, whose message depends on the system and locale,
+            // so only this file falls back.
+            Logging.LOG.log(Level.FINE, "Unable to hard link " + source + ": " + e.getReason(), e);
+            return false;
+        } catch (UnsupportedOperationException | IOException e) {
+            Logging.LOG.log(Level.FINE, "Hard links are not supported in " + store, e);
+            NO_HARD_LINK.put(store, true);
+            return false;
+        }
+    }
+
+    /**
+     * Java has no access to FICLONE or clonefile, so the system cp is asked to clone,
+     * and fails instead of copying if the file system cannot share extents.
+     */
+    private static boolean tryReflink(Path source, Path target, FileStore store) {
+        String[] command;
+        if (OperatingSystem.CURRENT_OS == OperatingSystem.LINUX)
+            command = new String[]{"cp", "--reflink=always", source.toString(), target.toString()};
+        else if (OperatingSystem.CURRENT_OS == OperatingSystem.OSX)
+            command = new String[]{"cp", "-c", source.toString(), target.toString()};
+        else
+            command = null;
+
+        try {
+            if (command != null && SystemUtils.callExternalProcess(command) == 0)
+                return true;
+        } catch (IOException e) {
+            Logging.LOG.log(Level.FINE, "Unable to call cp to reflink " + source, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        NO_REFLINK.put(store, true);
+        try {
+            Files.deleteIfExists(target);
+        } catch (IOException ignored) {
+        }
+        return false;
+    }
+
+    private static void transfer(Path source, Path target) throws IOException {
+        try (FileChannel input = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel output = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = input.size();
+            long position = 0;
+            while (position < size)
+                position += input.transferTo(position, size - position, output);
+        }
+        Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+    }
+}
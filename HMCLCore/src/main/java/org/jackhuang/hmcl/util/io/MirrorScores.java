@@ -0,0 +1,238 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.util.io;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import org.jackhuang.hmcl.util.Logging;
+import org.jackhuang.hmcl.util.gson.JsonUtils;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Scores mirrors by how fast they served recent requests, so that download tasks try the fastest mirror first.
+ *
+ * A score estimates the time in milliseconds to download a file of {@link #REFERENCE_SIZE}
+ * from the host, that is, the smoothed time to first byte plus the time to transfer at the
+ * smoothed throughput, made worse by the rate of failed requests. Lower is better.
+ *
+ * Measurements age with a half-life of {@link #HALF_LIFE}: a score drifts back to the score of a host
+ * never requested, and new samples of a stale host outweigh the old ones. So a mirror that was slow
+ * some time ago is not held back forever.
+ *
+ * Scores are saved to the file set by {@link #setFile(Path)}, so that the launcher starts
+ * with the mirror that was fast in the last session.
+ */
+public final class MirrorScores {
+
+    private final Map<String, Score> scores = new HashMap<>();
+    private final AtomicLong rankings = new AtomicLong();
+    private final SaveThrottle throttle = new SaveThrottle("mirror scores", SAVE_INTERVAL, this::save);
+    private Path file;
+
+    /**
+     * Load scores from {@code file}, and save them there from now on.
+     *
+     * @param file the json file to persist scores
+     */
+    public synchronized void setFile(Path file) {
+        this.file = file;
+        scores.clear();
+        if (!Files.isRegularFile(file))
+            return;
+
+        try {
+            Map<String, Score> saved = JsonUtils.GSON.fromJson(FileUtils.readText(file),
+                    new TypeToken<Map<String, Score>>() {}.getType());
+            if (saved != null)
+                saved.forEach((host, score) -> {
+                    if (host != null && score != null)
+                        scores.put(host, score);
+                });
+        } catch (IOException | JsonParseException e) {
+            Logging.LOG.log(Level.WARNING, "Unable to read mirror scores " + file, e);
+        }
+    }
+
+    /**
+     * @param url the url requested
+     * @return the score of the host of {@code url}, or {@link Double#NaN} if the host has never been requested.
+     */
+    public double getScore(URL url) {
+        return getScore(url, System.currentTimeMillis());
+    }
+
+    synchronized double getScore(URL url, long now) {
+        Score score = scores.get(NetworkUtils.getHostKey(url));
+        return score == null ? Double.NaN : score.getScore(now);
+    }
+
+    /**
+     * Order candidate urls of a file from the fastest host to the slowest.
+     *
+     * Hosts never requested are ranked as if they were averagely fast, and urls of equal
+     * scores keep their order, so the preferred download provider stays first
+     * until it has been measured slower than the others. One ranking in
+     * {@link #EXPLORATION_INTERVAL} puts the first host never requested first, so that
+     * it gets measured even if the others are faster than average.
+     *
+     * @param urls the candidate urls in the order of preference
+     * @return a new list of the urls ranked
+     */
+    public List<URL> rank(List<URL> urls) {
+        return rank(urls, System.currentTimeMillis(), rankings.incrementAndGet() % EXPLORATION_INTERVAL == 0);
+    }
+
+    List<URL> rank(List<URL> urls, long now, boolean explore) {
+        List<URL> ranked = new ArrayList<>(urls);
+        if (ranked.size() < 2)
+            return ranked;
+
+        Map<URL, Double> known = new HashMap<>();
+        for (URL url : ranked)
+            known.put(url, getScore(url, now));
+        ranked.sort(Comparator.comparing(url -> {
+            double score = known.get(url);
+            return Double.isNaN(score) ? PRIOR_SCORE : score;
+        }));
+
+        if (explore) {
+            for (int i = 1; i < ranked.size(); i++)
+                if (Double.isNaN(known.get(ranked.get(i)))) {
+                    ranked.add(0, ranked.remove(i));
+                    break;
+                }
+        }
+        return ranked;
+    }
+
+    void onResponse(String host, long latency) {
+        onResponse(host, latency, System.currentTimeMillis());
+    }
+
+    void onResponse(String host, long latency, long now) {
+        update(host, score -> score.onResponse(latency / 1_000_000.0, now));
+    }
+
+    void onTransfer(String host, long bytes, long time) {
+        if (bytes < MIN_TRANSFER_SIZE || time <= 0)
+            return;
+        long now = System.currentTimeMillis();
+        update(host, score -> score.onTransfer(bytes * 1e9 / time, now));
+    }
+
+    void onFailure(String host) {
+        onFailure(host, System.currentTimeMillis());
+    }
+
+    void onFailure(String host, long now) {
+        update(host, score -> score.onFailure(now));
+    }
+
+    private void update(String host, Consumer<Score> action) {
+        synchronized (this) {
+            action.accept(scores.computeIfAbsent(host, key -> new Score()));
+        }
+        throttle.changed();
+    }
+
+    private void save() throws IOException {
+        String content;
+        Path target;
+        synchronized (this) {
+            target = file;
+            if (target == null)
+                return;
+            content = JsonUtils.GSON.toJson(scores);
+        }
+        FileUtils.writeTextAtomically(target, content);
+    }
+
+    private static final class Score {
+        private double latency;
+        private double throughput;
+        private double failureRate;
+        private long updated;
+
+        void onResponse(double latency, long now) {
+            double freshness = getFreshness(now);
+            this.latency = this.latency == 0 ? latency : smooth(this.latency, latency, freshness);
+            this.failureRate = smooth(failureRate * freshness, 0, 1);
+            this.updated = now;
+        }
+
+        void onTransfer(double throughput, long now) {
+            double freshness = getFreshness(now);
+            this.throughput = this.throughput == 0 ? throughput : smooth(this.throughput, throughput, freshness);
+            this.failureRate *= freshness;
+            this.updated = now;
+        }
+
+        void onFailure(long now) {
+            this.failureRate = smooth(failureRate * getFreshness(now), 1, 1);
+            this.updated = now;
+        }
+
+        double getScore(long now) {
+            double transfer = REFERENCE_SIZE * 1000.0 / (throughput > 0 ? throughput : DEFAULT_THROUGHPUT);
+            double time = latency > 0 ? latency + transfer : DEFAULT_LATENCY + transfer;
+            double measured = time * (1 + FAILURE_PENALTY * failureRate);
+            return PRIOR_SCORE + (measured - PRIOR_SCORE) * getFreshness(now);
+        }
+
+        /**
+         * @return the weight of the measurements, 1 when just measured, halved every {@link #HALF_LIFE}.
+         */
+        private double getFreshness(long now) {
+            if (updated == 0)
+                return 0;
+            return Math.pow(0.5, Math.max(0, now - updated) / (double) HALF_LIFE);
+        }
+
+        /**
+         * The weight of the average shrinks as it ages, so a sample replaces an average of long ago.
+         */
+        private static double smooth(double average, double sample, double freshness) {
+            double weight = (1 - SMOOTHING) * freshness;
+            return average * weight + sample * (1 - weight);
+        }
+    }
+
+    public static final long REFERENCE_SIZE = 1024 * 1024;
+
+    private static final long MIN_TRANSFER_SIZE = 256 * 1024;
+    private static final double DEFAULT_THROUGHPUT = 1024 * 1024;
+    private static final double DEFAULT_LATENCY = 1000;
+    private static final double FAILURE_PENALTY = 4;
+    private static final double SMOOTHING = 0.2;
+    private static final double PRIOR_SCORE = DEFAULT_LATENCY + REFERENCE_SIZE * 1000.0 / DEFAULT_THROUGHPUT;
+    public static final long HALF_LIFE = 30 * 60 * 1000;
+    public static final int EXPLORATION_INTERVAL = 20;
+    private static final long SAVE_INTERVAL = 10_000;
+}
@@ -19,9 +19,9 @@ package org.jackhuang.hmcl.util.io;
 
 import java.io.*;
 import java.net.*;
-import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.jackhuang.hmcl.util.StringUtils.*;
@@ -54,12 +54,40 @@ public final class NetworkUtils {
         return sb.toString();
     }
 
+    private static HttpTransport transport = new DefaultHttpTransport(Math.min(Runtime.getRuntime().availableProcessors() * 4, 64));
+
+    public static HttpTransport getTransport() {
+        return transport;
+    }
+
+    public static void setTransport(HttpTransport transport) {
+        NetworkUtils.transport = Objects.requireNonNull(transport);
+    }
+
+    private static final int DEFAULT_HOST_CONCURRENCY = 6;
+    private static final MirrorScores mirrorScores = new MirrorScores();
+    private static final HostConcurrencyLimiter hostLimiter = new HostConcurrencyLimiter(DEFAULT_HOST_CONCURRENCY, mirrorScores);
+
+    /**
+     * @return the limiter of requests in flight to each host, shared by all download tasks.
+     */
+    public static HostConcurrencyLimiter getHostLimiter() {
+        return hostLimiter;
+    }
+
+    /**
+     * @return the scores of mirrors, measured by requests through {@link #getHostLimiter()}.
+     */
+    public static MirrorScores getMirrorScores() {
+        return mirrorScores;
+    }
+
+    static String getHostKey(URL url) {
+        return url.getHost() + (url.getPort() == -1 ? "" : ":" + url.getPort());
+    }
+
     public static HttpURLConnection createConnection(URL url) throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setUseCaches(false);
-        connection.setConnectTimeout(15000);
-        connection.setReadTimeout(15000);
-        return connection;
+        return transport.createConnection(url);
     }
 
     /**
@@ -91,47 +119,33 @@ public final class NetworkUtils {
     }
 
     /**
-     * This method is a work-around that aims to solve problem when "Location" in stupid server's response is not encoded.
-     * @see <a href="https://github.com/curl/curl/issues/473">Issue with libcurl</a>
-     * @param conn the stupid http connection.
-     * @return manually redirected http connection.
+     * Send the request, following redirects by the transport in use.
+     * @param conn the http connection created by {@link #createConnection(URL)}.
+     * @return the connection whose response is available.
      * @throws IOException if an I/O error occurs.
+     * @see HttpTransport#connect(HttpURLConnection)
      */
     public static HttpURLConnection resolveConnection(HttpURLConnection conn) throws IOException {
-        int redirect = 0;
-        while (true) {
-
-            conn.setUseCaches(false);
-            conn.setConnectTimeout(15000);
-            conn.setReadTimeout(15000);
-            conn.setInstanceFollowRedirects(false);
-            Map<String, List<String>> properties = conn.getRequestProperties();
-            String method = conn.getRequestMethod();
-            int code = conn.getResponseCode();
-            if (code >= 300 && code <= 307 && code != 306 && code != 304) {
-                String newURL = conn.getHeaderField("Location");
-                conn.disconnect();
-
-                if (redirect > 20) {
-                    throw new IOException("Too much redirects");
-                }
-
-                HttpURLConnection redirected = (HttpURLConnection) new URL(conn.getURL(), encodeLocation(newURL)).openConnection();
-                properties.forEach((key, value) -> value.forEach(element -> redirected.addRequestProperty(key, element)));
-                redirected.setRequestMethod(method);
-                conn = redirected;
-                ++redirect;
-            } else {
-                break;
-            }
-        }
-        return conn;
+        return transport.connect(conn);
+    }
+
+    /**
+     * Discard the rest of the response, so that the connection can be reused.
+     * @param conn the http connection returned by {@link #resolveConnection(HttpURLConnection)}.
+     * @see HttpTransport#release(HttpURLConnection)
+     */
+    public static void release(HttpURLConnection conn) {
+        transport.release(conn);
     }
 
     public static String doGet(URL url) throws IOException {
         HttpURLConnection con = createConnection(url);
         con = resolveConnection(con);
-        return IOUtils.readFullyAsString(con.getInputStream());
+        try (InputStream stdout = con.getInputStream()) {
+            return IOUtils.readFullyAsString(stdout);
+        } finally {
+            release(con);
+        }
     }
 
     public static String doPost(URL u, Map<String, String> params) throws IOException {
@@ -172,18 +186,24 @@ public final class NetworkUtils {
                 if (stderr == null) throw e;
                 return IOUtils.readFullyAsString(stderr, UTF_8);
             }
+        } finally {
+            release(con);
         }
     }
 
     public static String detectFileName(URL url) throws IOException {
         HttpURLConnection conn = resolveConnection(createConnection(url));
-        int code = conn.getResponseCode();
-        if (code / 100 == 4)
-            throw new FileNotFoundException();
-        if (code / 100 != 2)
-            throw new IOException(url + ": response code " + conn.getResponseCode());
+        try {
+            int code = conn.getResponseCode();
+            if (code / 100 == 4)
+                throw new FileNotFoundException();
+            if (code / 100 != 2)
+                throw new IOException(url + ": response code " + conn.getResponseCode());
 
-        return detectFileName(conn);
+            return detectFileName(conn);
+        } finally {
+            release(conn);
+        }
     }
 
     public static String detectFileName(HttpURLConnection conn) {
@@ -0,0 +1,108 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.util.io;
+
+import org.jackhuang.hmcl.util.function.ExceptionalRunnable;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+
+import static org.jackhuang.hmcl.util.Logging.LOG;
+
+/**
+ * Saves a frequently changing state at most once per interval.
+ *
+ * A change only marks the state dirty, the first change after the interval has elapsed runs the save itself.
+ * Saves never overlap, and a change made while another thread is saving does not wait for it,
+ * it is left to the next save. The save runs on the thread of the caller, so the caller
+ * should not hold the lock guarding the state, the save takes a snapshot under that lock instead.
+ */
+public final class SaveThrottle {
+
+    private final String name;
+    private final long interval;
+    private final ExceptionalRunnable<? extends IOException> action;
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final ReentrantLock saving = new ReentrantLock();
+    private volatile long lastSaved;
+
+    /**
+     * @param name what is saved, for logging
+     * @param interval the minimum time between two saves in milliseconds
+     * @param action writes the state
+     */
+    public SaveThrottle(String name, long interval, ExceptionalRunnable<? extends IOException> action) {
+        this.name = name;
+        this.interval = interval;
+        this.action = action;
+    }
+
+    /**
+     * Mark the state changed, and save it if the last save is older than the interval and no save is running.
+     */
+    public void changed() {
+        dirty.set(true);
+        if (System.currentTimeMillis() - lastSaved >= interval && saving.tryLock()) {
+            try {
+                if (dirty.getAndSet(false))
+                    run();
+            } finally {
+                saving.unlock();
+            }
+        }
+    }
+
+    /**
+     * Save the state now, waiting for a running save to finish first.
+     */
+    public void save() {
+        saving.lock();
+        try {
+            dirty.set(false);
+            run();
+        } finally {
+            saving.unlock();
+        }
+    }
+
+    /**
+     * Save the state now if it has changed since the last save.
+     */
+    public void flush() {
+        saving.lock();
+        try {
+            if (dirty.getAndSet(false))
+                run();
+        } finally {
+            saving.unlock();
+        }
+    }
+
+    private void run() {
+        lastSaved = System.currentTimeMillis();
+        try {
+            action.run();
+        } catch (IOException e) {
+            // Try again on the next change.
+            dirty.set(true);
+            LOG.log(Level.WARNING, "Unable to save " + name, e);
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.util.platform;
+
+import org.jackhuang.hmcl.util.Log4jLevel;
+import org.jackhuang.hmcl.util.Logging;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The output of a game, kept in a bounded amount of memory.
+ *
+ * Lines are encoded in UTF-8 into segments of fixed size, together with the level each line is tagged with
+ * when added. When the segments take more than the capacity, the oldest segment is dropped, or appended to
+ * a gzip compressed spill file first if there is one. The spill file is rolled over to {@code <name>.1}
+ * once it holds more than the spill limit. Error lines are indexed as well, and kept even after the segments
+ * holding them are dropped, so that crash analysis does not have to scan every line.
+ *
+ * Lines are numbered from 0 in the order they are added, and only the lines from {@link #getFirstLine()}
+ * to {@link #getLineCount()} are in memory.
+ */
+public final class GameLogStore {
+
+    private final long capacity;
+    private final Path spillFile;
+    private final long spillLimit;
+    private final List<Segment> segments = new ArrayList<>();
+    private final Deque<String> errorLines = new ArrayDeque<>();
+    private long size;
+    private long firstLine;
+    private long lineCount;
+    private long droppedErrorLines;
+
+    private OutputStream spill;
+    private long spilledBytes;
+    private boolean closed;
+
+    /**
+     * A store dropping old lines without spilling them.
+     *
+     * @param capacity the maximum number of bytes of lines kept in memory
+     */
+    public GameLogStore(long capacity) {
+        this(capacity, null, 0);
+    }
+
+    /**
+     * @param capacity the maximum number of bytes of lines kept in memory
+     * @param spillFile the file to append dropped lines to, null to drop them
+     * @param spillLimit the number of uncompressed bytes the spill file holds before it is rolled over
+     */
+    public GameLogStore(long capacity, Path spillFile, long spillLimit) {
+        if (capacity < SEGMENT_SIZE)
+            throw new IllegalArgumentException("Capacity must be at least " + SEGMENT_SIZE + " bytes: " + capacity);
+        this.capacity = capacity;
+        this.spillFile = spillFile;
+        this.spillLimit = spillLimit;
+    }
+
+    /**
+     * Add a line of output.
+     *
+     * @param line the line without line separator
+     * @param level the level the line is tagged with, lines of {@link Log4jLevel#isError error} levels are indexed
+     */
+    public synchronized void add(String line, Log4jLevel level) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || !segment.fits(bytes.length)) {
+            segment = new Segment(lineCount, Math.max(SEGMENT_SIZE, bytes.length));
+            segments.add(segment);
+            size += segment.getFootprint();
+        }
+        segment.add(bytes, level);
+        lineCount++;
+
+        if (Log4jLevel.isError(level)) {
+            errorLines.addLast(line);
+            if (errorLines.size() > MAX_ERROR_LINES) {
+                errorLines.removeFirst();
+                droppedErrorLines++;
+            }
+        }
+
+        while (size > capacity && segments.size() > 1)
+            drop();
+    }
+
+    private void drop() {
+        Segment segment = segments.remove(0);
+        size -= segment.getFootprint();
+        firstLine = segments.get(0).firstLine;
+
+        if (spillFile != null && !closed) {
+            try {
+                if (spill != null && spilledBytes >= spillLimit) {
+                    spill.close();
+                    spill = null;
+                    Files.move(spillFile, spillFile.resolveSibling(spillFile.getFileName() + ".1"), StandardCopyOption.REPLACE_EXISTING);
+                }
+                if (spill == null) {
+                    Files.createDirectories(spillFile.toAbsolutePath().getParent());
+                    spill = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile)));
+                    spilledBytes = 0;
+                }
+                for (int i = 0; i < segment.count; i++) {
+                    int start = i == 0 ? 0 : segment.ends[i - 1];
+                    spill.write(segment.data, start, segment.ends[i] - start);
+                    spill.write('\n');
+                    spilledBytes += segment.ends[i] - start + 1;
+                }
+            } catch (IOException e) {
+                Logging.LOG.log(Level.WARNING, "Unable to spill game output to " + spillFile + ", dropping it", e);
+                closeSpill();
+                closed = true;
+            }
+        }
+    }
+
+    /**
+     * @return the number of the oldest line in memory
+     */
+    public synchronized long getFirstLine() {
+        return firstLine;
+    }
+
+    /**
+     * @return the number of lines ever added
+     */
+    public synchronized long getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @return the number of bytes segments in memory take
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @param line the number of the line, from {@link #getFirstLine()} inclusive to {@link #getLineCount()} exclusive
+     * @return the line
+     * @throws IndexOutOfBoundsException if the line is not in memory
+     */
+    public synchronized String getLine(long line) {
+        Segment segment = find(line);
+        int index = (int) (line - segment.firstLine);
+        int start = index == 0 ? 0 : segment.ends[index - 1];
+        return new String(segment.data, start, segment.ends[index] - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param line the number of the line, from {@link #getFirstLine()} inclusive to {@link #getLineCount()} exclusive
+     * @return the level the line was tagged with, maybe null
+     * @throws IndexOutOfBoundsException if the line is not in memory
+     */
+    public synchronized Log4jLevel getLevel(long line) {
+        Segment segment = find(line);
+        byte level = segment.levels[(int) (line - segment.firstLine)];
+        return level < 0 ? null : LEVELS[level];
+    }
+
+    private Segment find(long line) {
+        if (line < firstLine || line >= lineCount)
+            throw new IndexOutOfBoundsException("Line " + line + " is not in [" + firstLine + ", " + lineCount + ")");
+
+        int low = 0, high = segments.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (segments.get(mid).firstLine <= line)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return segments.get(low);
+    }
+
+    /**
+     * A view of the lines in memory, decoding each line only when iterated to.
+     *
+     * The iterator is weakly consistent: it ends at the last line added when it was created, and skips
+     * the lines dropped while iterating.
+     *
+     * @return an unmodifiable view of the lines in memory
+     */
+    public Collection<String> lines() {
+        return new AbstractCollection<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new Iterator<String>() {
+                    private final long end = getLineCount();
+                    private long next = getFirstLine();
+
+                    @Override
+                    public boolean hasNext() {
+                        synchronized (GameLogStore.this) {
+                            next = Math.max(next, firstLine);
+                            return next < end;
+                        }
+                    }
+
+                    @Override
+                    public String next() {
+                        synchronized (GameLogStore.this) {
+                            if (!hasNext())
+                                throw new NoSuchElementException();
+                            return getLine(next++);
+                        }
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                synchronized (GameLogStore.this) {
+                    return (int) (lineCount - firstLine);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return a copy of the lines in memory, decoding all of them
+     * @see #lines()
+     */
+    public synchronized List<String> getLines() {
+        List<String> lines = new ArrayList<>((int) (lineCount - firstLine));
+        for (long line = firstLine; line < lineCount; line++)
+            lines.add(getLine(line));
+        return lines;
+    }
+
+    /**
+     * @return a copy of the latest {@link #MAX_ERROR_LINES} lines tagged with error levels,
+     * including those no longer in memory
+     */
+    public synchronized List<String> getErrorLines() {
+        return new ArrayList<>(errorLines);
+    }
+
+    /**
+     * Finish the spill file, lines added later are dropped instead of spilled.
+     */
+    public synchronized void close() {
+        if (droppedErrorLines > 0)
+            Logging.LOG.info("Only the latest " + MAX_ERROR_LINES + " of " + (droppedErrorLines + MAX_ERROR_LINES) + " error lines of game output are kept");
+        closeSpill();
+        closed = true;
+    }
+
+    private void closeSpill() {
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                Logging.LOG.log(Level.WARNING, "Unable to close spill file " + spillFile, e);
+            }
+            spill = null;
+        }
+    }
+
+    public static final int SEGMENT_SIZE = 64 * 1024;
+    public static final int MAX_ERROR_LINES = 1024;
+
+    /**
+     * Lines take at least this many bytes of a segment, which bounds the metadata of segments full of empty lines.
+     */
+    private static final int MIN_LINE_SIZE = 16;
+
+    private static final Log4jLevel[] LEVELS = Log4jLevel.values();
+
+    private static final class Segment {
+        private final long firstLine;
+        private final byte[] data;
+        private final int[] ends;
+        private final byte[] levels;
+        private int length;
+        private int count;
+
+        Segment(long firstLine, int size) {
+            this.firstLine = firstLine;
+            this.data = new byte[size];
+            this.ends = new int[size / MIN_LINE_SIZE + 1];
+            this.levels = new byte[ends.length];
+        }
+
+        boolean fits(int bytes) {
+            return count < ends.length && length + bytes <= data.length;
+        }
+
+        /**
+         * @return the number of bytes the segment takes, including the metadata of lines
+         */
+        int getFootprint() {
+            return data.length + ends.length * (Integer.BYTES + 1);
+        }
+
+        void add(byte[] bytes, Log4jLevel level) {
+            System.arraycopy(bytes, 0, data, length, bytes.length);
+            length += bytes.length;
+            ends[count] = length;
+            levels[count] = level == null ? -1 : (byte) level.ordinal();
+            count++;
+        }
+    }
+}
@@ -17,8 +17,14 @@
  */
 package org.jackhuang.hmcl.util.platform;
 
+import org.jackhuang.hmcl.util.Log4jLevel;
+import org.jackhuang.hmcl.util.StringUtils;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The managed process.
@@ -32,7 +38,8 @@ public class ManagedProcess {
     private final Process process;
     private final List<String> commands;
     private final Map<String, Object> properties = new HashMap<>();
-    private final Queue<String> lines = new ConcurrentLinkedQueue<>();
+    private final GameLogStore log = createLogStore();
+    private final Deque<String> untaggedErrorLines = new ArrayDeque<>();
     private final List<Thread> relatedThreads = new LinkedList<>();
 
     /**
@@ -72,17 +79,68 @@ public class ManagedProcess {
     }
 
     /**
-     * The (unmodifiable) standard output/error lines.
+     * The standard output/error lines, the latest ones only if the output is larger than the log store holds.
      * If you want to add lines, use {@link #addLine}
      *
+     * The collection is a view of the log store, lines are decoded as they are iterated over.
+     *
      * @see #addLine
+     * @see #getLog()
+     * @see GameLogStore#lines()
      */
     public Collection<String> getLines() {
-        return Collections.unmodifiableCollection(lines);
+        return log.lines();
+    }
+
+    /**
+     * The store of standard output/error lines.
+     *
+     * Its capacity is 16 MiB unless set by {@code -Dhmcl.game_log.capacity=<MiB>}. Lines dropped are spilled
+     * to a file in the directory given by {@code -Dhmcl.game_log.spill=<directory>} if set.
+     */
+    public GameLogStore getLog() {
+        return log;
     }
 
     public void addLine(String line) {
-        lines.add(line);
+        addLine(line, Log4jLevel.guessLevel(line));
+    }
+
+    /**
+     * @param line the line of output
+     * @param level the level of the line, which has been guessed or is known from the stream
+     */
+    public void addLine(String line, Log4jLevel level) {
+        log.add(line, level);
+    }
+
+    /**
+     * Add a line of standard error, which is tagged with the level guessed like standard output.
+     * Lines without a level are kept as well, since JVM failures are printed to standard error without one.
+     *
+     * @param line the line of standard error
+     * @see #getUntaggedErrorLines()
+     */
+    public void addErrorLine(String line) {
+        Log4jLevel level = Log4jLevel.guessLevel(line);
+        log.add(line, level);
+        if (level == null) {
+            synchronized (untaggedErrorLines) {
+                untaggedErrorLines.addLast(line);
+                if (untaggedErrorLines.size() > GameLogStore.MAX_ERROR_LINES)
+                    untaggedErrorLines.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the latest lines of standard error without a level
+     * @see #addErrorLine(String)
+     */
+    public List<String> getUntaggedErrorLines() {
+        synchronized (untaggedErrorLines) {
+            return new ArrayList<>(untaggedErrorLines);
+        }
     }
 
     /**
@@ -127,4 +185,25 @@ public class ManagedProcess {
         return "ManagedProcess[commands=" + commands + ", isRunning=" + isRunning() + "]";
     }
 
+    private static GameLogStore createLogStore() {
+        long capacity = DEFAULT_LOG_CAPACITY;
+        try {
+            capacity = Long.parseLong(System.getProperty("hmcl.game_log.capacity", "")) * 1024 * 1024;
+        } catch (NumberFormatException ignored) {
+        }
+        capacity = Math.max(capacity, GameLogStore.SEGMENT_SIZE);
+
+        String spill = System.getProperty("hmcl.game_log.spill");
+        if (StringUtils.isBlank(spill))
+            return new GameLogStore(capacity);
+
+        String name = "game-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + "-" + SPILL_COUNTER.incrementAndGet() + ".log.gz";
+        Path spillFile = Paths.get(spill).resolve(name);
+        return new GameLogStore(capacity, spillFile, SPILL_LIMIT);
+    }
+
+    private static final long DEFAULT_LOG_CAPACITY = 16 * 1024 * 1024;
+    private static final long SPILL_LIMIT = 256 * 1024 * 1024;
+    private static final AtomicInteger SPILL_COUNTER = new AtomicInteger();
+
 }
@@ -0,0 +1,63 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.download;
+
+import org.jackhuang.hmcl.game.Artifact;
+import org.jackhuang.hmcl.game.Library;
+import org.jackhuang.hmcl.util.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+
+public class DefaultCacheRepositoryTest {
+
+    @Test
+    public void testLegacyIndex() throws Exception {
+        Path dir = Files.createTempDirectory("hmcl-cache");
+        try {
+            Library library = new Library(Artifact.fromDescriptor("org.example:lib:1.0"));
+            Path legacy = dir.resolve("cache").resolve("index.json");
+            Files.createDirectories(legacy.getParent());
+            FileUtils.writeText(legacy.toFile(), index("a"));
+
+            DefaultCacheRepository repository = new DefaultCacheRepository();
+            repository.changeDirectory(dir);
+            Assert.assertTrue("The index of older launchers is deleted", Files.isRegularFile(legacy));
+            Assert.assertEquals(Collections.singletonList("a"), repository.getLibraryHashes(library));
+
+            // An older launcher rewrites index.json after our last write.
+            FileUtils.writeText(legacy.toFile(), index("b"));
+            Path log = dir.resolve("cache").resolve("index.log");
+            Files.setLastModifiedTime(legacy, FileTime.fromMillis(Files.getLastModifiedTime(log).toMillis() + 2000));
+
+            DefaultCacheRepository reloaded = new DefaultCacheRepository();
+            reloaded.changeDirectory(dir);
+            Assert.assertTrue(reloaded.getLibraryHashes(library).contains("b"));
+        } finally {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+    }
+
+    private static String index(String hash) {
+        return "{\"libraries\":[{\"name\":\"org.example:lib:1.0\",\"hash\":\"" + hash + "\",\"type\":\"jar\"}]}";
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.download;
+
+import org.jackhuang.hmcl.game.DefaultGameRepository;
+import org.jackhuang.hmcl.game.Version;
+import org.jackhuang.hmcl.task.Task;
+import org.jackhuang.hmcl.util.function.ExceptionalFunction;
+import org.jackhuang.hmcl.util.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class InstallJournalTest {
+
+    /**
+     * Install a version of two steps, failing the second step once, and install it again.
+     */
+    @Test
+    public void testResume() throws Exception {
+        Path dir = Files.createTempDirectory("hmcl-journal");
+        try {
+            DefaultGameRepository repository = new DefaultGameRepository(dir.toFile());
+            File jar = new File(repository.getVersionRoot("test"), "test.jar");
+            AtomicInteger games = new AtomicInteger();
+            AtomicInteger loaders = new AtomicInteger();
+
+            Assert.assertFalse("Failed step must not be recorded", install(repository, games, loaders, true));
+            Assert.assertEquals(1, games.get());
+            Assert.assertEquals(1, loaders.get());
+            Assert.assertTrue(new InstallJournal(repository, "test").getFile().isFile());
+
+            Assert.assertTrue(install(repository, games, loaders, false));
+            Assert.assertEquals("Completed step is run again", 1, games.get());
+            Assert.assertEquals(2, loaders.get());
+
+            // Not committed, so that it is resumed again, from the game since its output has changed.
+            Assert.assertTrue(install(repository, games, loaders, false));
+            Assert.assertEquals(1, games.get());
+            Assert.assertEquals(2, loaders.get());
+            Files.write(jar.toPath(), "modified".getBytes(StandardCharsets.UTF_8));
+            Assert.assertTrue(install(repository, games, loaders, false));
+            Assert.assertEquals("Modified output is not detected", 2, games.get());
+            Assert.assertEquals("Step after a step run again is skipped", 3, loaders.get());
+
+            InstallJournal journal = new InstallJournal(repository, "test");
+            Assert.assertTrue(journal.hasProgress());
+            journal.commit();
+            Assert.assertFalse(journal.getFile().exists());
+        } finally {
+            FileUtils.deleteDirectoryQuietly(dir.toFile());
+        }
+    }
+
+    /**
+     * A version root left by a failed installation is deleted by refreshing only once it is abandoned.
+     */
+    @Test
+    public void testAbandoned() throws Exception {
+        Path dir = Files.createTempDirectory("hmcl-journal");
+        try {
+            DefaultGameRepository repository = new DefaultGameRepository(dir.toFile());
+            Assert.assertFalse(install(repository, new AtomicInteger(), new AtomicInteger(), true));
+            File root = repository.getVersionRoot("test");
+            File journal = new InstallJournal(repository, "test").getFile();
+
+            repository.refreshVersions();
+            Assert.assertTrue("Recent installation must be kept for resuming", journal.isFile());
+
+            Assert.assertTrue(journal.setLastModified(System.currentTimeMillis() - InstallJournal.ABANDONED_AGE - 1000));
+            Assert.assertTrue(InstallJournal.isAbandoned(root));
+            repository.refreshVersions();
+            Assert.assertFalse("Abandoned installation is not cleaned up", root.exists());
+        } finally {
+            FileUtils.deleteDirectoryQuietly(dir.toFile());
+        }
+    }
+
+    private static boolean install(DefaultGameRepository repository, AtomicInteger games, AtomicInteger loaders, boolean fail) throws Exception {
+        InstallJournal journal = new InstallJournal(repository, "test");
+        ExceptionalFunction<Version, Task<Version>, ?> game = version -> Task.supplyAsync(() -> {
+            games.incrementAndGet();
+            File jar = new File(repository.getVersionRoot("test"), "test.jar");
+            FileUtils.writeText(jar, "game");
+            return version.addPatch(new Version("game"));
+        });
+        ExceptionalFunction<Version, Task<Version>, ?> loader = version -> Task.supplyAsync(() -> {
+            loaders.incrementAndGet();
+            if (fail)
+                throw new IllegalStateException("Cancelled");
+            return version.addPatch(new Version("loader"));
+        });
+
+        return Task.supplyAsync(() -> new Version("test"))
+                .thenComposeAsync(journal.step("game:1.14.4", game))
+                .thenComposeAsync(journal.step("loader:1.0", loader))
+                .test();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.download.game;
+
+import org.jackhuang.hmcl.util.DigestUtils;
+import org.jackhuang.hmcl.util.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Pack200;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.jackhuang.hmcl.util.Hex.encodeHex;
+
+public class LibraryDownloadTaskTest {
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("hmcl-library-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    /**
+     * Verifying a jar by its checksums.sha1 should allocate far less than the size of the jar.
+     */
+    @Test
+    public void testValidateJarAllocation() throws IOException {
+        Assume.assumeTrue("Thread allocation is not measurable", isAllocationMeasurable());
+
+        File jar = directory.resolve("large.jar").toFile();
+        List<String> checksums = Collections.singletonList(sha1(writeJar(jar, 16, 2 * 1024 * 1024, false, true)));
+
+        // Warm up class loading and JIT before measuring.
+        Assert.assertTrue(LibraryDownloadTask.checksumValid(jar, checksums));
+        jar.setLastModified(jar.lastModified() + 1000); // invalidate the digest cache
+
+        long before = getAllocatedBytes();
+        boolean valid = LibraryDownloadTask.checksumValid(jar, checksums);
+        long allocated = getAllocatedBytes() - before;
+
+        Assert.assertTrue(valid);
+        Assert.assertTrue("Verifying a jar of " + jar.length() + " bytes allocated " + allocated + " bytes",
+                allocated < jar.length() / 8);
+    }
+
+    @Test
+    public void testValidateJarTampered() throws IOException {
+        File jar = directory.resolve("tampered.jar").toFile();
+        List<String> checksums = Collections.singletonList(sha1(writeJar(jar, 4, 1024, true, true)));
+        Assert.assertFalse(LibraryDownloadTask.checksumValid(jar, checksums));
+    }
+
+    @Test
+    public void testUnpackLibrary() throws IOException {
+        Assume.assumeTrue("Pack200 has been removed since Java 14", isPack200Available());
+        File jar = directory.resolve("library.jar").toFile();
+        // checksums.sha1 is appended to the pack instead of being packed.
+        byte[] checksumsFile = writeJar(jar, 8, 64 * 1024, false, false);
+
+        ByteArrayOutputStream pack = new ByteArrayOutputStream();
+        try (JarFile jarFile = new JarFile(jar)) {
+            Pack200.newPacker().pack(jarFile, pack);
+        }
+
+        File xzFile = directory.resolve("library.jar.pack.xz").toFile();
+        try (OutputStream out = new XZOutputStream(Files.newOutputStream(xzFile.toPath()), new LZMA2Options())) {
+            pack.writeTo(out);
+            out.write(checksumsFile);
+            int len = checksumsFile.length;
+            out.write(new byte[] { (byte) len, (byte) (len >> 8), (byte) (len >> 16), (byte) (len >> 24) });
+            out.write("SIGN".getBytes(UTF_8));
+        }
+
+        File unpacked = directory.resolve("unpacked.jar").toFile();
+        LibraryDownloadTask.unpackLibrary(unpacked, xzFile);
+        Assert.assertTrue(LibraryDownloadTask.checksumValid(unpacked, Collections.singletonList(sha1(checksumsFile))));
+    }
+
+    /**
+     * Write a jar of random entries, followed by checksums.sha1 if {@code includeChecksums}.
+     *
+     * @return the content of checksums.sha1
+     */
+    private static byte[] writeJar(File file, int entries, int entrySize, boolean tamper, boolean includeChecksums) throws IOException {
+        Random random = new Random(entries);
+        StringBuilder checksums = new StringBuilder();
+        try (JarOutputStream jar = new JarOutputStream(Files.newOutputStream(file.toPath()))) {
+            byte[] data = new byte[entrySize];
+            for (int i = 0; i < entries; i++) {
+                random.nextBytes(data);
+                String name = "data/" + i + ".bin";
+                checksums.append(encodeHex(DigestUtils.digest("SHA-1", data))).append(' ').append(name).append('\n');
+                if (tamper && i == entries - 1)
+                    data[0]++;
+                jar.putNextEntry(new JarEntry(name));
+                jar.write(data);
+                jar.closeEntry();
+            }
+
+            byte[] checksumsFile = checksums.toString().getBytes(UTF_8);
+            if (includeChecksums) {
+                jar.putNextEntry(new JarEntry("checksums.sha1"));
+                jar.write(checksumsFile);
+                jar.closeEntry();
+            }
+            return checksumsFile;
+        }
+    }
+
+    private static String sha1(byte[] data) {
+        return encodeHex(DigestUtils.digest("SHA-1", data));
+    }
+
+    private static boolean isAllocationMeasurable() {
+        return ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).isThreadAllocatedMemorySupported();
+    }
+
+    private static long getAllocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static boolean isPack200Available() {
+        try {
+            Class.forName("java.util.jar.Pack200");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.launch;
+
+import org.jackhuang.hmcl.game.DefaultGameRepository;
+import org.jackhuang.hmcl.game.Version;
+import org.jackhuang.hmcl.util.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class LaunchPlanTest {
+
+    @Test
+    public void testReuse() throws Exception {
+        Path dir = Files.createTempDirectory("hmcl-plan");
+        try {
+            DefaultGameRepository repository = new DefaultGameRepository(dir.toFile());
+            File json = repository.getVersionJson("test");
+            FileUtils.writeText(json, versionJson("Main"));
+            repository.refreshVersions();
+            Version version = repository.getResolvedVersion("test");
+            File a = new File(dir.toFile(), "libraries/org/example/a/1.0/a-1.0.jar");
+            File b = new File(dir.toFile(), "libraries/org/example/b/1.0/b-1.0.jar");
+            File jar = repository.getVersionJar(version);
+            File index = repository.getIndexFile("test", "1.14");
+            FileUtils.writeText(a, "a");
+            FileUtils.writeText(jar, "game");
+            FileUtils.writeText(index, "{\"objects\":{}}");
+
+            LaunchPlan plan = LaunchPlan.of(repository, version);
+            Assert.assertEquals(Arrays.asList(a.getAbsolutePath(), jar.getAbsolutePath()), plan.getClasspath());
+            Assert.assertEquals(repository.getAssetDirectory("test", "1.14").getAbsoluteFile(), plan.getAssetDirectory());
+            Assert.assertTrue(Files.isRegularFile(LaunchPlan.getFile(repository, version)));
+
+            // Libraries present are not checked again.
+            Assert.assertTrue(a.delete());
+            plan = LaunchPlan.of(repository, version);
+            Assert.assertEquals(Arrays.asList(a.getAbsolutePath(), jar.getAbsolutePath()), plan.getClasspath());
+
+            // But missing ones are.
+            FileUtils.writeText(b, "b");
+            plan = LaunchPlan.of(repository, version);
+            Assert.assertEquals(Arrays.asList(b.getAbsolutePath(), jar.getAbsolutePath()), plan.getClasspath());
+
+            FileUtils.writeText(index, "{\"virtual\":true,\"objects\":{}}");
+            plan = LaunchPlan.of(repository, version);
+            Assert.assertNull("Virtual assets must be resolved at every launch", plan.getAssetDirectory());
+
+            String fingerprint = LaunchPlan.fingerprint(repository, version);
+            FileUtils.writeText(json, versionJson("Other"));
+            repository.refreshVersions();
+            Assert.assertNotEquals(fingerprint, LaunchPlan.fingerprint(repository, repository.getResolvedVersion("test")));
+        } finally {
+            FileUtils.deleteDirectoryQuietly(dir.toFile());
+        }
+    }
+
+    /**
+     * A change of a version inherited from makes the plan again.
+     */
+    @Test
+    public void testInheritedVersionChanged() throws Exception {
+        Path dir = Files.createTempDirectory("hmcl-plan");
+        try {
+            DefaultGameRepository repository = new DefaultGameRepository(dir.toFile());
+            FileUtils.writeText(repository.getVersionJson("test"), versionJson("Main"));
+            FileUtils.writeText(repository.getVersionJson("modded"), "{\"id\":\"modded\",\"inheritsFrom\":\"test\"}");
+            repository.refreshVersions();
+            String fingerprint = LaunchPlan.fingerprint(repository, repository.getResolvedVersion("modded"));
+
+            FileUtils.writeText(repository.getVersionJson("test"), versionJson("Other"));
+            repository.refreshVersions();
+            Assert.assertNotEquals(fingerprint, LaunchPlan.fingerprint(repository, repository.getResolvedVersion("modded")));
+        } finally {
+            FileUtils.deleteDirectoryQuietly(dir.toFile());
+        }
+    }
+
+    private static String versionJson(String mainClass) {
+        return "{\"id\":\"test\",\"mainClass\":\"" + mainClass + "\",\"assets\":\"1.14\","
+                + "\"libraries\":[{\"name\":\"org.example:a:1.0\"},{\"name\":\"org.example:b:1.0\"}]}";
+    }
+}
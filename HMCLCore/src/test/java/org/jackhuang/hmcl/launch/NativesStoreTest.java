@@ -0,0 +1,115 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.launch;
+
+import org.jackhuang.hmcl.game.ExtractRules;
+import org.jackhuang.hmcl.util.Pair;
+import org.jackhuang.hmcl.util.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.jackhuang.hmcl.util.Pair.pair;
+
+public class NativesStoreTest {
+
+    @Test
+    public void testInstall() throws Exception {
+        Path dir = Files.createTempDirectory("hmcl-natives");
+        try {
+            NativesStore store = new NativesStore(dir.resolve("store"));
+            ExtractRules rules = new ExtractRules(Collections.singletonList("META-INF/"));
+            Path lwjgl = createJar(dir.resolve("lwjgl.jar"), "liblwjgl.so", "META-INF/MANIFEST.MF", "liblwjgl.so.sha1");
+            Path openal = createJar(dir.resolve("openal.jar"), "libopenal.so", "liblwjgl.so");
+            Path natives = dir.resolve("versions/test/natives");
+
+            store.install(Arrays.asList(pair(lwjgl, rules), pair(openal, rules)), natives);
+            Assert.assertEquals(Arrays.asList(NativesStore.MANIFEST_FILE_NAME, "liblwjgl.so", "libopenal.so"), list(natives));
+            Assert.assertEquals("The first library provides a file", "lwjgl.jar:liblwjgl.so", read(natives.resolve("liblwjgl.so")));
+            if (Files.getFileStore(natives).supportsFileAttributeView(PosixFileAttributeView.class))
+                Assert.assertFalse("Shared entries must be read-only",
+                        Files.getPosixFilePermissions(natives.resolve("liblwjgl.so")).contains(PosixFilePermission.OWNER_WRITE));
+
+            // Unchanged, nothing is linked again.
+            Files.write(natives.resolve("extra"), new byte[0]);
+            store.install(Arrays.asList(pair(lwjgl, rules), pair(openal, rules)), natives);
+            Assert.assertTrue(Files.exists(natives.resolve("extra")));
+
+            // Missing files are linked again.
+            Files.delete(natives.resolve("libopenal.so"));
+            store.install(Arrays.asList(pair(lwjgl, rules), pair(openal, rules)), natives);
+            Assert.assertEquals(Arrays.asList(NativesStore.MANIFEST_FILE_NAME, "liblwjgl.so", "libopenal.so"), list(natives));
+
+            // Another version shares the entries.
+            Path other = dir.resolve("versions/other/natives");
+            store.install(Collections.singletonList(pair(openal, rules)), other);
+            Assert.assertEquals("openal.jar:liblwjgl.so", read(other.resolve("liblwjgl.so")));
+            try (Stream<Path> entries = Files.list(dir.resolve("store")).flatMap(NativesStoreTest::listQuietly)) {
+                Assert.assertEquals(2, entries.count());
+            }
+
+            // Libraries changed.
+            store.install(Collections.singletonList(pair(lwjgl, ExtractRules.EMPTY)), natives);
+            Assert.assertEquals(Arrays.asList("META-INF", NativesStore.MANIFEST_FILE_NAME, "liblwjgl.so"), list(natives));
+        } finally {
+            FileUtils.deleteDirectoryQuietly(dir.toFile());
+        }
+    }
+
+    private static Path createJar(Path jar, String... entries) throws IOException {
+        try (ZipOutputStream output = new ZipOutputStream(Files.newOutputStream(jar))) {
+            for (String entry : entries) {
+                output.putNextEntry(new ZipEntry(entry));
+                output.write((jar.getFileName() + ":" + entry).getBytes(StandardCharsets.UTF_8));
+                output.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    private static List<String> list(Path directory) throws IOException {
+        try (Stream<Path> stream = Files.list(directory)) {
+            return stream.map(path -> path.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static Stream<Path> listQuietly(Path directory) {
+        try {
+            return list(directory).stream().map(directory::resolve);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
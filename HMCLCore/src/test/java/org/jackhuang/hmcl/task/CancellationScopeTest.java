@@ -0,0 +1,237 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.task;
+
+import org.jackhuang.hmcl.util.CacheRepository;
+import org.jackhuang.hmcl.util.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class CancellationScopeTest {
+
+    /**
+     * Cancel downloads waiting for a server which never responds, which would wait out
+     * the 15s read timeout without the cancellation scope disconnecting them.
+     */
+    @Test(timeout = 30000)
+    public void testAbortWaitingForResponse() throws Exception {
+        testBoundedAbort(false);
+    }
+
+    /**
+     * Cancel downloads of a server which stops sending the body halfway.
+     * Only virtual threads can be interrupted out of reading a socket.
+     */
+    @Test(timeout = 30000)
+    public void testAbortReadingBody() throws Exception {
+        Assume.assumeTrue("Reading sockets is not interruptible on platform threads", Schedulers.isVirtualThreadsEnabled());
+        testBoundedAbort(true);
+    }
+
+    /**
+     * The interruption on cancellation ends with the blocked read, so that a file channel written afterwards
+     * is not closed by it, and later reads fail.
+     */
+    @Test(timeout = 10000)
+    public void testInterruptScopedToAction() throws Exception {
+        Path file = Files.createTempFile("hmcl-cancel", ".bin");
+        CountDownLatch blocked = new CountDownLatch(1);
+        AtomicReference<String> result = new AtomicReference<>();
+        try {
+            Task<?> task = new Task<Void>() {
+                @Override
+                public void execute() throws Exception {
+                    // A piped stream nobody writes to blocks its reader, and fails the read on interruption.
+                    PipedOutputStream pipe = new PipedOutputStream();
+                    try (InputStream input = interruptOnCancel(new PipedInputStream(pipe))) {
+                        try {
+                            blocked.countDown();
+                            input.read();
+                            result.set("not interrupted");
+                            return;
+                        } catch (InterruptedIOException ignored) {
+                        }
+
+                        try {
+                            input.read();
+                            result.set("read after cancellation");
+                            return;
+                        } catch (InterruptedIOException ignored) {
+                        }
+                    }
+
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                        channel.write(ByteBuffer.wrap(new byte[16]));
+                        result.set(isCancelled() ? "written" : "not cancelled");
+                    } catch (IOException e) {
+                        result.set(e.toString());
+                    }
+                }
+            };
+            TaskExecutor executor = task.cancellableExecutor();
+            executor.start();
+            Assert.assertTrue(blocked.await(5, TimeUnit.SECONDS));
+            executor.cancel();
+            while (result.get() == null)
+                Thread.sleep(10);
+            Assert.assertEquals("written", result.get());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private void testBoundedAbort(boolean sendBody) throws Exception {
+        int downloads = 4;
+        StalledServer server = new StalledServer(downloads, sendBody);
+        Path dir = Files.createTempDirectory("hmcl-cancel");
+        Path tempDirectory = Paths.get(System.getProperty("java.io.tmpdir"));
+        Set<Path> tempFiles = listTempFiles(tempDirectory);
+        try {
+            CacheRepository repository = new CacheRepository();
+            repository.changeDirectory(dir.resolve("cache"));
+            List<Task<?>> tasks = new ArrayList<>();
+            for (int i = 0; i < downloads; i++)
+                tasks.add(new FileDownloadTask(new URL("http://127.0.0.1:" + server.socket.getLocalPort() + "/" + i), dir.resolve("files/" + i + ".jar").toFile())
+                        .setCacheRepository(repository));
+            TaskExecutor executor = Task.allOf(tasks).cancellableExecutor();
+            executor.start();
+
+            Assert.assertTrue("Requests are not sent: " + executor.getException(), server.stalled.await(10, TimeUnit.SECONDS));
+            Thread.sleep(200); // let the requests block
+
+            long start = System.nanoTime();
+            executor.cancel();
+            Assert.assertTrue("Connections are not closed in time", server.closed.await(ABORT_BOUND, TimeUnit.MILLISECONDS));
+            System.out.println("Aborted " + downloads + " downloads in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+
+            Thread.sleep(100); // let the tasks unwind
+            Path files = dir.resolve("files");
+            if (Files.exists(files)) {
+                try (Stream<Path> list = Files.list(files)) {
+                    Assert.assertEquals("Partial files are left", 0, list.count());
+                }
+            }
+            Set<Path> leftTempFiles = listTempFiles(tempDirectory);
+            leftTempFiles.removeAll(tempFiles);
+            Assert.assertTrue("Temporary files are left: " + leftTempFiles, leftTempFiles.isEmpty());
+        } finally {
+            server.close();
+            FileUtils.deleteDirectoryQuietly(dir.toFile());
+        }
+    }
+
+    private static Set<Path> listTempFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".tmp")).collect(Collectors.toSet());
+        }
+    }
+
+    /**
+     * Accepts requests and never finishes responding, counting connections closed by the client.
+     */
+    private static final class StalledServer {
+        final ServerSocket socket;
+        final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+        final CountDownLatch stalled;
+        final CountDownLatch closed;
+
+        StalledServer(int requests, boolean sendBody) throws IOException {
+            socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            stalled = new CountDownLatch(requests);
+            closed = new CountDownLatch(requests);
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (!socket.isClosed()) {
+                        Socket client = socket.accept();
+                        clients.add(client);
+                        Thread handler = new Thread(() -> handle(client, sendBody));
+                        handler.setDaemon(true);
+                        handler.start();
+                    }
+                } catch (IOException ignored) {
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        private void handle(Socket client, boolean sendBody) {
+            try {
+                InputStream input = client.getInputStream();
+                // Skip the request headers.
+                int matched = 0;
+                while (matched < 4) {
+                    int b = input.read();
+                    if (b == -1)
+                        return;
+                    matched = (b == "\r\n\r\n".charAt(matched)) ? matched + 1 : (b == '\r' ? 1 : 0);
+                }
+
+                if (sendBody) {
+                    OutputStream output = client.getOutputStream();
+                    output.write(("HTTP/1.1 200 OK\r\nContent-Length: " + BODY_SIZE + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                    output.write(new byte[BODY_SIZE / 8]);
+                    output.flush();
+                }
+                stalled.countDown();
+
+                while (input.read() != -1) {
+                }
+            } catch (IOException ignored) {
+            }
+            closed.countDown();
+        }
+
+        void close() throws IOException {
+            socket.close();
+            for (Socket client : clients)
+                client.close();
+        }
+    }
+
+    private static final int BODY_SIZE = 512 * 1024;
+    private static final long ABORT_BOUND = 2000;
+}
@@ -0,0 +1,249 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.task;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jackhuang.hmcl.util.CacheRepository;
+import org.jackhuang.hmcl.util.DigestUtils;
+import org.jackhuang.hmcl.util.Hex;
+import org.jackhuang.hmcl.util.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FileDownloadTaskTest {
+
+    /**
+     * A download failing the integrity check must neither replace the existing file
+     * nor be kept for resuming, whether it is resumable or not.
+     */
+    @Test(timeout = 60000)
+    public void testCorruptedDownloadKeepsTarget() throws Exception {
+        byte[] small = new byte[1024];
+        byte[] large = new byte[(int) FileDownloadTask.RESUMABLE_DOWNLOAD_THRESHOLD * 2];
+        Arrays.fill(small, (byte) 'x');
+        Arrays.fill(large, (byte) 'y');
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/small", exchange -> send(exchange, small));
+        server.createContext("/large", exchange -> send(exchange, large));
+        server.start();
+        Path dir = Files.createTempDirectory("hmcl-download");
+        try {
+            CacheRepository repository = new CacheRepository();
+            repository.changeDirectory(dir.resolve("cache"));
+            byte[] good = "good".getBytes(StandardCharsets.UTF_8);
+            String checksum = Hex.encodeHex(DigestUtils.digest("SHA-1", good));
+
+            for (String name : new String[]{"small", "large"}) {
+                Path target = dir.resolve(name + ".jar");
+                Files.write(target, good);
+                FileDownloadTask task = new FileDownloadTask(new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/" + name),
+                        target.toFile(), new FileDownloadTask.IntegrityCheck("SHA-1", checksum), 1);
+                task.setCacheRepository(repository).setCaching(false);
+
+                Assert.assertFalse(task.test());
+                Assert.assertArrayEquals("Corrupted " + name + " download replaced the target", good, Files.readAllBytes(target));
+                Assert.assertFalse(Files.exists(DownloadJournal.getPartFile(target)));
+                Assert.assertFalse(Files.exists(DownloadJournal.getJournalFile(target)));
+            }
+        } finally {
+            server.stop(0);
+            FileUtils.deleteDirectoryQuietly(dir.toFile());
+        }
+    }
+
+    /**
+     * Mirrors have entity tags of their own, ranges requested from a mirror must not be guarded by the tag of another.
+     */
+    @Test(timeout = 60000)
+    public void testSegmentsFromMirrorsWithOwnTags() throws Exception {
+        testSegmented(new Mirror("\"a\"", Mirror.Mode.NORMAL), new Mirror("\"b\"", Mirror.Mode.NORMAL));
+    }
+
+    /**
+     * Segments failing on one mirror are finished by the connections to the other one, without another attempt.
+     */
+    @Test(timeout = 60000)
+    public void testSegmentsFromFailingMirror() throws Exception {
+        testSegmented(new Mirror("\"a\"", Mirror.Mode.NORMAL), new Mirror("\"a\"", Mirror.Mode.BREAK_RANGES));
+    }
+
+    /**
+     * A mirror answering ranges with the whole file is left alone.
+     */
+    @Test(timeout = 60000)
+    public void testSegmentsFromMirrorIgnoringRanges() throws Exception {
+        testSegmented(new Mirror("\"a\"", Mirror.Mode.NORMAL), new Mirror("\"a\"", Mirror.Mode.IGNORE_RANGES));
+    }
+
+    /**
+     * A download left by a mirror which has gone down is resumed from another one, whose entity tag differs.
+     */
+    @Test(timeout = 60000)
+    public void testResumeFromAnotherMirror() throws Exception {
+        Mirror gone = new Mirror("\"a\"", Mirror.Mode.NORMAL);
+        Mirror other = new Mirror("\"b\"", Mirror.Mode.NORMAL);
+        Path dir = Files.createTempDirectory("hmcl-download");
+        try {
+            CacheRepository repository = new CacheRepository();
+            repository.changeDirectory(dir.resolve("cache"));
+            Path target = dir.resolve("resumed.jar");
+
+            // Leave half of the file downloaded from the mirror about to go down.
+            int half = Mirror.BODY.length / 2;
+            HttpURLConnection con = (HttpURLConnection) gone.getURL().openConnection();
+            Assert.assertEquals(200, con.getResponseCode());
+            DownloadJournal journal = DownloadJournal.create(target, gone.getURL(), con, Mirror.BODY.length, 1, true);
+            con.disconnect();
+            byte[] part = new byte[Mirror.BODY.length];
+            System.arraycopy(Mirror.BODY, 0, part, 0, half);
+            Files.write(DownloadJournal.getPartFile(target), part);
+            journal.getSegments().get(0).advance(half);
+            journal.save();
+            gone.server.stop(0);
+
+            FileDownloadTask task = new FileDownloadTask(Arrays.asList(gone.getURL(), other.getURL()), target.toFile(),
+                    new FileDownloadTask.IntegrityCheck("SHA-1", Hex.encodeHex(DigestUtils.digest("SHA-1", Mirror.BODY))), 1);
+            task.setCacheRepository(repository).setCaching(false);
+
+            Assert.assertTrue(task.test());
+            Assert.assertArrayEquals(Mirror.BODY, Files.readAllBytes(target));
+            Assert.assertEquals("The partial download is not resumed", Collections.singletonList("bytes=" + half + "-"), new ArrayList<>(other.ranges));
+            Assert.assertFalse(Files.exists(DownloadJournal.getJournalFile(target)));
+        } finally {
+            other.server.stop(0);
+            FileUtils.deleteDirectoryQuietly(dir.toFile());
+        }
+    }
+
+    private static void testSegmented(Mirror... mirrors) throws Exception {
+        Path dir = Files.createTempDirectory("hmcl-download");
+        try {
+            CacheRepository repository = new CacheRepository();
+            repository.changeDirectory(dir.resolve("cache"));
+            List<URL> urls = new ArrayList<>();
+            for (Mirror mirror : mirrors)
+                urls.add(mirror.getURL());
+
+            Path target = dir.resolve("segmented.jar");
+            FileDownloadTask task = new FileDownloadTask(urls, target.toFile(),
+                    new FileDownloadTask.IntegrityCheck("SHA-1", Hex.encodeHex(DigestUtils.digest("SHA-1", Mirror.BODY)))).setSegments(4);
+            task.setCacheRepository(repository).setCaching(false);
+
+            Assert.assertTrue(task.test());
+            Assert.assertArrayEquals(Mirror.BODY, Files.readAllBytes(target));
+            int attempts = 0;
+            for (Mirror mirror : mirrors)
+                attempts += mirror.attempts.get();
+            Assert.assertEquals("Failed segments cost another attempt", 1, attempts);
+        } finally {
+            for (Mirror mirror : mirrors)
+                mirror.server.stop(0);
+            FileUtils.deleteDirectoryQuietly(dir.toFile());
+        }
+    }
+
+    /**
+     * Serves {@link #BODY}, with ranges unless told otherwise.
+     */
+    private static final class Mirror {
+        enum Mode {
+            NORMAL,
+            // Ranges fail.
+            BREAK_RANGES,
+            // Ranges are answered with the whole file.
+            IGNORE_RANGES
+        }
+
+        static final byte[] BODY = new byte[(int) FileDownloadTask.SEGMENTED_DOWNLOAD_THRESHOLD * 2];
+
+        static {
+            new Random(42).nextBytes(BODY);
+        }
+
+        final HttpServer server;
+        // Requests of the whole file or resuming it, made once by every attempt of the task.
+        final AtomicInteger attempts = new AtomicInteger();
+        final Queue<String> ranges = new ConcurrentLinkedQueue<>();
+
+        Mirror(String eTag, Mode mode) throws IOException {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.createContext("/file", exchange -> {
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+                exchange.getResponseHeaders().add("ETag", eTag);
+                exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+                if (range == null || range.endsWith("-"))
+                    attempts.incrementAndGet();
+                ranges.add(String.valueOf(range));
+                if (range == null || mode == Mode.IGNORE_RANGES || (ifRange != null && !ifRange.equals(eTag))) {
+                    send(exchange, BODY);
+                    return;
+                } else if (mode == Mode.BREAK_RANGES) {
+                    exchange.sendResponseHeaders(500, -1);
+                    exchange.close();
+                    return;
+                }
+
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                int start = Integer.parseInt(bounds[0]);
+                int end = bounds.length > 1 && !bounds[1].isEmpty() ? Integer.parseInt(bounds[1]) + 1 : BODY.length;
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + BODY.length);
+                exchange.sendResponseHeaders(206, end - start);
+                try (OutputStream output = exchange.getResponseBody()) {
+                    output.write(BODY, start, end - start);
+                }
+            });
+            server.start();
+        }
+
+        URL getURL() throws IOException {
+            return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/file");
+        }
+    }
+
+    private static void send(HttpExchange exchange, byte[] body) throws IOException {
+        if (!exchange.getResponseHeaders().containsKey("ETag"))
+            exchange.getResponseHeaders().add("ETag", "\"tag\"");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+}
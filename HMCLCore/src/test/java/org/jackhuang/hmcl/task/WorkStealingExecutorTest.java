@@ -0,0 +1,75 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.task;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class WorkStealingExecutorTest {
+
+    /**
+     * Workers park for a minute, so a lost wakeup stalls a round trip far beyond the timeout.
+     */
+    @Test(timeout = 30_000)
+    public void testWakeup() throws Exception {
+        WorkStealingExecutor executor = new WorkStealingExecutor("Test", 4);
+        try {
+            AtomicInteger count = new AtomicInteger();
+            for (int i = 0; i < 20_000; i++) {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int j = 0; j < 1 + i % 5; j++)
+                    futures.add(executor.submit(count::incrementAndGet));
+                for (Future<?> future : futures)
+                    future.get(10, TimeUnit.SECONDS);
+            }
+            Assert.assertEquals(20_000 * 3, count.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void testRetire() throws Exception {
+        WorkStealingExecutor executor = new WorkStealingExecutor("Test", 4, 100, TimeUnit.MILLISECONDS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++)
+                futures.add(executor.submit(() -> {
+                    Thread.sleep(10);
+                    return null;
+                }));
+            for (Future<?> future : futures)
+                future.get();
+            Assert.assertTrue(executor.getPoolSize() > 0);
+
+            while (executor.getPoolSize() > 0)
+                Thread.sleep(10);
+
+            // Retired workers are replaced on demand.
+            Assert.assertEquals("done", executor.submit(() -> "done").get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
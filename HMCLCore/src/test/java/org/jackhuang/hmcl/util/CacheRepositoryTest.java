@@ -0,0 +1,57 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.util;
+
+import org.jackhuang.hmcl.util.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+public class CacheRepositoryTest {
+
+    @Test
+    public void testAccesses() throws Exception {
+        Path dir = Files.createTempDirectory("hmcl-cache");
+        try {
+            Path legacy = dir.resolve("cache").resolve("etag.json");
+            Files.createDirectories(legacy.getParent());
+            FileUtils.writeText(legacy.toFile(), "{\"eTag\":[]}");
+
+            CacheRepository repository = new CacheRepository();
+            repository.changeDirectory(dir);
+            Assert.assertTrue("The index of older launchers is deleted", Files.isRegularFile(legacy));
+
+            Path file = repository.getCacheDirectory().resolve("a");
+            FileUtils.writeText(file.toFile(), "a");
+            Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+            long before = System.currentTimeMillis();
+            repository.touch(file);
+            Assert.assertTrue(repository.getLastAccessTime(file) >= before);
+            repository.saveAccesses();
+
+            CacheRepository reloaded = new CacheRepository();
+            reloaded.changeDirectory(dir);
+            Assert.assertTrue(reloaded.getLastAccessTime(file) >= before);
+        } finally {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+    }
+}
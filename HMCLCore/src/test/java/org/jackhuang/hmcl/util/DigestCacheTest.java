@@ -0,0 +1,63 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.util;
+
+import org.jackhuang.hmcl.util.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+public class DigestCacheTest {
+
+    @Test
+    public void testReload() throws Exception {
+        Path dir = Files.createTempDirectory("hmcl-digests");
+        try {
+            Path log = dir.resolve("digests.log");
+            Path file = dir.resolve("a.txt");
+            FileUtils.writeText(file.toFile(), "aaaa");
+            FileTime lastModified = Files.getLastModifiedTime(file);
+
+            DigestCache cache = new DigestCache();
+            cache.setFile(log);
+            String digest = cache.digest("SHA-1", file);
+            cache.save();
+
+            // Same size and modification time, a cached digest is trusted without reading the file.
+            FileUtils.writeText(file.toFile(), "bbbb");
+            Files.setLastModifiedTime(file, lastModified);
+
+            DigestCache reloaded = new DigestCache();
+            reloaded.setFile(log);
+            Assert.assertEquals(digest, reloaded.digest("SHA-1", file));
+
+            reloaded.setDeepVerify(true);
+            Assert.assertNotEquals(digest, reloaded.digest("SHA-1", file));
+            reloaded.save();
+
+            DigestCache fresh = new DigestCache();
+            fresh.setFile(log);
+            Assert.assertNotEquals(digest, fresh.digest("SHA-1", file));
+        } finally {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+    }
+}
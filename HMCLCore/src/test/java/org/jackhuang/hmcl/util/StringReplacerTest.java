@@ -0,0 +1,103 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class StringReplacerTest {
+
+    @Test
+    public void testReplace() {
+        Map<String, String> tokens = new LinkedHashMap<>();
+        tokens.put("token", "<access token>");
+        tokens.put("uuid", "<uuid>");
+        tokens.put("Steve", "<player>");
+        tokens.put("", "<empty>");
+        StringReplacer replacer = new StringReplacer(tokens);
+
+        String line = "[main/INFO]: Setting user: Steve, nothing else";
+        Assert.assertEquals("[main/INFO]: Setting user: <player>, nothing else", replacer.replace(line));
+        Assert.assertEquals("--accessToken <access token> --id <uuid> --username <player>",
+                replacer.replace("--accessToken token --id uuid --username Steve"));
+        Assert.assertEquals("<player><player>", replacer.replace("SteveSteve"));
+        Assert.assertEquals("Stev", replacer.replace("Stev"));
+        Assert.assertEquals("", replacer.replace(""));
+
+        String unmatched = "Nothing to redact in this line";
+        Assert.assertSame(unmatched, replacer.replace(unmatched));
+        Assert.assertSame(unmatched, new StringReplacer(Collections.emptyMap()).replace(unmatched));
+    }
+
+    @Test
+    public void testOverlapping() {
+        Map<String, String> tokens = new LinkedHashMap<>();
+        tokens.put("ab", "<player>");
+        tokens.put("xabcdab", "<access token>");
+        tokens.put("cd", "<uuid>");
+        StringReplacer replacer = new StringReplacer(tokens);
+
+        // The player name is in the access token, which must be redacted as a whole.
+        Assert.assertEquals("<access token>", replacer.replace("xabcdab"));
+        Assert.assertEquals("<player> <access token> <uuid>", replacer.replace("ab xabcdab cd"));
+        Assert.assertEquals("x<player><uuid>", replacer.replace("xabcd"));
+    }
+
+    @Test
+    public void testRandom() {
+        Random random = new Random(42);
+        for (int round = 0; round < 2000; round++) {
+            Map<String, String> tokens = new LinkedHashMap<>();
+            int count = 1 + random.nextInt(4);
+            for (int i = 0; i < count; i++)
+                tokens.put(randomString(random, 1 + random.nextInt(4)), "<" + i + ">");
+            String text = randomString(random, random.nextInt(30));
+            Assert.assertEquals(tokens + " in " + text, replaceLeftmostLongest(tokens, text), new StringReplacer(tokens).replace(text));
+        }
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < length; i++)
+            builder.append("abé".charAt(random.nextInt(3)));
+        return builder.toString();
+    }
+
+    private static String replaceLeftmostLongest(Map<String, String> tokens, String text) {
+        StringBuilder builder = new StringBuilder();
+        int i = 0;
+        while (i < text.length()) {
+            String longest = null;
+            for (String token : tokens.keySet())
+                if (text.startsWith(token, i) && (longest == null || token.length() > longest.length()))
+                    longest = token;
+            if (longest == null) {
+                builder.append(text.charAt(i++));
+            } else {
+                builder.append(tokens.get(longest));
+                i += longest.length();
+            }
+        }
+        return builder.toString();
+    }
+}
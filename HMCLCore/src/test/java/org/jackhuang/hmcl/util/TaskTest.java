@@ -26,6 +26,9 @@ import org.junit.Assert;
 import org.junit.Assume;
 import org.junit.Test;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
@@ -175,6 +178,54 @@ public class TaskTest {
         //Assert.assertTrue("Thread.sleep cannot be interrupted", flag.get());
     }
 
+    /**
+     * Progress and message of tasks nobody observes must not require the JavaFX toolkit.
+     */
+    @Test
+    public void testProgressWithoutToolkit() {
+        Task<?> task = new Task<Void>() {
+            @Override
+            public void execute() {
+                updateMessage("half");
+                updateProgressImmediately(0.5);
+            }
+        };
+
+        Assert.assertTrue("Task should not post updates to JavaFX", task.test());
+        Assert.assertEquals(0.5, task.getProgress(), 0);
+        Assert.assertEquals("half", task.getMessage());
+    }
+
+    /**
+     * Building a graph of 5,000 tasks allocated about 490 bytes per task when each task
+     * created its JavaFX properties and event manager eagerly, and about 120 bytes now.
+     */
+    @Test
+    public void testTaskGraphAllocation() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+
+        for (int i = 0; i < 5; i++)
+            buildTaskGraph(5000); // warm up
+
+        long threadId = Thread.currentThread().getId();
+        long before = bean.getThreadAllocatedBytes(threadId);
+        Task<?> graph = buildTaskGraph(5000);
+        long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+
+        Assert.assertTrue("Task graph of 5000 tasks allocated " + allocated + " bytes, more than 250 bytes per task",
+                allocated < 5000 * 250);
+        Assert.assertTrue(graph.test());
+    }
+
+    private static Task<?> buildTaskGraph(int count) {
+        List<Task<?>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            tasks.add(Task.runAsync("task", () -> {}));
+        return Task.allOf(tasks);
+    }
+
     public void testRejectedExecutionException() {
         Schedulers.defaultScheduler();
         Schedulers.shutdown();
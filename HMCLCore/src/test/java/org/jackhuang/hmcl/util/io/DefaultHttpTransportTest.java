@@ -0,0 +1,93 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.util.io;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class DefaultHttpTransportTest {
+
+    private final DefaultHttpTransport transport = new DefaultHttpTransport(1);
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private HttpServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/small", exchange -> send(exchange, 200, 16 * 1024));
+        server.createContext("/missing", exchange -> send(exchange, 404, 1024));
+        server.createContext("/large", exchange -> send(exchange, 200, 1024 * 1024));
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    /**
+     * Responses released without being read, including error responses, leave the connection to the next request.
+     */
+    @Test(timeout = 30000)
+    public void testReleaseReusesConnection() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            transport.release(request("/small"));
+            transport.release(request("/missing"));
+        }
+        Assert.assertEquals("Connections are not reused: " + clientPorts, 1, clientPorts.size());
+    }
+
+    /**
+     * Responses beyond the drain limit are not read to the end, their connections are closed.
+     */
+    @Test(timeout = 30000)
+    public void testReleaseClosesLargeResponse() throws IOException {
+        transport.release(request("/large"));
+        transport.release(request("/small"));
+        Assert.assertEquals(2, clientPorts.size());
+    }
+
+    private HttpURLConnection request(String path) throws IOException {
+        HttpURLConnection connection = transport.connect(transport.createConnection(new URL("http://127.0.0.1:" + server.getAddress().getPort() + path)));
+        connection.getResponseCode();
+        return connection;
+    }
+
+    private void send(HttpExchange exchange, int code, int length) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        exchange.sendResponseHeaders(code, length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(new byte[length]);
+        } catch (IOException ignored) {
+            // The client stops reading a large response.
+        }
+    }
+}
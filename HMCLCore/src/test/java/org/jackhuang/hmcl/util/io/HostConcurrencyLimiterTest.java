@@ -0,0 +1,119 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.util.io;
+
+import org.jackhuang.hmcl.task.PrioritizedRunnable;
+import org.jackhuang.hmcl.task.Task;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HostConcurrencyLimiterTest {
+
+    /**
+     * Requests to a busy host wait in the queue of the limiter, so that requests to other hosts still get threads.
+     */
+    @Test(timeout = 10_000)
+    public void testBusyHostDoesNotOccupyPool() throws Exception {
+        HostConcurrencyLimiter limiter = new HostConcurrencyLimiter(1, new MirrorScores());
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            URL slow = new URL("https://slow.example.com/a");
+            URL fast = new URL("https://fast.example.com/a");
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch slowDone = new CountDownLatch(3);
+            AtomicInteger slowInFlight = new AtomicInteger();
+            AtomicInteger maxSlowInFlight = new AtomicInteger();
+
+            for (int i = 0; i < 3; i++)
+                limiter.executor(() -> slow, pool).execute(() -> {
+                    try (HostConcurrencyLimiter.Permit ignored = limiter.acquire(slow)) {
+                        maxSlowInFlight.accumulateAndGet(slowInFlight.incrementAndGet(), Math::max);
+                        release.await();
+                        slowInFlight.decrementAndGet();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    slowDone.countDown();
+                });
+
+            CountDownLatch fastDone = new CountDownLatch(1);
+            limiter.executor(() -> fast, pool).execute(() -> {
+                try (HostConcurrencyLimiter.Permit ignored = limiter.acquire(fast)) {
+                    fastDone.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+
+            Assert.assertTrue("Request to another host is stuck behind the busy host", fastDone.await(5, TimeUnit.SECONDS));
+            release.countDown();
+            Assert.assertTrue(slowDone.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(1, maxSlowInFlight.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Runnables waiting for a busy host are submitted by priority, then in the order they were queued.
+     */
+    @Test(timeout = 10_000)
+    public void testQueuedByPriority() throws Exception {
+        HostConcurrencyLimiter limiter = new HostConcurrencyLimiter(1, new MirrorScores());
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            URL url = new URL("https://busy.example.com/a");
+            CountDownLatch release = new CountDownLatch(1);
+            limiter.executor(() -> url, pool).execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+
+            List<String> order = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch done = new CountDownLatch(4);
+            for (String name : new String[] { "low1", "low2", "normal", "high" }) {
+                Task.TaskPriority priority = name.startsWith("low") ? Task.TaskPriority.LOW
+                        : name.equals("high") ? Task.TaskPriority.HIGH : Task.TaskPriority.NORMAL;
+                limiter.executor(() -> url, pool).execute(new PrioritizedRunnable(priority, () -> {
+                    order.add(name);
+                    done.countDown();
+                }));
+            }
+
+            release.countDown();
+            Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(Arrays.asList("high", "normal", "low1", "low2"), order);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.util.io;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+
+public class MirrorScoresTest {
+
+    @Test
+    public void testRank() throws Exception {
+        URL official = new URL("https://official.example.com/a.jar");
+        URL mirror = new URL("https://mirror.example.com/a.jar");
+        URL backup = new URL("https://backup.example.com/a.jar");
+        List<URL> urls = Arrays.asList(official, mirror, backup);
+        MirrorScores scores = new MirrorScores();
+        long now = 1_000_000_000L;
+
+        // A mirror measured slower than average is placed after the hosts never requested.
+        scores.onResponse(NetworkUtils.getHostKey(mirror), 5000 * 1_000_000L, now);
+        Assert.assertEquals(Arrays.asList(official, backup, mirror), scores.rank(urls, now, false));
+
+        // A mirror measured faster than average goes first, unmeasured hosts are still tried now and then.
+        scores.onResponse(NetworkUtils.getHostKey(backup), 10 * 1_000_000L, now);
+        Assert.assertEquals(Arrays.asList(backup, official, mirror), scores.rank(urls, now, false));
+        Assert.assertEquals(Arrays.asList(official, backup, mirror), scores.rank(urls, now, true));
+
+        // Measurements fade, so mirrors are ranked as average again after a while.
+        double slow = scores.getScore(mirror, now);
+        double aged = scores.getScore(mirror, now + MirrorScores.HALF_LIFE);
+        double old = scores.getScore(mirror, now + 20 * MirrorScores.HALF_LIFE);
+        Assert.assertTrue(slow > aged && aged > old);
+        Assert.assertTrue(Double.isNaN(scores.getScore(official, now)));
+        Assert.assertEquals("Slow and fast mirrors are not back to average", old, scores.getScore(backup, now + 20 * MirrorScores.HALF_LIFE), 0.01);
+
+        // A new sample outweighs a stale average.
+        scores.onResponse(NetworkUtils.getHostKey(mirror), 10 * 1_000_000L, now + 20 * MirrorScores.HALF_LIFE);
+        Assert.assertTrue(scores.getScore(mirror, now + 20 * MirrorScores.HALF_LIFE) < slow / 2);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Hello Minecraft! Launcher
+ * Copyright (C) 2020  huangyuhui <huanghongxun2008@126.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.jackhuang.hmcl.util.platform;
+
+import org.jackhuang.hmcl.util.Log4jLevel;
+import org.jackhuang.hmcl.util.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+public class GameLogStoreTest {
+
+    /**
+     * The view of lines skips lines dropped while iterating and ends at the line last added when it was created.
+     */
+    @Test
+    public void testLinesView() {
+        GameLogStore store = new GameLogStore(GameLogStore.SEGMENT_SIZE * 2);
+        for (int i = 0; i < 100; i++)
+            store.add(line(i), Log4jLevel.INFO);
+        Assert.assertEquals(store.getLines(), new ArrayList<>(store.lines()));
+        Assert.assertEquals(100, store.lines().size());
+
+        Iterator<String> iterator = store.lines().iterator();
+        Assert.assertEquals(line(0), iterator.next());
+        int added = 0;
+        while (store.getFirstLine() == 0)
+            store.add(line(100 + added++), Log4jLevel.INFO);
+        if (store.getFirstLine() < 100) {
+            Assert.assertTrue(iterator.hasNext());
+            Assert.assertEquals(line((int) store.getFirstLine()), iterator.next());
+        } else {
+            Assert.assertFalse("Lines added after the view are iterated", iterator.hasNext());
+        }
+    }
+
+    @Test
+    public void testBounded() {
+        long capacity = 1024 * 1024;
+        GameLogStore store = new GameLogStore(capacity);
+        int lines = 200_000;
+        for (int i = 0; i < lines; i++)
+            store.add(line(i), i % 1000 == 0 ? Log4jLevel.ERROR : Log4jLevel.INFO);
+
+        Assert.assertEquals(lines, store.getLineCount());
+        Assert.assertTrue("Store grows beyond capacity: " + store.getSize(), store.getSize() <= capacity);
+        Assert.assertTrue(store.getFirstLine() > 0);
+        for (long i = store.getFirstLine(); i < lines; i += 997) {
+            Assert.assertEquals(line((int) i), store.getLine(i));
+            Assert.assertEquals(i % 1000 == 0 ? Log4jLevel.ERROR : Log4jLevel.INFO, store.getLevel(i));
+        }
+        Assert.assertEquals(line(lines - 1), store.getLine(lines - 1));
+
+        // Errors are kept after the lines have been dropped.
+        List<String> errors = store.getErrorLines();
+        Assert.assertEquals(lines / 1000, errors.size());
+        Assert.assertEquals(line(0), errors.get(0));
+
+        try {
+            store.getLine(0);
+            Assert.fail("Dropped line is returned");
+        } catch (IndexOutOfBoundsException ignored) {
+        }
+    }
+
+    @Test
+    public void testLongLine() {
+        GameLogStore store = new GameLogStore(GameLogStore.SEGMENT_SIZE * 4);
+        String longLine = String.join("", Collections.nCopies(GameLogStore.SEGMENT_SIZE / 4, "éab"));
+        store.add("", null);
+        store.add(longLine, Log4jLevel.WARN);
+        store.add("after", Log4jLevel.INFO);
+        Assert.assertEquals("", store.getLine(0));
+        Assert.assertNull(store.getLevel(0));
+        Assert.assertEquals(longLine, store.getLine(1));
+        Assert.assertEquals("after", store.getLine(2));
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        Path dir = Files.createTempDirectory("hmcl-game-log");
+        try {
+            Path spillFile = dir.resolve("game.log.gz");
+            GameLogStore store = new GameLogStore(GameLogStore.SEGMENT_SIZE * 2, spillFile, Long.MAX_VALUE);
+            int lines = 20_000;
+            for (int i = 0; i < lines; i++)
+                store.add(line(i), Log4jLevel.INFO);
+            store.close();
+
+            List<String> spilled;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(spillFile)), StandardCharsets.UTF_8))) {
+                spilled = reader.lines().collect(Collectors.toList());
+            }
+            Assert.assertEquals(store.getFirstLine(), spilled.size());
+            List<String> all = new ArrayList<>(spilled);
+            all.addAll(store.getLines());
+            for (int i = 0; i < lines; i++)
+                Assert.assertEquals(line(i), all.get(i));
+        } finally {
+            FileUtils.deleteDirectoryQuietly(dir.toFile());
+        }
+    }
+
+    private static String line(int i) {
+        return "[12:34:56] [Server thread/INFO] [minecraft/DedicatedServer]: Line " + i + " of game output";
+    }
+}